@@ -26,6 +26,7 @@ import java.util.Set;
 import org.apache.log4j.Logger;
 import org.intermine.bio.io.gff3.GFF3Parser;
 import org.intermine.bio.io.gff3.GFF3Record;
+import org.intermine.bio.io.gff3.ParallelGFF3Parser;
 import org.intermine.bio.util.BioConverterUtil;
 import org.intermine.dataconversion.DataConverter;
 import org.intermine.dataconversion.ItemWriter;
@@ -56,6 +57,7 @@ public class GFF3Converter extends DataConverter
     private GFF3RecordHandler handler;
     private GFF3SeqHandler sequenceHandler;
     private boolean dontCreateLocations;
+    private int parserThreads = 1;
     private final Map<String, Item> dataSets = new HashMap<String, Item>();
     private final Map<String, Item> dataSources = new HashMap<String, Item>();
 
@@ -195,26 +197,33 @@ public class GFF3Converter extends DataConverter
         boolean duplicates = false;
         Set<String> processedIds = new HashSet<String>();
         Set<String> duplicatedIds = new HashSet<String>();
-        for (Iterator<?> i = GFF3Parser.parse(bReader); i.hasNext();) {
-            record = (GFF3Record) i.next();
-
-            // we only care about dupes if we are NOT creating locations
-            if (processedIds.contains(record.getId()) && dontCreateLocations) {
-                duplicates = true;
-                duplicatedIds.add(record.getId());
-            } else {
-                if (record.getId() != null) {
-                    processedIds.add(record.getId());
+        Iterator<?> i = GFF3Parser.parse(bReader, parserThreads);
+        try {
+            while (i.hasNext()) {
+                record = (GFF3Record) i.next();
+
+                // we only care about dupes if we are NOT creating locations
+                if (processedIds.contains(record.getId()) && dontCreateLocations) {
+                    duplicates = true;
+                    duplicatedIds.add(record.getId());
+                } else {
+                    if (record.getId() != null) {
+                        processedIds.add(record.getId());
+                    }
+                }
+                if (!duplicates) {
+                    process(record);
+                }
+                opCount++;
+                if (opCount % 1000 == 0) {
+                    now = System.currentTimeMillis();
+                    LOG.info("processed " + opCount + " lines --took " + (now - start) + " ms");
+                    start = System.currentTimeMillis();
                 }
             }
-            if (!duplicates) {
-                process(record);
-            }
-            opCount++;
-            if (opCount % 1000 == 0) {
-                now = System.currentTimeMillis();
-                LOG.info("processed " + opCount + " lines --took " + (now - start) + " ms");
-                start = System.currentTimeMillis();
+        } finally {
+            if (i instanceof ParallelGFF3Parser) {
+                ((ParallelGFF3Parser) i).close();
             }
         }
         if (duplicates) {
@@ -690,6 +699,16 @@ public class GFF3Converter extends DataConverter
         this.dontCreateLocations = dontCreateLocations;
     }
 
+    /**
+     * Set the number of threads to parse GFF lines in. The records are still processed one at a
+     * time and in file order, so parents and children are resolved as before.
+     * @param parserThreads the number of threads, default 1 - the lines are parsed as they are
+     * read
+     */
+    public void setParserThreads(int parserThreads) {
+        this.parserThreads = parserThreads;
+    }
+
     /**
      * Create and add a synonym Item from the given information.
      * @param subject the subject of the new Synonym
@@ -44,7 +44,7 @@ public class IdResolver
 {
     private static final Logger LOG = Logger.getLogger(IdResolver.class);
 
-    private String clsName;
+    protected String clsName;
 
     @SuppressWarnings("unchecked")
     protected Map<MultiKey, Map<String, Set<String>>> orgIdMaps = new MultiKeyMap();
@@ -71,6 +71,14 @@ public class IdResolver
         this.clsName = clsName;
     }
 
+    /**
+     * Returns the taxon id and class name pairs that the resolver has data for.
+     * @return a Set of MultiKeys of taxon id and class name
+     */
+    protected Set<MultiKey> getKeys() {
+        return orgIdMaps.keySet();
+    }
+
     // check that the given taxon id has some data for it
     // if an exception thrown, there must be something wrong with resolver factory.
     protected void checkTaxonId(String taxonId, String clsName) {
@@ -244,7 +252,7 @@ public class IdResolver
      */
     public boolean hasTaxons(Set<String> taxonIds) {
         Set<String> taxonIdSet = new HashSet<String>();
-        for (MultiKey key : orgIdMaps.keySet()) {
+        for (MultiKey key : getKeys()) {
             taxonIdSet.add((String) key.getKey(0));
         }
         return taxonIdSet.containsAll(taxonIds);
@@ -256,7 +264,7 @@ public class IdResolver
      */
     public Set<String> getTaxons() {
         Set<String> taxonIdSet = new LinkedHashSet<String>();
-        for (MultiKey key : orgIdMaps.keySet()) {
+        for (MultiKey key : getKeys()) {
             taxonIdSet.add((String) key.getKey(0));
         }
         return taxonIdSet;
@@ -269,7 +277,7 @@ public class IdResolver
      */
     public boolean hasClassName(String clsName) {
         Set<String> clsNameSet = new HashSet<String>();
-        for (MultiKey key : orgIdMaps.keySet()) {
+        for (MultiKey key : getKeys()) {
             clsNameSet.add((String) key.getKey(1));
         }
         return clsNameSet.contains(clsName);
@@ -281,7 +289,7 @@ public class IdResolver
      */
     public Set<String> getClassNames() {
         Set<String> clsNameSet = new HashSet<String>();
-        for (MultiKey key : orgIdMaps.keySet()) {
+        for (MultiKey key : getKeys()) {
             clsNameSet.add((String) key.getKey(1));
         }
         return clsNameSet;
@@ -293,7 +301,7 @@ public class IdResolver
      * @param clsName class name as string
      */
     public boolean hasTaxonAndClassName(String taxonId, String clsName) {
-        return orgIdMaps.keySet().contains(new MultiKey(taxonId, clsName));
+        return getKeys().contains(new MultiKey(taxonId, clsName));
     }
 
     /**
@@ -336,7 +344,7 @@ public class IdResolver
             }
         }
 
-        return orgIdMaps.keySet().containsAll(keySet);
+        return getKeys().containsAll(keySet);
     }
 
     /**
@@ -345,7 +353,7 @@ public class IdResolver
      */
     public Map<String, Set<String>> getTaxonsAndClassNames() {
         Map<String, Set<String>> taxonIdAndClsNameMap = new HashMap<String, Set<String>>();
-        for (MultiKey key : orgIdMaps.keySet()) {
+        for (MultiKey key : getKeys()) {
             String taxonId = (String) key.getKey(0);
             String clsName = (String) key.getKey(1);
             if (taxonIdAndClsNameMap.get(taxonId) == null) {
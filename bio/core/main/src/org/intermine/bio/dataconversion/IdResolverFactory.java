@@ -16,6 +16,7 @@ import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
 
+import org.apache.log4j.Logger;
 import org.intermine.sql.Database;
 
 /**
@@ -26,6 +27,8 @@ import org.intermine.sql.Database;
  */
 public abstract class IdResolverFactory
 {
+    private static final Logger LOG = Logger.getLogger(IdResolverFactory.class);
+
     protected static IdResolver resolver = null;
 
     protected boolean caughtError = false;
@@ -77,7 +80,7 @@ public abstract class IdResolverFactory
     protected boolean restoreFromFile(File f)
         throws IOException {
         if (f.exists()) {
-            resolver.populateFromFile(f);
+            populateFromCacheFile(f);
             return true;
         } else {
             return false;
@@ -95,13 +98,48 @@ public abstract class IdResolverFactory
         throws IOException {
         File f = new File(ID_RESOLVER_CACHED_FILE_NAME);
         if (f.exists()) {
-            resolver.populateFromFile(f);
+            populateFromCacheFile(f);
             return true;
         } else {
             return false;
         }
     }
 
+    /**
+     * Read an IdResolver cache file into the resolver. While the resolver is empty, the index
+     * compiled from the cache file is mapped instead if it is newer than the file, otherwise the
+     * file is read and the index is compiled from it, so that the next converter to start, in
+     * this JVM or another, can map it.
+     *
+     * @param f the cache file
+     * @throws IOException if problem reading from file
+     */
+    protected void populateFromCacheFile(File f) throws IOException {
+        File index = MappedIdResolver.getIndexFile(f);
+        if (resolver instanceof MappedIdResolver
+                && index.equals(((MappedIdResolver) resolver).getFile())) {
+            // everything in the file was in the index, or has been added to the resolver since
+            return;
+        }
+        boolean empty = !(resolver instanceof MappedIdResolver) && resolver.getKeys().isEmpty();
+        if (empty && index.exists() && index.lastModified() > f.lastModified()) {
+            try {
+                resolver = new MappedIdResolver(resolver.clsName, index);
+                return;
+            } catch (IOException e) {
+                LOG.warn("Could not map id resolver index " + index + ", reading " + f, e);
+            }
+        }
+        resolver.populateFromFile(f);
+        if (empty) {
+            try {
+                MappedIdResolver.compile(resolver, index);
+            } catch (IOException e) {
+                LOG.warn("Could not write id resolver index " + index, e);
+            }
+        }
+    }
+
     /**
      * Read IdResolver contents from a database.
      *
@@ -0,0 +1,573 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.collections.keyvalue.MultiKey;
+import org.apache.log4j.Logger;
+
+/**
+ * An IdResolver that reads its data from an index file instead of holding it in maps. The index
+ * is compiled once from an IdResolver, and is memory-mapped read-only, so lookups only touch the
+ * pages they need and every converter and JVM that maps the same file shares one copy of it in
+ * the operating system's page cache.
+ * <p>
+ * For each taxon id and class name, the index has three sorted string tables: the primary
+ * identifiers with their main identifiers and synonyms, and the main identifiers and the synonyms
+ * with the primary identifiers that they resolve to. The values keep the order in which they
+ * were added, so every lookup returns the same as the IdResolver that the index was compiled
+ * from.
+ * <p>
+ * Entries can still be added. The first entry added for a taxon id and class name that is in the
+ * index copies that part of the index into the maps of the IdResolver, and it is looked up there
+ * from then on.
+ */
+public class MappedIdResolver extends IdResolver
+{
+    private static final Logger LOG = Logger.getLogger(MappedIdResolver.class);
+
+    /**
+     * The suffix added to the name of an IdResolver cache file to make the name of its index.
+     */
+    public static final String INDEX_SUFFIX = ".index";
+
+    private static final int MAGIC = 0x494d4952;
+    private static final int VERSION = 1;
+    private static final Comparator<byte[]> UNSIGNED = new Comparator<byte[]>() {
+        @Override
+        public int compare(byte[] a, byte[] b) {
+            int length = Math.min(a.length, b.length);
+            for (int i = 0; i < length; i++) {
+                int diff = (a[i] & 0xff) - (b[i] & 0xff);
+                if (diff != 0) {
+                    return diff;
+                }
+            }
+            return a.length - b.length;
+        }
+    };
+
+    private File file;
+    private MappedByteBuffer buffer;
+    // Sections that have not been copied into the maps
+    private Map<MultiKey, Section> sections = new LinkedHashMap<MultiKey, Section>();
+
+    /**
+     * Map an index file.
+     * @param clsName the class to resolve identifiers for, or null
+     * @param file the index file, written by compile()
+     * @throws IOException if the file cannot be read or is not an index
+     */
+    public MappedIdResolver(String clsName, File file) throws IOException {
+        super(clsName);
+        this.file = file;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally {
+            raf.close();
+        }
+        int pos = (buffer.capacity() < 16 ? -1 : buffer.getInt(0));
+        if ((pos < 4) || (pos > buffer.capacity() - 12) || (buffer.getInt(pos) != MAGIC)
+                || (buffer.getInt(pos + 4) != VERSION)) {
+            throw new IOException("Not an IdResolver index: " + file);
+        }
+        int sectionCount = buffer.getInt(pos + 8);
+        pos += 12;
+        for (int i = 0; i < sectionCount; i++) {
+            String taxonId = readString(pos);
+            pos += 4 + buffer.getInt(pos);
+            String sectionClsName = readString(pos);
+            pos += 4 + buffer.getInt(pos);
+            Section section = new Section(buffer.getInt(pos), buffer.getInt(pos + 4),
+                    buffer.getInt(pos + 8));
+            pos += 12;
+            sections.put(new MultiKey(taxonId, sectionClsName), section);
+        }
+        LOG.info("Mapped IdResolver index " + file + " with " + sectionCount + " sections");
+    }
+
+    /**
+     * Returns the index file of this IdResolver.
+     * @return a File
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the index file for an IdResolver cache file.
+     * @param cacheFile the cache file
+     * @return a File
+     */
+    public static File getIndexFile(File cacheFile) {
+        return new File(cacheFile.getPath() + INDEX_SUFFIX);
+    }
+
+    @Override
+    protected Set<MultiKey> getKeys() {
+        Set<MultiKey> keys = new LinkedHashSet<MultiKey>(sections.keySet());
+        keys.addAll(super.getKeys());
+        return keys;
+    }
+
+    @Override
+    protected void checkTaxonId(String taxonId, String clsName) {
+        if (!sections.containsKey(new MultiKey(taxonId, clsName))) {
+            super.checkTaxonId(taxonId, clsName);
+        }
+    }
+
+    @Override
+    public boolean isPrimaryIdentifier(String taxonId, String clsName, String id) {
+        Section section = sections.get(new MultiKey(taxonId, clsName));
+        if (section == null) {
+            return super.isPrimaryIdentifier(taxonId, clsName, id);
+        }
+        return section.primaries.find(id) != -1;
+    }
+
+    @Override
+    public Set<String> resolveId(String taxonId, String clsName, String id) {
+        Section section = sections.get(new MultiKey(taxonId, clsName));
+        if (section == null) {
+            return super.resolveId(taxonId, clsName, id);
+        }
+        if (section.primaries.find(id) != -1) {
+            return Collections.singleton(id);
+        }
+        int record = section.mainIds.find(id);
+        if (record == -1) {
+            record = section.synonyms.find(id);
+        }
+        if (record == -1) {
+            return Collections.emptySet();
+        }
+        return readSet(skipString(record));
+    }
+
+    @Override
+    public Set<String> getSynonyms(String taxonId, String clsName, String primaryIdentifier) {
+        Section section = sections.get(new MultiKey(taxonId, clsName));
+        if (section == null) {
+            return super.getSynonyms(taxonId, clsName, primaryIdentifier);
+        }
+        int record = section.primaries.find(primaryIdentifier);
+        if (record == -1) {
+            return null;
+        }
+        return readSet(skipString(record));
+    }
+
+    @Override
+    protected void addEntry(String taxonId, String clsName, String primaryIdentifier,
+            Collection<String> ids, Boolean mainId) {
+        MultiKey key = new MultiKey(taxonId, clsName);
+        Section section = sections.remove(key);
+        if (section != null) {
+            LOG.info("Copying IdResolver index section " + key + " into memory to add to it");
+            copySection(taxonId, clsName, section);
+        }
+        super.addEntry(taxonId, clsName, primaryIdentifier, ids, mainId);
+    }
+
+    /**
+     * Adds the entries of a section of the index to the maps, in the order in which they were
+     * added to the IdResolver the index was compiled from.
+     */
+    private void copySection(String taxonId, String clsName, Section section) {
+        Table primaries = section.primaries;
+        for (int i = 0; i < primaries.size(); i++) {
+            int pos = primaries.inserted(i);
+            String primaryId = readString(pos);
+            pos = skipString(pos);
+            pos = skipList(pos);
+            List<String> mainIds = readList(pos);
+            pos = skipList(pos);
+            List<String> synonyms = readList(pos);
+            if (mainIds != null) {
+                super.addEntry(taxonId, clsName, primaryId, mainIds, Boolean.TRUE);
+            }
+            if (synonyms != null) {
+                super.addEntry(taxonId, clsName, primaryId, synonyms, Boolean.FALSE);
+            }
+        }
+    }
+
+    @Override
+    public void writeToFile(File f) throws IOException {
+        LOG.info("Writing id resolver to file: " + f.getName());
+        FileWriter fw = new FileWriter(f, true);
+        String endl = System.getProperty("line.separator");
+        for (Map.Entry<MultiKey, Section> entry : sections.entrySet()) {
+            Table primaries = entry.getValue().primaries;
+            for (int i = 0; i < primaries.size(); i++) {
+                int pos = primaries.inserted(i);
+                StringBuffer sb = new StringBuffer();
+                sb.append((String) entry.getKey().getKey(0) + "\t");
+                sb.append((String) entry.getKey().getKey(1) + "\t");
+                sb.append(readString(pos) + "\t");
+                pos = skipList(skipString(pos));
+                List<String> mainIds = readList(pos);
+                if (mainIds != null) {
+                    appendList(sb, mainIds);
+                }
+                List<String> synonyms = readList(skipList(pos));
+                if (synonyms != null) {
+                    sb.append("\t");
+                    appendList(sb, synonyms);
+                }
+                sb.append(endl);
+                fw.write(sb.toString());
+            }
+        }
+        fw.close();
+        super.writeToFile(f);
+    }
+
+    private static void appendList(StringBuffer sb, List<String> values) {
+        boolean first = true;
+        for (String value : values) {
+            if (!first) {
+                sb.append(",");
+            }
+            first = false;
+            sb.append(value);
+        }
+    }
+
+    /**
+     * Write an index of the contents of an IdResolver. The index is written to a temporary file
+     * and then renamed, so that other JVMs never see a partly written index.
+     * @param resolver an IdResolver, which must not be a MappedIdResolver
+     * @param indexFile the file to write
+     * @throws IOException if the file cannot be written, or would be larger than 2GB
+     */
+    public static void compile(IdResolver resolver, File indexFile) throws IOException {
+        if (resolver instanceof MappedIdResolver) {
+            throw new IllegalArgumentException("Cannot compile an index from a MappedIdResolver");
+        }
+        File tempFile = File.createTempFile(indexFile.getName(), ".tmp",
+                indexFile.getAbsoluteFile().getParentFile());
+        try {
+            IndexWriter writer = new IndexWriter(tempFile);
+            List<MultiKey> keys = new ArrayList<MultiKey>(resolver.orgIdMaps.keySet());
+            int[] tableOffsets = new int[keys.size() * 3];
+            for (int i = 0; i < keys.size(); i++) {
+                MultiKey key = keys.get(i);
+                tableOffsets[i * 3] = writer.writePrimaries(resolver.orgIdMaps.get(key),
+                        resolver.orgIdMainMaps.get(key), resolver.orgIdSynMaps.get(key));
+                tableOffsets[i * 3 + 1] = writer.writeLookup(resolver.orgMainMaps.get(key));
+                tableOffsets[i * 3 + 2] = writer.writeLookup(resolver.orgSynMaps.get(key));
+            }
+            int headerOffset = writer.size();
+            writer.out.writeInt(MAGIC);
+            writer.out.writeInt(VERSION);
+            writer.out.writeInt(keys.size());
+            for (int i = 0; i < keys.size(); i++) {
+                writer.writeString((String) keys.get(i).getKey(0));
+                writer.writeString((String) keys.get(i).getKey(1));
+                writer.out.writeInt(tableOffsets[i * 3]);
+                writer.out.writeInt(tableOffsets[i * 3 + 1]);
+                writer.out.writeInt(tableOffsets[i * 3 + 2]);
+            }
+            writer.close(headerOffset);
+            if (indexFile.exists() && (!indexFile.delete())) {
+                throw new IOException("Could not replace " + indexFile);
+            }
+            if (!tempFile.renameTo(indexFile)) {
+                throw new IOException("Could not rename " + tempFile + " to " + indexFile);
+            }
+            LOG.info("Wrote IdResolver index " + indexFile + " with " + keys.size()
+                    + " sections");
+        } finally {
+            tempFile.delete();
+        }
+    }
+
+    private String readString(int pos) {
+        int length = buffer.getInt(pos);
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(pos + 4 + i);
+        }
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private int skipString(int pos) {
+        return pos + 4 + buffer.getInt(pos);
+    }
+
+    private List<String> readList(int pos) {
+        int count = buffer.getInt(pos);
+        if (count == -1) {
+            return null;
+        }
+        List<String> retval = new ArrayList<String>(count);
+        int p = pos + 4;
+        for (int i = 0; i < count; i++) {
+            retval.add(readString(p));
+            p = skipString(p);
+        }
+        return retval;
+    }
+
+    private int skipList(int pos) {
+        int count = buffer.getInt(pos);
+        int p = pos + 4;
+        for (int i = 0; i < count; i++) {
+            p = skipString(p);
+        }
+        return p;
+    }
+
+    private Set<String> readSet(int pos) {
+        return new LinkedHashSet<String>(readList(pos));
+    }
+
+    private static byte[] utf8(String s) {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * The tables for one taxon id and class name.
+     */
+    private class Section
+    {
+        private Table primaries;
+        private Table mainIds;
+        private Table synonyms;
+
+        Section(int primariesOffset, int mainIdsOffset, int synonymsOffset) {
+            primaries = new Table(primariesOffset);
+            mainIds = new Table(mainIdsOffset);
+            synonyms = new Table(synonymsOffset);
+        }
+    }
+
+    /**
+     * A sorted string table - a count, then the offsets of the records in the order of their
+     * keys, and for a primary identifier table the offsets again in the order the records were
+     * added. Each record starts with its key. A table at offset -1 is empty.
+     */
+    private class Table
+    {
+        private int offset;
+        private int size;
+
+        Table(int offset) {
+            this.offset = offset;
+            this.size = (offset == -1 ? 0 : buffer.getInt(offset));
+        }
+
+        int size() {
+            return size;
+        }
+
+        int record(int index) {
+            return buffer.getInt(offset + 4 + 4 * index);
+        }
+
+        /**
+         * Returns the offset of a record of a primary identifier table, in the order they were
+         * added.
+         */
+        int inserted(int index) {
+            return buffer.getInt(offset + 4 + 4 * size + 4 * index);
+        }
+
+        /**
+         * Returns the offset of the record with the given key, or -1 if there is none.
+         */
+        int find(String key) {
+            if (size == 0) {
+                return -1;
+            }
+            byte[] bytes = utf8(key);
+            int low = 0;
+            int high = size - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int record = record(mid);
+                int cmp = compareKey(record, bytes);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    return record;
+                }
+            }
+            return -1;
+        }
+
+        private int compareKey(int record, byte[] key) {
+            int length = buffer.getInt(record);
+            int common = Math.min(length, key.length);
+            for (int i = 0; i < common; i++) {
+                int diff = (buffer.get(record + 4 + i) & 0xff) - (key[i] & 0xff);
+                if (diff != 0) {
+                    return diff;
+                }
+            }
+            return length - key.length;
+        }
+    }
+
+    /**
+     * Writes the records and tables of an index.
+     */
+    private static class IndexWriter
+    {
+        private File file;
+        private DataOutputStream out;
+
+        IndexWriter(File file) throws IOException {
+            this.file = file;
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file),
+                        1024 * 1024));
+            // Room for the offset of the header
+            out.writeInt(0);
+        }
+
+        int size() throws IOException {
+            // DataOutputStream.size() stops at Integer.MAX_VALUE
+            if (out.size() == Integer.MAX_VALUE) {
+                throw new IOException("IdResolver index " + file + " is larger than 2GB");
+            }
+            return out.size();
+        }
+
+        void writeString(String s) throws IOException {
+            writeBytes(utf8(s));
+        }
+
+        void writeBytes(byte[] bytes) throws IOException {
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        void writeList(Collection<String> values) throws IOException {
+            if (values == null) {
+                out.writeInt(-1);
+            } else {
+                out.writeInt(values.size());
+                for (String value : values) {
+                    writeString(value);
+                }
+            }
+        }
+
+        int writePrimaries(Map<String, Set<String>> idMap, Map<String, Set<String>> mainMap,
+                Map<String, Set<String>> synMap) throws IOException {
+            // The records are written in the order they were added, so that copySection() and
+            // writeToFile() keep that order
+            List<byte[]> keys = new ArrayList<byte[]>(idMap.size());
+            List<Integer> records = new ArrayList<Integer>(idMap.size());
+            for (Map.Entry<String, Set<String>> entry : idMap.entrySet()) {
+                String primaryId = entry.getKey();
+                byte[] key = utf8(primaryId);
+                keys.add(key);
+                records.add(new Integer(size()));
+                writeBytes(key);
+                writeList(entry.getValue());
+                writeList(mainMap == null ? null : mainMap.get(primaryId));
+                writeList(synMap == null ? null : synMap.get(primaryId));
+            }
+            return writeTable(keys, records, false);
+        }
+
+        int writeLookup(Map<String, Set<String>> lookupMap) throws IOException {
+            if (lookupMap == null) {
+                return -1;
+            }
+            List<byte[]> keys = new ArrayList<byte[]>(lookupMap.size());
+            List<Integer> records = new ArrayList<Integer>(lookupMap.size());
+            for (Map.Entry<String, Set<String>> entry : lookupMap.entrySet()) {
+                byte[] key = utf8(entry.getKey());
+                keys.add(key);
+                records.add(new Integer(size()));
+                writeBytes(key);
+                writeList(entry.getValue());
+            }
+            return writeTable(keys, records, true);
+        }
+
+        /**
+         * Writes the offsets of the records, sorted by key, and returns the offset of the table.
+         * The records of the primary table are also listed in the order they were written, after
+         * the sorted offsets.
+         */
+        private int writeTable(final List<byte[]> keys, List<Integer> records,
+                boolean lookup) throws IOException {
+            Integer[] order = new Integer[keys.size()];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = new Integer(i);
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return UNSIGNED.compare(keys.get(a.intValue()), keys.get(b.intValue()));
+                }
+            });
+            int tableOffset = size();
+            out.writeInt(order.length);
+            for (Integer index : order) {
+                out.writeInt(records.get(index.intValue()).intValue());
+            }
+            if (!lookup) {
+                for (Integer record : records) {
+                    out.writeInt(record.intValue());
+                }
+            }
+            return tableOffset;
+        }
+
+        void close(int headerOffset) throws IOException {
+            size();
+            out.close();
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.writeInt(headerOffset);
+            } finally {
+                raf.close();
+            }
+        }
+    }
+}
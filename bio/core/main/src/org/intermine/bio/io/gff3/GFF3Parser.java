@@ -35,22 +35,7 @@ public final class GFF3Parser
      * @throws IOException if there is an error during reading or parsing
      */
     public static Iterator<?> parse(final BufferedReader reader) throws IOException {
-        String line = null;
-
-        while ((line = reader.readLine()) != null) {
-            String trimmedLine = line.trim();
-
-            if (trimmedLine.length() == 0 || trimmedLine.startsWith("#")) {
-                continue;
-            }
-
-            // throws IOException if the first GFF line isn't valid
-            new GFF3Record(trimmedLine);
-
-            break;
-        }
-
-        final String firstGFFLine = line;
+        final String firstGFFLine = readFirstLine(reader);
 
         return new Iterator<Object>() {
             String currentLine = firstGFFLine;
@@ -87,4 +72,40 @@ public final class GFF3Parser
             }
         };
     }
+
+    /**
+     * Read GFF3 lines from a BufferedReader and return an Iterator over the GFF3Records, parsing
+     * the lines in several threads. The records are returned in the same order as by
+     * parse(BufferedReader). If the Iterator is not read to the end, its close() method must be
+     * called.
+     * @param reader the Reader to reader from
+     * @param threads the number of threads to parse lines in - if less than 2, the lines are
+     * parsed as they are read, as by parse(BufferedReader)
+     * @return an Iterator over the GFF3Record objects from the reader
+     * @throws IOException if there is an error reading or parsing the first GFF line
+     */
+    public static Iterator<?> parse(BufferedReader reader, int threads) throws IOException {
+        if (threads < 2) {
+            return parse(reader);
+        }
+        return new ParallelGFF3Parser(reader, readFirstLine(reader), threads);
+    }
+
+    private static String readFirstLine(BufferedReader reader) throws IOException {
+        String line = null;
+
+        while ((line = reader.readLine()) != null) {
+            String trimmedLine = line.trim();
+
+            if (trimmedLine.length() == 0 || trimmedLine.startsWith("#")) {
+                continue;
+            }
+
+            // throws IOException if the first GFF line isn't valid
+            new GFF3Record(trimmedLine);
+
+            break;
+        }
+        return line;
+    }
 }
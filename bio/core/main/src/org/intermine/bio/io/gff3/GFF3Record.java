@@ -19,7 +19,6 @@ import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.StringTokenizer;
 
 import org.intermine.util.StringUtil;
 import org.intermine.util.XmlUtil;
@@ -50,19 +49,32 @@ public class GFF3Record
      * @throws IOException if there is an error during parsing the line
      */
     public GFF3Record(String line) throws IOException {
-        StringTokenizer st = new StringTokenizer(line, "\t", false);
+        // Like a StringTokenizer, this skips empty fields and ignores any after the ninth
+        String[] fields = new String[9];
+        int fieldCount = 0;
+        int pos = 0;
+        while ((pos < line.length()) && (fieldCount < fields.length)) {
+            int tab = line.indexOf('\t', pos);
+            if (tab == -1) {
+                tab = line.length();
+            }
+            if (tab > pos) {
+                fields[fieldCount++] = line.substring(pos, tab);
+            }
+            pos = tab + 1;
+        }
 
-        if (st.countTokens() < 8) {
-            throw new IOException("GFF line too short (" + st.countTokens() + " fields): " + line);
+        if (fieldCount < 8) {
+            throw new IOException("GFF line too short (" + fieldCount + " fields): " + line);
         }
 
-        sequenceID = XmlUtil.fixEntityNames(URLDecoder.decode(st.nextToken(), "UTF-8")).trim();
-        source = st.nextToken().trim();
+        sequenceID = XmlUtil.fixEntityNames(decode(fields[0])).trim();
+        source = fields[1].trim();
         if ("".equals(source) || ".".equals(source)) {
             source = null;
         }
-        type = st.nextToken().trim();
-        String startString = st.nextToken().trim();
+        type = fields[2].trim();
+        String startString = fields[3].trim();
         try {
             if (".".equals(startString)) {
                 start = -1;
@@ -74,7 +86,7 @@ public class GFF3Record
                                   + " from line: " + line);
         }
 
-        String endString = st.nextToken().trim();
+        String endString = fields[4].trim();
         try {
             if (".".equals(endString)) {
                 end = -1;
@@ -86,7 +98,7 @@ public class GFF3Record
                                   + " from line: " + line);
         }
 
-        String scoreString = st.nextToken().trim();
+        String scoreString = fields[5].trim();
 
         if ("".equals(scoreString) || ".".equals(scoreString)) {
             score = null;
@@ -99,20 +111,30 @@ public class GFF3Record
             }
         }
 
-        strand = st.nextToken().trim();
+        strand = fields[6].trim();
 
         if ("".equals(strand) || ".".equals(strand)) {
             strand = null;
         }
 
-        phase = st.nextToken().trim();
+        phase = fields[7].trim();
         if ("".equals(phase) || ".".equals(phase)) {
             phase = null;
         }
 
-        if (st.hasMoreTokens()) {
-            parseAttribute(st.nextToken(), line);
+        if (fields[8] != null) {
+            parseAttribute(fields[8], line);
+        }
+    }
+
+    /**
+     * URL-decode a value, without copying it if there is nothing to decode.
+     */
+    private static String decode(String value) throws UnsupportedEncodingException {
+        if ((value.indexOf('%') == -1) && (value.indexOf('+') == -1)) {
+            return value;
         }
+        return URLDecoder.decode(value, "UTF-8");
     }
 
     /**
@@ -146,14 +168,21 @@ public class GFF3Record
     }
 
     private void parseAttribute(String argAttributeString, String line) throws IOException {
-        String attributeString = argAttributeString;
-        attributeString = StringUtils.replaceEach(attributeString,
-                new String[] { "&amp;", "&quot;", "&lt;", "&gt;" },
-                new String[] { "&", "\"", "<", ">" });
-        StringTokenizer sTok = new StringTokenizer(attributeString, ";", false);
+        String pairs = argAttributeString;
+        if (pairs.indexOf('&') != -1) {
+            pairs = StringUtils.replaceEach(pairs,
+                    new String[] { "&amp;", "&quot;", "&lt;", "&gt;" },
+                    new String[] { "&", "\"", "<", ">" });
+        }
+        int pos = 0;
 
-        while (sTok.hasMoreTokens()) {
-            String attVal = sTok.nextToken().trim();
+        while (pos < pairs.length()) {
+            int semicolon = pairs.indexOf(';', pos);
+            if (semicolon == -1) {
+                semicolon = pairs.length();
+            }
+            String attVal = pairs.substring(pos, semicolon).trim();
+            pos = semicolon + 1;
 
             if (attVal.length() == 0) {
                 continue;
@@ -167,7 +196,7 @@ public class GFF3Record
                                       + "while parsing: " + line);
             } else {
                 attName = attVal.substring(0, spaceIndx);
-                attributeString = attVal.substring(spaceIndx + 1).trim();
+                String attributeString = attVal.substring(spaceIndx + 1).trim();
 
                 if (!"\"\"".equals(attributeString)) {
                     while (attributeString.length() > 0) {
@@ -202,7 +231,7 @@ public class GFF3Record
             for (int i = 0; i < valList.size(); i++) {
                 String value = valList.get(i);
                 if (!"Target".equals(attName) && !"Gap".equals(attName)) {
-                    value = URLDecoder.decode(value, "UTF-8");
+                    value = decode(value);
                 }
                 value = XmlUtil.fixEntityNames(value);
                 valList.set(i, value);
@@ -0,0 +1,248 @@
+package org.intermine.bio.io.gff3;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.log4j.Logger;
+
+/**
+ * An Iterator over the GFF3Records of a GFF3 file, which parses the lines in several threads.
+ * <p>
+ * A reader thread collects the GFF lines into chunks, skipping blank lines and comments and
+ * stopping at the FASTA section as GFF3Parser does. Each chunk is parsed by a pool of worker
+ * threads, and the chunks are handed back in file order, so the records come out in exactly the
+ * order that GFF3Parser.parse() would return them, up to the first line that cannot be parsed.
+ * Only a few chunks per worker are held at once.
+ * <p>
+ * If the records are not all read, close() must be called to stop the threads.
+ */
+public class ParallelGFF3Parser implements Iterator<GFF3Record>
+{
+    private static final Logger LOG = Logger.getLogger(ParallelGFF3Parser.class);
+    private static final int CHUNK_SIZE = 1000;
+
+    private final BufferedReader reader;
+    private final ExecutorService pool;
+    private final BlockingQueue<Future<Chunk>> chunks;
+    private final Thread readerThread;
+    private Iterator<GFF3Record> current = Collections.<GFF3Record>emptyList().iterator();
+    private IOException pendingError = null;
+    private boolean finished = false;
+
+    /**
+     * Starts parsing GFF lines from a reader.
+     *
+     * @param reader the reader, positioned at the first GFF line
+     * @param firstLine the first GFF line, which has already been read from the reader, or null
+     * if there are no more lines
+     * @param threads the number of threads to parse the lines in
+     */
+    ParallelGFF3Parser(BufferedReader reader, String firstLine, int threads) {
+        this.reader = reader;
+        ThreadFactory daemons = new ThreadFactory() {
+            private int count = 0;
+            @Override
+            public synchronized Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ParallelGFF3Parser worker " + (count++));
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+        pool = Executors.newFixedThreadPool(threads, daemons);
+        chunks = new ArrayBlockingQueue<Future<Chunk>>(threads * 4);
+        readerThread = daemons.newThread(new ChunkReader(firstLine));
+        readerThread.setName("ParallelGFF3Parser reader");
+        readerThread.start();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasNext() {
+        while ((!finished) && (!current.hasNext())) {
+            if (pendingError != null) {
+                close();
+                throw new RuntimeException("IOException while getting next GFF record",
+                        pendingError);
+            }
+            Chunk chunk;
+            try {
+                chunk = chunks.take().get();
+            } catch (InterruptedException e) {
+                close();
+                throw new RuntimeException("Interrupted while waiting for GFF records", e);
+            } catch (ExecutionException e) {
+                close();
+                throw new RuntimeException("Error while parsing GFF records", e.getCause());
+            }
+            if (chunk.records == null) {
+                finished = true;
+                pool.shutdown();
+            } else {
+                current = chunk.records.iterator();
+                pendingError = chunk.error;
+            }
+        }
+        return current.hasNext();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public GFF3Record next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return current.next();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("remove not supported");
+    }
+
+    /**
+     * Stops the reader and worker threads. The remaining records are discarded.
+     */
+    public void close() {
+        finished = true;
+        current = Collections.<GFF3Record>emptyList().iterator();
+        readerThread.interrupt();
+        pool.shutdownNow();
+    }
+
+    /**
+     * Some parsed records, and the exception that stopped the parsing of the chunk after them.
+     * The chunk after the last has null records.
+     */
+    private static class Chunk
+    {
+        private final List<GFF3Record> records;
+        private final IOException error;
+
+        Chunk(List<GFF3Record> records, IOException error) {
+            this.records = records;
+            this.error = error;
+        }
+    }
+
+    /**
+     * Reads lines into chunks and queues a parse of each chunk, followed by the end chunk.
+     */
+    private class ChunkReader implements Runnable
+    {
+        private String line;
+
+        ChunkReader(String firstLine) {
+            this.line = firstLine;
+        }
+
+        @Override
+        public void run() {
+            try {
+                List<String> lines = new ArrayList<String>(CHUNK_SIZE);
+                int count = 0;
+                while ((line != null) && (!line.startsWith(">"))) {
+                    lines.add(line);
+                    count++;
+                    if (lines.size() == CHUNK_SIZE) {
+                        chunks.put(pool.submit(new ChunkParser(lines)));
+                        lines = new ArrayList<String>(CHUNK_SIZE);
+                    }
+                    while ((line = reader.readLine()) != null) {
+                        String trimmedLine = line.trim();
+                        if (trimmedLine.length() == 0 || trimmedLine.startsWith("#")) {
+                            continue;
+                        }
+                        break;
+                    }
+                }
+                if (!lines.isEmpty()) {
+                    chunks.put(pool.submit(new ChunkParser(lines)));
+                }
+                chunks.put(done(new Chunk(null, null)));
+                LOG.info("Read " + count + " GFF lines");
+            } catch (IOException e) {
+                try {
+                    chunks.put(done(new Chunk(Collections.<GFF3Record>emptyList(), e)));
+                } catch (InterruptedException e2) {
+                    // close() has been called
+                }
+            } catch (InterruptedException e) {
+                // close() has been called
+            } catch (RejectedExecutionException e) {
+                // close() has been called
+            }
+        }
+    }
+
+    /**
+     * Returns a Future that has already completed with the given chunk.
+     */
+    private static Future<Chunk> done(Chunk chunk) {
+        FutureTask<Chunk> task = new FutureTask<Chunk>(new Runnable() {
+            @Override
+            public void run() {
+                // nothing to do
+            }
+        }, chunk);
+        task.run();
+        return task;
+    }
+
+    /**
+     * Parses a chunk of lines.
+     */
+    private static class ChunkParser implements Callable<Chunk>
+    {
+        private List<String> lines;
+
+        ChunkParser(List<String> lines) {
+            this.lines = lines;
+        }
+
+        @Override
+        public Chunk call() {
+            List<GFF3Record> records = new ArrayList<GFF3Record>(lines.size());
+            try {
+                for (String line : lines) {
+                    records.add(new GFF3Record(line));
+                }
+            } catch (IOException e) {
+                // The records before the bad line are still returned, as GFF3Parser would
+                return new Chunk(records, e);
+            }
+            return new Chunk(records, null);
+        }
+    }
+}
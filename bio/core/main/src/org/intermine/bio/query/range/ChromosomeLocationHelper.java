@@ -1,10 +1,14 @@
 package org.intermine.bio.query.range;
 
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 import org.intermine.api.query.RangeHelper;
 import org.intermine.metadata.ClassDescriptor;
 import org.intermine.metadata.Model;
+import org.intermine.objectstore.query.BagConstraint;
 import org.intermine.objectstore.query.Constraint;
 import org.intermine.objectstore.query.ConstraintOp;
 import org.intermine.objectstore.query.ConstraintSet;
@@ -24,6 +28,9 @@ import org.intermine.pathquery.PathConstraintRange;
 
 public class ChromosomeLocationHelper implements RangeHelper
 {
+    // beyond this many locations, constrain by range in the database instead of by id
+    private static final int MAX_INDEXED_LOCATIONS = 10000;
+
     private final QueryClass chromosome;
     private final QueryField chrIdField;
     
@@ -43,7 +50,16 @@ public class ChromosomeLocationHelper implements RangeHelper
     
     @Override
     public Constraint createConstraint(Queryable q, QueryNode n, PathConstraintRange pcr) {
-        
+
+        ChromosomeLocationIndex index = ChromosomeLocationIndex.getCurrentIndex();
+        if (index != null) {
+            Set<Integer> locationIds = findLocationIds(index, pcr);
+            if (locationIds != null) {
+                return new BagConstraint(new QueryField((QueryClass) n, "id"), ConstraintOp.IN,
+                        locationIds);
+            }
+        }
+
         if (q instanceof Query) {
             ((Query) q).addFrom(chromosome);
         } else if (q instanceof QueryCollectionPathExpression) {
@@ -89,6 +105,40 @@ public class ChromosomeLocationHelper implements RangeHelper
         return mainSet;
     }
 
+    /**
+     * Returns the ids of the Locations that match a positive range constraint, from the index of
+     * Locations held in memory.
+     *
+     * @return a Set of Location ids, or null if the constraint is better run in the database
+     */
+    private static Set<Integer> findLocationIds(ChromosomeLocationIndex index,
+            PathConstraintRange pcr) {
+        ConstraintOp op = pcr.getOp();
+        if (op == ConstraintOp.WITHIN) {
+            op = ConstraintOp.IN;
+        } else if ((op != ConstraintOp.OVERLAPS) && (op != ConstraintOp.CONTAINS)) {
+            return null;
+        }
+        Set<Integer> retval = new HashSet<Integer>();
+        for (String range: pcr.getValues()) {
+            GenomicInterval interval = new GenomicInterval(range);
+            if (interval.getStart() == null) {
+                // every location on the chromosome
+                return null;
+            }
+            int end = interval.getEnd() == null ? interval.getStart() : interval.getEnd();
+            List<ChromosomeLocationIndex.Match> matches = index.find(interval.getChr(), null,
+                    interval.getStart(), end, op);
+            for (ChromosomeLocationIndex.Match match : matches) {
+                retval.add(match.getLocationId());
+            }
+            if (retval.size() > MAX_INDEXED_LOCATIONS) {
+                return null;
+            }
+        }
+        return retval;
+    }
+
     static class GenomicInterval {
 
         private final Integer start, end;
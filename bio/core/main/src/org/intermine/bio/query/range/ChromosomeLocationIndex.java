@@ -0,0 +1,512 @@
+package org.intermine.bio.query.range;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.intermine.metadata.ClassDescriptor;
+import org.intermine.metadata.Model;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.query.ConstraintOp;
+import org.intermine.objectstore.query.ConstraintSet;
+import org.intermine.objectstore.query.ContainsConstraint;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.QueryField;
+import org.intermine.objectstore.query.QueryForeignKey;
+import org.intermine.objectstore.query.QueryObjectReference;
+import org.intermine.objectstore.query.Results;
+import org.intermine.objectstore.query.ResultsRow;
+
+/**
+ * An in-memory index of the Locations of features on Chromosomes, held as one interval tree per
+ * chromosome. Overlap, within and contains searches for any number of regions are answered from
+ * memory instead of running one range query per region.
+ *
+ * The index is read from the objectstore in a single query when it is first needed, and is read
+ * again if the tables that it was read from have been written to since.
+ */
+public class ChromosomeLocationIndex
+{
+    private static final Logger LOG = Logger.getLogger(ChromosomeLocationIndex.class);
+    private static final int BATCH_SIZE = 100000;
+
+    private static ChromosomeLocationIndex index = null;
+
+    private final ObjectStore os;
+    private final Set<Object> tables;
+    private final Map<Object, Integer> sequence;
+    private final Map<String, List<Intervals>> chromosomes = new HashMap<String, List<Intervals>>();
+    private final List<Class<?>> classes = new ArrayList<Class<?>>();
+    private final List<String> organisms = new ArrayList<String>();
+    private int size = 0;
+
+    /**
+     * Returns the index of the Locations in the given objectstore, reading it if it has not been
+     * read yet or if the objectstore has been written to since.
+     *
+     * @param os the ObjectStore
+     * @return a ChromosomeLocationIndex
+     * @throws ObjectStoreException if the Locations cannot be read
+     */
+    public static synchronized ChromosomeLocationIndex getIndex(ObjectStore os)
+        throws ObjectStoreException {
+        if ((index == null) || (index.os != os) || !index.isCurrent()) {
+            index = null;
+            index = new ChromosomeLocationIndex(os);
+        }
+        return index;
+    }
+
+    /**
+     * Returns the index that was last read by getIndex(), if it is still current.
+     *
+     * @return a ChromosomeLocationIndex, or null if none has been read or it is out of date
+     */
+    public static synchronized ChromosomeLocationIndex getCurrentIndex() {
+        if ((index != null) && index.isCurrent()) {
+            return index;
+        }
+        return null;
+    }
+
+    /**
+     * Read the Locations on Chromosomes from an objectstore.
+     *
+     * @param os the ObjectStore
+     * @throws ObjectStoreException if the Locations cannot be read
+     */
+    protected ChromosomeLocationIndex(ObjectStore os) throws ObjectStoreException {
+        this.os = os;
+        long startTime = System.currentTimeMillis();
+        Model model = os.getModel();
+        QueryClass qcLoc = new QueryClass(getType(model, "Location"));
+        QueryClass qcChr = new QueryClass(getType(model, "Chromosome"));
+        QueryClass qcFeature = new QueryClass(getType(model, "BioEntity"));
+        QueryClass qcOrg = new QueryClass(getType(model, "Organism"));
+
+        Query q = new Query();
+        q.addFrom(qcLoc);
+        q.addFrom(qcChr);
+        q.addFrom(qcFeature);
+        q.addToSelect(new QueryField(qcLoc, "id"));
+        q.addToSelect(new QueryField(qcLoc, "start"));
+        q.addToSelect(new QueryField(qcLoc, "end"));
+        q.addToSelect(new QueryField(qcChr, "id"));
+        q.addToSelect(new QueryField(qcFeature, "id"));
+        q.addToSelect(new QueryField(qcFeature, "class"));
+        // the organism may be null, so take the id rather than joining to Organism
+        q.addToSelect(new QueryForeignKey(qcFeature, "organism"));
+        ConstraintSet cs = new ConstraintSet(ConstraintOp.AND);
+        cs.addConstraint(new ContainsConstraint(new QueryObjectReference(qcLoc, "feature"),
+                ConstraintOp.CONTAINS, qcFeature));
+        cs.addConstraint(new ContainsConstraint(new QueryObjectReference(qcLoc, "locatedOn"),
+                ConstraintOp.CONTAINS, qcChr));
+        q.setConstraint(cs);
+        tables = os.getComponentsForQuery(q);
+        sequence = os.getSequence(tables);
+
+        Map<Integer, String> chrIdentifiers = readNames(qcChr, "primaryIdentifier");
+        Map<Integer, String> orgNames = readNames(qcOrg, "shortName");
+        Map<Integer, Short> orgIndexes = new HashMap<Integer, Short>();
+        Map<Class<?>, Short> classIndexes = new HashMap<Class<?>, Short>();
+        Map<Integer, Builder> builders = new HashMap<Integer, Builder>();
+
+        Results results = os.execute(q, BATCH_SIZE, true, false, false);
+        for (Object o : results) {
+            ResultsRow<?> row = (ResultsRow<?>) o;
+            Integer start = (Integer) row.get(1);
+            Integer end = (Integer) row.get(2);
+            if ((start == null) || (end == null)) {
+                continue;
+            }
+            Integer chrId = (Integer) row.get(3);
+            Builder builder = builders.get(chrId);
+            if (builder == null) {
+                builder = new Builder();
+                builders.put(chrId, builder);
+            }
+            Class<?> cls = (Class<?>) row.get(5);
+            Short classIndex = classIndexes.get(cls);
+            if (classIndex == null) {
+                classIndex = Short.valueOf((short) classes.size());
+                classIndexes.put(cls, classIndex);
+                classes.add(cls);
+            }
+            Integer orgId = (Integer) row.get(6);
+            Short orgIndex = orgIndexes.get(orgId);
+            if (orgIndex == null) {
+                orgIndex = Short.valueOf((short) organisms.size());
+                orgIndexes.put(orgId, orgIndex);
+                organisms.add(orgId == null ? null : orgNames.get(orgId));
+            }
+            builder.add(Math.min(start.intValue(), end.intValue()),
+                    Math.max(start.intValue(), end.intValue()), ((Integer) row.get(0)).intValue(),
+                    ((Integer) row.get(4)).intValue(), classIndex.shortValue(),
+                    orgIndex.shortValue());
+        }
+        for (Map.Entry<Integer, Builder> entry : builders.entrySet()) {
+            String identifier = chrIdentifiers.get(entry.getKey());
+            List<Intervals> list = chromosomes.get(identifier);
+            if (list == null) {
+                list = new ArrayList<Intervals>();
+                chromosomes.put(identifier, list);
+            }
+            Intervals intervals = entry.getValue().build(identifier);
+            list.add(intervals);
+            size += intervals.size();
+        }
+        LOG.info("Read " + size + " locations on " + builders.size() + " chromosomes in "
+                + (System.currentTimeMillis() - startTime) + " ms");
+    }
+
+    private static Class<?> getType(Model model, String className) {
+        ClassDescriptor cld = model.getClassDescriptorByName(className);
+        if (cld == null) {
+            throw new IllegalArgumentException("Model " + model.getName() + " does not contain "
+                    + className);
+        }
+        return cld.getType();
+    }
+
+    private Map<Integer, String> readNames(QueryClass qc, String fieldName) {
+        Query q = new Query();
+        q.addFrom(qc);
+        q.addToSelect(new QueryField(qc, "id"));
+        q.addToSelect(new QueryField(qc, fieldName));
+        Map<Integer, String> retval = new HashMap<Integer, String>();
+        for (Object o : os.execute(q, BATCH_SIZE, true, false, false)) {
+            ResultsRow<?> row = (ResultsRow<?>) o;
+            retval.put((Integer) row.get(0), (String) row.get(1));
+        }
+        return retval;
+    }
+
+    /**
+     * Returns whether the tables that this index was read from have not been written to since.
+     *
+     * @return true if the index is up to date
+     */
+    public boolean isCurrent() {
+        return sequence.equals(os.getSequence(tables));
+    }
+
+    /**
+     * Returns the number of Locations in the index.
+     *
+     * @return an int
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Finds the Locations on a chromosome that relate to a region in the same way as an
+     * OverlapConstraint with the Location on the left: OVERLAPS finds Locations that overlap the
+     * region, IN finds Locations that lie within it and CONTAINS finds Locations that contain it.
+     * Coordinates are inclusive, and the matches are returned in order of start.
+     *
+     * @param chromosome the primaryIdentifier of the chromosome
+     * @param organism the shortName of the organism of the located features, or null for any
+     * @param start the start of the region
+     * @param end the end of the region
+     * @param op OVERLAPS, IN or CONTAINS
+     * @return a List of Locations
+     */
+    public List<Match> find(String chromosome, String organism, int start, int end,
+            ConstraintOp op) {
+        if ((op != ConstraintOp.OVERLAPS) && (op != ConstraintOp.IN)
+                && (op != ConstraintOp.CONTAINS)) {
+            throw new IllegalArgumentException("Illegal constraint op " + op + " for range");
+        }
+        List<Intervals> list = chromosomes.get(chromosome);
+        if (list == null) {
+            return Collections.emptyList();
+        }
+        int lo = Math.min(start, end);
+        int hi = Math.max(start, end);
+        List<Match> retval = new ArrayList<Match>();
+        for (Intervals intervals : list) {
+            for (int i : intervals.overlapping(lo, hi)) {
+                if ((organism != null)
+                        && !organism.equals(organisms.get(intervals.organisms[i]))) {
+                    continue;
+                }
+                if (((op == ConstraintOp.IN) && ((intervals.starts[i] < lo)
+                                || (intervals.ends[i] > hi)))
+                        || ((op == ConstraintOp.CONTAINS) && ((intervals.starts[i] > lo)
+                                || (intervals.ends[i] < hi)))) {
+                    continue;
+                }
+                retval.add(new Match(intervals, i));
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * A Location found in the index.
+     */
+    public final class Match
+    {
+        private final Intervals intervals;
+        private final int i;
+
+        private Match(Intervals intervals, int i) {
+            this.intervals = intervals;
+            this.i = i;
+        }
+
+        /**
+         * @return the id of the Location
+         */
+        public Integer getLocationId() {
+            return Integer.valueOf(intervals.locationIds[i]);
+        }
+
+        /**
+         * @return the id of the located feature
+         */
+        public Integer getFeatureId() {
+            return Integer.valueOf(intervals.featureIds[i]);
+        }
+
+        /**
+         * @return the class of the located feature
+         */
+        public Class<?> getFeatureClass() {
+            return classes.get(intervals.classes[i]);
+        }
+
+        /**
+         * @return the shortName of the organism of the located feature, or null
+         */
+        public String getOrganism() {
+            return organisms.get(intervals.organisms[i]);
+        }
+
+        /**
+         * @return the primaryIdentifier of the chromosome
+         */
+        public String getChromosome() {
+            return intervals.chromosome;
+        }
+
+        /**
+         * @return the start of the Location
+         */
+        public int getStart() {
+            return intervals.starts[i];
+        }
+
+        /**
+         * @return the end of the Location
+         */
+        public int getEnd() {
+            return intervals.ends[i];
+        }
+    }
+
+    /**
+     * Collects the Locations on one chromosome before they are sorted.
+     */
+    private static class Builder
+    {
+        private int count = 0;
+        private int[] starts = new int[16];
+        private int[] ends = new int[16];
+        private int[] locationIds = new int[16];
+        private int[] featureIds = new int[16];
+        private short[] classes = new short[16];
+        private short[] organisms = new short[16];
+
+        void add(int start, int end, int locationId, int featureId, short cls, short org) {
+            if (count == starts.length) {
+                int length = count * 2;
+                starts = Arrays.copyOf(starts, length);
+                ends = Arrays.copyOf(ends, length);
+                locationIds = Arrays.copyOf(locationIds, length);
+                featureIds = Arrays.copyOf(featureIds, length);
+                classes = Arrays.copyOf(classes, length);
+                organisms = Arrays.copyOf(organisms, length);
+            }
+            starts[count] = start;
+            ends[count] = end;
+            locationIds[count] = locationId;
+            featureIds[count] = featureId;
+            classes[count] = cls;
+            organisms[count] = org;
+            count++;
+        }
+
+        Intervals build(String chromosome) {
+            return new Intervals(chromosome, Arrays.copyOf(starts, count),
+                    Arrays.copyOf(ends, count), Arrays.copyOf(locationIds, count),
+                    Arrays.copyOf(featureIds, count), Arrays.copyOf(classes, count),
+                    Arrays.copyOf(organisms, count));
+        }
+    }
+
+    /**
+     * The Locations on one chromosome, as an implicit augmented interval tree. The intervals are
+     * sorted by start and form a binary tree in which the node at index i has level k when the
+     * lowest k bits of i are set, so that no pointers are needed. Each node holds the greatest
+     * end in its subtree, which allows whole subtrees that end before a region to be skipped.
+     */
+    static class Intervals
+    {
+        // below this level subtrees are scanned rather than searched
+        private static final int SCAN_LEVEL = 3;
+
+        final String chromosome;
+        final int[] starts;
+        final int[] ends;
+        final int[] maxEnds;
+        final int[] locationIds;
+        final int[] featureIds;
+        final short[] classes;
+        final short[] organisms;
+        private final int maxLevel;
+
+        /**
+         * Sort the given intervals by start and index them. The arrays are sorted in place.
+         */
+        Intervals(String chromosome, int[] starts, int[] ends, int[] locationIds,
+                int[] featureIds, short[] classes, short[] organisms) {
+            this.chromosome = chromosome;
+            int n = starts.length;
+            long[] order = new long[n];
+            for (int i = 0; i < n; i++) {
+                order[i] = (((long) starts[i]) << 32) | i;
+            }
+            Arrays.sort(order);
+            this.starts = new int[n];
+            this.ends = new int[n];
+            this.locationIds = new int[n];
+            this.featureIds = new int[n];
+            this.classes = new short[n];
+            this.organisms = new short[n];
+            for (int i = 0; i < n; i++) {
+                int from = (int) order[i];
+                this.starts[i] = starts[from];
+                this.ends[i] = ends[from];
+                this.locationIds[i] = locationIds[from];
+                this.featureIds[i] = featureIds[from];
+                this.classes[i] = classes[from];
+                this.organisms[i] = organisms[from];
+            }
+            maxEnds = new int[n];
+            maxLevel = index();
+        }
+
+        int size() {
+            return starts.length;
+        }
+
+        /**
+         * Fills in maxEnds, returning the level of the root.
+         */
+        private int index() {
+            int n = starts.length;
+            if (n == 0) {
+                return -1;
+            }
+            int lastI = 0;
+            int last = 0;
+            for (int i = 0; i < n; i += 2) {
+                lastI = i;
+                last = ends[i];
+                maxEnds[i] = last;
+            }
+            int k;
+            for (k = 1; (1L << k) <= n; k++) {
+                int x = 1 << (k - 1);
+                int i0 = (x << 1) - 1;
+                int step = x << 2;
+                for (int i = i0; i < n; i += step) {
+                    int endLeft = maxEnds[i - x];
+                    int endRight = i + x < n ? maxEnds[i + x] : last;
+                    maxEnds[i] = Math.max(ends[i], Math.max(endLeft, endRight));
+                }
+                lastI = ((lastI >> k) & 1) != 0 ? lastI - x : lastI + x;
+                if ((lastI < n) && (maxEnds[lastI] > last)) {
+                    last = maxEnds[lastI];
+                }
+            }
+            return k - 1;
+        }
+
+        /**
+         * Returns the indexes of the intervals that overlap the region from start to end
+         * inclusive, in order of start.
+         */
+        int[] overlapping(int start, int end) {
+            int n = starts.length;
+            if (n == 0) {
+                return new int[0];
+            }
+            int[] retval = new int[16];
+            int count = 0;
+            // a stack of (level, node, whether the left subtree has been visited)
+            int[] stack = new int[3 * 64];
+            int top = 0;
+            stack[top++] = maxLevel;
+            stack[top++] = (1 << maxLevel) - 1;
+            stack[top++] = 0;
+            while (top > 0) {
+                int visited = stack[--top];
+                int x = stack[--top];
+                int k = stack[--top];
+                if (k <= SCAN_LEVEL) {
+                    int i0 = (x >> k) << k;
+                    int i1 = Math.min(n, i0 + (1 << (k + 1)) - 1);
+                    for (int i = i0; (i < i1) && (starts[i] <= end); i++) {
+                        if (ends[i] >= start) {
+                            if (count == retval.length) {
+                                retval = Arrays.copyOf(retval, count * 2);
+                            }
+                            retval[count++] = i;
+                        }
+                    }
+                } else if (visited == 0) {
+                    stack[top++] = k;
+                    stack[top++] = x;
+                    stack[top++] = 1;
+                    int y = x - (1 << (k - 1));
+                    if ((y >= n) || (maxEnds[y] >= start)) {
+                        stack[top++] = k - 1;
+                        stack[top++] = y;
+                        stack[top++] = 0;
+                    }
+                } else if ((x < n) && (starts[x] <= end)) {
+                    if (ends[x] >= start) {
+                        if (count == retval.length) {
+                            retval = Arrays.copyOf(retval, count * 2);
+                        }
+                        retval[count++] = x;
+                    }
+                    stack[top++] = k - 1;
+                    stack[top++] = x + (1 << (k - 1));
+                    stack[top++] = 0;
+                }
+            }
+            return Arrays.copyOf(retval, count);
+        }
+    }
+}
@@ -20,6 +20,7 @@ import org.intermine.bio.dataconversion.GFF3Converter;
 import org.intermine.bio.dataconversion.GFF3RecordHandler;
 import org.intermine.bio.dataconversion.GFF3SeqHandler;
 import org.intermine.bio.io.gff3.GFF3Parser;
+import org.intermine.dataconversion.FileItemWriter;
 import org.intermine.dataconversion.ItemWriter;
 import org.intermine.dataconversion.ObjectStoreItemWriter;
 import org.intermine.metadata.Model;
@@ -53,6 +54,9 @@ public class GFF3ConverterTask extends Task
     private String seqHandlerClassName;
 
     private boolean dontCreateLocations = false;
+    private int parserThreads = 1;
+
+    private String itemFile = null;
 
      /**
      * Set the data fileset
@@ -80,6 +84,16 @@ public class GFF3ConverterTask extends Task
     }
 
 
+    /**
+     * Set a file to write the Items to instead of the target ObjectStore. An empty value is
+     * ignored.
+     * @param itemFile the name of the item file
+     */
+    public void setItemFile(String itemFile) {
+        this.itemFile = ("".equals(itemFile) ? null : itemFile);
+    }
+
+
      /**
      * Set the sequenceClassName
      * @param seqClsName the seqClsName;
@@ -154,6 +168,14 @@ public class GFF3ConverterTask extends Task
         this.dontCreateLocations = dontCreateLocations;
     }
 
+    /**
+     * Set the number of threads to parse GFF lines in, the default is 1.
+     * @param parserThreads the number of parser threads
+     */
+    public void setParserThreads(int parserThreads) {
+        this.parserThreads = parserThreads;
+    }
+
     /**
      * @see Task#execute()
      */
@@ -165,7 +187,7 @@ public class GFF3ConverterTask extends Task
         if (converter == null) {
             throw new BuildException("converter attribute not set");
         }
-        if (targetAlias == null) {
+        if ((targetAlias == null) && (itemFile == null)) {
             throw new BuildException("targetAlias attribute not set");
         }
         if (seqClsName == null) {
@@ -190,8 +212,12 @@ public class GFF3ConverterTask extends Task
         ObjectStoreWriter osw = null;
         ItemWriter writer = null;
         try {
-            osw = ObjectStoreWriterFactory.getObjectStoreWriter(targetAlias);
-            writer = new ObjectStoreItemWriter(osw);
+            if (itemFile != null) {
+                writer = new FileItemWriter(new File(itemFile));
+            } else {
+                osw = ObjectStoreWriterFactory.getObjectStoreWriter(targetAlias);
+                writer = new ObjectStoreItemWriter(osw);
+            }
             Model tgtModel = Model.getInstanceByName(model);
             GFF3RecordHandler recordHandler;
             if (handlerClassName == null) {
@@ -230,6 +256,7 @@ public class GFF3ConverterTask extends Task
             if (dontCreateLocations) {
                 gff3converter.setDontCreateLocations(dontCreateLocations);
             }
+            gff3converter.setParserThreads(parserThreads);
             DirectoryScanner ds = fileSet.getDirectoryScanner(getProject());
             String[] files = ds.getIncludedFiles();
             if (files.length == 0) {
@@ -51,6 +51,16 @@ public class ClobAccessReverseComplement extends ClobAccess
      * @return the complement character
      */
     public char translate(char in) {
+        return complement(in);
+    }
+
+    /**
+     * Translates a single character to the complement base for DNA.
+     *
+     * @param in the character to translate
+     * @return the complement character
+     */
+    public static char complement(char in) {
 
         boolean inputWasLowerCase = false;
         if (Character.isLowerCase(in)) {
@@ -99,7 +109,7 @@ public class ClobAccessReverseComplement extends ClobAccess
         }
     }
 
-    private char returnChar(char c, boolean toLowerCase) {
+    private static char returnChar(char c, boolean toLowerCase) {
         if (toLowerCase) {
             return Character.toLowerCase(c);
         }
@@ -0,0 +1,189 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.collections.keyvalue.MultiKey;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Tests for MappedIdResolver.
+ */
+public class MappedIdResolverTest extends TestCase
+{
+    private IdResolver resolver;
+    private MappedIdResolver mapped;
+    private File indexFile;
+    private List<String> ids = Arrays.asList("Gene1", "Gene2", "mRNA1", "G1", "g1", "M1", "m1",
+            "syn1", "syn2", "syn3", "syn4", "", "Géne1");
+
+    public MappedIdResolverTest(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        resolver = new IdResolver("gene");
+        Set<String> mainIds1 = new LinkedHashSet<String>(Arrays.asList("G1", "g1"));
+        Set<String> mainIds2 = new LinkedHashSet<String>(Arrays.asList("M1", "m1"));
+        Set<String> synonyms1 = new LinkedHashSet<String>(Arrays.asList("syn2", "syn1"));
+        resolver.addMainIds("101", "gene", "Gene1", mainIds1);
+        resolver.addSynonyms("101", "gene", "Gene1", synonyms1);
+        resolver.addSynonyms("101", "gene", "Gene2", synonyms1);
+        resolver.addSynonyms("101", "gene", "Gene2", Collections.singleton("syn3"));
+        resolver.addMainIds("101", "gene", "Géne1", Collections.singleton("syn3"));
+        resolver.addMainIds("101", "mRNA", "mRNA1", mainIds1);
+        resolver.addMainIds("102", "gene", "Gene1", mainIds2);
+        resolver.addSynonyms("102", "gene", "Gene1", Collections.singleton("syn3"));
+        // only synonyms, so there is no main id table
+        resolver.addSynonyms("103", "exon", "Exon1", Collections.singleton("syn1"));
+
+        indexFile = File.createTempFile("idresolver", MappedIdResolver.INDEX_SUFFIX);
+        MappedIdResolver.compile(resolver, indexFile);
+        mapped = new MappedIdResolver("gene", indexFile);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        indexFile.delete();
+    }
+
+    public void testLookups() throws Exception {
+        for (MultiKey key : resolver.getKeys()) {
+            String taxonId = (String) key.getKey(0);
+            String clsName = (String) key.getKey(1);
+            for (String id : ids) {
+                assertEquals(new ArrayList<String>(resolver.resolveId(taxonId, clsName, id)),
+                        new ArrayList<String>(mapped.resolveId(taxonId, clsName, id)));
+                assertEquals(resolver.countResolutions(taxonId, clsName, id),
+                        mapped.countResolutions(taxonId, clsName, id));
+                assertEquals(resolver.isPrimaryIdentifier(taxonId, clsName, id),
+                        mapped.isPrimaryIdentifier(taxonId, clsName, id));
+                Set<String> synonyms = resolver.getSynonyms(taxonId, clsName, id);
+                if (synonyms == null) {
+                    assertNull(mapped.getSynonyms(taxonId, clsName, id));
+                } else {
+                    assertEquals(new ArrayList<String>(synonyms),
+                            new ArrayList<String>(mapped.getSynonyms(taxonId, clsName, id)));
+                }
+            }
+        }
+        assertEquals(Collections.singleton("Gene1"), mapped.resolveId("101", "G1"));
+        assertEquals(2, mapped.countResolutions("101", "syn1"));
+        try {
+            mapped.resolveId("101", "exon", "Gene1");
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertEquals("exon IdResolver has no data for taxonId: '101'.", e.getMessage());
+        }
+    }
+
+    public void testTaxonsAndClassNames() throws Exception {
+        assertEquals(resolver.getTaxons(), mapped.getTaxons());
+        assertEquals(resolver.getClassNames(), mapped.getClassNames());
+        assertEquals(resolver.getTaxonsAndClassNames(), mapped.getTaxonsAndClassNames());
+        assertTrue(mapped.hasTaxonAndClassName("103", "exon"));
+        assertFalse(mapped.hasTaxonAndClassName("103", "gene"));
+    }
+
+    public void testWriteToFile() throws Exception {
+        File expected = File.createTempFile("idresolver", ".cache");
+        File actual = File.createTempFile("idresolver", ".cache");
+        try {
+            resolver.writeToFile(expected);
+            mapped.writeToFile(actual);
+            assertEquals(FileUtils.readFileToString(expected, "utf-8"),
+                    FileUtils.readFileToString(actual, "utf-8"));
+        } finally {
+            expected.delete();
+            actual.delete();
+        }
+    }
+
+    public void testAddEntry() throws Exception {
+        resolver.addSynonyms("101", "gene", "Gene3", Collections.singleton("syn1"));
+        resolver.addMainIds("104", "gene", "Gene4", Collections.singleton("G4"));
+        mapped.addSynonyms("101", "gene", "Gene3", Collections.singleton("syn1"));
+        mapped.addMainIds("104", "gene", "Gene4", Collections.singleton("G4"));
+
+        assertEquals(resolver.orgIdMaps.get(new MultiKey("101", "gene")),
+                mapped.orgIdMaps.get(new MultiKey("101", "gene")));
+        assertEquals(Arrays.asList("Gene1", "Gene2", "Gene3"),
+                new ArrayList<String>(mapped.resolveId("101", "gene", "syn1")));
+        assertEquals(Collections.singleton("Gene4"), mapped.resolveId("104", "gene", "G4"));
+        // still mapped
+        assertEquals(Collections.singleton("Gene1"), mapped.resolveId("102", "gene", "M1"));
+        assertNull(mapped.orgIdMaps.get(new MultiKey("102", "gene")));
+        assertEquals(resolver.getTaxonsAndClassNames(), mapped.getTaxonsAndClassNames());
+    }
+
+    public void testNotAnIndex() throws Exception {
+        File file = File.createTempFile("idresolver", MappedIdResolver.INDEX_SUFFIX);
+        try {
+            FileUtils.writeStringToFile(file, "101\tgene\tGene1\tG1\n", "utf-8");
+            new MappedIdResolver("gene", file);
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            // expected
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testFactory() throws Exception {
+        File cacheFile = File.createTempFile("idresolver", ".cache");
+        File index = MappedIdResolver.getIndexFile(cacheFile);
+        IdResolver saved = IdResolverFactory.resolver;
+        try {
+            resolver.writeToFile(cacheFile);
+            IdResolverFactory factory = new IdResolverFactory() {
+                @Override
+                protected void createIdResolver() {
+                    // nothing to create
+                }
+            };
+
+            // reading the cache file compiles the index
+            IdResolverFactory.resolver = new IdResolver("gene");
+            assertTrue(factory.restoreFromFile(cacheFile));
+            assertFalse(IdResolverFactory.resolver instanceof MappedIdResolver);
+            assertTrue(index.exists());
+
+            // and the next converter maps it
+            index.setLastModified(cacheFile.lastModified() + 1000);
+            IdResolverFactory.resolver = new IdResolver("gene");
+            assertTrue(factory.restoreFromFile(cacheFile));
+            assertTrue(IdResolverFactory.resolver instanceof MappedIdResolver);
+            assertEquals(2, IdResolverFactory.resolver.countResolutions("101", "syn1"));
+            assertTrue(factory.restoreFromFile(cacheFile));
+
+            // unless the cache file has been written since
+            cacheFile.setLastModified(index.lastModified() + 1000);
+            IdResolverFactory.resolver = new IdResolver("gene");
+            assertTrue(factory.restoreFromFile(cacheFile));
+            assertFalse(IdResolverFactory.resolver instanceof MappedIdResolver);
+        } finally {
+            IdResolverFactory.resolver = saved;
+            cacheFile.delete();
+            index.delete();
+        }
+    }
+}
@@ -18,8 +18,13 @@ import java.util.List;
 import org.intermine.util.XmlUtil;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.InputStreamReader;
 import java.io.StringReader;
+import java.io.Writer;
 
 import junit.framework.TestCase;
 
@@ -31,6 +36,10 @@ import junit.framework.TestCase;
 
 public class GFF3ParserTest extends TestCase
 {
+    // The benchmark only runs if this is set, eg. -Dgff3.benchmark.lines=5000000
+    private static final int BENCHMARK_LINES =
+        Integer.getInteger("gff3.benchmark.lines", 0).intValue();
+
     public GFF3ParserTest (String arg) {
         super(arg);
     }
@@ -158,4 +167,95 @@ public class GFF3ParserTest extends TestCase
         assertEquals(expected, record.getParents());
     }
 
+    public void testParallelParse() throws Exception {
+        String gff = syntheticGff(4321) + ">ctg123\nACGT\n";
+        List<String> expected = new ArrayList<String>();
+        Iterator iter = GFF3Parser.parse(new BufferedReader(new StringReader(gff)));
+        while (iter.hasNext()) {
+            expected.add(iter.next().toString());
+        }
+        assertEquals(4321, expected.size());
+        List<String> got = new ArrayList<String>();
+        iter = GFF3Parser.parse(new BufferedReader(new StringReader(gff)), 3);
+        while (iter.hasNext()) {
+            got.add(iter.next().toString());
+        }
+        assertEquals(expected, got);
+    }
+
+    public void testParallelParseError() throws Exception {
+        String gff = syntheticGff(2500) + "ctg123\t.\tgene\tX\t9000\t.\t+\t.\tID=bad\n";
+        Iterator iter = GFF3Parser.parse(new BufferedReader(new StringReader(gff)), 2);
+        int count = 0;
+        try {
+            while (iter.hasNext()) {
+                iter.next();
+                count++;
+            }
+            fail("Expected an exception");
+        } catch (RuntimeException e) {
+            assertEquals(2500, count);
+            assertTrue(e.getCause().getMessage().startsWith("can not parse integer"));
+        }
+    }
+
+    public void testBenchmark() throws Exception {
+        if (BENCHMARK_LINES == 0) {
+            return;
+        }
+        File file = File.createTempFile("GFF3ParserTest", ".gff3");
+        try {
+            Writer writer = new BufferedWriter(new FileWriter(file));
+            writer.write(syntheticGff(BENCHMARK_LINES));
+            writer.close();
+            int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+            long sequential = time(file, 1);
+            long parallel = time(file, threads);
+            System.out.println("Parsed " + BENCHMARK_LINES + " GFF3 lines in " + sequential
+                    + " ms in one thread, and in " + parallel + " ms in " + threads + " threads");
+        } finally {
+            file.delete();
+        }
+    }
+
+    private long time(File file, int threads) throws Exception {
+        long start = System.currentTimeMillis();
+        Iterator iter = GFF3Parser.parse(new BufferedReader(new FileReader(file)), threads);
+        int count = 0;
+        while (iter.hasNext()) {
+            iter.next();
+            count++;
+        }
+        assertEquals(BENCHMARK_LINES, count);
+        return System.currentTimeMillis() - start;
+    }
+
+    /**
+     * Creates GFF3 lines for genes, each with an mRNA and exons, and the odd comment.
+     */
+    private static String syntheticGff(int lines) {
+        StringBuffer sb = new StringBuffer("##gff-version 3\n");
+        int gene = 0;
+        for (int i = 0; i < lines; i++) {
+            int start = i * 100 + 1;
+            String chr = "chr" + (i % 7);
+            if (i % 5 == 0) {
+                gene++;
+                sb.append(chr + "\tsynthetic\tgene\t" + start + "\t" + (start + 500)
+                        + "\t.\t+\t.\tID=gene" + gene + ";Name=Gene%20" + gene
+                        + ";Dbxref=FlyBase:FBgn" + gene + ",GB:AE" + gene + "\n");
+            } else if (i % 5 == 1) {
+                sb.append(chr + "\tsynthetic\tmRNA\t" + start + "\t" + (start + 500)
+                        + "\t.\t+\t.\tID=mRNA" + gene + ";Parent=gene" + gene + "\n");
+                if (i % 50 == 1) {
+                    sb.append("# a comment\n\n");
+                }
+            } else {
+                sb.append(chr + "\tsynthetic\texon\t" + start + "\t" + (start + 50) + "\t"
+                        + (i % 3) + ".5\t-\t" + (i % 3) + "\tParent=mRNA" + gene
+                        + ";Note=\"exon, number " + i + "\"\n");
+            }
+        }
+        return sb.toString();
+    }
 }
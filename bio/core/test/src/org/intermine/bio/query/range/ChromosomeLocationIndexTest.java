@@ -0,0 +1,118 @@
+package org.intermine.bio.query.range;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.intermine.bio.query.range.ChromosomeLocationIndex.Intervals;
+
+/**
+ * Tests for the interval trees of ChromosomeLocationIndex.
+ */
+public class ChromosomeLocationIndexTest extends TestCase
+{
+    public ChromosomeLocationIndexTest(String arg) {
+        super(arg);
+    }
+
+    public void testEmpty() throws Exception {
+        Intervals intervals = createIntervals(new int[0], new int[0]);
+        assertEquals(0, intervals.overlapping(1, 100).length);
+    }
+
+    public void testOverlapping() throws Exception {
+        Intervals intervals = createIntervals(new int[] {50, 1, 10, 30, 10},
+                new int[] {60, 100, 20, 40, 10});
+        // sorted by start
+        assertEquals(Arrays.toString(new int[] {1, 10, 10, 30, 50}),
+                Arrays.toString(intervals.starts));
+        assertEquals(Arrays.asList(1, 2), getLocationIds(intervals, 15, 25));
+        // inclusive at both ends
+        assertEquals(Arrays.asList(1, 2, 3), getLocationIds(intervals, 20, 30));
+        assertEquals(Arrays.asList(1, 2, 4), getLocationIds(intervals, 10, 10));
+        assertEquals(Arrays.asList(1, 0), getLocationIds(intervals, 60, 61));
+        assertEquals(Arrays.asList(), getLocationIds(intervals, 101, 200));
+    }
+
+    public void testRandom() throws Exception {
+        Random random = new Random(0);
+        for (int n : new int[] {1, 2, 3, 7, 8, 9, 15, 16, 17, 100, 1000, 5000}) {
+            int[] starts = new int[n];
+            int[] ends = new int[n];
+            randomIntervals(random, starts, ends, 10000, random.nextBoolean() ? 50 : 3000);
+            Intervals intervals = createIntervals(starts, ends);
+            for (int query = 0; query < 200; query++) {
+                int start = random.nextInt(10000);
+                int end = start + random.nextInt(500);
+                assertEquals("n = " + n + ", region " + start + ".." + end,
+                        bruteForce(starts, ends, start, end), getLocationIds(intervals, start,
+                            end));
+            }
+        }
+    }
+
+
+    private static void randomIntervals(Random random, int[] starts, int[] ends, int length,
+            int maxLength) {
+        for (int i = 0; i < starts.length; i++) {
+            starts[i] = 1 + random.nextInt(length);
+            ends[i] = starts[i] + random.nextInt(maxLength);
+        }
+    }
+
+    /**
+     * Creates Intervals in which the location id of each interval is its position in the arrays.
+     */
+    private static Intervals createIntervals(int[] starts, int[] ends) {
+        int n = starts.length;
+        int[] ids = new int[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = i;
+        }
+        return new Intervals("1", starts.clone(), ends.clone(), ids, ids.clone(), new short[n],
+                new short[n]);
+    }
+
+    private static List<Integer> getLocationIds(Intervals intervals, int start, int end) {
+        List<Integer> retval = new ArrayList<Integer>();
+        for (int i : intervals.overlapping(start, end)) {
+            retval.add(intervals.locationIds[i]);
+        }
+        return retval;
+    }
+
+    /**
+     * Returns the positions of the overlapping intervals, in the same order as the index.
+     */
+    private static List<Integer> bruteForce(int[] starts, int[] ends, int start, int end) {
+        List<long[]> matches = new ArrayList<long[]>();
+        for (int i = 0; i < starts.length; i++) {
+            if ((starts[i] <= end) && (ends[i] >= start)) {
+                matches.add(new long[] {(((long) starts[i]) << 32) | i});
+            }
+        }
+        long[] sorted = new long[matches.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = matches.get(i)[0];
+        }
+        Arrays.sort(sorted);
+        List<Integer> retval = new ArrayList<Integer>();
+        for (long match : sorted) {
+            retval.add((int) match);
+        }
+        return retval;
+    }
+}
@@ -63,7 +63,7 @@ public class CalculateLocations
     protected ObjectStoreWriter osw;
     protected ObjectStore os;
     private Model model;
-
+    private int overlapThreads = 1;
 
 
     /**
@@ -77,6 +77,15 @@ public class CalculateLocations
     }
 
 
+    /**
+     * Set the number of chromosomes to read at once when creating overlap relations.
+     *
+     * @param overlapThreads the number of threads, default 1
+     */
+    public void setOverlapThreads(int overlapThreads) {
+        this.overlapThreads = overlapThreads;
+    }
+
     /**
      * Create OverlapRelation objects for all overlapping SequenceFeatures by querying
      * objects that are located on chromosomes and overlap.
@@ -93,12 +102,8 @@ public class CalculateLocations
         osw.beginTransaction();
         Map<String, Integer> summary = new HashMap<String, Integer>();
         Map<Integer, Chromosome> chromosomeMap = makeChromosomeMap();
-        Iterator<?> chromosomeIdIter = chromosomeMap.keySet().iterator();
-        while (chromosomeIdIter.hasNext()) {
-            Integer id = (Integer) chromosomeIdIter.next();
-            createSubjectOverlapRelations(chromosomeMap.get(id), classNamesToIgnore,
-                    ignoreSelfMatches, summary);
-        }
+        OverlapUtil.createOverlaps(os, chromosomeMap.values(), classNamesToIgnore,
+                ignoreSelfMatches, osw, summary, overlapThreads);
         osw.commitTransaction();
         LOG.info("Stored a total of " + summary.remove("total") + " overlaps");
         List<SortElement> sortList = new ArrayList<SortElement>();
@@ -139,28 +144,6 @@ public class CalculateLocations
         }
     }
 
-    /**
-     * Create OverlapRelation objects for locations that have the given subject.
-     *
-     * @param subject a Chromosome object on which to create the overlaps
-     * @param classNamesToIgnore a List of the names of those classes that should be ignored when
-     * searching for overlaps.  Sub classes to these classes are ignored too. In addition, an
-     * entry can be of the form class=class, which specifies that the particular combination should
-     * be ignored. Hence an entry of the form class is equivalent to class=InterMineObject
-     * @param ignoreSelfMatches if true, don't create OverlapRelations between two objects of the
-     * same class
-     * @param summary a Map to which summary data will be added
-     */
-    private void createSubjectOverlapRelations(Chromosome subject, List<String> classNamesToIgnore,
-            boolean ignoreSelfMatches, Map<String, Integer> summary) throws Exception {
-        LOG.info("Creating overlaps for id " + subject.getId() + ", identifier: "
-                 + subject.getPrimaryIdentifier());
-
-        OverlapUtil.createOverlaps(os, subject, classNamesToIgnore, ignoreSelfMatches, osw,
-                summary);
-    }
-
-
     /**
      * Create a Location that spans the locations of some child objects.  eg. create a location for
      * Transcript that is as big as all the exons in it's exons collection.  One new location will
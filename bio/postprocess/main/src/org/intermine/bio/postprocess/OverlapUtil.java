@@ -10,12 +10,20 @@ package org.intermine.bio.postprocess;
  *
  */
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.log4j.Logger;
 import org.intermine.metadata.Model;
@@ -72,39 +80,8 @@ public abstract class OverlapUtil
             List<?> classNamesToIgnore, boolean ignoreSelfMatches, ObjectStoreWriter osw,
             Map<String, Integer> summary)
         throws ObjectStoreException, ClassNotFoundException {
-        Model model = os.getModel();
-
-        Map<Class<?>, Set<Class<?>>> classesToIgnore = new HashMap<Class<?>, Set<Class<?>>>();
-
-        Iterator<?> classNamesToIgnoreIter = classNamesToIgnore.iterator();
-
-        while (classNamesToIgnoreIter.hasNext()) {
-            String className = (String) classNamesToIgnoreIter.next();
-
-            int eq = className.indexOf('=');
-            String targetClassName = (eq == -1 ? "org.intermine.model.InterMineObject"
-                    : className.substring(eq + 1));
-            className = (eq == -1 ? className : className.substring(0, eq));
-
-            className = (className.indexOf('.') == -1 ? model.getPackageName() + "." + className
-                    : className);
-            targetClassName = (targetClassName.indexOf('.') == -1 ? model.getPackageName() + "."
-                    + targetClassName : targetClassName);
-
-            try {
-                Class<?> thisClass = Class.forName(className);
-                Class<?> targetClass = Class.forName(targetClassName);
-
-                Set<Class<?>> targetClasses = classesToIgnore.get(thisClass);
-                if (targetClasses == null) {
-                    targetClasses = new HashSet<Class<?>>();
-                    classesToIgnore.put(thisClass, targetClasses);
-                }
-                targetClasses.add(targetClass);
-            } catch (java.lang.ClassNotFoundException e) {
-                // ignore
-            }
-        }
+        Map<Class<?>, Set<Class<?>>> classesToIgnore = getClassesToIgnore(os.getModel(),
+                classNamesToIgnore);
 
         Query q = new Query();
         ConstraintSet cs = new ConstraintSet(ConstraintOp.AND);
@@ -211,6 +188,334 @@ public abstract class OverlapUtil
         }
     }
 
+    /**
+     * Creates OverlapRelations for overlapping SequenceFeature objects that are located on any of
+     * the given subjects (generally Chromosomes), producing the same relations as createOverlaps()
+     * for each subject.
+     *
+     * Each subject is searched in a single pass over the start, end, id and class of the features
+     * located on it, in order of start, without reading whole objects. Several subjects are read
+     * at once by a pool of threads, and their overlaps are written by the ObjectStoreWriter in
+     * batches, by one thread at a time.
+     *
+     * @param os the ObjectStore to query
+     * @param subjects the SequenceFeatures (eg. Chromosomes) where the LSFs are located
+     * @param classNamesToIgnore a List of the names of those classes that should be ignored when
+     * searching for overlaps, as for createOverlaps()
+     * @param ignoreSelfMatches if true, don't create OverlapRelations between two objects of the
+     * same class
+     * @param osw the ObjectStoreWriter to use to write to the database
+     * @param summary a Map, to which summary data will be added
+     * @param threads the number of subjects to read at once
+     * @throws ObjectStoreException if an error occurs while reading or writing
+     */
+    public static void createOverlaps(final ObjectStore os,
+            Collection<? extends SequenceFeature> subjects, List<?> classNamesToIgnore,
+            final boolean ignoreSelfMatches, ObjectStoreWriter osw, Map<String, Integer> summary,
+            int threads) throws ObjectStoreException {
+        final Map<Class<?>, Set<Class<?>>> classesToIgnore = getClassesToIgnore(os.getModel(),
+                classNamesToIgnore);
+        final OverlapWriter writer = new OverlapWriter(osw, summary);
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+        try {
+            List<Future<Object>> futures = new ArrayList<Future<Object>>();
+            for (final SequenceFeature subject : subjects) {
+                futures.add(pool.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        createSubjectOverlaps(os, subject, classesToIgnore, ignoreSelfMatches,
+                                writer);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Object> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof ObjectStoreException) {
+                        throw (ObjectStoreException) e.getCause();
+                    }
+                    throw new ObjectStoreException("Error while creating overlaps", e.getCause());
+                } catch (InterruptedException e) {
+                    throw new ObjectStoreException("Interrupted while creating overlaps", e);
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        Integer summaryCount = summary.get("total");
+        if (summaryCount == null) {
+            summaryCount = new Integer(0);
+        }
+        summary.put("total", new Integer(summaryCount.intValue() + writer.getCount()));
+    }
+
+    /**
+     * Finds the overlaps between the features located on one subject, passing them to the writer.
+     */
+    private static void createSubjectOverlaps(ObjectStore os, SequenceFeature subject,
+            Map<Class<?>, Set<Class<?>>> classesToIgnore, boolean ignoreSelfMatches,
+            OverlapWriter writer) throws ObjectStoreException {
+        Query q = new Query();
+        ConstraintSet cs = new ConstraintSet(ConstraintOp.AND);
+        q.setConstraint(cs);
+        q.setDistinct(false);
+
+        QueryClass qcLoc = new QueryClass(Location.class);
+        q.addFrom(qcLoc);
+        QueryClass qcObj = new QueryClass(SequenceFeature.class);
+        q.addFrom(qcObj);
+        QueryField qfStart = new QueryField(qcLoc, "start");
+        q.addToSelect(qfStart);
+        q.addToSelect(new QueryField(qcLoc, "end"));
+        q.addToSelect(new QueryField(qcObj, "id"));
+        q.addToSelect(new QueryField(qcObj, "class"));
+
+        QueryObjectReference ref1 = new QueryObjectReference(qcLoc, "feature");
+        cs.addConstraint(new ContainsConstraint(ref1, ConstraintOp.CONTAINS, qcObj));
+        QueryObjectReference ref2 = new QueryObjectReference(qcLoc, "locatedOn");
+        cs.addConstraint(new ContainsConstraint(ref2, ConstraintOp.CONTAINS, subject));
+
+        q.addToOrderBy(qfStart);
+
+        OverlapSweep sweep = new OverlapSweep(classesToIgnore, ignoreSelfMatches, writer);
+        int locations = 0;
+        ((ObjectStoreInterMineImpl) os).goFaster(q);
+        try {
+            Results results = os.execute(q, 10000, true, false, false);
+            for (Object o : results) {
+                ResultsRow<?> rr = (ResultsRow<?>) o;
+                Integer start = (Integer) rr.get(0);
+                Integer end = (Integer) rr.get(1);
+                if (start == null || end == null) {
+                    continue;
+                }
+                sweep.add(start.intValue(), end.intValue(), ((Integer) rr.get(2)).intValue(),
+                        (Class<?>) rr.get(3));
+                locations++;
+            }
+            sweep.flush();
+        } finally {
+            ((ObjectStoreInterMineImpl) os).releaseGoFaster(q);
+        }
+        LOG.info("Stored " + sweep.getCount() + " overlaps for " + locations
+                + " features on feature id " + subject.getId() + ", identifier: "
+                + subject.getSecondaryIdentifier());
+    }
+
+    /**
+     * Finds the overlapping pairs among located features that are added in order of start, in
+     * one pass. The features that may still overlap the next one are held in arrays, and whether
+     * two classes of feature should be overlapped is only worked out once for each pair of
+     * classes.
+     */
+    static class OverlapSweep
+    {
+        private static final int BATCH_SIZE = 10000;
+
+        private final Map<Class<?>, Set<Class<?>>> classesToIgnore;
+        private final boolean ignoreSelfMatches;
+        private final OverlapWriter writer;
+        // the summary line for each pair of classes, or null if the pair is ignored
+        private final Map<Class<?>, Map<Class<?>, String>> summaryLines =
+            new HashMap<Class<?>, Map<Class<?>, String>>();
+        private final Map<Class<?>, Boolean> ignoredClasses = new HashMap<Class<?>, Boolean>();
+
+        private int activeCount = 0;
+        private int[] activeEnds = new int[16];
+        private int[] activeIds = new int[16];
+        private Class<?>[] activeClasses = new Class<?>[16];
+
+        private int pairCount = 0;
+        private int[] pairs = new int[2 * BATCH_SIZE];
+        private String[] pairSummaryLines = new String[BATCH_SIZE];
+        private int count = 0;
+
+        OverlapSweep(Map<Class<?>, Set<Class<?>>> classesToIgnore, boolean ignoreSelfMatches,
+                OverlapWriter writer) {
+            this.classesToIgnore = classesToIgnore;
+            this.ignoreSelfMatches = ignoreSelfMatches;
+            this.writer = writer;
+        }
+
+        /**
+         * Add a located feature, which must not start before any feature already added.
+         */
+        void add(int start, int end, int id, Class<?> cls) throws ObjectStoreException {
+            Boolean ignored = ignoredClasses.get(cls);
+            if (ignored == null) {
+                ignored = Boolean.valueOf(isAClassToIgnore(classesToIgnore, cls));
+                ignoredClasses.put(cls, ignored);
+            }
+            if (ignored.booleanValue()) {
+                return;
+            }
+            int kept = 0;
+            for (int i = 0; i < activeCount; i++) {
+                if (activeEnds[i] < start) {
+                    continue;
+                }
+                String summaryLine = getSummaryLine(cls, activeClasses[i]);
+                if (summaryLine != null) {
+                    if (pairCount == BATCH_SIZE) {
+                        flush();
+                    }
+                    pairs[2 * pairCount] = id;
+                    pairs[2 * pairCount + 1] = activeIds[i];
+                    pairSummaryLines[pairCount] = summaryLine;
+                    pairCount++;
+                    count++;
+                }
+                activeEnds[kept] = activeEnds[i];
+                activeIds[kept] = activeIds[i];
+                activeClasses[kept] = activeClasses[i];
+                kept++;
+            }
+            for (int i = kept; i < activeCount; i++) {
+                activeClasses[i] = null;
+            }
+            activeCount = kept;
+            if (activeCount == activeEnds.length) {
+                activeEnds = Arrays.copyOf(activeEnds, activeCount * 2);
+                activeIds = Arrays.copyOf(activeIds, activeCount * 2);
+                activeClasses = Arrays.copyOf(activeClasses, activeCount * 2);
+            }
+            activeEnds[activeCount] = end;
+            activeIds[activeCount] = id;
+            activeClasses[activeCount] = cls;
+            activeCount++;
+        }
+
+        /**
+         * Returns the summary line for an overlap between two classes, or null if they should
+         * not be overlapped.
+         */
+        private String getSummaryLine(Class<?> cls1, Class<?> cls2) {
+            Map<Class<?>, String> lines = summaryLines.get(cls1);
+            if (lines == null) {
+                lines = new HashMap<Class<?>, String>();
+                summaryLines.put(cls1, lines);
+            }
+            if (lines.containsKey(cls2)) {
+                return lines.get(cls2);
+            }
+            String summaryLine = null;
+            if (((!ignoreSelfMatches) || (!cls1.equals(cls2)))
+                    && !(ignoreCombination(classesToIgnore, cls1, cls2)
+                        || ignoreCombination(classesToIgnore, cls2, cls1))) {
+                String classname1 = DynamicUtil.getFriendlyName(cls1);
+                String classname2 = DynamicUtil.getFriendlyName(cls2);
+                summaryLine = classname1.compareTo(classname2) > 0
+                    ? classname2 + " - " + classname1 : classname1 + " - " + classname2;
+            }
+            lines.put(cls2, summaryLine);
+            return summaryLine;
+        }
+
+        /**
+         * Pass the pairs found so far to the writer.
+         */
+        void flush() throws ObjectStoreException {
+            writer.write(pairs, pairSummaryLines, pairCount);
+            pairCount = 0;
+        }
+
+        /**
+         * Returns the number of overlapping pairs found.
+         */
+        int getCount() {
+            return count;
+        }
+    }
+
+    /**
+     * Writes batches of overlapping pairs, one batch at a time.
+     */
+    static class OverlapWriter
+    {
+        private final ObjectStoreWriter osw;
+        private final Map<String, Integer> summary;
+        private int count = 0;
+
+        OverlapWriter(ObjectStoreWriter osw, Map<String, Integer> summary) {
+            this.osw = osw;
+            this.summary = summary;
+        }
+
+        /**
+         * Add each feature of a pair to the overlappingFeatures of the other.
+         *
+         * @param pairs the ids of the features of each pair, one after the other
+         * @param summaryLines the summary line of each pair
+         * @param pairCount the number of pairs
+         * @throws ObjectStoreException if an error occurs while writing
+         */
+        synchronized void write(int[] pairs, String[] summaryLines, int pairCount)
+            throws ObjectStoreException {
+            for (int i = 0; i < pairCount; i++) {
+                Integer id1 = Integer.valueOf(pairs[2 * i]);
+                Integer id2 = Integer.valueOf(pairs[2 * i + 1]);
+                osw.addToCollection(id1, SequenceFeature.class, "overlappingFeatures", id2);
+                osw.addToCollection(id2, SequenceFeature.class, "overlappingFeatures", id1);
+                Integer summaryCount = summary.get(summaryLines[i]);
+                summary.put(summaryLines[i], Integer.valueOf(summaryCount == null ? 1
+                            : summaryCount.intValue() + 1));
+            }
+            count += pairCount;
+        }
+
+        /**
+         * Returns the number of pairs written.
+         *
+         * @return an int
+         */
+        synchronized int getCount() {
+            return count;
+        }
+    }
+
+    /**
+     * Read the classes to ignore from the configuration of createOverlaps().
+     *
+     * @return a Map from class to the classes that it should not be overlapped with
+     */
+    private static Map<Class<?>, Set<Class<?>>> getClassesToIgnore(Model model,
+            List<?> classNamesToIgnore) {
+        Map<Class<?>, Set<Class<?>>> classesToIgnore = new HashMap<Class<?>, Set<Class<?>>>();
+
+        Iterator<?> classNamesToIgnoreIter = classNamesToIgnore.iterator();
+
+        while (classNamesToIgnoreIter.hasNext()) {
+            String className = (String) classNamesToIgnoreIter.next();
+
+            int eq = className.indexOf('=');
+            String targetClassName = (eq == -1 ? "org.intermine.model.InterMineObject"
+                    : className.substring(eq + 1));
+            className = (eq == -1 ? className : className.substring(0, eq));
+
+            className = (className.indexOf('.') == -1 ? model.getPackageName() + "." + className
+                    : className);
+            targetClassName = (targetClassName.indexOf('.') == -1 ? model.getPackageName() + "."
+                    + targetClassName : targetClassName);
+
+            try {
+                Class<?> thisClass = Class.forName(className);
+                Class<?> targetClass = Class.forName(targetClassName);
+
+                Set<Class<?>> targetClasses = classesToIgnore.get(thisClass);
+                if (targetClasses == null) {
+                    targetClasses = new HashSet<Class<?>>();
+                    classesToIgnore.put(thisClass, targetClasses);
+                }
+                targetClasses.add(targetClass);
+            } catch (java.lang.ClassNotFoundException e) {
+                // ignore
+            }
+        }
+        return classesToIgnore;
+    }
+
     /**
      * Return true if and only if the given SequenceFeature should be ignored when looking
      * for overlaps.
@@ -15,6 +15,10 @@ import java.io.File;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -48,6 +52,60 @@ public class PostProcessOperationsTask extends DynamicAttributeTask
 {
     private static final Logger LOGGER = Logger.getLogger(PostProcessOperationsTask.class);
 
+    /**
+     * The resources read and written by each operation, so that the PostProcessTask can run
+     * operations that don't depend on each other at the same time.  "data" is the contents of the
+     * objectstore, "data.Class" the objects of one class, and "data.Class.field" one field of
+     * those objects.  "data.Location.Class" is the locations of features of one class.  The data
+     * sets that operations create for the objects they add are not declared.
+     */
+    private static final Map<String, Collection<String>> READS =
+        new HashMap<String, Collection<String>>();
+    private static final Map<String, Collection<String>> WRITES =
+        new HashMap<String, Collection<String>>();
+
+    static {
+        declare("data.Location data.SequenceFeature", "data.SequenceFeature",
+                "create-chromosome-locations-and-lengths", "set-missing-chromosome-locations",
+                "create-utr-references", "populate-located-features");
+        declare("data", "data", "create-references", "set-collection-counts");
+        declare("data.Location data.SequenceFeature data.Sequence",
+                "data.SequenceFeature data.Sequence", "transfer-sequences",
+                "transfer-sequences-located-sequence-feature", "transfer-sequences-transcripts");
+        declare("data.Location data.SequenceFeature", "data.Location", "make-spanning-locations");
+        // These three only add new features and their locations, and only change fields of
+        // genes that the others don't read, so they can run at the same time
+        declare("data.Location.Gene data.SequenceFeature.Gene.chromosomeLocation"
+                + " data.SequenceFeature.Chromosome",
+                "data.SequenceFeature.IntergenicRegion data.Location.IntergenicRegion"
+                + " data.SequenceFeature.Gene.upstreamIntergenicRegion"
+                + " data.SequenceFeature.Gene.downstreamIntergenicRegion",
+                "create-intergenic-region-features");
+        declare("data.Location.Gene data.SequenceFeature.Gene.primaryIdentifier"
+                + " data.SequenceFeature.Gene.organism data.SequenceFeature.Gene.source"
+                + " data.SequenceFeature.Chromosome",
+                "data.SequenceFeature.GeneFlankingRegion data.Location.GeneFlankingRegion",
+                "create-gene-flanking-features");
+        declare("data.Location.Transcript data.Location.Exon data.SequenceFeature.Transcript"
+                + " data.SequenceFeature.Exon data.SequenceFeature.Gene.transcripts"
+                + " data.SequenceFeature.Chromosome",
+                "data.SequenceFeature.Intron data.Location.Intron"
+                + " data.SequenceFeature.Transcript.introns data.SequenceFeature.Gene.introns",
+                "create-intron-features");
+        declare("data.Location data.SequenceFeature", "data.SequenceFeature.overlappingFeatures",
+                "create-overlap-relations-flymine");
+        declare("data", "database.indexes", "create-attribute-indexes");
+        declare("data", "metadata.summary", "summarise-objectstore");
+        declare("data", "database.precomputed", "precompute-queries");
+        declare("data", "metadata.autocomplete", "create-lucene-index",
+                "create-autocomplete-index");
+        declare("data", "metadata.search", "create-search-index");
+        declare("data.Location", "database.overlapView", "create-overlap-view");
+        declare("data.Location", "database.indexes.location", "create-bioseg-location-index");
+        declare("data", "files.linkIns", "link-ins");
+        declare("data", "metadata.modmine", "modmine-metadata-cache");
+    }
+
     protected String operation, objectStoreWriter, ensemblDb, organisms = null;
     protected File outputFile;
     protected ObjectStoreWriter osw;
@@ -88,6 +146,33 @@ public class PostProcessOperationsTask extends DynamicAttributeTask
         this.ensemblDb = ensemblDb;
     }
 
+    private static void declare(String reads, String writes, String... operations) {
+        for (String op : operations) {
+            READS.put(op, Arrays.asList(reads.split(" ")));
+            WRITES.put(op, Arrays.asList(writes.split(" ")));
+        }
+    }
+
+    /**
+     * Returns the resources that the operation reads, or "*" if it might read anything.
+     *
+     * @return a Collection of resource names
+     */
+    public Collection<String> getReads() {
+        Collection<String> reads = READS.get(operation);
+        return reads == null ? Collections.singleton("*") : reads;
+    }
+
+    /**
+     * Returns the resources that the operation writes, or "*" if it might write anything.
+     *
+     * @return a Collection of resource names
+     */
+    public Collection<String> getWrites() {
+        Collection<String> writes = WRITES.get(operation);
+        return writes == null ? Collections.singleton("*") : writes;
+    }
+
     private ObjectStoreWriter getObjectStoreWriter() throws Exception {
         if (objectStoreWriter == null) {
             throw new BuildException("objectStoreWriter attribute is not set");
@@ -181,6 +266,7 @@ public class PostProcessOperationsTask extends DynamicAttributeTask
                 }
 
                 CalculateLocations cl = new CalculateLocations(getObjectStoreWriter());
+                configureDynamicAttributes(cl);
                 cl.createOverlapRelations(classNamesToIgnoreList, false);
             } else if ("set-collection-counts".equals(operation)) {
                 SetCollectionCounts setCounts = new SetCollectionCounts(getObjectStoreWriter());
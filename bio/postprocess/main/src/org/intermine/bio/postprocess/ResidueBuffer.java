@@ -0,0 +1,150 @@
+package org.intermine.bio.postprocess;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+
+import org.intermine.bio.util.ClobAccessReverseComplement;
+import org.intermine.objectstore.query.Clob;
+import org.intermine.objectstore.query.ClobAccess;
+
+/**
+ * The residues of a whole stored sequence, such as a chromosome, read once into memory at one
+ * byte per base. Sequences that are stored as subsequences of the same clob, possibly reverse
+ * complemented, can then be read from the buffer instead of each reading the clob pages that they
+ * cover from the database.
+ */
+public class ResidueBuffer
+{
+    private final Clob clob;
+    private final byte[] residues;
+
+    /**
+     * Read the residues of a whole sequence into memory.
+     *
+     * @param sequence the residues of the sequence
+     */
+    public ResidueBuffer(ClobAccess sequence) {
+        if (sequence.getSubSequence() || (sequence.getClass() != ClobAccess.class)) {
+            throw new IllegalArgumentException("Can only buffer a whole clob");
+        }
+        clob = sequence.getClob();
+        residues = new byte[sequence.length()];
+        ArrayOutputStream out = new ArrayOutputStream();
+        if (residues.length == 0) {
+            return;
+        }
+        try {
+            PrintStream printStream = new PrintStream(out, false, "US-ASCII");
+            sequence.drainToPrintStream(printStream);
+            printStream.flush();
+            if (printStream.checkError()) {
+                throw new IllegalStateException("Could not read clob " + clob.getClobId());
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+        if (out.size != residues.length) {
+            throw new IllegalStateException("Read " + out.size + " residues from clob "
+                    + clob.getClobId() + " but expected " + residues.length);
+        }
+    }
+
+    /**
+     * Returns the clob that has been read into this buffer.
+     *
+     * @return a Clob
+     */
+    public Clob getClob() {
+        return clob;
+    }
+
+    /**
+     * Returns the number of residues in the buffer.
+     *
+     * @return an int
+     */
+    public int length() {
+        return residues.length;
+    }
+
+    /**
+     * Returns whether the residues of a sequence can be read from this buffer, which is the case
+     * if they are a plain or reverse complemented subsequence of the buffered clob.
+     *
+     * @param sequence the residues of a sequence
+     * @return true if read() can read the residues from the buffer
+     */
+    public boolean contains(ClobAccess sequence) {
+        Class<?> type = sequence.getClass();
+        return ((type == ClobAccess.class) || (type == ClobAccessReverseComplement.class))
+            && sequence.getSubSequence() && clob.equals(sequence.getClob())
+            && (sequence.getOffset() >= 0)
+            && (sequence.getOffset() + sequence.getLengthWithoutInit() <= residues.length);
+    }
+
+    /**
+     * Returns the residues of a sequence, from this buffer if possible, or from the database if
+     * not.
+     *
+     * @param sequence the residues of a sequence
+     * @return a String
+     */
+    public String read(ClobAccess sequence) {
+        if (!contains(sequence)) {
+            return sequence.toString();
+        }
+        int offset = sequence.getOffset();
+        int length = sequence.getLengthWithoutInit();
+        char[] chars = new char[length];
+        if (sequence instanceof ClobAccessReverseComplement) {
+            for (int i = 0; i < length; i++) {
+                chars[i] = ClobAccessReverseComplement.complement((char) residues[offset + length
+                        - 1 - i]);
+            }
+        } else {
+            for (int i = 0; i < length; i++) {
+                chars[i] = (char) residues[offset + i];
+            }
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Writes into the residues array.
+     */
+    private class ArrayOutputStream extends OutputStream
+    {
+        private int size = 0;
+
+        @Override
+        public void write(int b) throws IOException {
+            if (size == residues.length) {
+                throw new IOException("Clob " + clob.getClobId() + " is longer than "
+                        + residues.length);
+            }
+            residues[size++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (size + len > residues.length) {
+                throw new IOException("Clob " + clob.getClobId() + " is longer than "
+                        + residues.length);
+            }
+            System.arraycopy(b, off, residues, size, len);
+            size += len;
+        }
+    }
+}
@@ -11,8 +11,10 @@ package org.intermine.bio.postprocess;
  */
 
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
@@ -30,6 +32,7 @@ import org.intermine.objectstore.ObjectStoreException;
 import org.intermine.objectstore.ObjectStoreWriter;
 import org.intermine.objectstore.intermine.ObjectStoreInterMineImpl;
 import org.intermine.objectstore.proxy.ProxyReference;
+import org.intermine.objectstore.query.Clob;
 import org.intermine.objectstore.query.ClobAccess;
 import org.intermine.objectstore.query.ConstraintOp;
 import org.intermine.objectstore.query.ConstraintSet;
@@ -178,6 +181,7 @@ public class TransferSequences
 
         @SuppressWarnings("unchecked") Iterator<ResultsRow> resIter = (Iterator) results.iterator();
 
+        ClobAccess chrResidues = chr.getSequence().getResidues();
         long start = System.currentTimeMillis();
         int i = 0;
         while (resIter.hasNext()) {
@@ -205,7 +209,7 @@ public class TransferSequences
                     }
                 }
 
-                ClobAccess featureSeq = getSubSequence(chr.getSequence(), locationOnChr);
+                ClobAccess featureSeq = getSubSequence(chrResidues, locationOnChr);
 
                 if (featureSeq == null) {
                     // probably the locationOnChr is out of range
@@ -246,10 +250,10 @@ public class TransferSequences
                 + (System.currentTimeMillis() - startTime) + " ms.");
     }
 
-    private ClobAccess getSubSequence(Sequence chromosomeSequence, Location locationOnChr) {
+    private ClobAccess getSubSequence(ClobAccess chromosomeSequenceString,
+            Location locationOnChr) {
         int charsToCopy =
             locationOnChr.getEnd().intValue() - locationOnChr.getStart().intValue() + 1;
-        ClobAccess chromosomeSequenceString = chromosomeSequence.getResidues();
 
         if (charsToCopy > chromosomeSequenceString.length()) {
             LOG.warn("SequenceFeature too long, ignoring - Location: "
@@ -289,6 +293,31 @@ public class TransferSequences
     }
 
 
+    /**
+     * Return the residues of the chromosome sequences that can be read into a ResidueBuffer,
+     * keyed by their clob.
+     */
+    private Map<Clob, ClobAccess> getChromosomeSequences() {
+        Query q = new Query();
+        QueryClass qcChr = new QueryClass(Chromosome.class);
+        q.addFrom(qcChr);
+        QueryClass qcSeq = new QueryClass(Sequence.class);
+        q.addFrom(qcSeq);
+        q.addToSelect(qcSeq);
+        QueryObjectReference seqRef = new QueryObjectReference(qcChr, "sequence");
+        q.setConstraint(new ContainsConstraint(seqRef, ConstraintOp.CONTAINS, qcSeq));
+
+        Map<Clob, ClobAccess> retval = new HashMap<Clob, ClobAccess>();
+        for (Object o : osw.getObjectStore().executeSingleton(q)) {
+            ClobAccess residues = ((Sequence) o).getResidues();
+            if (residues != null && residues.getClass() == ClobAccess.class
+                    && !residues.getSubSequence()) {
+                retval.put(residues.getClob(), residues);
+            }
+        }
+        return retval;
+    }
+
     /**
      * For each Transcript, join and transfer the sequences from the child Exons to a new Sequence
      * object for the Transcript.  Uses the ObjectStoreWriter that was passed to the constructor
@@ -317,6 +346,12 @@ public class TransferSequences
             new QueryClass(model.getClassDescriptorByName("Transcript").getType());
         q.addFrom(qcTranscript);
         q.addToSelect(qcTranscript);
+        // Keep the transcripts of each chromosome together, so that each chromosome sequence is
+        // only read once
+        if (model.getClassDescriptorByName("Transcript").getFieldDescriptorByName("chromosome")
+                != null) {
+            q.addToOrderBy(new QueryObjectReference(qcTranscript, "chromosome"));
+        }
         q.addToOrderBy(qcTranscript);
 
         QueryClass qcExon = new QueryClass(model.getClassDescriptorByName("Exon").getType());
@@ -369,6 +404,10 @@ public class TransferSequences
 
         Iterator<?> resIter = res.iterator();
 
+        Map<Clob, ClobAccess> chromosomeSequences = getChromosomeSequences();
+        ResidueBuffer chromosomeResidues = null;
+        int chromosomesRead = 0;
+
         SequenceFeature currentTranscript = null;
         StringBuffer currentTranscriptBases = new StringBuffer();
 
@@ -395,10 +434,27 @@ public class TransferSequences
 
             Sequence exonSequence = (Sequence) rr.get(2);
             Location  location = (Location) rr.get(3);
+            ClobAccess exonResidues = exonSequence.getResidues();
+            ClobAccess chromosomeSequence = chromosomeSequences.get(exonResidues.getClob());
+            if (chromosomeSequence != null && (chromosomeResidues == null
+                    || !chromosomeResidues.getClob().equals(exonResidues.getClob()))) {
+                // Exon sequences are usually parts of the chromosome sequence, so read the
+                // chromosome once rather than the clob pages of every exon separately
+                // let the previous chromosome be garbage collected first
+                chromosomeResidues = null;
+                chromosomeResidues = new ResidueBuffer(chromosomeSequence);
+                chromosomesRead++;
+            }
+            String exonBases;
+            if (chromosomeResidues != null) {
+                exonBases = chromosomeResidues.read(exonResidues);
+            } else {
+                exonBases = exonResidues.toString();
+            }
             if (location.getStrand() != null && "-1".equals(location.getStrand())) {
-                currentTranscriptBases.insert(0, exonSequence.getResidues().toString());
+                currentTranscriptBases.insert(0, exonBases);
             } else {
-                currentTranscriptBases.append(exonSequence.getResidues().toString());
+                currentTranscriptBases.append(exonBases);
             }
         }
         if (currentTranscript == null) {
@@ -407,7 +463,8 @@ public class TransferSequences
             storeNewSequence(currentTranscript, new PendingClob(currentTranscriptBases.toString()));
         }
 
-        LOG.info("Finished setting " + i + " Trascript sequences - took "
+        LOG.info("Finished setting " + i + " Trascript sequences, reading " + chromosomesRead
+                 + " chromosome sequences - took "
                  + (System.currentTimeMillis() - startTime) + " ms.");
 
         osw.commitTransaction();
@@ -0,0 +1,187 @@
+package org.intermine.bio.postprocess;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.intermine.bio.postprocess.OverlapUtil.OverlapSweep;
+import org.intermine.bio.postprocess.OverlapUtil.OverlapWriter;
+import org.intermine.model.InterMineObject;
+import org.intermine.model.bio.Exon;
+import org.intermine.model.bio.Gene;
+import org.intermine.model.bio.SequenceFeature;
+import org.intermine.model.bio.Transcript;
+import org.intermine.util.DynamicUtil;
+
+/**
+ * Tests for the overlap sweep of OverlapUtil.
+ */
+public class OverlapUtilTest extends TestCase
+{
+    private Map<Class<?>, Set<Class<?>>> classesToIgnore;
+
+    public OverlapUtilTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        // Exon=Transcript, as it would be read from overlap.config
+        classesToIgnore = new HashMap<Class<?>, Set<Class<?>>>();
+        classesToIgnore.put(Exon.class, Collections.<Class<?>>singleton(Transcript.class));
+    }
+
+    public void testOverlaps() throws Exception {
+        RecordingWriter writer = new RecordingWriter();
+        OverlapSweep sweep = new OverlapSweep(classesToIgnore, false, writer);
+        sweep.add(1, 100, 1, Gene.class);
+        sweep.add(10, 20, 2, Transcript.class);
+        sweep.add(20, 30, 3, Exon.class);
+        sweep.add(31, 40, 4, Gene.class);
+        sweep.add(101, 200, 5, Gene.class);
+        sweep.flush();
+        assertEquals(Arrays.asList("1-2 Gene - Transcript", "1-3 Exon - Gene", "1-4 Gene - Gene"),
+                writer.getPairs());
+        assertEquals(3, sweep.getCount());
+        assertEquals(Integer.valueOf(1), writer.summary.get("Gene - Gene"));
+    }
+
+    public void testIgnoreSelfMatches() throws Exception {
+        RecordingWriter writer = new RecordingWriter();
+        OverlapSweep sweep = new OverlapSweep(classesToIgnore, true, writer);
+        sweep.add(1, 100, 1, Gene.class);
+        sweep.add(31, 40, 4, Gene.class);
+        sweep.add(35, 40, 5, Exon.class);
+        sweep.flush();
+        assertEquals(Arrays.asList("1-5 Exon - Gene", "4-5 Exon - Gene"), writer.getPairs());
+    }
+
+    public void testIgnoredClass() throws Exception {
+        classesToIgnore.put(Transcript.class,
+                Collections.<Class<?>>singleton(InterMineObject.class));
+        RecordingWriter writer = new RecordingWriter();
+        OverlapSweep sweep = new OverlapSweep(classesToIgnore, false, writer);
+        sweep.add(1, 100, 1, Gene.class);
+        sweep.add(10, 20, 2, Transcript.class);
+        sweep.add(20, 30, 3, Exon.class);
+        sweep.flush();
+        assertEquals(Arrays.asList("1-3 Exon - Gene"), writer.getPairs());
+    }
+
+    public void testRandom() throws Exception {
+        Random random = new Random(0);
+        for (boolean ignoreSelfMatches : new boolean[] {false, true}) {
+            int n = 3000;
+            int[] starts = new int[n];
+            int[] ends = new int[n];
+            int[] ids = new int[n];
+            Class<?>[] classes = new Class<?>[n];
+            for (int i = 0; i < n; i++) {
+                starts[i] = 1 + random.nextInt(100000);
+                ends[i] = starts[i] + random.nextInt(random.nextBoolean() ? 100 : 2000);
+                // some features have more than one location
+                ids[i] = random.nextInt(n);
+                classes[i] = CLASSES[ids[i] % CLASSES.length];
+            }
+            RecordingWriter writer = new RecordingWriter();
+            OverlapSweep sweep = new OverlapSweep(classesToIgnore, ignoreSelfMatches, writer);
+            for (int i : sortByStart(starts)) {
+                sweep.add(starts[i], ends[i], ids[i], classes[i]);
+            }
+            sweep.flush();
+            assertEquals(bruteForce(starts, ends, ids, classes, ignoreSelfMatches),
+                    writer.getPairs());
+        }
+    }
+
+    private static int[] sortByStart(int[] starts) {
+        long[] order = new long[starts.length];
+        for (int i = 0; i < starts.length; i++) {
+            order[i] = (((long) starts[i]) << 32) | i;
+        }
+        Arrays.sort(order);
+        int[] retval = new int[starts.length];
+        for (int i = 0; i < starts.length; i++) {
+            retval[i] = (int) order[i];
+        }
+        return retval;
+    }
+
+    /**
+     * Compares every pair of locations.
+     */
+    private List<String> bruteForce(int[] starts, int[] ends, int[] ids, Class<?>[] classes,
+            boolean ignoreSelfMatches) {
+        List<String> retval = new ArrayList<String>();
+        for (int i = 0; i < starts.length; i++) {
+            for (int j = i + 1; j < starts.length; j++) {
+                if ((starts[i] > ends[j]) || (starts[j] > ends[i])) {
+                    continue;
+                }
+                if (ignoreSelfMatches && classes[i].equals(classes[j])) {
+                    continue;
+                }
+                if ((classes[i] == Exon.class && classes[j] == Transcript.class)
+                        || (classes[i] == Transcript.class && classes[j] == Exon.class)) {
+                    continue;
+                }
+                retval.add(describe(ids[i], ids[j], classes[i], classes[j]));
+            }
+        }
+        Collections.sort(retval);
+        return retval;
+    }
+
+    private static String describe(int id1, int id2, Class<?> cls1, Class<?> cls2) {
+        String name1 = DynamicUtil.getFriendlyName(cls1);
+        String name2 = DynamicUtil.getFriendlyName(cls2);
+        return Math.min(id1, id2) + "-" + Math.max(id1, id2) + " "
+            + (name1.compareTo(name2) > 0 ? name2 + " - " + name1 : name1 + " - " + name2);
+    }
+
+    /**
+     * Records the pairs instead of writing them.
+     */
+    private static class RecordingWriter extends OverlapWriter
+    {
+        private final List<String> pairs = new ArrayList<String>();
+        private final Map<String, Integer> summary = new HashMap<String, Integer>();
+
+        RecordingWriter() {
+            super(null, null);
+        }
+
+        @Override
+        synchronized void write(int[] pairIds, String[] summaryLines, int pairCount) {
+            for (int i = 0; i < pairCount; i++) {
+                int id1 = pairIds[2 * i];
+                int id2 = pairIds[2 * i + 1];
+                pairs.add(Math.min(id1, id2) + "-" + Math.max(id1, id2) + " " + summaryLines[i]);
+                Integer count = summary.get(summaryLines[i]);
+                summary.put(summaryLines[i], Integer.valueOf(count == null ? 1 : count + 1));
+            }
+        }
+
+        List<String> getPairs() {
+            List<String> retval = new ArrayList<String>(pairs);
+            Collections.sort(retval);
+            return retval;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package org.intermine.bio.postprocess;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import static org.intermine.objectstore.query.Clob.CLOB_PAGE_SIZE;
+
+import java.util.Collections;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.intermine.bio.util.ClobAccessReverseComplement;
+import org.intermine.objectstore.dummy.ObjectStoreDummyImpl;
+import org.intermine.objectstore.query.ClobAccess;
+import org.intermine.objectstore.query.ResultsRow;
+
+/**
+ * Tests for the ResidueBuffer class
+ */
+public class ResidueBufferTest extends TestCase
+{
+    // The benchmark only runs if this is set, eg. -Dresiduebuffer.benchmark.length=250000000
+    private static final int BENCHMARK_LENGTH =
+        Integer.getInteger("residuebuffer.benchmark.length", 0).intValue();
+
+    private ObjectStoreDummyImpl os;
+    private String chromosome;
+
+    public ResidueBufferTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        chromosome = randomSequence(CLOB_PAGE_SIZE * 3 + 123);
+        os = createObjectStore(chromosome);
+    }
+
+    public void testRead() throws Exception {
+        ResidueBuffer buffer = new ResidueBuffer(ClobAccess.decodeDbDescription(os, "1"));
+        assertEquals(chromosome.length(), buffer.length());
+        int executeCalls = os.getExecuteCalls();
+
+        // across page boundaries, as stored by TransferSequences
+        ClobAccess exon = ClobAccess.decodeDbDescription(os, "1," + (CLOB_PAGE_SIZE - 10)
+                + ",200");
+        assertTrue(buffer.contains(exon));
+        assertEquals(chromosome.substring(CLOB_PAGE_SIZE - 10, CLOB_PAGE_SIZE + 190),
+                buffer.read(exon));
+        ClobAccess reverse = ClobAccess.decodeDbDescription(os, "1,100,50,"
+                + ClobAccessReverseComplement.class.getName());
+        assertTrue(buffer.contains(reverse));
+        assertEquals(reverseComplement(chromosome.substring(100, 150)), buffer.read(reverse));
+        // nothing has been read from the database
+        assertEquals(executeCalls, os.getExecuteCalls());
+
+        // the same residues read from the database
+        assertEquals(buffer.read(exon), exon.toString());
+        assertEquals(buffer.read(reverse), reverse.toString());
+        assertEquals(chromosome.charAt(CLOB_PAGE_SIZE + 5), exon.charAt(15));
+
+        // another clob, or the whole clob, is read from the database
+        ClobAccess other = ClobAccess.decodeDbDescription(os, "2,0,10");
+        assertFalse(buffer.contains(other));
+        assertFalse(buffer.contains(ClobAccess.decodeDbDescription(os, "1")));
+        assertEquals(chromosome.substring(0, 10), buffer.read(other));
+    }
+
+    public void testBenchmark() throws Exception {
+        if (BENCHMARK_LENGTH == 0) {
+            return;
+        }
+        String sequence = randomSequence(BENCHMARK_LENGTH);
+        ObjectStoreDummyImpl bigOs = createObjectStore(sequence);
+        int exonCount = BENCHMARK_LENGTH / 1000;
+        Random random = new Random(0);
+        String[] exons = new String[exonCount];
+        for (int i = 0; i < exonCount; i++) {
+            int start = random.nextInt(BENCHMARK_LENGTH - 1000);
+            int length = 50 + random.nextInt(950);
+            String description = "1," + start + "," + length;
+            if (random.nextBoolean()) {
+                description += "," + ClobAccessReverseComplement.class.getName();
+            }
+            exons[i] = description;
+        }
+
+        long start = System.currentTimeMillis();
+        long fromClobs = 0;
+        for (String description : exons) {
+            fromClobs += ClobAccess.decodeDbDescription(bigOs, description).toString().length();
+        }
+        long clobTime = System.currentTimeMillis() - start;
+        int clobCalls = bigOs.getExecuteCalls();
+
+        start = System.currentTimeMillis();
+        ResidueBuffer buffer = new ResidueBuffer(ClobAccess.decodeDbDescription(bigOs, "1"));
+        long fromBuffer = 0;
+        for (String description : exons) {
+            fromBuffer += buffer.read(ClobAccess.decodeDbDescription(bigOs, description))
+                .length();
+        }
+        long bufferTime = System.currentTimeMillis() - start;
+        assertEquals(fromClobs, fromBuffer);
+        System.out.println("Read " + exonCount + " exons from a " + BENCHMARK_LENGTH
+                + " base chromosome in " + clobTime + " ms with " + clobCalls
+                + " page queries, and in " + bufferTime + " ms with "
+                + (bigOs.getExecuteCalls() - clobCalls) + " from a ResidueBuffer");
+    }
+
+    /**
+     * Returns an ObjectStore in which every clob has the given contents.
+     */
+    private static ObjectStoreDummyImpl createObjectStore(String contents) {
+        ObjectStoreDummyImpl retval = new ObjectStoreDummyImpl();
+        int pages = (contents.length() + CLOB_PAGE_SIZE - 1) / CLOB_PAGE_SIZE;
+        for (int page = 0; page < pages; page++) {
+            String text = contents.substring(page * CLOB_PAGE_SIZE,
+                    Math.min(contents.length(), (page + 1) * CLOB_PAGE_SIZE));
+            retval.addRow(new ResultsRow<Object>(Collections.singletonList(text)));
+        }
+        retval.setResultsSize(pages);
+        return retval;
+    }
+
+    private static String randomSequence(int length) {
+        Random random = new Random(length);
+        char[] bases = new char[length];
+        for (int i = 0; i < length; i++) {
+            bases[i] = "acgtACGTN".charAt(random.nextInt(9));
+        }
+        return new String(bases);
+    }
+
+    private static String reverseComplement(String sequence) {
+        StringBuffer retval = new StringBuffer();
+        for (int i = sequence.length() - 1; i >= 0; i--) {
+            retval.append(ClobAccessReverseComplement.complement(sequence.charAt(i)));
+        }
+        return retval.toString();
+    }
+}
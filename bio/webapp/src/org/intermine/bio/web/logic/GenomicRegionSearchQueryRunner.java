@@ -32,6 +32,7 @@ import org.intermine.api.InterMineAPI;
 import org.intermine.api.profile.Profile;
 import org.intermine.api.results.ExportResultsIterator;
 import org.intermine.api.results.ResultElement;
+import org.intermine.bio.query.range.ChromosomeLocationIndex;
 import org.intermine.bio.web.model.ChromosomeInfo;
 import org.intermine.bio.web.model.GenomicRegion;
 import org.intermine.bio.web.model.GenomicRegionSearchConstraint;
@@ -170,8 +171,20 @@ public class GenomicRegionSearchQueryRunner implements Runnable
                 ObjectStore os = SessionMethods.getInterMineAPI(
                         request.getSession()).getObjectStore();
 
+                // search all the regions at once if the locations are indexed in memory
+                Map<GenomicRegion, List<List<Object>>> indexResults = null;
+                ChromosomeLocationIndex index = GenomicRegionSearchUtil.getLocationIndex(os,
+                        SessionMethods.getWebProperties(request.getSession().getServletContext()));
+                if (index != null) {
+                    indexResults = GenomicRegionSearchUtil.searchLocationIndex(os, index,
+                            queryMap.keySet(), grsc.getExtendedRegionSize(), grsc.getOrgName(),
+                            grsc.getFeatureTypes());
+                }
+
                 for (Entry<GenomicRegion, Query> e : queryMap.entrySet()) {
-                    Results results = os.execute(e.getValue());
+                    @SuppressWarnings("unchecked")
+                    List<? extends List<?>> results = indexResults != null
+                        ? indexResults.get(e.getKey()) : (List) os.execute(e.getValue());
 
                     List<List<String>> spanResults = new ArrayList<List<String>>();
 
@@ -184,8 +197,7 @@ public class GenomicRegionSearchQueryRunner implements Runnable
                         spanOverlapResultDisplayMap.put(e.getKey(), null);
                     }
                     else {
-                        for (Iterator<?> iter = results.iterator(); iter.hasNext();) {
-                            ResultsRow<?> row = (ResultsRow<?>) iter.next();
+                        for (List<?> row : results) {
 
                             List<String> resultRow = new ArrayList<String>();
 
@@ -13,9 +13,15 @@ package org.intermine.bio.web.logic;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -24,6 +30,7 @@ import javax.servlet.http.HttpServletRequest;
 
 import org.apache.commons.lang.ArrayUtils;
 import org.apache.tools.ant.BuildException;
+import org.intermine.bio.query.range.ChromosomeLocationIndex;
 import org.intermine.bio.web.model.ChromosomeInfo;
 import org.intermine.bio.web.model.GenomicRegion;
 import org.intermine.bio.web.model.RegionParseException;
@@ -31,6 +38,8 @@ import org.intermine.model.bio.Chromosome;
 import org.intermine.model.bio.Location;
 import org.intermine.model.bio.Organism;
 import org.intermine.model.bio.SequenceFeature;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.ObjectStoreException;
 import org.intermine.objectstore.query.BagConstraint;
 import org.intermine.objectstore.query.ConstraintOp;
 import org.intermine.objectstore.query.ConstraintSet;
@@ -42,6 +51,7 @@ import org.intermine.objectstore.query.QueryClass;
 import org.intermine.objectstore.query.QueryField;
 import org.intermine.objectstore.query.QueryObjectReference;
 import org.intermine.objectstore.query.QueryValue;
+import org.intermine.objectstore.query.ResultsRow;
 import org.intermine.objectstore.query.SimpleConstraint;
 import org.intermine.web.logic.session.SessionMethods;
 
@@ -377,6 +387,151 @@ public final class GenomicRegionSearchUtil
         return queryMap;
     }
 
+    /**
+     * Returns the in-memory index of Locations if the web properties enable it for the region
+     * search with genomicRegionSearch.locationIndex = true. The index is read on first use.
+     *
+     * @param os the ObjectStore
+     * @param webProperties the web properties
+     * @return a ChromosomeLocationIndex, or null if the queries should be run instead
+     * @throws ObjectStoreException if the index cannot be read
+     */
+    public static ChromosomeLocationIndex getLocationIndex(ObjectStore os,
+            Properties webProperties) throws ObjectStoreException {
+        if (webProperties == null
+                || !"true".equals(webProperties.getProperty("genomicRegionSearch.locationIndex"))) {
+            return null;
+        }
+        return ChromosomeLocationIndex.getIndex(os);
+    }
+
+    /**
+     * Search all the regions in the in-memory index of Locations, returning the same rows as the
+     * queries of createQueryList() would: feature id, primaryIdentifier, symbol, class,
+     * chromosome, start and end, ordered by start.
+     *
+     * @param os the ObjectStore
+     * @param index the index of Locations
+     * @param genomicRegions list of gr
+     * @param extension the flanking
+     * @param organismName org short name
+     * @param featureTypes ft
+     * @return map of gr-rows, in the order of the regions
+     * @throws ObjectStoreException if the features cannot be read
+     */
+    public static Map<GenomicRegion, List<List<Object>>> searchLocationIndex(ObjectStore os,
+            ChromosomeLocationIndex index, Collection<GenomicRegion> genomicRegions,
+            int extension, String organismName, Set<Class<?>> featureTypes)
+        throws ObjectStoreException {
+        Map<GenomicRegion, List<ChromosomeLocationIndex.Match>> matches =
+            new LinkedHashMap<GenomicRegion, List<ChromosomeLocationIndex.Match>>();
+        Set<Integer> featureIds = new HashSet<Integer>();
+        for (GenomicRegion aSpan : genomicRegions) {
+            List<ChromosomeLocationIndex.Match> spanMatches = findMatches(index, aSpan, extension,
+                    organismName, featureTypes);
+            for (ChromosomeLocationIndex.Match match : spanMatches) {
+                featureIds.add(match.getFeatureId());
+            }
+            matches.put(aSpan, spanMatches);
+        }
+
+        // the identifiers of all the features, in one query
+        Map<Integer, Object[]> identifiers = new HashMap<Integer, Object[]>();
+        if (!featureIds.isEmpty()) {
+            QueryClass qcFeature = new QueryClass(SequenceFeature.class);
+            QueryField qfFeatureId = new QueryField(qcFeature, "id");
+            Query q = new Query();
+            q.addFrom(qcFeature);
+            q.addToSelect(qfFeatureId);
+            q.addToSelect(new QueryField(qcFeature, "primaryIdentifier"));
+            q.addToSelect(new QueryField(qcFeature, "symbol"));
+            q.setConstraint(new BagConstraint(qfFeatureId, ConstraintOp.IN, featureIds));
+            for (Object o : os.execute(q, 10000, true, false, false)) {
+                ResultsRow<?> row = (ResultsRow<?>) o;
+                identifiers.put((Integer) row.get(0), new Object[] {row.get(1), row.get(2)});
+            }
+        }
+
+        Map<GenomicRegion, List<List<Object>>> retval =
+            new LinkedHashMap<GenomicRegion, List<List<Object>>>();
+        for (Map.Entry<GenomicRegion, List<ChromosomeLocationIndex.Match>> e
+                : matches.entrySet()) {
+            // distinct rows, as the queries would return
+            Set<List<Object>> rows = new LinkedHashSet<List<Object>>();
+            for (ChromosomeLocationIndex.Match match : e.getValue()) {
+                Object[] ids = identifiers.get(match.getFeatureId());
+                if (ids == null) {
+                    continue;
+                }
+                List<Object> row = new ArrayList<Object>();
+                row.add(match.getFeatureId());
+                row.add(ids[0]);
+                row.add(ids[1]);
+                row.add(match.getFeatureClass());
+                row.add(match.getChromosome());
+                row.add(Integer.valueOf(match.getStart()));
+                row.add(Integer.valueOf(match.getEnd()));
+                rows.add(row);
+            }
+            List<List<Object>> spanRows = new ArrayList<List<Object>>(rows);
+            Collections.sort(spanRows, new Comparator<List<Object>>() {
+                @Override
+                public int compare(List<Object> row1, List<Object> row2) {
+                    return ((Integer) row1.get(5)).compareTo((Integer) row2.get(5));
+                }
+            });
+            retval.put(e.getKey(), spanRows);
+        }
+        return retval;
+    }
+
+    /**
+     * Search all the regions in the in-memory index of Locations, returning the ids of the
+     * features that the queries of createRegionListQueries() would.
+     *
+     * @param index the index of Locations
+     * @param genomicRegions list of gr
+     * @param extension the flanking
+     * @param organismName org short name
+     * @param featureTypes ft
+     * @return a set of feature ids
+     */
+    public static Set<Integer> searchLocationIndexForIds(ChromosomeLocationIndex index,
+            Collection<GenomicRegion> genomicRegions, int extension, String organismName,
+            Set<Class<?>> featureTypes) {
+        Set<Integer> retval = new LinkedHashSet<Integer>();
+        for (GenomicRegion aSpan : genomicRegions) {
+            for (ChromosomeLocationIndex.Match match : findMatches(index, aSpan, extension,
+                    organismName, featureTypes)) {
+                retval.add(match.getFeatureId());
+            }
+        }
+        return retval;
+    }
+
+    private static List<ChromosomeLocationIndex.Match> findMatches(
+            ChromosomeLocationIndex index, GenomicRegion aSpan, int extension,
+            String organismName, Set<Class<?>> featureTypes) {
+        int start;
+        int end;
+        if (extension > 0) {
+            aSpan = extendGenomicRegion(aSpan, extension);
+            start = aSpan.getExtendedStart();
+            end = aSpan.getExtendedEnd();
+        } else {
+            start = aSpan.getStart();
+            end = aSpan.getEnd();
+        }
+        List<ChromosomeLocationIndex.Match> retval = new ArrayList<ChromosomeLocationIndex.Match>();
+        for (ChromosomeLocationIndex.Match match : index.find(aSpan.getChr(), organismName,
+                start, end, ConstraintOp.OVERLAPS)) {
+            if (featureTypes.contains(match.getFeatureClass())) {
+                retval.add(match);
+            }
+        }
+        return retval;
+    }
+
     /**
      * To extend genomic region
      * @param gr GenomicRegion
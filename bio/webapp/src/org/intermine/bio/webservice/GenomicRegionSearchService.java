@@ -23,6 +23,7 @@ import org.intermine.api.bag.ClassKeysNotFoundException;
 import org.intermine.api.bag.UnknownBagTypeException;
 import org.intermine.api.profile.InterMineBag;
 import org.intermine.api.profile.Profile;
+import org.intermine.bio.query.range.ChromosomeLocationIndex;
 import org.intermine.bio.web.logic.GenomicRegionSearchQueryRunner;
 import org.intermine.bio.web.logic.GenomicRegionSearchUtil;
 import org.intermine.bio.web.model.GenomicRegion;
@@ -102,7 +103,20 @@ public class GenomicRegionSearchService extends ListMakerService
         UnknownBagTypeException {
         final InterMineBag tempBag = profile.createBag(
                 input.getTemporaryListName(), type, input.getDescription(), im.getClassKeys());
-        Map<GenomicRegion, Query> queries = createQueries(input.getSearchInfo());
+        GenomicRegionSearchInfo info = input.getSearchInfo();
+        ChromosomeLocationIndex index = GenomicRegionSearchUtil.getLocationIndex(
+                im.getObjectStore(), webProperties);
+        if (index != null) {
+            // all the regions at once, from the locations indexed in memory
+            Set<Integer> ids = GenomicRegionSearchUtil.searchLocationIndexForIds(index,
+                    info.getGenomicRegions(), info.getExtension(), info.getOrganism(),
+                    info.getFeatureClasses());
+            if (!ids.isEmpty()) {
+                tempBag.addIdsToBag(ids, type);
+            }
+            return tempBag;
+        }
+        Map<GenomicRegion, Query> queries = createQueries(info);
         for (Entry<GenomicRegion, Query> e : queries.entrySet()) {
             Query q = e.getValue();
             tempBag.addToBagFromQuery(q);
@@ -0,0 +1,246 @@
+package org.intermine.task;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.tools.ant.BuildException;
+
+/**
+ * Runs post-process steps on several threads, while keeping the order of the project.xml for any
+ * two steps that depend on each other.
+ *
+ * Each step declares the resources that it reads and writes, as dotted paths such as
+ * "data.SequenceFeature" or "metadata.summary". A path covers every path that it is a prefix of,
+ * and "*" covers everything, so a step that declares nothing more precise runs on its own. A step
+ * waits for every earlier step that writes something it reads or writes, or that reads something
+ * it writes.
+ */
+public class PostProcessScheduler
+{
+    /**
+     * The resource that covers all other resources.
+     */
+    public static final String ALL = "*";
+
+    private final int threads;
+    private final List<Step> steps = new ArrayList<Step>();
+    private long startTime;
+
+    /**
+     * Create a scheduler.
+     *
+     * @param threads the number of steps to run at once
+     */
+    public PostProcessScheduler(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Add a step, to run after any earlier step that it depends on.
+     *
+     * @param name the name of the step
+     * @param reads the resources that the step reads
+     * @param writes the resources that the step writes
+     * @param action runs the step
+     */
+    public void addStep(String name, Collection<String> reads, Collection<String> writes,
+            Runnable action) {
+        Step step = new Step(name, reads, writes, action);
+        for (Step earlier : steps) {
+            if (conflicts(earlier, step)) {
+                step.dependsOn.add(earlier);
+                step.predecessors.add(earlier);
+                earlier.dependents.add(step);
+            }
+        }
+        steps.add(step);
+    }
+
+    /**
+     * Run all the steps. If a step fails, no more steps are started, and once the running steps
+     * have finished the failure is thrown.
+     *
+     * @throws BuildException if a step fails
+     */
+    public void run() {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CompletionService<Step> completion = new ExecutorCompletionService<Step>(pool);
+        startTime = System.currentTimeMillis();
+        try {
+            LinkedList<Step> ready = new LinkedList<Step>();
+            for (Step step : steps) {
+                if (step.dependsOn.isEmpty()) {
+                    ready.add(step);
+                }
+            }
+            int running = 0;
+            Step failed = null;
+            while (!ready.isEmpty() || running > 0) {
+                while (failed == null && !ready.isEmpty()) {
+                    Step step = ready.removeFirst();
+                    completion.submit(step, step);
+                    running++;
+                }
+                Step done;
+                try {
+                    done = completion.take().get();
+                } catch (InterruptedException e) {
+                    throw new BuildException("Interrupted while running post-processes", e);
+                } catch (ExecutionException e) {
+                    // Step.run() catches everything
+                    throw new BuildException(e.getCause());
+                }
+                running--;
+                if (done.failure != null) {
+                    if (failed == null) {
+                        failed = done;
+                    }
+                    ready.clear();
+                    continue;
+                }
+                for (Step dependent : done.dependents) {
+                    dependent.dependsOn.remove(done);
+                    if (dependent.dependsOn.isEmpty() && failed == null) {
+                        ready.add(dependent);
+                    }
+                }
+            }
+            if (failed != null) {
+                if (failed.failure instanceof BuildException) {
+                    throw (BuildException) failed.failure;
+                }
+                throw new BuildException("error running post-process " + failed.name,
+                        failed.failure);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns when each step ran, and the chain of steps that the last step to finish had to
+     * wait for.
+     *
+     * @return a String of one line per step
+     */
+    public String getTimeline() {
+        StringBuffer sb = new StringBuffer("Post-process timeline (ms from start):\n");
+        Step last = null;
+        for (Step step : steps) {
+            if (step.startTime == 0) {
+                sb.append(String.format("%10s %10s  %s%n", "-", "-", step.name));
+                continue;
+            }
+            sb.append(String.format("%10d %10d  %s%s%n", step.startTime - startTime,
+                        step.endTime - startTime, step.name, step.failure == null ? ""
+                        : " (failed)"));
+            if ((last == null) || (step.endTime > last.endTime)) {
+                last = step;
+            }
+        }
+        if (last != null) {
+            List<String> path = new LinkedList<String>();
+            for (Step step = last; step != null; step = step.criticalPredecessor) {
+                path.add(0, step.name + " (" + (step.endTime - step.startTime) + " ms)");
+            }
+            sb.append("Critical path: ");
+            String sep = "";
+            for (String part : path) {
+                sb.append(sep).append(part);
+                sep = " -> ";
+            }
+            sb.append(" = ").append(last.endTime - startTime).append(" ms\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns true if the later step must wait for the earlier one.
+     */
+    private static boolean conflicts(Step earlier, Step later) {
+        return overlaps(earlier.writes, later.reads) || overlaps(earlier.writes, later.writes)
+            || overlaps(earlier.reads, later.writes);
+    }
+
+    private static boolean overlaps(Collection<String> resources1,
+            Collection<String> resources2) {
+        for (String resource1 : resources1) {
+            for (String resource2 : resources2) {
+                if (covers(resource1, resource2) || covers(resource2, resource1)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if the first resource is the second one or contains it.
+     */
+    private static boolean covers(String resource, String other) {
+        return ALL.equals(resource) || resource.equals(other)
+            || other.startsWith(resource + ".");
+    }
+
+    /**
+     * A post-process step and its dependencies.
+     */
+    private static class Step implements Runnable
+    {
+        private final String name;
+        private final Collection<String> reads;
+        private final Collection<String> writes;
+        private final Runnable action;
+        private final Set<Step> dependsOn = new HashSet<Step>();
+        private final List<Step> dependents = new ArrayList<Step>();
+        private final List<Step> predecessors = new ArrayList<Step>();
+        private Step criticalPredecessor = null;
+        private Throwable failure = null;
+        private long startTime = 0;
+        private long endTime = 0;
+
+        Step(String name, Collection<String> reads, Collection<String> writes, Runnable action) {
+            this.name = name;
+            this.reads = reads;
+            this.writes = writes;
+            this.action = action;
+        }
+
+        @Override
+        public void run() {
+            // all the predecessors have finished
+            for (Step predecessor : predecessors) {
+                if ((criticalPredecessor == null)
+                        || (predecessor.endTime > criticalPredecessor.endTime)) {
+                    criticalPredecessor = predecessor;
+                }
+            }
+            startTime = System.currentTimeMillis();
+            try {
+                action.run();
+            } catch (Throwable t) {
+                failure = t;
+            }
+            endTime = System.currentTimeMillis();
+        }
+    }
+}
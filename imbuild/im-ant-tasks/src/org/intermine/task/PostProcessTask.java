@@ -12,10 +12,15 @@ package org.intermine.task;
 
 import java.io.File;
 import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.Properties;
 
 import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.BuildListener;
 import org.apache.tools.ant.Task;
 import org.apache.tools.ant.taskdefs.Ant;
 import org.apache.tools.ant.taskdefs.Property;
@@ -36,6 +41,10 @@ import org.intermine.task.project.UserProperty;
  * If there is a do-source postprocess all the sources included in the project.xml will
  * be examined to see if they have a post process step of their own, if so, it will be called.
  *
+ * If the postprocess.threads property is more than 1, post processes that do not depend on each
+ * other, according to the resources that each one declares that it reads and writes, are run at
+ * the same time, each with its own ObjectStoreWriter.
+ *
  * @author Peter McLaren
  */
 public class PostProcessTask extends Task
@@ -45,6 +54,12 @@ public class PostProcessTask extends Task
      */
     public static final String POSTPROCESSOR_CLASS = "postprocessor.class";
 
+    /**
+     * The property (from the project.xml or the command line) that sets the number of post
+     * processes to run at once.
+     */
+    public static final String THREADS = "postprocess.threads";
+
     private Reference classPathRef;
     private File projectXml;
     private Project project;
@@ -102,7 +117,9 @@ public class PostProcessTask extends Task
         if (action == null) { action = ""; }
 
         // Default - do it all
-        if ("".equals(action)) {
+        if ("".equals(action) && getThreads() > 1) {
+            doAllPostProcessesInParallel(getThreads());
+        } else if ("".equals(action)) {
             for (String name: project.getPostProcesses().keySet()) {
                 System.out.print(" executing post process: " + name + "\n");
 
@@ -127,22 +144,28 @@ public class PostProcessTask extends Task
         }
     }
 
+    private int getThreads() {
+        String threads = getProject().getProperty(THREADS);
+        for (UserProperty up: project.getProperties()) {
+            if (THREADS.equals(up.getName())) {
+                threads = up.getValue();
+            }
+        }
+        if (threads == null) {
+            return 1;
+        }
+        try {
+            return Integer.parseInt(threads.trim());
+        } catch (NumberFormatException e) {
+            throw new BuildException(THREADS + " must be a number: " + threads);
+        }
+    }
+
     private void doCorePostProcess (String postProcessName) {
         System.err.print("Performing postprocess: " + postProcessName + "\n");
 
-        PostProcess p = project.getPostProcesses().get(postProcessName);
         try {
-            Task pp = newPostProcessTask();
-            setProperty(pp, "operation", postProcessName);
-
-            for (UserProperty up: p.getUserProperties()) {
-                if (up.isLocation()) {
-                    pp.getProject().setUserProperty(up.getName(), up.getLocation());
-                } else {
-                    pp.getProject().setUserProperty(up.getName(), up.getValue());
-                }
-            }
-
+            Task pp = newCorePostProcessTask(postProcessName, getProject());
             pp.getClass().getMethod("execute", new Class[0]).invoke(pp, new Object[0]);
         } catch (Exception err) {
             throw new BuildException("error running PostProcessTask (action: "
@@ -150,6 +173,109 @@ public class PostProcessTask extends Task
         }
     }
 
+    private Task newCorePostProcessTask(String postProcessName,
+            org.apache.tools.ant.Project antProject) throws Exception {
+        PostProcess p = project.getPostProcesses().get(postProcessName);
+        Task pp = newPostProcessTask(antProject);
+        setProperty(pp, "operation", postProcessName);
+
+        for (UserProperty up: p.getUserProperties()) {
+            if (up.isLocation()) {
+                pp.getProject().setUserProperty(up.getName(), up.getLocation());
+            } else {
+                pp.getProject().setUserProperty(up.getName(), up.getValue());
+            }
+        }
+        return pp;
+    }
+
+    /**
+     * Run all the post processes, several at once where they don't depend on each other. Each
+     * core post process gets its own copy of the ant project, so that their properties don't
+     * interfere, and do-sources runs on its own.
+     */
+    private void doAllPostProcessesInParallel(int threads) {
+        PostProcessScheduler scheduler = new PostProcessScheduler(threads);
+        Collection<String> all = Collections.singleton(PostProcessScheduler.ALL);
+        for (final String name: project.getPostProcesses().keySet()) {
+            if (DO_SOURCES.equals(name)) {
+                scheduler.addStep(name, all, all, new Runnable() {
+                    public void run() {
+                        doAllSourcePostProcessing();
+                    }
+                });
+                continue;
+            }
+            final Task pp;
+            try {
+                pp = newCorePostProcessTask(name, newSubProject());
+            } catch (Exception err) {
+                throw new BuildException("error setting up PostProcessTask (action: "
+                        + name + ")", err);
+            }
+            scheduler.addStep(name, getResources(pp, "getReads"), getResources(pp, "getWrites"),
+                    new Runnable() {
+                        public void run() {
+                            System.err.print("Performing postprocess: " + name + "\n");
+                            try {
+                                pp.getClass().getMethod("execute", new Class[0]).invoke(pp,
+                                        new Object[0]);
+                            } catch (Exception err) {
+                                throw new BuildException("error running PostProcessTask (action: "
+                                        + name + ")", err);
+                            }
+                        }
+                    });
+        }
+        try {
+            scheduler.run();
+        } finally {
+            System.out.print(scheduler.getTimeline());
+        }
+    }
+
+    /**
+     * Returns the resources that a post process task declares that it reads or writes, or ALL if
+     * it doesn't say.
+     */
+    @SuppressWarnings("unchecked")
+    private Collection<String> getResources(Task pp, String methodName) {
+        try {
+            Method method = pp.getClass().getMethod(methodName, new Class[0]);
+            Collection<String> retval = (Collection<String>) method.invoke(pp, new Object[0]);
+            if (retval != null) {
+                return retval;
+            }
+        } catch (NoSuchMethodException e) {
+            // an older post process task
+        } catch (Exception e) {
+            throw new BuildException("error reading " + methodName + " from PostProcessTask", e);
+        }
+        return Collections.singleton(PostProcessScheduler.ALL);
+    }
+
+    /**
+     * Create a copy of the ant project, with the same properties and listeners.
+     */
+    private org.apache.tools.ant.Project newSubProject() {
+        org.apache.tools.ant.Project antProject = getProject();
+        org.apache.tools.ant.Project subProject = new org.apache.tools.ant.Project();
+        subProject.setBaseDir(antProject.getBaseDir());
+        Iterator<?> listeners = antProject.getBuildListeners().iterator();
+        while (listeners.hasNext()) {
+            subProject.addBuildListener((BuildListener) listeners.next());
+        }
+        subProject.init();
+        Hashtable<?, ?> properties = antProject.getProperties();
+        Enumeration<?> names = properties.keys();
+        while (names.hasMoreElements()) {
+            String name = (String) names.nextElement();
+            subProject.setProperty(name, (String) properties.get(name));
+        }
+        antProject.copyUserProperties(subProject);
+        return subProject;
+    }
+
     private void doAllSourcePostProcessing() {
         for (String thisSource : project.getSources().keySet()) {
             doSourcePostProcess(thisSource);
@@ -215,7 +341,7 @@ public class PostProcessTask extends Task
         }
     }
 
-    private Task newPostProcessTask() {
+    private Task newPostProcessTask(org.apache.tools.ant.Project antProject) {
         ClassLoader cl = ClasspathUtils.getClassLoaderForPath(getProject(), classPathRef);
         String className = "org.intermine.bio.postprocess.PostProcessOperationsTask";
         // use reflection to avoid depending on the bio/postprocess project
@@ -223,7 +349,7 @@ public class PostProcessTask extends Task
 
         try {
             setProperty(pp, "objectStoreWriter", "osw.production");
-            setProperty(pp, "project", getProject());
+            setProperty(pp, "project", antProject);
         } catch (Exception err) {
             throw new BuildException("error setting up PostProcessTask", err);
         }
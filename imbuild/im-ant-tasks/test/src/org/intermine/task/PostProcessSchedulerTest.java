@@ -0,0 +1,158 @@
+package org.intermine.task;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.tools.ant.BuildException;
+
+/**
+ * Tests for the order in which the PostProcessScheduler starts steps.
+ */
+public class PostProcessSchedulerTest extends TestCase
+{
+    private static final Collection<String> NONE = Collections.emptyList();
+
+    private List<String> events;
+
+    public PostProcessSchedulerTest(String arg) {
+        super(arg);
+    }
+
+    @Override
+    public void setUp() {
+        events = Collections.synchronizedList(new ArrayList<String>());
+    }
+
+    public void testSameResourceConflicts() {
+        assertFalse(runTogether(NONE, list("data.Location"), NONE, list("data.Location")));
+        assertFalse(runTogether(NONE, list("data.Location"), list("data.Location"), NONE));
+        assertFalse(runTogether(list("data.Location"), NONE, NONE, list("data.Location")));
+        assertTrue(runTogether(list("data.Location"), NONE, list("data.Location"), NONE));
+    }
+
+    public void testPrefixConflicts() {
+        assertFalse(runTogether(NONE, list("data"), list("data.Location"), NONE));
+        assertFalse(runTogether(list("data.Location"), NONE, NONE, list("data")));
+        assertFalse(runTogether(NONE, list("data"),
+                    list("data.SequenceFeature.overlappingFeatures"), NONE));
+        assertFalse(runTogether(NONE, list("data.SequenceFeature.overlappingFeatures"), NONE,
+                    list("data.SequenceFeature")));
+        assertFalse(runTogether(NONE, list(PostProcessScheduler.ALL), list("data.Location"),
+                    NONE));
+    }
+
+    public void testDifferentResourcesDoNotConflict() {
+        assertTrue(runTogether(NONE, list("data.Location"), NONE,
+                    list("data.SequenceFeature.overlappingFeatures")));
+        assertTrue(runTogether(list("data.Location"), NONE, NONE,
+                    list("data.SequenceFeature.overlappingFeatures")));
+        // Only whole path elements are prefixes
+        assertTrue(runTogether(NONE, list("data.Location"), NONE, list("data.LocationSet")));
+        assertTrue(runTogether(list("data"), NONE, list("data.Location"), NONE));
+    }
+
+    public void testIndependentStepsStartFirst() {
+        PostProcessScheduler scheduler = new PostProcessScheduler(1);
+        scheduler.addStep("a", NONE, list("data.Location"), record("a"));
+        scheduler.addStep("b", list("data.Location"), list("data.Gene"), record("b"));
+        scheduler.addStep("c", NONE, list("metadata.summary"), record("c"));
+        scheduler.run();
+        // b has to wait for a, but c does not
+        assertEquals(list("start a", "end a", "start c", "end c", "start b", "end b"), events);
+    }
+
+    public void testDependentsStartAfterPredecessorsFinish() {
+        PostProcessScheduler scheduler = new PostProcessScheduler(4);
+        scheduler.addStep("a", NONE, list("data.Location"), record("a"));
+        scheduler.addStep("b", NONE, list("data.SequenceFeature"), record("b"));
+        scheduler.addStep("c", list("data.Location", "data.SequenceFeature"),
+                list("data.SequenceFeature.overlappingFeatures"), record("c"));
+        scheduler.addStep("d", NONE, list("data"), record("d"));
+        scheduler.run();
+        assertTrue(events.toString(), events.indexOf("end a") < events.indexOf("start c"));
+        assertTrue(events.toString(), events.indexOf("end b") < events.indexOf("start c"));
+        assertTrue(events.toString(), events.indexOf("end c") < events.indexOf("start d"));
+        assertEquals(8, events.size());
+    }
+
+    public void testFailureStopsDependents() {
+        PostProcessScheduler scheduler = new PostProcessScheduler(1);
+        scheduler.addStep("a", NONE, list("data.Location"), new Runnable() {
+            public void run() {
+                events.add("start a");
+                throw new RuntimeException("a failed");
+            }
+        });
+        scheduler.addStep("b", list("data.Location"), NONE, record("b"));
+        try {
+            scheduler.run();
+            fail("Expected: BuildException");
+        } catch (BuildException e) {
+            assertEquals("a failed", e.getCause().getMessage());
+        }
+        assertEquals(list("start a"), events);
+    }
+
+    /**
+     * Runs two steps on two threads, and returns true if the second one started before the first
+     * one finished.
+     */
+    private boolean runTogether(Collection<String> reads1, Collection<String> writes1,
+            Collection<String> reads2, Collection<String> writes2) {
+        final CountDownLatch latch = new CountDownLatch(2);
+        final boolean[] met = new boolean[1];
+        PostProcessScheduler scheduler = new PostProcessScheduler(2);
+        scheduler.addStep("first", reads1, writes1, new Runnable() {
+            public void run() {
+                latch.countDown();
+                try {
+                    met[0] = latch.await(500, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        scheduler.addStep("second", reads2, writes2, new Runnable() {
+            public void run() {
+                latch.countDown();
+            }
+        });
+        scheduler.run();
+        return met[0];
+    }
+
+    private Runnable record(final String name) {
+        return new Runnable() {
+            public void run() {
+                events.add("start " + name);
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                events.add("end " + name);
+            }
+        };
+    }
+
+    private static List<String> list(String... resources) {
+        return Arrays.asList(resources);
+    }
+}
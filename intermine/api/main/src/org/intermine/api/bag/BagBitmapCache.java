@@ -0,0 +1,234 @@
+package org.intermine.api.bag;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.log4j.Logger;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.query.ObjectStoreBag;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.SingletonResults;
+import org.intermine.util.IntBitmap;
+
+/**
+ * The contents of ObjectStoreBags, held in memory as compressed bitmaps of ids so that bags can
+ * be sized, searched and combined without running a query.
+ *
+ * A bitmap is read again if the objectstore sequence of its bag has changed since it was read,
+ * and the least recently used bitmaps are dropped when the cache holds more than its maximum
+ * number of bytes.  A bitmap bigger than the whole cache is not kept, but its bag is remembered
+ * as too big so that callers can use queries for it instead of reading it again.  The bitmaps
+ * handed out are shared, so they must not be added to.
+ */
+public class BagBitmapCache
+{
+    private static final Logger LOG = Logger.getLogger(BagBitmapCache.class);
+
+    /** The default size of the cache: 64 megabytes. */
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    // the bytes counted for remembering that a bag is too big
+    private static final long TOO_BIG_BYTES = 64;
+
+    private static final Map<ObjectStore, BagBitmapCache> INSTANCES =
+        new WeakHashMap<ObjectStore, BagBitmapCache>();
+
+    private final ObjectStore os;
+    private final LinkedHashMap<Integer, Cached> bitmaps =
+        new LinkedHashMap<Integer, Cached>(16, 0.75F, true);
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    private long bytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long tooBig = 0;
+
+    /**
+     * @param os an objectstore
+     * @return the cache of the bags in that objectstore
+     */
+    public static BagBitmapCache getInstance(ObjectStore os) {
+        synchronized (INSTANCES) {
+            BagBitmapCache cache = INSTANCES.get(os);
+            if (cache == null) {
+                cache = new BagBitmapCache(os);
+                INSTANCES.put(os, cache);
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * Use getInstance() instead, except in tests.
+     *
+     * @param os the objectstore the bags are in
+     */
+    protected BagBitmapCache(ObjectStore os) {
+        this.os = os;
+    }
+
+    /**
+     * Set the number of bytes of bitmaps to keep.  If it is zero, bags are sized, searched and
+     * combined with queries instead.
+     *
+     * @param maxBytes the size of the cache
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        evict();
+    }
+
+    /**
+     * @return true if bags should be read into bitmaps
+     */
+    public synchronized boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    /**
+     * Find out whether the contents of a bag were too big to keep when they were last read.
+     * Callers that only need to size or search such a bag should query it instead of calling
+     * getBitmap(), which would read it again.
+     *
+     * @param osb the bag
+     * @return true if the bag is known to be too big and hasn't changed since
+     */
+    public boolean isTooBig(ObjectStoreBag osb) {
+        Map<Object, Integer> sequence = os.getSequence(Collections.<Object>singleton(osb));
+        synchronized (this) {
+            Cached cached = bitmaps.get(Integer.valueOf(osb.getBagId()));
+            return cached != null && cached.bitmap == null && cached.sequence.equals(sequence);
+        }
+    }
+
+    /**
+     * Get the contents of a bag, reading them if they aren't in the cache or have changed.
+     *
+     * @param osb the bag
+     * @return its ids, which must not be added to
+     */
+    public IntBitmap getBitmap(ObjectStoreBag osb) {
+        Map<Object, Integer> sequence = os.getSequence(Collections.<Object>singleton(osb));
+        synchronized (this) {
+            Cached cached = bitmaps.get(Integer.valueOf(osb.getBagId()));
+            if (cached != null && cached.bitmap != null && cached.sequence.equals(sequence)) {
+                hits++;
+                return cached.bitmap;
+            }
+            misses++;
+        }
+        long start = System.currentTimeMillis();
+        IntBitmap bitmap = read(osb);
+        LOG.debug("Read " + bitmap + " for bag " + osb.getBagId() + " in "
+                + (System.currentTimeMillis() - start) + "ms");
+        put(osb, sequence, bitmap);
+        return bitmap;
+    }
+
+    /**
+     * Get the contents of a bag only if they are in the cache and haven't changed.
+     *
+     * @param osb the bag
+     * @return its ids, which must not be added to, or null
+     */
+    public IntBitmap getCachedBitmap(ObjectStoreBag osb) {
+        Map<Object, Integer> sequence = os.getSequence(Collections.<Object>singleton(osb));
+        synchronized (this) {
+            Cached cached = bitmaps.get(Integer.valueOf(osb.getBagId()));
+            if (cached != null && cached.bitmap != null && cached.sequence.equals(sequence)) {
+                hits++;
+                return cached.bitmap;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Record the contents of a bag that has just been written.
+     *
+     * @param osb the bag
+     * @param bitmap its ids, which must not be added to from now on
+     */
+    public void put(ObjectStoreBag osb, IntBitmap bitmap) {
+        put(osb, os.getSequence(Collections.<Object>singleton(osb)), bitmap);
+    }
+
+    /**
+     * Forget the contents of a bag, because it is being altered.
+     *
+     * @param osb the bag
+     */
+    public synchronized void invalidate(ObjectStoreBag osb) {
+        Cached cached = bitmaps.remove(Integer.valueOf(osb.getBagId()));
+        if (cached != null) {
+            bytes -= cached.bytes;
+        }
+    }
+
+    private synchronized void put(ObjectStoreBag osb, Map<Object, Integer> sequence,
+            IntBitmap bitmap) {
+        invalidate(osb);
+        Cached cached = new Cached(sequence, bitmap);
+        if (cached.bytes > maxBytes) {
+            LOG.info("Not keeping " + bitmap + " for bag " + osb.getBagId() + ", as it is bigger"
+                    + " than the cache");
+            tooBig++;
+            cached = new Cached(sequence, null);
+        }
+        bitmaps.put(Integer.valueOf(osb.getBagId()), cached);
+        bytes += cached.bytes;
+        evict();
+    }
+
+    private void evict() {
+        Iterator<Cached> iter = bitmaps.values().iterator();
+        while (bytes > maxBytes && iter.hasNext()) {
+            bytes -= iter.next().bytes;
+            iter.remove();
+        }
+    }
+
+    private IntBitmap read(ObjectStoreBag osb) {
+        Query q = new Query();
+        q.addToSelect(osb);
+        q.setDistinct(false);
+        SingletonResults res = os.executeSingleton(q, 10000, false, false, false);
+        IntBitmap bitmap = new IntBitmap();
+        for (Object id : res) {
+            bitmap.add(((Integer) id).intValue());
+        }
+        return bitmap;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BagBitmapCache [" + bitmaps.size() + " bags, " + bytes + " bytes, " + hits
+            + " hits, " + misses + " misses, " + tooBig + " too big]";
+    }
+
+    private static class Cached
+    {
+        final Map<Object, Integer> sequence;
+        // null if the bitmap was too big to keep
+        final IntBitmap bitmap;
+        final long bytes;
+
+        Cached(Map<Object, Integer> sequence, IntBitmap bitmap) {
+            this.sequence = sequence;
+            this.bitmap = bitmap;
+            this.bytes = bitmap == null ? TOO_BIG_BYTES : bitmap.getSizeInBytes();
+        }
+    }
+}
@@ -46,6 +46,7 @@ import org.intermine.objectstore.query.ObjectStoreBag;
 import org.intermine.objectstore.query.ObjectStoreBagsForObject;
 import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.Results;
+import org.intermine.util.IntBitmap;
 
 /**
  * A BagManager provides access to all global and/or user bags and methods to fetch them by
@@ -578,9 +579,25 @@ public class BagManager
 
     private Collection<InterMineBag> getBagsContainingId(Map<String, InterMineBag> imBags,
             Integer id) {
-        Collection<ObjectStoreBag> objectStoreBags = getObjectStoreBags(imBags.values());
-        Map<Integer, InterMineBag> osBagIdToInterMineBag =
-            getOsBagIdToInterMineBag(imBags.values());
+        Collection<InterMineBag> bagsContainingId = new HashSet<InterMineBag>();
+
+        // bags whose contents are already in memory are checked there
+        BagBitmapCache bitmapCache = BagBitmapCache.getInstance(osProduction);
+        Collection<InterMineBag> toQuery = new ArrayList<InterMineBag>();
+        for (InterMineBag imBag : imBags.values()) {
+            IntBitmap bitmap = bitmapCache.getCachedBitmap(imBag.getOsb());
+            if (bitmap == null) {
+                toQuery.add(imBag);
+            } else if (bitmap.contains(id.intValue())) {
+                bagsContainingId.add(imBag);
+            }
+        }
+        if (toQuery.isEmpty()) {
+            return bagsContainingId;
+        }
+
+        Collection<ObjectStoreBag> objectStoreBags = getObjectStoreBags(toQuery);
+        Map<Integer, InterMineBag> osBagIdToInterMineBag = getOsBagIdToInterMineBag(toQuery);
 
         // this searches bags for an object
         ObjectStoreBagsForObject osbo = new ObjectStoreBagsForObject(id, objectStoreBags);
@@ -589,8 +606,6 @@ public class BagManager
         Query q = new Query();
         q.addToSelect(osbo);
 
-        Collection<InterMineBag> bagsContainingId = new HashSet<InterMineBag>();
-
         // this should return all bags with that object
         Results res = osProduction.executeSingleton(q);
         Iterator<Object> resIter = res.iterator();
@@ -0,0 +1,364 @@
+package org.intermine.api.bag;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.Results;
+import org.intermine.objectstore.query.ResultsRow;
+
+/**
+ * An in-memory index of the identifiers that the bag queries of some types can match, so that
+ * BagQueryRunner can resolve exact, case-insensitive and wildcard input without running the bag
+ * queries.  The identifiers for a bag query are read the first time they are needed, and read
+ * again if the tables that they come from have changed since.  Bag queries that can't be read
+ * without a constraint, or that match more than the maximum number of identifiers, are not
+ * indexed and are run as before.
+ */
+public class BagQueryIndex
+{
+    private static final Logger LOG = Logger.getLogger(BagQueryIndex.class);
+
+    /**
+     * The default maximum number of identifiers to hold for one bag query.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 2000000;
+
+    private final ObjectStore os;
+    private final Set<String> types;
+    private final int maxEntries;
+    private final Map<String, IndexedQuery> queries = new HashMap<String, IndexedQuery>();
+
+    /**
+     * Create an index, which reads nothing until it is used.
+     *
+     * @param os the ObjectStore to read identifiers from
+     * @param types the unqualified names of the types to index
+     * @param maxEntries the maximum number of identifiers to hold for one bag query
+     */
+    public BagQueryIndex(ObjectStore os, Collection<String> types, int maxEntries) {
+        this.os = os;
+        this.types = Collections.unmodifiableSet(new HashSet<String>(types));
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Returns the types that this index covers.
+     *
+     * @return a Set of unqualified class names
+     */
+    public Set<String> getTypes() {
+        return types;
+    }
+
+    /**
+     * Returns the identifiers that a bag query can match, reading them if necessary.
+     *
+     * @param type the unqualified name of the type searched for
+     * @param queryNumber the position of the bag query in the list of queries for the type
+     * @param bq the bag query
+     * @param extraFieldValue the value for the extra constraint, or null
+     * @return the identifiers, or null if the bag query isn't indexed
+     */
+    public Keys getKeys(String type, int queryNumber, BagQuery bq, String extraFieldValue) {
+        if (!types.contains(type)) {
+            return null;
+        }
+        String key = type + "." + queryNumber + "." + extraFieldValue;
+        IndexedQuery indexed;
+        synchronized (queries) {
+            indexed = queries.get(key);
+            if (indexed == null) {
+                indexed = new IndexedQuery();
+                queries.put(key, indexed);
+            }
+        }
+        // queries for other types and extra values can be read at the same time
+        synchronized (indexed) {
+            if (!indexed.read || ((indexed.tables != null)
+                    && !indexed.sequence.equals(os.getSequence(indexed.tables)))) {
+                read(indexed, key, bq, extraFieldValue);
+            }
+            return indexed.keys;
+        }
+    }
+
+    private void read(IndexedQuery indexed, String key, BagQuery bq, String extraFieldValue) {
+        long startTime = System.currentTimeMillis();
+        indexed.read = true;
+        indexed.keys = null;
+        indexed.tables = null;
+        Query q;
+        try {
+            // a single "*" matches every value of every field that the query looks at
+            q = bq.getQueryForWildcards(Collections.singleton("*"), extraFieldValue);
+        } catch (IllegalArgumentException e) {
+            LOG.info("Not indexing bag query " + key + ": " + e.getMessage());
+            return;
+        } catch (ClassNotFoundException e) {
+            LOG.info("Not indexing bag query " + key + ": " + e.getMessage());
+            return;
+        }
+        indexed.tables = os.getComponentsForQuery(q);
+        indexed.sequence = os.getSequence(indexed.tables);
+        List<String> values = new ArrayList<String>();
+        List<Integer> ids = new ArrayList<Integer>();
+        Results res = os.execute(q, 10000, true, false, false);
+        for (Object rowObj : res) {
+            ResultsRow<?> row = (ResultsRow<?>) rowObj;
+            Integer id = (Integer) row.get(0);
+            for (int i = 1; i < row.size(); i++) {
+                Object fieldObject = row.get(i);
+                if (fieldObject != null) {
+                    values.add(String.valueOf(fieldObject));
+                    ids.add(id);
+                }
+            }
+            if (values.size() > maxEntries) {
+                LOG.warn("Not indexing bag query " + key + ": more than " + maxEntries
+                        + " identifiers");
+                return;
+            }
+        }
+        int[] idArray = new int[ids.size()];
+        for (int i = 0; i < idArray.length; i++) {
+            idArray[i] = ids.get(i).intValue();
+        }
+        indexed.keys = new Keys(values.toArray(new String[values.size()]), idArray);
+        LOG.info("Indexed " + idArray.length + " identifiers for bag query " + key + " in "
+                + (System.currentTimeMillis() - startTime) + "ms");
+    }
+
+    /**
+     * A bag query and what it matched when it was last read.
+     */
+    private static class IndexedQuery
+    {
+        private boolean read = false;
+        private Keys keys = null;
+        private Set<Object> tables = null;
+        private Map<Object, Integer> sequence = null;
+    }
+
+    /**
+     * The identifiers matched by one bag query, sorted by their lower case value, and the ids of
+     * the objects that they belong to.
+     */
+    public static class Keys
+    {
+        // characters that mean something other than themselves in the SQL LIKE or regex that
+        // BagQueryRunner uses for wildcards
+        private static final Pattern SPECIAL = Pattern.compile("[\\\\.\\[\\]{}()+?^$|_%]");
+
+        final String[] keys;
+        final String[] values;
+        final int[] ids;
+        // positions in order of the reversed keys, for wildcards that only have a suffix
+        private int[] bySuffix = null;
+        private String[] reversedKeys = null;
+
+        /**
+         * Create a table of identifiers.
+         *
+         * @param values the identifiers
+         * @param ids the id of the object that each identifier belongs to
+         */
+        Keys(final String[] values, final int[] ids) {
+            int n = values.length;
+            final String[] lowerValues = new String[n];
+            Integer[] order = new Integer[n];
+            for (int i = 0; i < n; i++) {
+                lowerValues[i] = values[i].toLowerCase();
+                order[i] = Integer.valueOf(i);
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer o1, Integer o2) {
+                    int retval = lowerValues[o1.intValue()].compareTo(lowerValues[o2.intValue()]);
+                    if (retval == 0) {
+                        retval = ids[o1.intValue()] < ids[o2.intValue()] ? -1
+                            : (ids[o1.intValue()] == ids[o2.intValue()] ? 0 : 1);
+                    }
+                    return retval;
+                }
+            });
+            this.keys = new String[n];
+            this.values = new String[n];
+            this.ids = new int[n];
+            for (int i = 0; i < n; i++) {
+                int from = order[i].intValue();
+                keys[i] = lowerValues[from];
+                // share the String when the value is already lower case
+                this.values[i] = values[from].equals(keys[i]) ? keys[i] : values[from];
+                this.ids[i] = ids[from];
+            }
+        }
+
+        /**
+         * Returns the number of identifiers.
+         *
+         * @return the size
+         */
+        public int size() {
+            return keys.length;
+        }
+
+        /**
+         * Returns an identifier as it was read.
+         *
+         * @param position the position of the identifier
+         * @return the identifier
+         */
+        public String getValue(int position) {
+            return values[position];
+        }
+
+        /**
+         * Returns the id of the object that an identifier belongs to.
+         *
+         * @param position the position of the identifier
+         * @return the object id
+         */
+        public int getId(int position) {
+            return ids[position];
+        }
+
+        /**
+         * Returns the positions of the identifiers that are equal to the given one, ignoring case.
+         *
+         * @param identifier the identifier to look for
+         * @return an array of positions, in order of object id
+         */
+        public int[] exact(String identifier) {
+            String key = identifier.toLowerCase();
+            int start = lowerBound(key);
+            int end = start;
+            while ((end < keys.length) && keys[end].equals(key)) {
+                end++;
+            }
+            return range(start, end);
+        }
+
+        /**
+         * Returns the positions of the identifiers that match a wildcard, ignoring case, where *
+         * matches any characters.
+         *
+         * @param wildcard the wildcard
+         * @return an array of positions, or null if the wildcard has characters that the bag
+         * queries would not match literally
+         */
+        public int[] matching(String wildcard) {
+            String pattern = wildcard.toLowerCase();
+            if (SPECIAL.matcher(pattern).find()) {
+                return null;
+            }
+            Pattern regex = Pattern.compile(pattern.replaceAll("\\*", "\\.\\*"));
+            String prefix = pattern.substring(0, pattern.indexOf('*'));
+            String suffix = pattern.substring(pattern.lastIndexOf('*') + 1);
+            List<Integer> retval = new ArrayList<Integer>();
+            if ((prefix.length() > 0) || (suffix.length() == 0)) {
+                for (int i = lowerBound(prefix); (i < keys.length) && keys[i].startsWith(prefix);
+                        i++) {
+                    if (regex.matcher(keys[i]).matches()) {
+                        retval.add(Integer.valueOf(i));
+                    }
+                }
+            } else {
+                String reversedSuffix = new StringBuffer(suffix).reverse().toString();
+                int[] positions = getBySuffix();
+                int lo = 0;
+                int hi = positions.length;
+                while (lo < hi) {
+                    int mid = (lo + hi) >>> 1;
+                    if (reversedKeys[mid].compareTo(reversedSuffix) < 0) {
+                        lo = mid + 1;
+                    } else {
+                        hi = mid;
+                    }
+                }
+                for (int i = lo; (i < positions.length)
+                        && reversedKeys[i].startsWith(reversedSuffix); i++) {
+                    if (regex.matcher(keys[positions[i]]).matches()) {
+                        retval.add(Integer.valueOf(positions[i]));
+                    }
+                }
+                Collections.sort(retval);
+            }
+            int[] array = new int[retval.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = retval.get(i).intValue();
+            }
+            return array;
+        }
+
+        private synchronized int[] getBySuffix() {
+            if (bySuffix == null) {
+                int n = keys.length;
+                final String[] reversed = new String[n];
+                Integer[] order = new Integer[n];
+                for (int i = 0; i < n; i++) {
+                    reversed[i] = new StringBuffer(keys[i]).reverse().toString();
+                    order[i] = Integer.valueOf(i);
+                }
+                Arrays.sort(order, new Comparator<Integer>() {
+                    @Override
+                    public int compare(Integer o1, Integer o2) {
+                        return reversed[o1.intValue()].compareTo(reversed[o2.intValue()]);
+                    }
+                });
+                int[] positions = new int[n];
+                String[] sortedReversed = new String[n];
+                for (int i = 0; i < n; i++) {
+                    positions[i] = order[i].intValue();
+                    sortedReversed[i] = reversed[positions[i]];
+                }
+                reversedKeys = sortedReversed;
+                bySuffix = positions;
+            }
+            return bySuffix;
+        }
+
+        private int lowerBound(String key) {
+            int lo = 0;
+            int hi = keys.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (keys[mid].compareTo(key) < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        private static int[] range(int start, int end) {
+            int[] retval = new int[end - start];
+            for (int i = 0; i < retval.length; i++) {
+                retval[i] = start + i;
+            }
+            return retval;
+        }
+    }
+}
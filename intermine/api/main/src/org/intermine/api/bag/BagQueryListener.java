@@ -0,0 +1,30 @@
+package org.intermine.api.bag;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+/**
+ * Told by the BagQueryRunner as each bag query of a search finishes, so that the matches found
+ * so far can be reported before the whole search is done.
+ */
+public interface BagQueryListener
+{
+    /**
+     * Called on the searching thread after each bag query has been run.  The result must not be
+     * kept, as the runner goes on adding to it once this method returns.
+     *
+     * @param queryNumber the number of bag queries run so far
+     * @param queryCount the number of bag queries this search will run
+     * @param result the matches and issues found so far
+     * @param unresolvedCount the number of identifiers that haven't been matched yet
+     */
+    void queryFinished(int queryNumber, int queryCount, BagQueryResult result,
+            int unresolvedCount);
+}
@@ -18,6 +18,7 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.regex.Pattern;
 
 import org.apache.commons.lang.StringUtils;
@@ -51,6 +52,7 @@ public class BagQueryRunner
     private Map<String, List<FieldDescriptor>> classKeys;
     private BagQueryConfig bagQueryConfig;
     private TemplateManager templateManager;
+    private BagQueryIndex index = null;
     private static final boolean MATCHES_ARE_ISSUES_DEFAULT = true;
 
     /**
@@ -71,6 +73,35 @@ public class BagQueryRunner
         this.templateManager = templateManager;
     }
 
+    /**
+     * Look up identifiers in an index instead of running the bag queries, for the types that the
+     * index covers.
+     *
+     * @param index the index, or null to always run the bag queries
+     */
+    public void setIndex(BagQueryIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * Read the identifiers for every bag query of the types in the index, without an extra
+     * constraint, so that the first searches don't have to wait for them.
+     *
+     * @throws ClassNotFoundException if a type in the index isn't in the model
+     */
+    public void buildIndex() throws ClassNotFoundException {
+        if (index == null) {
+            return;
+        }
+        for (String type : index.getTypes()) {
+            Class<?> typeCls = Class.forName(model.getPackageName() + "." + type);
+            List<BagQuery> queries = getBagQueriesForType(bagQueryConfig, typeCls.getName());
+            for (int i = 0; i < queries.size(); i++) {
+                index.getKeys(type, i, queries.get(i), null);
+            }
+        }
+    }
+
     /**
      * Given an input list of string identifiers search for corresponding objects. First run a
      * default query then any queries configured for the specified type.
@@ -110,6 +141,26 @@ public class BagQueryRunner
     public BagQueryResult search(String type, Collection<String> input, String extraFieldValue,
             boolean doWildcards, boolean caseSensitive)
         throws ClassNotFoundException, InterMineException {
+        return search(type, input, extraFieldValue, doWildcards, caseSensitive, null);
+    }
+
+    /**
+     * Given an input list of string identifiers search for corresponding objects, telling a
+     * listener about the matches found after each bag query.
+     *
+     * @param type an unqualified class name to search for objects
+     * @param input a list of strings to query
+     * @param extraFieldValue the value used when adding an extra constraint to the bag query
+     * @param doWildcards true if the strings should be evaluated as wildcards
+     * @param caseSensitive true if the strings have to match case too
+     * @param listener told about the result so far after each bag query, or null
+     * @return the matches, issues and unresolved input
+     * @throws ClassNotFoundException if the type isn't in the model
+     * @throws InterMineException if there is any other exception
+     */
+    public BagQueryResult search(String type, Collection<String> input, String extraFieldValue,
+            boolean doWildcards, boolean caseSensitive, BagQueryListener listener)
+        throws ClassNotFoundException, InterMineException {
 
         Map<String, String> lowerCaseInput = new HashMap<String, String>();
         List<String> cleanInput = new ArrayList<String>();
@@ -152,10 +203,28 @@ public class BagQueryRunner
         // return first record ONLY for identifier.  otherwise, run all queries and return all
         boolean matchOnFirst = bagQueryConfig.getMatchOnFirst();
 
-        for (BagQuery bq : queries) {
+        for (int queryNumber = 0; queryNumber < queries.size(); queryNumber++) {
+            BagQuery bq = queries.get(queryNumber);
+            BagQueryIndex.Keys keys = null;
+            if ((index != null) && (!unresolved.isEmpty() || !wildcardInput.isEmpty()
+                        || !matchOnFirst)) {
+                keys = index.getKeys(type, queryNumber, bq, extraFieldValue);
+            }
             // run the next query on identifiers not yet resolved
             // OR all identifiers if matchOnFirst = FALSE
-            if (!unresolved.isEmpty() || !matchOnFirst) {
+            if (keys != null && (!unresolved.isEmpty() || !matchOnFirst)) {
+                Map<String, Set<Integer>> resMap = new HashMap<String, Set<Integer>>();
+                Set<String> toProcess = (matchOnFirst) ? unresolved : unresolvedOriginal;
+                for (String inputString : new ArrayList<String>(toProcess)) {
+                    for (int position : keys.exact(inputString)) {
+                        if (!caseSensitive || keys.getValue(position).equals(inputString)) {
+                            processMatch(resMap, unresolved, keys.getId(position), inputString);
+                        }
+                    }
+                }
+                addResults(resMap, unresolved, bqr, bq.getMessage(), typeCls, false,
+                            matchOnFirst, bq.matchesAreIssues());
+            } else if (!unresolved.isEmpty() || !matchOnFirst) {
                 Map<String, Set<Integer>> resMap = new HashMap<String, Set<Integer>>();
                 try {
                     Set<String> toProcess = (matchOnFirst) ? unresolved : unresolvedOriginal;
@@ -192,26 +261,47 @@ public class BagQueryRunner
             if (!wildcardInput.isEmpty()) {
                 Map<String, Set<Integer>> resMap = new HashMap<String, Set<Integer>>();
                 try {
-                    Query q = bq.getQueryForWildcards(wildcardInput, extraFieldValue);
-                    Results res = os.execute(q, ResultsBatches.DEFAULT_BATCH_SIZE, true, true,
-                            false);
-                    for (Object rowObj : res) {
-                        ResultsRow<?> row = (ResultsRow<?>) rowObj;
-                        Integer id = (Integer) row.get(0);
-                        for (int i = 1; i < row.size(); i++) {
-                            String field = "" + row.get(i);
-                            String lowerField = field.toLowerCase();
-                            for (String wildcard : wildcardInput) {
-                                Pattern pattern = patterns.get(wildcard);
-                                if (pattern.matcher(lowerField).matches()) {
-                                    Set<Integer> ids = resMap.get(wildcard);
-                                    if (ids == null) {
-                                        ids = new LinkedHashSet<Integer>();
-                                        resMap.put(wildcard, ids);
+                    // wildcards that the index can't match literally are still run as queries
+                    List<String> queryWildcards = wildcardInput;
+                    if (keys != null) {
+                        queryWildcards = new ArrayList<String>();
+                        for (String wildcard : wildcardInput) {
+                            int[] positions = keys.matching(wildcard);
+                            if (positions == null) {
+                                queryWildcards.add(wildcard);
+                                continue;
+                            }
+                            Set<Integer> ids = new TreeSet<Integer>();
+                            for (int position : positions) {
+                                ids.add(Integer.valueOf(keys.getId(position)));
+                            }
+                            for (Integer id : ids) {
+                                processMatch(resMap, wildcardUnresolved, id, wildcard);
+                            }
+                        }
+                    }
+                    if (!queryWildcards.isEmpty()) {
+                        Query q = bq.getQueryForWildcards(queryWildcards, extraFieldValue);
+                        Results res = os.execute(q, ResultsBatches.DEFAULT_BATCH_SIZE, true,
+                                true, false);
+                        for (Object rowObj : res) {
+                            ResultsRow<?> row = (ResultsRow<?>) rowObj;
+                            Integer id = (Integer) row.get(0);
+                            for (int i = 1; i < row.size(); i++) {
+                                String field = "" + row.get(i);
+                                String lowerField = field.toLowerCase();
+                                for (String wildcard : queryWildcards) {
+                                    Pattern pattern = patterns.get(wildcard);
+                                    if (pattern.matcher(lowerField).matches()) {
+                                        Set<Integer> ids = resMap.get(wildcard);
+                                        if (ids == null) {
+                                            ids = new LinkedHashSet<Integer>();
+                                            resMap.put(wildcard, ids);
+                                        }
+                                        ids.add(id);
+                                        // we have matched at least once with wildcard
+                                        wildcardUnresolved.remove(wildcard);
                                     }
-                                    ids.add(id);
-                                    // we have matched at least once with wildcard
-                                    wildcardUnresolved.remove(wildcard);
                                 }
                             }
                         }
@@ -234,6 +324,10 @@ public class BagQueryRunner
                     // Query couldn't handle extra value
                 }
             }
+            if (listener != null) {
+                listener.queryFinished(queryNumber + 1, queries.size(), bqr,
+                        unresolved.size() + wildcardUnresolved.size());
+            }
         }
 
         unresolved.addAll(wildcardUnresolved);
@@ -18,6 +18,7 @@ import org.intermine.api.bag.BagQueryResult;
 import org.intermine.api.bag.BagQueryRunner;
 import org.intermine.api.profile.InterMineBag;
 import org.intermine.api.profile.BagValue;
+import org.intermine.objectstore.ObjectStoreException;
 
 public class BagQueryUpgrade
 {
@@ -34,6 +35,18 @@ public class BagQueryUpgrade
         return bag.getType();
     }
 
+    /**
+     * @return the number of objects in the list being upgraded, or -1 if it can't be counted
+     */
+    public int getSize() {
+        try {
+            return bag.getSize();
+        } catch (ObjectStoreException e) {
+            LOG.warn("Could not count the list " + bag.getName(), e);
+            return -1;
+        }
+    }
+
     public BagQueryResult getBagQueryResult() {
         BagQueryResult bagQueryResult = null;
         LOG.warn("ContentsOrderByExtraValue before: " + bag.getName());
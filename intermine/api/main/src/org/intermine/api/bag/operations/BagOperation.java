@@ -1,5 +1,6 @@
 package org.intermine.api.bag.operations;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
@@ -9,10 +10,12 @@ import java.util.Map;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
+import org.intermine.api.bag.BagBitmapCache;
 import org.intermine.api.bag.ClassKeysNotFoundException;
 import org.intermine.api.bag.UnknownBagTypeException;
 import org.intermine.api.profile.InterMineBag;
 import org.intermine.api.profile.Profile;
+import org.intermine.api.profile.ProfileManager;
 import org.intermine.metadata.ClassDescriptor;
 import org.intermine.metadata.FieldDescriptor;
 import org.intermine.metadata.MetaDataException;
@@ -20,6 +23,7 @@ import org.intermine.metadata.Model;
 import org.intermine.objectstore.ObjectStoreException;
 import org.intermine.objectstore.query.ObjectStoreBagCombination;
 import org.intermine.objectstore.query.Query;
+import org.intermine.util.IntBitmap;
 
 public abstract class BagOperation implements BagProducer {
 
@@ -119,6 +123,15 @@ public abstract class BagOperation implements BagProducer {
     }
 
     private void buildBag() throws InternalBagOperationException {
+        if (canCombineInMemory()) {
+            try {
+                combined.addIdsToBag(combineBitmaps());
+            } catch (ObjectStoreException e) {
+                cleanUp();
+                throw new InternalBagOperationException("Error constructing bag", e);
+            }
+            return;
+        }
         ObjectStoreBagCombination osbc = combineBags();
         Query q = new Query();
         q.addToSelect(osbc);
@@ -139,6 +152,47 @@ public abstract class BagOperation implements BagProducer {
         return osbc;
     }
 
+    /**
+     * @return true if bitmaps are cached and none of the bags is too big to read into one
+     */
+    protected boolean canCombineInMemory() {
+        ProfileManager pm = getProfile().getProfileManager();
+        if (pm == null
+            || !BagBitmapCache.getInstance(pm.getProductionObjectStore()).isEnabled()) {
+            return false;
+        }
+        for (InterMineBag bag : bags) {
+            if (!bag.canUseIdBitmap()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Combine the contents of the bags in memory, the same way as the combination returned by
+     * combineBags().
+     * @return the ids of the new bag
+     */
+    protected IntBitmap combineBitmaps() {
+        List<IntBitmap> bitmaps = new ArrayList<IntBitmap>();
+        for (InterMineBag bag : bags) {
+            bitmaps.add(bag.getIdBitmap());
+        }
+        switch (getOperationCode()) {
+            case ObjectStoreBagCombination.UNION:
+                return IntBitmap.or(bitmaps);
+            case ObjectStoreBagCombination.INTERSECT:
+                return IntBitmap.and(bitmaps);
+            case ObjectStoreBagCombination.ALLBUTINTERSECT:
+                return IntBitmap.or(bitmaps).andNot(IntBitmap.and(bitmaps));
+            default:
+                // EXCEPT: the first bag without the others
+                IntBitmap first = bitmaps.remove(0);
+                return first.andNot(IntBitmap.or(bitmaps));
+        }
+    }
+
     private void initCombined(String type, String name) throws InternalBagOperationException {
         if (combined != null) {
             throw new InternalBagOperationException("combined bag already exists");
@@ -1,6 +1,8 @@
 package org.intermine.api.bag.operations;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 import org.intermine.api.profile.InterMineBag;
 import org.intermine.api.profile.Profile;
@@ -8,6 +10,7 @@ import org.intermine.metadata.ClassDescriptor;
 import org.intermine.metadata.MetaDataException;
 import org.intermine.metadata.Model;
 import org.intermine.objectstore.query.ObjectStoreBagCombination;
+import org.intermine.util.IntBitmap;
 
 import static java.util.Arrays.asList;
 import static org.intermine.metadata.DescriptorUtils.findSumType;
@@ -59,6 +62,32 @@ public class RelativeComplement extends BagOperation
         return osbc;
     }
 
+    @Override
+    protected boolean canCombineInMemory() {
+        if (!super.canCombineInMemory()) {
+            return false;
+        }
+        for (InterMineBag bag : excluded) {
+            if (!bag.canUseIdBitmap()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    protected IntBitmap combineBitmaps() {
+        List<IntBitmap> froms = new ArrayList<IntBitmap>();
+        for (InterMineBag bag : getBags()) {
+            froms.add(bag.getIdBitmap());
+        }
+        List<IntBitmap> exclusions = new ArrayList<IntBitmap>();
+        for (InterMineBag bag : excluded) {
+            exclusions.add(bag.getIdBitmap());
+        }
+        return IntBitmap.or(froms).andNot(IntBitmap.or(exclusions));
+    }
+
     @Override
     protected int getOperationCode() {
         return ObjectStoreBagCombination.EXCEPT;
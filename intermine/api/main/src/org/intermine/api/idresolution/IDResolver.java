@@ -1,19 +1,14 @@
 package org.intermine.api.idresolution;
 
-import java.util.HashMap;
-import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
-import org.apache.commons.collections.MapUtils;
 import org.intermine.api.bag.BagQueryRunner;
 import org.intermine.api.bag.BagQueryUpgrade;
 
 public class IDResolver {
 
-    public final Map<UUID, Job> JOBS = new ConcurrentHashMap<UUID, Job>();
+    /** The user jobs are run for when none is given. */
+    public static final String ANONYMOUS = "";
 
     private static IDResolver instance = new IDResolver();
 
@@ -21,47 +16,117 @@ public class IDResolver {
         return instance;
     }
 
-    private ExecutorService threadPool;
+    private volatile JobScheduler scheduler;
+    // the scheduler replaced by configure(), which may still hold jobs
+    private volatile JobScheduler previous = null;
 
     private IDResolver() {
-        this.threadPool = Executors.newCachedThreadPool();
+        this.scheduler = new JobScheduler(JobScheduler.DEFAULT_THREADS,
+                JobScheduler.DEFAULT_MAX_QUEUED, JobScheduler.DEFAULT_SMALL_JOB_SIZE,
+                JobScheduler.DEFAULT_TIME_TO_LIVE);
+    }
+
+    /**
+     * Run jobs submitted from now on with a different scheduler.  Jobs already submitted are
+     * still run, and can still be found until they expire.
+     *
+     * @param threads the number of jobs to run at once
+     * @param maxQueued the number of jobs that may be waiting to run
+     * @param smallJobSize jobs of up to this many identifiers are run first
+     * @param timeToLive the number of milliseconds to keep finished jobs for
+     */
+    public synchronized void configure(int threads, int maxQueued, int smallJobSize,
+            long timeToLive) {
+        JobScheduler old = scheduler;
+        scheduler = new JobScheduler(threads, maxQueued, smallJobSize, timeToLive);
+        previous = old;
+        old.shutdown();
     }
 
     public Job getJobById(UUID id) {
-        return JOBS.get(id);
+        return getJobById(id.toString());
     }
 
     public Job getJobById(String id) {
-        return getJobById(UUID.fromString(id));
+        if (id == null) {
+            return null;
+        }
+        Job job = scheduler.getJob(id);
+        JobScheduler old = previous;
+        if (job == null && old != null) {
+            job = old.getJob(id);
+        }
+        return job;
     }
 
     public Job submit(BagQueryRunner runner, JobInput input) {
+        return submit(ANONYMOUS, runner, input);
+    }
+
+    /**
+     * Resolve some identifiers for a user.  Smaller jobs run first.
+     *
+     * @param user the user, or some other key for an anonymous requester
+     * @param runner the runner to search with
+     * @param input the identifiers and search options
+     * @return the job
+     * @throws java.util.concurrent.RejectedExecutionException if too many jobs are waiting
+     */
+    public Job submit(String user, BagQueryRunner runner, JobInput input) {
         UUID id = UUID.randomUUID();
         Job job = new ResolutionJob(id, runner, input);
-        return submitJob(id, job);
+        return scheduler.submit(user, job, input.getIds().size());
     }
 
     public Job submit(BagQueryUpgrade upgrade) {
-        UUID id = UUID.randomUUID();
-        Job job = new UpgradeJob(id, upgrade);
-        return submitJob(id, job);
+        return submit(ANONYMOUS, upgrade);
     }
 
-    private Job submitJob(UUID id, Job job) {
-        JOBS.put(id, job);
-        threadPool.submit(job);
-        return job;
+    /**
+     * Upgrade a list for a user.
+     *
+     * @param user the user who owns the list
+     * @param upgrade the upgrade
+     * @return the job
+     * @throws java.util.concurrent.RejectedExecutionException if too many jobs are waiting
+     */
+    public Job submit(String user, BagQueryUpgrade upgrade) {
+        UUID id = UUID.randomUUID();
+        Job job = new UpgradeJob(id, upgrade);
+        return scheduler.submit(user, job, upgrade.getSize());
     }
 
     public Job removeJob(String uid) {
         if (uid == null) {
             return null;
         }
-        try {
-            return JOBS.remove(UUID.fromString(uid));
-        } catch (IllegalArgumentException e) {
-            return null;
+        Job job = scheduler.remove(uid);
+        JobScheduler old = previous;
+        if (job == null && old != null) {
+            job = old.remove(uid);
+        }
+        return job;
+    }
+
+    /**
+     * Forget the jobs that finished longer ago than their time to live.
+     *
+     * @return the number of jobs forgotten
+     */
+    public int evictExpiredJobs() {
+        int count = scheduler.evictExpired();
+        JobScheduler old = previous;
+        if (old != null) {
+            count += old.evictExpired();
         }
+        return count;
+    }
+
+    /**
+     * @return the queue depth, job counts and latencies of the current scheduler
+     */
+    public JobScheduler.Metrics getMetrics() {
+        return scheduler.getMetrics();
     }
 
 }
@@ -31,4 +31,9 @@ public interface Job extends Runnable {
 
     public String getType();
 
+    /**
+     * @return how far the job has got, updated as it runs
+     */
+    public JobProgress getProgress();
+
 }
\ No newline at end of file
@@ -0,0 +1,98 @@
+package org.intermine.api.idresolution;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.intermine.api.bag.BagQueryResult;
+
+/**
+ * How far a job has got: the bag queries run so far, and the objects they matched.  A progress
+ * is a copy, so it can be read while the job goes on.
+ */
+public final class JobProgress
+{
+    /** The progress of a job that hasn't started. */
+    public static final JobProgress NONE = new JobProgress(0, 0, Collections.<Integer>emptySet(),
+            0, 0);
+
+    private final int stagesDone, stages, issueCount, unresolvedCount;
+    private final Set<Integer> matchedIds;
+
+    private JobProgress(int stagesDone, int stages, Set<Integer> matchedIds, int issueCount,
+            int unresolvedCount) {
+        this.stagesDone = stagesDone;
+        this.stages = stages;
+        this.matchedIds = matchedIds;
+        this.issueCount = issueCount;
+        this.unresolvedCount = unresolvedCount;
+    }
+
+    /**
+     * Copy the progress of a search from the result it has built so far.
+     *
+     * @param stagesDone the number of bag queries run
+     * @param stages the number of bag queries the search will run
+     * @param result the result so far
+     * @param unresolvedCount the number of identifiers not matched yet
+     * @return the progress
+     */
+    public static JobProgress of(int stagesDone, int stages, BagQueryResult result,
+            int unresolvedCount) {
+        Set<Integer> ids = new LinkedHashSet<Integer>(result.getMatches().keySet());
+        return new JobProgress(stagesDone, stages, Collections.unmodifiableSet(ids),
+                result.getIssueIds().size(), unresolvedCount);
+    }
+
+    /**
+     * @return the number of bag queries run so far
+     */
+    public int getStagesDone() {
+        return stagesDone;
+    }
+
+    /**
+     * @return the number of bag queries the job will run, or 0 if that isn't known yet
+     */
+    public int getStages() {
+        return stages;
+    }
+
+    /**
+     * @return the ids of the objects matched without issues so far
+     */
+    public Set<Integer> getMatchedIds() {
+        return matchedIds;
+    }
+
+    /**
+     * @return the number of objects found with issues so far
+     */
+    public int getIssueCount() {
+        return issueCount;
+    }
+
+    /**
+     * @return the number of identifiers that haven't been matched yet
+     */
+    public int getUnresolvedCount() {
+        return unresolvedCount;
+    }
+
+    @Override
+    public String toString() {
+        return "JobProgress [stages=" + stagesDone + "/" + stages + ", matches="
+            + matchedIds.size() + ", issues=" + issueCount + ", unresolved=" + unresolvedCount
+            + "]";
+    }
+}
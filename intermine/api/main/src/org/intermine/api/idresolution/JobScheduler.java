@@ -0,0 +1,415 @@
+package org.intermine.api.idresolution;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Runs identifier resolution jobs on a fixed number of threads, and keeps their results until
+ * they expire.
+ *
+ * Waiting jobs are queued per user.  When a thread is free it takes a small job before a large
+ * one, then the job of the user with the fewest jobs running, and otherwise goes round the users
+ * in turn, so one user's burst of uploads doesn't hold up everyone else.  Each user's jobs start
+ * in the order they were submitted, small jobs first.
+ */
+public class JobScheduler
+{
+    private static final Logger LOG = Logger.getLogger(JobScheduler.class);
+
+    /** The number of jobs run at once: one per processor, but at least two. */
+    public static final int DEFAULT_THREADS =
+        Math.max(2, Runtime.getRuntime().availableProcessors());
+    /** Jobs of up to this many identifiers are run before larger ones. */
+    public static final int DEFAULT_SMALL_JOB_SIZE = 1000;
+    /** The number of jobs that may be waiting before more are turned away. */
+    public static final int DEFAULT_MAX_QUEUED = 1000;
+    /** How long a finished job is kept for: three hours. */
+    public static final long DEFAULT_TIME_TO_LIVE = 3 * 60 * 60 * 1000L;
+
+    private static final long SWEEP_PERIOD = 60 * 1000L;
+
+    private static final Comparator<Entry> ORDER = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+            if (a.small != b.small) {
+                return a.small ? -1 : 1;
+            }
+            return a.sequence < b.sequence ? -1 : (a.sequence == b.sequence ? 0 : 1);
+        }
+    };
+
+    private final int maxQueued, smallJobSize;
+    private final long timeToLive;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    // users with waiting jobs, in the order they will be served
+    private final Map<String, Queue<Entry>> waiting = new LinkedHashMap<String, Queue<Entry>>();
+    private final Map<String, Integer> runningPerUser = new HashMap<String, Integer>();
+    private final List<Thread> workers = new ArrayList<Thread>();
+    private int queued = 0;
+    private int running = 0;
+    private long sequence = 0;
+    private long lastSweep;
+    private boolean shutdown = false;
+
+    private long submitted, rejected, completed, evicted;
+    private long totalWaitMillis, maxWaitMillis, totalRunMillis, maxRunMillis;
+
+    /**
+     * Start the threads of a new scheduler.
+     *
+     * @param threads the number of jobs to run at once
+     * @param maxQueued the number of jobs that may be waiting to run
+     * @param smallJobSize jobs of up to this many identifiers are run first
+     * @param timeToLive the number of milliseconds to keep finished jobs for
+     */
+    public JobScheduler(int threads, int maxQueued, int smallJobSize, long timeToLive) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1, not " + threads);
+        }
+        this.maxQueued = maxQueued;
+        this.smallJobSize = smallJobSize;
+        this.timeToLive = timeToLive;
+        this.lastSweep = System.currentTimeMillis();
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    work();
+                }
+            }, "IDResolver-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+    }
+
+    /**
+     * Queue a job to run.
+     *
+     * @param user the user the job is run for, used to share the threads out fairly
+     * @param job the job
+     * @param size the number of identifiers the job resolves, or -1 if it isn't known
+     * @return the job
+     * @throws RejectedExecutionException if too many jobs are already waiting
+     */
+    public synchronized Job submit(String user, Job job, int size) {
+        if (shutdown) {
+            throw new RejectedExecutionException("The identifier resolver has been shut down");
+        }
+        long now = System.currentTimeMillis();
+        if (now - lastSweep > SWEEP_PERIOD) {
+            evictExpired(now);
+        }
+        if (queued >= maxQueued) {
+            rejected++;
+            throw new RejectedExecutionException("There are already " + queued
+                    + " identifier resolution jobs waiting");
+        }
+        Entry entry = new Entry(job, String.valueOf(user), size >= 0 && size <= smallJobSize,
+                sequence++, now);
+        Queue<Entry> userJobs = waiting.get(entry.user);
+        if (userJobs == null) {
+            userJobs = new PriorityQueue<Entry>(11, ORDER);
+            waiting.put(entry.user, userJobs);
+        }
+        userJobs.add(entry);
+        entries.put(job.getUid(), entry);
+        queued++;
+        submitted++;
+        notifyAll();
+        return job;
+    }
+
+    /**
+     * @param uid the uid of a job
+     * @return the job, or null if there is no such job or it has expired
+     */
+    public Job getJob(String uid) {
+        Entry entry = entries.get(uid);
+        return entry == null ? null : entry.job;
+    }
+
+    /**
+     * Forget about a job, and don't run it if it hasn't started.
+     *
+     * @param uid the uid of a job
+     * @return the job, or null if there was no such job
+     */
+    public synchronized Job remove(String uid) {
+        Entry entry = entries.remove(uid);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.startedAt == 0) {
+            Queue<Entry> userJobs = waiting.get(entry.user);
+            if (userJobs != null && userJobs.remove(entry)) {
+                queued--;
+                if (userJobs.isEmpty()) {
+                    waiting.remove(entry.user);
+                }
+            }
+        }
+        return entry.job;
+    }
+
+    /**
+     * Forget the jobs that finished longer ago than the time to live.
+     *
+     * @return the number of jobs forgotten
+     */
+    public int evictExpired() {
+        return evictExpired(System.currentTimeMillis());
+    }
+
+    /**
+     * Forget the jobs that had finished a time to live before the given time.
+     *
+     * @param now the time in milliseconds
+     * @return the number of jobs forgotten
+     */
+    synchronized int evictExpired(long now) {
+        int count = 0;
+        Iterator<Entry> iter = entries.values().iterator();
+        while (iter.hasNext()) {
+            Entry entry = iter.next();
+            if (entry.finishedAt != 0 && entry.finishedAt + timeToLive <= now) {
+                iter.remove();
+                count++;
+            }
+        }
+        evicted += count;
+        lastSweep = now;
+        return count;
+    }
+
+    /**
+     * @return the current queue depth, counts of jobs and job latencies
+     */
+    public synchronized Metrics getMetrics() {
+        int retained = Math.max(0, entries.size() - queued - running);
+        return new Metrics(queued, running, retained, submitted, rejected, completed, evicted,
+                completed == 0 ? 0 : totalWaitMillis / completed, maxWaitMillis,
+                completed == 0 ? 0 : totalRunMillis / completed, maxRunMillis);
+    }
+
+    /**
+     * Stop the threads once the jobs already waiting have run.  No more jobs are accepted.
+     */
+    public synchronized void shutdown() {
+        shutdown = true;
+        notifyAll();
+    }
+
+    private void work() {
+        while (true) {
+            Entry entry;
+            synchronized (this) {
+                while ((entry = next()) == null) {
+                    if (shutdown) {
+                        return;
+                    }
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                entry.startedAt = System.currentTimeMillis();
+                running++;
+                runningPerUser.put(entry.user, Integer.valueOf(runningFor(entry.user) + 1));
+            }
+            try {
+                entry.job.run();
+            } catch (Throwable t) {
+                // Errors too, such as running out of stack, or the thread would die with the job
+                LOG.error("Identifier resolution job " + entry.job.getUid() + " failed", t);
+            } finally {
+                finished(entry);
+            }
+        }
+    }
+
+    private synchronized void finished(Entry entry) {
+        entry.finishedAt = System.currentTimeMillis();
+        running--;
+        int userRunning = runningFor(entry.user) - 1;
+        if (userRunning == 0) {
+            runningPerUser.remove(entry.user);
+        } else {
+            runningPerUser.put(entry.user, Integer.valueOf(userRunning));
+        }
+        long waited = entry.startedAt - entry.submittedAt;
+        long ran = entry.finishedAt - entry.startedAt;
+        completed++;
+        totalWaitMillis += waited;
+        maxWaitMillis = Math.max(maxWaitMillis, waited);
+        totalRunMillis += ran;
+        maxRunMillis = Math.max(maxRunMillis, ran);
+        notifyAll();
+    }
+
+    /**
+     * Take the next job to run off the queues.  Called holding the lock.
+     */
+    private Entry next() {
+        String chosenUser = null;
+        Entry chosen = null;
+        int chosenRunning = 0;
+        for (Map.Entry<String, Queue<Entry>> userJobs : waiting.entrySet()) {
+            Entry head = userJobs.getValue().peek();
+            int userRunning = runningFor(userJobs.getKey());
+            if (chosen == null || (head.small && !chosen.small)
+                    || (head.small == chosen.small && userRunning < chosenRunning)) {
+                chosenUser = userJobs.getKey();
+                chosen = head;
+                chosenRunning = userRunning;
+            }
+        }
+        if (chosen == null) {
+            return null;
+        }
+        // send the user to the back of the line
+        Queue<Entry> userJobs = waiting.remove(chosenUser);
+        userJobs.poll();
+        if (!userJobs.isEmpty()) {
+            waiting.put(chosenUser, userJobs);
+        }
+        queued--;
+        return chosen;
+    }
+
+    private int runningFor(String user) {
+        Integer count = runningPerUser.get(user);
+        return count == null ? 0 : count.intValue();
+    }
+
+    private static class Entry
+    {
+        final Job job;
+        final String user;
+        final boolean small;
+        final long sequence;
+        final long submittedAt;
+        volatile long startedAt = 0;
+        volatile long finishedAt = 0;
+
+        Entry(Job job, String user, boolean small, long sequence, long submittedAt) {
+            this.job = job;
+            this.user = user;
+            this.small = small;
+            this.sequence = sequence;
+            this.submittedAt = submittedAt;
+        }
+    }
+
+    /**
+     * A snapshot of the state of the scheduler.  Latencies are in milliseconds, and are
+     * averaged over every job that has finished.
+     */
+    public static final class Metrics
+    {
+        private final int queued, running, retained;
+        private final long submitted, rejected, completed, evicted;
+        private final long meanWait, maxWait, meanRun, maxRun;
+
+        Metrics(int queued, int running, int retained, long submitted, long rejected,
+                long completed, long evicted, long meanWait, long maxWait, long meanRun,
+                long maxRun) {
+            this.queued = queued;
+            this.running = running;
+            this.retained = retained;
+            this.submitted = submitted;
+            this.rejected = rejected;
+            this.completed = completed;
+            this.evicted = evicted;
+            this.meanWait = meanWait;
+            this.maxWait = maxWait;
+            this.meanRun = meanRun;
+            this.maxRun = maxRun;
+        }
+
+        /** @return the number of jobs waiting to run */
+        public int getQueued() {
+            return queued;
+        }
+
+        /** @return the number of jobs running */
+        public int getRunning() {
+            return running;
+        }
+
+        /** @return the number of finished jobs whose results are kept */
+        public int getRetained() {
+            return retained;
+        }
+
+        /** @return the number of jobs accepted */
+        public long getSubmitted() {
+            return submitted;
+        }
+
+        /** @return the number of jobs turned away because the queue was full */
+        public long getRejected() {
+            return rejected;
+        }
+
+        /** @return the number of jobs that have finished */
+        public long getCompleted() {
+            return completed;
+        }
+
+        /** @return the number of finished jobs forgotten after their time to live */
+        public long getEvicted() {
+            return evicted;
+        }
+
+        /** @return the mean time finished jobs waited to start */
+        public long getMeanWaitMillis() {
+            return meanWait;
+        }
+
+        /** @return the longest time a finished job waited to start */
+        public long getMaxWaitMillis() {
+            return maxWait;
+        }
+
+        /** @return the mean time finished jobs took to run */
+        public long getMeanRunMillis() {
+            return meanRun;
+        }
+
+        /** @return the longest time a finished job took to run */
+        public long getMaxRunMillis() {
+            return maxRun;
+        }
+
+        @Override
+        public String toString() {
+            return "queued=" + queued + ", running=" + running + ", retained=" + retained
+                + ", submitted=" + submitted + ", rejected=" + rejected + ", completed="
+                + completed + ", evicted=" + evicted + ", wait(mean/max)=" + meanWait + "/"
+                + maxWait + "ms, run(mean/max)=" + meanRun + "/" + maxRun + "ms";
+        }
+    }
+}
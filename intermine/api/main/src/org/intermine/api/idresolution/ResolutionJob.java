@@ -3,6 +3,7 @@ package org.intermine.api.idresolution;
 import java.util.Date;
 import java.util.UUID;
 
+import org.intermine.api.bag.BagQueryListener;
 import org.intermine.api.bag.BagQueryResult;
 import org.intermine.api.bag.BagQueryRunner;
 
@@ -16,7 +17,8 @@ public class ResolutionJob implements Job
     private boolean isComplete = false;
     private Exception error = null;
     private Date startedAt;
-    private JobStatus status = JobStatus.PENDING;
+    private volatile JobStatus status = JobStatus.PENDING;
+    private volatile JobProgress progress = JobProgress.NONE;
     private final String uid;
 
     public ResolutionJob(UUID id, BagQueryRunner runner, JobInput in) {
@@ -39,7 +41,17 @@ public class ResolutionJob implements Job
                     input.getIds(),
                     input.getExtraValue(),
                     input.getWildCards(),
-                    input.getCaseSensitive());
+                    input.getCaseSensitive(),
+                    new BagQueryListener() {
+                        @Override
+                        public void queryFinished(int queryNumber, int queryCount,
+                                BagQueryResult soFar, int unresolvedCount) {
+                            progress = JobProgress.of(queryNumber, queryCount, soFar,
+                                    unresolvedCount);
+                        }
+                    });
+            progress = JobProgress.of(progress.getStages(), progress.getStages(), result,
+                    result.getUnresolved().size());
             this.status = JobStatus.SUCCESS;
         } catch (Exception e) {
             error = e;
@@ -156,4 +168,9 @@ public class ResolutionJob implements Job
         return startedAt;
     }
 
+    @Override
+    public JobProgress getProgress() {
+        return progress;
+    }
+
 }
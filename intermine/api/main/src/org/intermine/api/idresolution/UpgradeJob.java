@@ -12,7 +12,8 @@ public class UpgradeJob implements Job {
     private final BagQueryUpgrade upgrade;
     private Date startedAt = null;
     private BagQueryResult result;
-    private JobStatus status;
+    private volatile JobStatus status;
+    private volatile JobProgress progress = JobProgress.NONE;
     private final String id;
 
     public UpgradeJob(UUID id, BagQueryUpgrade upgrade) {
@@ -27,6 +28,9 @@ public class UpgradeJob implements Job {
         this.startedAt = new Date();
         try {
             this.result = upgrade.getBagQueryResult();
+            if (result != null) {
+                progress = JobProgress.of(1, 1, result, result.getUnresolved().size());
+            }
             this.status = JobStatus.SUCCESS;
         } catch (Exception e) {
             error = e;
@@ -69,4 +73,9 @@ public class UpgradeJob implements Job {
         return startedAt;
     }
 
+    @Override
+    public JobProgress getProgress() {
+        return progress;
+    }
+
 }
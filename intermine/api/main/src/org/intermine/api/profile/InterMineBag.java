@@ -22,6 +22,7 @@ import java.util.Set;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
+import org.intermine.api.bag.BagBitmapCache;
 import org.intermine.api.bag.ClassKeysNotFoundException;
 import org.intermine.api.bag.IncompatibleTypesException;
 import org.intermine.api.bag.UnknownBagTypeException;
@@ -50,6 +51,7 @@ import org.intermine.objectstore.query.Results;
 import org.intermine.objectstore.query.ResultsRow;
 import org.intermine.objectstore.query.SimpleConstraint;
 import org.intermine.objectstore.query.SingletonResults;
+import org.intermine.util.IntBitmap;
 import org.intermine.util.TypeUtil;
 
 /**
@@ -246,6 +248,9 @@ public class InterMineBag extends StorableBag implements WebSearchable, Cloneabl
      */
     @SuppressWarnings({ "unchecked", "rawtypes" })
     public List<Integer> getContentsAsIds() {
+        if (canUseIdBitmap()) {
+            return getIdBitmap().toList();
+        }
         Query q = new Query();
         q.addToSelect(osb);
         q.setDistinct(false);
@@ -261,6 +266,16 @@ public class InterMineBag extends StorableBag implements WebSearchable, Cloneabl
      */
     @SuppressWarnings({ "unchecked", "rawtypes" })
     public List<Integer> getIdsContained(Collection<Integer> ids) {
+        if (canUseIdBitmap()) {
+            IntBitmap contents = getIdBitmap();
+            List<Integer> contained = new ArrayList<Integer>();
+            for (Integer id : ids) {
+                if (contents.contains(id.intValue())) {
+                    contained.add(id);
+                }
+            }
+            return contained;
+        }
         Query q = new Query();
         q.setDistinct(false);
         try {
@@ -416,6 +431,7 @@ public class InterMineBag extends StorableBag implements WebSearchable, Cloneabl
         SavedBag savedBag = (SavedBag) uosw.getObjectById(savedBagId, SavedBag.class);
         try {
             oswProduction = os.getNewWriter();
+            getBitmapCache().invalidate(osb);
             osb = oswProduction.createObjectStoreBag();
             oswProduction.addAllToBag(osb, values);
             savedBag.setOsbId(osb.getBagId());
@@ -433,8 +449,37 @@ public class InterMineBag extends StorableBag implements WebSearchable, Cloneabl
     }
 
 
+    /**
+     * Returns the ids in this bag as a compressed bitmap, which is shared with the other users of
+     * the bag and so must not be added to.
+     *
+     * @return the ids
+     */
+    public IntBitmap getIdBitmap() {
+        return getBitmapCache().getBitmap(osb);
+    }
+
+    /**
+     * Find out whether the ids of this bag should be read into a bitmap to size, search or
+     * combine it, rather than using a query.  This is false if bitmaps are not cached or the
+     * bag is too big for the cache.
+     *
+     * @return true if getIdBitmap() should be used
+     */
+    public boolean canUseIdBitmap() {
+        BagBitmapCache cache = getBitmapCache();
+        return cache.isEnabled() && !cache.isTooBig(osb);
+    }
+
+    private BagBitmapCache getBitmapCache() {
+        return BagBitmapCache.getInstance(os);
+    }
+
     @Override
     public int getSize() throws ObjectStoreException {
+        if (canUseIdBitmap()) {
+            return getIdBitmap().getCardinality();
+        }
         Query q = new Query();
         q.addToSelect(osb);
         q.setDistinct(false);
@@ -735,12 +780,44 @@ public class InterMineBag extends StorableBag implements WebSearchable, Cloneabl
             oswProduction = os.getNewWriter();
             oswProduction.addAllToBag(osb, ids);
         } finally {
+            getBitmapCache().invalidate(osb);
             if (oswProduction != null) {
                 oswProduction.close();
             }
         }
     }
 
+    /**
+     * Add ids that are already known to be of the type of this bag, such as the result of
+     * combining other bags, in one batch.  The new contents of the bag are kept in memory, so
+     * the bitmap can be searched again without a query.
+     *
+     * @param ids the ids to add
+     * @throws ObjectStoreException if problem storing
+     */
+    public void addIdsToBag(IntBitmap ids) throws ObjectStoreException {
+        if (ids.isEmpty()) {
+            return;
+        }
+        IntBitmap contents = canUseIdBitmap() ? getIdBitmap().or(ids) : null;
+        ObjectStoreWriter oswProduction = null;
+        try {
+            oswProduction = os.getNewWriter();
+            oswProduction.addAllToBag(osb, ids.toList());
+        } finally {
+            getBitmapCache().invalidate(osb);
+            if (oswProduction != null) {
+                oswProduction.close();
+            }
+        }
+        if (contents != null) {
+            getBitmapCache().put(osb, contents);
+        }
+        if (profileId != null) {
+            updateBagValues();
+        }
+    }
+
     /**
      * Test whether the given type can be added to this bag, type can be a
      * qualified or un-qualified string.
@@ -779,6 +856,7 @@ public class InterMineBag extends StorableBag implements WebSearchable, Cloneabl
             oswProduction = os.getNewWriter();
             oswProduction.addToBagFromQuery(osb, query);
         } finally {
+            getBitmapCache().invalidate(osb);
             if (oswProduction != null) {
                 oswProduction.close();
             }
@@ -810,6 +888,7 @@ public class InterMineBag extends StorableBag implements WebSearchable, Cloneabl
             oswProduction = os.getNewWriter();
             oswProduction.removeAllFromBag(osb, ids);
         } finally {
+            getBitmapCache().invalidate(osb);
             if (oswProduction != null) {
                 oswProduction.close();
             }
@@ -0,0 +1,310 @@
+package org.intermine.api.query;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.Results;
+import org.intermine.objectstore.query.ResultsRow;
+
+/**
+ * The rows of column summary queries - value counts and histograms - held in memory so that a
+ * column of a popular query or list can be summarised again, and filtered by a search term,
+ * without running any SQL.
+ *
+ * Summaries are keyed by the IQL of the summary query, which depends only on the constraints,
+ * joins and summarised column of the PathQuery, and not on its view or sort order.  A summary is
+ * run again if the objectstore sequence of any table or bag it reads from has changed since it
+ * was run.  Summaries with more than the maximum number of rows are not kept, but are remembered
+ * as too big so that they are not read again.  The least recently used summaries are dropped
+ * when the cache holds more than its maximum number of entries.
+ */
+public class ColumnSummaryCache
+{
+    private static final Logger LOG = Logger.getLogger(ColumnSummaryCache.class);
+
+    /** The default number of summaries to keep. */
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+    /** The default number of rows a summary may have and still be kept. */
+    public static final int DEFAULT_MAX_ROWS = 10000;
+
+    // the number of lookups between logging the hit rate
+    private static final int LOG_INTERVAL = 1000;
+
+    private static final Map<ObjectStore, ColumnSummaryCache> INSTANCES =
+        new WeakHashMap<ObjectStore, ColumnSummaryCache>();
+
+    private final ObjectStore os;
+    private final LinkedHashMap<String, Summary> summaries =
+        new LinkedHashMap<String, Summary>(16, 0.75F, true);
+    private int maxEntries = DEFAULT_MAX_ENTRIES;
+    private int maxRows = DEFAULT_MAX_ROWS;
+    private long hits = 0;
+    private long misses = 0;
+    private long filtered = 0;
+    private long tooBig = 0;
+
+    /**
+     * @param os an objectstore
+     * @return the cache of summaries of queries on that objectstore
+     */
+    public static ColumnSummaryCache getInstance(ObjectStore os) {
+        synchronized (INSTANCES) {
+            ColumnSummaryCache cache = INSTANCES.get(os);
+            if (cache == null) {
+                cache = new ColumnSummaryCache(os);
+                INSTANCES.put(os, cache);
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * Use getInstance() instead, except in tests.
+     *
+     * @param os the objectstore the summaries are run against
+     */
+    protected ColumnSummaryCache(ObjectStore os) {
+        this.os = os;
+    }
+
+    /**
+     * Set the number of summaries to keep.  If it is zero, every summary is run in the database.
+     *
+     * @param maxEntries the number of summaries
+     */
+    public synchronized void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+        evict();
+    }
+
+    /**
+     * Set the number of rows a summary may have and still be kept.  Summaries already kept are
+     * forgotten, as whether they fitted has changed.
+     *
+     * @param maxRows the number of rows
+     */
+    public synchronized void setMaxRows(int maxRows) {
+        this.maxRows = maxRows;
+        summaries.clear();
+    }
+
+    /**
+     * @return true if summaries should be kept
+     */
+    public synchronized boolean isEnabled() {
+        return maxEntries > 0 && maxRows > 0;
+    }
+
+    /**
+     * Get the rows of a summary query, running it if it isn't in the cache or the data it reads
+     * has changed.  If a filter term is given, only the rows whose first column contains it,
+     * ignoring case, are returned.  This is only the same as running the query with the term as
+     * a constraint on the summarised column for summaries of value counts, not for histograms,
+     * so callers must only pass a filter term for the former.
+     *
+     * @param q the summary query
+     * @param batchSize the batch size to read the summary with
+     * @param filterTerm the term to filter by, or null for all the rows
+     * @return the rows, which must not be altered, or null if the summary has too many rows to
+     * keep, in which case the caller should run it itself
+     * @throws ObjectStoreException if there is a problem running the query
+     */
+    public List<List<Object>> getRows(Query q, int batchSize, String filterTerm)
+        throws ObjectStoreException {
+        String key = q.toString();
+        Map<Object, Integer> sequence = os.getSequence(os.getComponentsForQuery(q));
+        boolean filtering = filterTerm != null && !filterTerm.isEmpty();
+        synchronized (this) {
+            Summary summary = summaries.get(key);
+            boolean hit = summary != null && summary.sequence.equals(sequence);
+            if (hit) {
+                hits++;
+            } else {
+                misses++;
+            }
+            if ((hits + misses) % LOG_INTERVAL == 0) {
+                LOG.info(this + ", hit rate " + getHitRate());
+            }
+            if (hit) {
+                if (summary.rows == null) {
+                    return null;
+                }
+                if (filtering) {
+                    filtered++;
+                }
+                return filter(summary.rows, filterTerm);
+            }
+        }
+        long start = System.currentTimeMillis();
+        List<List<Object>> rows = read(q, batchSize);
+        LOG.debug("Read " + (rows == null ? "more than " + maxRows : "" + rows.size())
+                + " summary rows in " + (System.currentTimeMillis() - start) + "ms for " + key);
+        put(key, sequence, rows);
+        return rows == null ? null : filter(rows, filterTerm);
+    }
+
+    /**
+     * Choose the rows of a summary whose first column contains a term, ignoring case, in the
+     * same way as the CONTAINS constraint that filters summaries that are not cached. As in that
+     * constraint, "*" in the term matches any characters and "?" any one character, unless they
+     * follow a backslash.
+     *
+     * @param rows the rows of a summary
+     * @param filterTerm the term to look for, or null for all the rows
+     * @return the matching rows
+     */
+    public static List<List<Object>> filter(List<List<Object>> rows, String filterTerm) {
+        if (filterTerm == null || filterTerm.isEmpty()) {
+            return rows;
+        }
+        Pattern pattern = containsPattern(filterTerm);
+        List<List<Object>> retval = new ArrayList<List<Object>>();
+        for (List<Object> row : rows) {
+            Object value = row.get(0);
+            if (value != null && pattern.matcher(value.toString().toLowerCase()).find()) {
+                retval.add(row);
+            }
+        }
+        return Collections.unmodifiableList(retval);
+    }
+
+    /**
+     * Turns a term into a regular expression, translating the wildcards as
+     * Util.wildcardUserToSql() does for the database.
+     */
+    private static Pattern containsPattern(String filterTerm) {
+        String term = filterTerm.toLowerCase();
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < term.length(); i++) {
+            char c = term.charAt(i);
+            if (c == '*') {
+                regex.append(".*");
+            } else if (c == '?') {
+                regex.append('.');
+            } else {
+                if ((c == '\\') && (i + 1 < term.length())
+                        && ((term.charAt(i + 1) == '*') || (term.charAt(i + 1) == '?'))) {
+                    i++;
+                    c = term.charAt(i);
+                }
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+
+    /**
+     * @return the number of summaries found in the cache
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of summaries that had to be run
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the fraction of lookups that were found in the cache
+     */
+    public synchronized double getHitRate() {
+        return hits + misses == 0 ? 0.0 : ((double) hits) / (hits + misses);
+    }
+
+    /**
+     * @return the number of filtered summaries answered from the cache
+     */
+    public synchronized long getFiltered() {
+        return filtered;
+    }
+
+    /**
+     * @return the number of summaries run that had too many rows to keep
+     */
+    public synchronized long getTooBig() {
+        return tooBig;
+    }
+
+    /**
+     * @return the number of summaries in the cache
+     */
+    public synchronized int size() {
+        return summaries.size();
+    }
+
+    private List<List<Object>> read(Query q, int batchSize) throws ObjectStoreException {
+        Results res = os.execute(q, batchSize, true, true, true);
+        try {
+            res.range(0, 0); // runs the query, so that errors surface here
+        } catch (IndexOutOfBoundsException e) {
+            return Collections.emptyList();
+        }
+        List<List<Object>> rows = new ArrayList<List<Object>>();
+        for (Object row : res) {
+            if (rows.size() >= maxRows) {
+                return null;
+            }
+            @SuppressWarnings("unchecked")
+            List<Object> values = (List<Object>) row;
+            rows.add(new ResultsRow<Object>(values));
+        }
+        return Collections.unmodifiableList(rows);
+    }
+
+    private synchronized void put(String key, Map<Object, Integer> sequence,
+            List<List<Object>> rows) {
+        if (rows == null) {
+            tooBig++;
+        }
+        summaries.put(key, new Summary(sequence, rows));
+        evict();
+    }
+
+    private void evict() {
+        Iterator<Summary> iter = summaries.values().iterator();
+        while (summaries.size() > maxEntries && iter.hasNext()) {
+            iter.next();
+            iter.remove();
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ColumnSummaryCache [" + summaries.size() + " summaries, " + hits + " hits, "
+            + misses + " misses, " + filtered + " filtered, " + tooBig + " too big]";
+    }
+
+    private static class Summary
+    {
+        final Map<Object, Integer> sequence;
+        final List<List<Object>> rows;
+
+        Summary(Map<Object, Integer> sequence, List<List<Object>> rows) {
+            this.sequence = sequence;
+            this.rows = rows;
+        }
+    }
+}
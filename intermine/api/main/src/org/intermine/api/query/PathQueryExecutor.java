@@ -30,6 +30,7 @@ import org.intermine.metadata.FieldDescriptor;
 import org.intermine.objectstore.ObjectStore;
 import org.intermine.objectstore.ObjectStoreException;
 import org.intermine.objectstore.intermine.ObjectStoreInterMineImpl;
+import org.intermine.objectstore.intermine.StreamingResults;
 import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.QuerySelectable;
 import org.intermine.objectstore.query.Results;
@@ -128,6 +129,36 @@ public class PathQueryExecutor extends QueryExecutor
         return new ResultIterator(pathQuery, q, results, pathToQueryNode, start, limit);
     }
 
+    /**
+     * Executes object store query and returns results as iterator over rows, reading the rows
+     * through a single database cursor rather than a batch at a time through the Results cache.
+     * This is intended for large exports that are read once from start to end. The returned
+     * iterator holds a database connection until it is read to the end, so callers that may
+     * stop early must call close() on it. If the ObjectStore cannot stream results, this behaves
+     * exactly like execute(pathQuery, start, limit).
+     *
+     * @param pathQuery path query to be executed
+     * @param start index of first result which will be retrieved. Preceding rows are read from
+     * the database and thrown away.
+     * @param limit maximum number of results
+     * @return results
+     * @throws ObjectStoreException if the query cannot be run
+     */
+    public ExportResultsIterator executeStreaming(PathQuery pathQuery, final int start,
+            final int limit) throws ObjectStoreException {
+        if (!(os instanceof ObjectStoreInterMineImpl)) {
+            return execute(pathQuery, start, limit);
+        }
+        Map<String, QuerySelectable> pathToQueryNode = new HashMap<String, QuerySelectable>();
+        Map<String, BagQueryResult> returnBagQueryResults = new HashMap<String, BagQueryResult>();
+
+        Query q = makeQuery(pathQuery, returnBagQueryResults, pathToQueryNode);
+        // The cursor is opened immediately, so errors in the query surface here.
+        StreamingResults rows = ((ObjectStoreInterMineImpl) os).executeStreaming(q, batchSize,
+                true);
+        return new ResultIterator(pathQuery, q, rows, pathToQueryNode, start, limit);
+    }
+
     private Query makeQuery(PathQuery pathQuery, Map<String, BagQueryResult> pathToBagQueryResult,
             Map<String, QuerySelectable> pathToQueryNode) throws ObjectStoreException {
 
@@ -259,6 +290,26 @@ class ResultIterator extends ExportResultsIterator
         this.start = start;
     }
 
+    /**
+     * Constructor for a ResultIterator reading streamed results.
+     *
+     * @param pathQuery a PathQuery to run.
+     * @param q The object-store query this path-query corresponds to.
+     * @param rows the streamed rows created when executing the query
+     * @param pathToQueryNode a map from path in pathQuery to QuerySelectable in the generated
+     * ObjectStore query
+     * @param start the first row of results to be returned
+     * @param limit the number of result rows to return
+     * @throws ObjectStoreException if something goes wrong executing the query
+     */
+    public ResultIterator(PathQuery pathQuery, Query q, StreamingResults rows,
+            Map<String, QuerySelectable> pathToQueryNode, int start, int limit)
+        throws ObjectStoreException {
+        super(pathQuery, q, rows, pathToQueryNode);
+        this.limit = limit;
+        this.start = start;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -274,6 +325,8 @@ class ResultIterator extends ExportResultsIterator
         }
 
         if (counter >= (limit + start)) {
+            // Don't hold a cursor open for rows nobody will read
+            close();
             return false;
         } else {
             return super.hasNext();
@@ -12,6 +12,7 @@ package org.intermine.api.query;
 
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.WeakHashMap;
 
@@ -188,6 +189,41 @@ public abstract class QueryExecutor
                 true, true, true);
     }
 
+    /**
+     * Returns the rows of a summary for a column in a PathQuery, as summariseQuery does, but
+     * from the column summary cache where it can.  Summaries of value counts are filtered in
+     * memory, so searching a summary for a term doesn't run it again.
+     *
+     * @param pq The query to summarise
+     * @param summaryPath The path of the query to focus on.
+     * @param filterTerm An optional term to further filter by.
+     * @param asOccurrances If true, will only return the list of values and their counts.
+     * @return the rows of the summary, which must not be altered
+     * @throws ObjectStoreException if there is a problem summarising
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public List<List<Object>> summariseColumn(
+            PathQuery pq,
+            String summaryPath,
+            String filterTerm,
+            boolean asOccurrances) throws ObjectStoreException {
+        ColumnSummaryCache summaries = ColumnSummaryCache.getInstance(os);
+        if (summaries.isEnabled()) {
+            Map<String, QuerySelectable> pathToQueryNode = new HashMap<String, QuerySelectable>();
+            Query q = MainHelper.makeSummaryQuery(pq, summaryPath, bagManager.getBags(profile),
+                    pathToQueryNode, bagQueryRunner, asOccurrances);
+            // histograms have to be run again with the filter as a constraint
+            boolean isHistogram = !pathToQueryNode.containsKey("Occurrences");
+            if (filterTerm == null || filterTerm.isEmpty() || !isHistogram) {
+                List<List<Object>> rows = summaries.getRows(q, summaryBatchSize, filterTerm);
+                if (rows != null) {
+                    return rows;
+                }
+            }
+        }
+        return (List) summariseQuery(pq, summaryPath, filterTerm, asOccurrances);
+    }
+
     /**
      * Take a query and return the results row count.
      *
@@ -217,6 +253,13 @@ public abstract class QueryExecutor
      */
     public int uniqueColumnValues(PathQuery pq, String path) throws ObjectStoreException {
         Query q = makeSummaryQuery(pq, path, true);
+        ColumnSummaryCache summaries = ColumnSummaryCache.getInstance(os);
+        if (summaries.isEnabled()) {
+            List<List<Object>> rows = summaries.getRows(q, summaryBatchSize, null);
+            if (rows != null) {
+                return rows.size();
+            }
+        }
         String cacheKey = q.toString() + "summary-path: " + path;
         if (countCache.containsKey(cacheKey)) {
             LOG.debug("Count cache hit");
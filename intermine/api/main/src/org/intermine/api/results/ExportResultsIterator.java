@@ -22,6 +22,7 @@ import org.intermine.api.query.QueryExecutor;
 import org.intermine.model.FastPathObject;
 import org.intermine.objectstore.ObjectStoreException;
 import org.intermine.objectstore.intermine.ObjectStoreInterMineImpl;
+import org.intermine.objectstore.intermine.StreamingResults;
 import org.intermine.objectstore.query.PathExpressionField;
 import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.QueryCollectionPathExpression;
@@ -50,6 +51,7 @@ public class ExportResultsIterator implements Iterator<List<ResultElement>>
     private final Query query;
     private int columnCount;
     protected final Results results;
+    protected final StreamingResults streamingResults;
     private boolean isGoingFaster = false;
     protected final PathQuery originatingQuery;
 
@@ -66,8 +68,34 @@ public class ExportResultsIterator implements Iterator<List<ResultElement>>
     public ExportResultsIterator(PathQuery pathQuery, Query q, Results results,
             Map<String, QuerySelectable> pathToQueryNode) throws ObjectStoreException {
         this.results = results;
+        this.streamingResults = null;
         this.originatingQuery = pathQuery;
         this.query = q;
+        osIter = ((List) results).iterator();
+        init(pathQuery, pathToQueryNode);
+    }
+
+    /**
+     * Constructor for ExportResultsIterator reading its rows from a single database cursor
+     * rather than from a Results object. The caller must call close() if it stops reading before
+     * the end.
+     *
+     * @param pathQuery a PathQuery to run
+     * @param q the ObjectStore query generated from the PathQuery
+     * @param streamingResults the streamed rows created when executing the query
+     * @param pathToQueryNode a map from path in pathQuery to QuerySelectable in the generated
+     * ObjectStore query
+     * @throws ObjectStoreException if something goes wrong executing the query
+     */
+    public ExportResultsIterator(PathQuery pathQuery, Query q, StreamingResults streamingResults,
+            Map<String, QuerySelectable> pathToQueryNode) throws ObjectStoreException {
+        this.results = null;
+        this.streamingResults = streamingResults;
+        this.originatingQuery = pathQuery;
+        this.query = q;
+        @SuppressWarnings({"unchecked", "rawtypes" })
+        Iterator<List> rows = (Iterator) streamingResults;
+        osIter = rows;
         init(pathQuery, pathToQueryNode);
     }
 
@@ -80,8 +108,6 @@ public class ExportResultsIterator implements Iterator<List<ResultElement>>
     }
 
     private void init(PathQuery pq, Map<String, QuerySelectable> pathToQueryNode) {
-        osIter = ((List) results).iterator();
-      
         List<List<ResultElement>> empty = Collections.emptyList();
         subIter = empty.iterator();
         for (String pathString : pq.getView()) {
@@ -135,6 +161,10 @@ public class ExportResultsIterator implements Iterator<List<ResultElement>>
      * @throws RuntimeException if something goes wrong
      */
     public void goFaster()  {
+        if (results == null) {
+            // A streamed query is run once, so there is nothing to gain
+            return;
+        }
         try {
             if ((!results.isSingleBatch()) && (!isGoingFaster)) {
                 ((ObjectStoreInterMineImpl) results.getObjectStore()).goFaster(results.getQuery());
@@ -161,6 +191,16 @@ public class ExportResultsIterator implements Iterator<List<ResultElement>>
         }
     }
 
+    /**
+     * Releases any database resources held by this iterator. This only has an effect if the
+     * results are being streamed, and may safely be called more than once.
+     */
+    public void close() {
+        if (streamingResults != null) {
+            streamingResults.close();
+        }
+    }
+
     /** Analyses the select list to predict what the structure of the results will be. It produces
      *  a list with a disjoint type of element.
      *  
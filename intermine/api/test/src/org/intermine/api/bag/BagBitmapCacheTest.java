@@ -0,0 +1,79 @@
+package org.intermine.api.bag;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+import org.intermine.objectstore.dummy.ObjectStoreDummyImpl;
+import org.intermine.objectstore.query.ObjectStoreBag;
+import org.intermine.objectstore.query.ResultsRow;
+import org.intermine.util.IntBitmap;
+
+/**
+ * Tests for the reuse, invalidation and size limit of bitmaps in the BagBitmapCache.
+ */
+public class BagBitmapCacheTest extends TestCase
+{
+    private ObjectStoreDummyImpl os;
+    private BagBitmapCache cache;
+    private ObjectStoreBag osb;
+
+    public BagBitmapCacheTest(String arg) {
+        super(arg);
+    }
+
+    @Override
+    public void setUp() {
+        os = new ObjectStoreDummyImpl();
+        for (int i = 1; i <= 3; i++) {
+            ResultsRow<Object> row = new ResultsRow<Object>();
+            row.add(Integer.valueOf(i * 10));
+            os.addRow(row);
+        }
+        os.setResultsSize(3);
+        cache = new BagBitmapCache(os);
+        osb = new ObjectStoreBag(7);
+    }
+
+    public void testBitmapsAreReused() throws Exception {
+        IntBitmap bitmap = cache.getBitmap(osb);
+        assertEquals(3, bitmap.getCardinality());
+        assertTrue(bitmap.contains(20));
+        assertSame(bitmap, cache.getBitmap(osb));
+        assertSame(bitmap, cache.getCachedBitmap(osb));
+        assertFalse(cache.isTooBig(osb));
+
+        // a write to the bag makes it read again
+        os.changeSequence(Collections.<Object>singleton(osb));
+        assertNull(cache.getCachedBitmap(osb));
+        assertNotSame(bitmap, cache.getBitmap(osb));
+    }
+
+    public void testLargeBagsAreRememberedAsTooBig() throws Exception {
+        for (int i = 4; i <= 1000; i++) {
+            ResultsRow<Object> row = new ResultsRow<Object>();
+            row.add(Integer.valueOf(i * 10));
+            os.addRow(row);
+        }
+        os.setResultsSize(1000);
+        cache.setMaxBytes(1000);
+        assertFalse(cache.isTooBig(osb));
+        assertEquals(1000, cache.getBitmap(osb).getCardinality());
+        assertTrue(cache.isTooBig(osb));
+        assertNull(cache.getCachedBitmap(osb));
+
+        // once the bag changes it may fit again
+        os.changeSequence(Collections.<Object>singleton(osb));
+        assertFalse(cache.isTooBig(osb));
+    }
+}
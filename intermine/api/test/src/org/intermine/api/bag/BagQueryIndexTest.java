@@ -0,0 +1,130 @@
+package org.intermine.api.bag;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+import org.intermine.api.bag.BagQueryIndex.Keys;
+
+/**
+ * Tests for the identifier table of BagQueryIndex.
+ */
+public class BagQueryIndexTest extends TestCase
+{
+    public BagQueryIndexTest(String arg) {
+        super(arg);
+    }
+
+    public void testExact() throws Exception {
+        Keys keys = new Keys(new String[] {"zen", "EVE", "eve", "Zen", "eve", "ZEN"},
+                new int[] {1, 2, 3, 4, 5, 6});
+        assertEquals(Arrays.asList(1, 4, 6), getIds(keys, keys.exact("zen")));
+        assertEquals(Arrays.asList(2, 3, 5), getIds(keys, keys.exact("Eve")));
+        assertEquals(Arrays.asList(), getIds(keys, keys.exact("ze")));
+        // the identifiers are kept as they were read, for case sensitive searches
+        List<String> values = new ArrayList<String>();
+        for (int position : keys.exact("ZEN")) {
+            values.add(keys.getValue(position));
+        }
+        assertEquals(Arrays.asList("zen", "Zen", "ZEN"), values);
+    }
+
+    public void testMatching() throws Exception {
+        Keys keys = new Keys(new String[] {"CG1234", "cg12", "CG99", "eve", "even", "Seven"},
+                new int[] {1, 2, 3, 4, 5, 6});
+        assertEquals(Arrays.asList(2, 1), getIds(keys, keys.matching("cg12*")));
+        assertEquals(Arrays.asList(4, 5, 6), getIds(keys, keys.matching("*ve*")));
+        assertEquals(Arrays.asList(5, 6), getIds(keys, keys.matching("*EN")));
+        assertEquals(Arrays.asList(6), getIds(keys, keys.matching("s*n")));
+        // would be a regex or LIKE wildcard
+        assertNull(keys.matching("CG_2*"));
+        assertNull(keys.matching("CG.2*"));
+    }
+
+    public void testRandom() throws Exception {
+        Random random = new Random(0);
+        int n = 2000;
+        String[] values = randomIdentifiers(random, n);
+        int[] ids = new int[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = i;
+        }
+        Keys keys = new Keys(values, ids);
+        for (int query = 0; query < 300; query++) {
+            String identifier = values[random.nextInt(n)];
+            int cut1 = random.nextInt(identifier.length());
+            int cut2 = cut1 + random.nextInt(identifier.length() - cut1);
+            String wildcard;
+            switch (query % 3) {
+                case 0:
+                    wildcard = identifier.substring(0, cut2) + "*";
+                    break;
+                case 1:
+                    wildcard = "*" + identifier.substring(cut1);
+                    break;
+                default:
+                    wildcard = identifier.substring(0, cut1) + "*" + identifier.substring(cut2);
+            }
+            assertEquals(wildcard, bruteForce(values, wildcard), getSortedIds(keys,
+                        keys.matching(wildcard)));
+            assertEquals(identifier, bruteForce(values, identifier), getSortedIds(keys,
+                        keys.exact(identifier)));
+        }
+    }
+
+    private static String[] randomIdentifiers(Random random, int n) {
+        String[] retval = new String[n];
+        for (int i = 0; i < n; i++) {
+            StringBuffer sb = new StringBuffer(random.nextBoolean() ? "CG" : "Fbgn");
+            int digits = 1 + random.nextInt(7);
+            for (int j = 0; j < digits; j++) {
+                sb.append((char) ('0' + random.nextInt(10)));
+            }
+            retval[i] = random.nextBoolean() ? sb.toString() : sb.toString().toLowerCase();
+        }
+        return retval;
+    }
+
+    private static List<Integer> getIds(Keys keys, int[] positions) {
+        List<Integer> retval = new ArrayList<Integer>();
+        for (int position : positions) {
+            retval.add(keys.getId(position));
+        }
+        return retval;
+    }
+
+    private static List<Integer> getSortedIds(Keys keys, int[] positions) {
+        List<Integer> retval = getIds(keys, positions);
+        Collections.sort(retval);
+        return retval;
+    }
+
+    /**
+     * Tests every identifier in the way that BagQueryRunner does without an index.
+     */
+    private static List<Integer> bruteForce(String[] values, String wildcard) {
+        Pattern pattern = Pattern.compile(wildcard.toLowerCase().replaceAll("\\*", "\\.\\*"));
+        List<Integer> retval = new ArrayList<Integer>();
+        for (int i = 0; i < values.length; i++) {
+            if (pattern.matcher(values[i].toLowerCase()).matches()) {
+                retval.add(i);
+            }
+        }
+        return retval;
+    }
+}
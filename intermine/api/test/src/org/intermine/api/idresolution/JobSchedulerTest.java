@@ -0,0 +1,204 @@
+package org.intermine.api.idresolution;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.intermine.api.bag.BagQueryResult;
+
+/**
+ * Tests for the order, bounds and expiry of jobs in the JobScheduler.
+ */
+public class JobSchedulerTest extends TestCase
+{
+    private final List<String> ran = Collections.synchronizedList(new ArrayList<String>());
+    private CountDownLatch release;
+    private JobScheduler scheduler;
+
+    public JobSchedulerTest(String arg) {
+        super(arg);
+    }
+
+    @Override
+    public void setUp() {
+        release = new CountDownLatch(1);
+        scheduler = new JobScheduler(1, 4, 10, 1000);
+    }
+
+    @Override
+    public void tearDown() {
+        release.countDown();
+        scheduler.shutdown();
+    }
+
+    public void testSmallJobsAndUsersTakeTurns() throws Exception {
+        // hold the only thread while the others queue up
+        scheduler.submit("alice", new TestJob("block", release), 1);
+        waitForRunning(1);
+        scheduler.submit("alice", new TestJob("alice-big-1", null), 5000);
+        scheduler.submit("alice", new TestJob("alice-big-2", null), 5000);
+        scheduler.submit("alice", new TestJob("alice-small", null), 5);
+        scheduler.submit("bob", new TestJob("bob-big", null), 5000);
+        release.countDown();
+        waitFor(5);
+        assertEquals(Arrays.asList("block", "alice-small", "bob-big", "alice-big-1",
+                    "alice-big-2"), ran);
+    }
+
+    public void testQueueIsBounded() throws Exception {
+        scheduler.submit("alice", new TestJob("block", release), 1);
+        waitForRunning(1);
+        for (int i = 0; i < 4; i++) {
+            scheduler.submit("bob", new TestJob("bob-" + i, null), 1);
+        }
+        try {
+            scheduler.submit("carol", new TestJob("carol", null), 1);
+            fail("Expected the job to be turned away");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+        assertEquals(4, scheduler.getMetrics().getQueued());
+        assertEquals(1, scheduler.getMetrics().getRejected());
+        assertNull(scheduler.getJob("carol"));
+    }
+
+    public void testRemovedJobsDontRun() throws Exception {
+        scheduler.submit("alice", new TestJob("block", release), 1);
+        scheduler.submit("alice", new TestJob("removed", null), 1);
+        scheduler.submit("alice", new TestJob("kept", null), 1);
+        assertNotNull(scheduler.remove("removed"));
+        assertNull(scheduler.getJob("removed"));
+        release.countDown();
+        waitFor(2);
+        assertEquals(Arrays.asList("block", "kept"), ran);
+    }
+
+    public void testFinishedJobsExpire() throws Exception {
+        release.countDown();
+        scheduler.submit("alice", new TestJob("done", null), 1);
+        waitFor(1);
+        long now = System.currentTimeMillis();
+        assertEquals(0, scheduler.evictExpired(now));
+        assertNotNull(scheduler.getJob("done"));
+        assertEquals(1, scheduler.evictExpired(now + 1000));
+        assertNull(scheduler.getJob("done"));
+
+        JobScheduler.Metrics metrics = scheduler.getMetrics();
+        assertEquals(1, metrics.getSubmitted());
+        assertEquals(1, metrics.getCompleted());
+        assertEquals(1, metrics.getEvicted());
+        assertEquals(0, metrics.getRetained());
+    }
+
+    public void testErrorsDontStopTheThreads() throws Exception {
+        release.countDown();
+        scheduler.submit("alice", new TestJob("error", null) {
+            @Override
+            public void run() {
+                throw new StackOverflowError();
+            }
+        }, 1);
+        waitFor(1);
+        scheduler.submit("alice", new TestJob("after", null), 1);
+        waitFor(2);
+        assertEquals(Arrays.asList("after"), ran);
+    }
+
+    private void waitFor(int jobs) throws InterruptedException {
+        long end = System.currentTimeMillis() + 10000;
+        while (scheduler.getMetrics().getCompleted() < jobs && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        assertEquals(jobs, scheduler.getMetrics().getCompleted());
+    }
+
+    private void waitForRunning(int jobs) throws InterruptedException {
+        long end = System.currentTimeMillis() + 10000;
+        while (scheduler.getMetrics().getRunning() < jobs && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+    }
+
+    private class TestJob implements Job
+    {
+        private final String uid;
+        private final CountDownLatch latch;
+        private volatile JobStatus status = JobStatus.PENDING;
+
+        TestJob(String uid, CountDownLatch latch) {
+            this.uid = uid;
+            this.latch = latch;
+        }
+
+        @Override
+        public void run() {
+            status = JobStatus.RUNNING;
+            try {
+                if (latch != null) {
+                    latch.await(10, TimeUnit.SECONDS);
+                }
+            } catch (InterruptedException e) {
+                // finish anyway
+            }
+            ran.add(uid);
+            status = JobStatus.SUCCESS;
+        }
+
+        @Override
+        public BagQueryResult getResult() {
+            return null;
+        }
+
+        @Override
+        public boolean wasSuccessful() {
+            return status == JobStatus.SUCCESS;
+        }
+
+        @Override
+        public Exception getError() {
+            return null;
+        }
+
+        @Override
+        public Date getStatedAt() {
+            return null;
+        }
+
+        @Override
+        public String getUid() {
+            return uid;
+        }
+
+        @Override
+        public JobStatus getStatus() {
+            return status;
+        }
+
+        @Override
+        public String getType() {
+            return "Gene";
+        }
+
+        @Override
+        public JobProgress getProgress() {
+            return JobProgress.NONE;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package org.intermine.api.query;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.intermine.model.testmodel.Employee;
+import org.intermine.objectstore.dummy.ObjectStoreDummyImpl;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.QueryField;
+import org.intermine.objectstore.query.ResultsRow;
+
+/**
+ * Tests for the reuse, invalidation and filtering of summaries in the ColumnSummaryCache.
+ */
+public class ColumnSummaryCacheTest extends TestCase
+{
+    private static final Set<Object> TABLES = Collections.<Object>singleton("Employee");
+
+    private ObjectStoreDummyImpl os;
+    private ColumnSummaryCache cache;
+    private Query q;
+
+    public ColumnSummaryCacheTest(String arg) {
+        super(arg);
+    }
+
+    @Override
+    public void setUp() {
+        os = new ObjectStoreDummyImpl() {
+            @Override
+            public Set<Object> getComponentsForQuery(Query q) {
+                return TABLES;
+            }
+        };
+        addRow("Employee A1", 3);
+        addRow("employee B1", 2);
+        addRow("Other", 1);
+        os.setResultsSize(3);
+        cache = new ColumnSummaryCache(os);
+        q = new Query();
+        QueryClass qc = new QueryClass(Employee.class);
+        q.addFrom(qc);
+        q.addToSelect(new QueryField(qc, "name"));
+    }
+
+    public void testSummariesAreReused() throws Exception {
+        List<List<Object>> rows = cache.getRows(q, 10, null);
+        assertEquals(3, rows.size());
+        assertEquals(Arrays.<Object>asList("Employee A1", 3), rows.get(0));
+        int calls = os.getExecuteCalls();
+
+        assertEquals(rows, cache.getRows(q, 10, null));
+        assertEquals(calls, os.getExecuteCalls());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(0.5, cache.getHitRate(), 0.0001);
+
+        // a write to a table the summary reads makes it run again
+        os.changeSequence(TABLES);
+        cache.getRows(q, 10, null);
+        assertTrue(os.getExecuteCalls() > calls);
+        assertEquals(2, cache.getMisses());
+    }
+
+    public void testFilteringDoesNotRunTheSummary() throws Exception {
+        cache.getRows(q, 10, null);
+        int calls = os.getExecuteCalls();
+        List<List<Object>> rows = cache.getRows(q, 10, "EMPLOYEE");
+        assertEquals(2, rows.size());
+        assertEquals(Arrays.<Object>asList("employee B1", 2), rows.get(1));
+        assertEquals(1, cache.getRows(q, 10, "b1").size());
+        assertEquals(0, cache.getRows(q, 10, "nobody").size());
+        assertEquals(calls, os.getExecuteCalls());
+        assertEquals(3, cache.getFiltered());
+    }
+
+    public void testFilterWildcards() throws Exception {
+        List<List<Object>> rows = Arrays.asList(Arrays.<Object>asList("employee A1", 1),
+                Arrays.<Object>asList("employee B1", 2), Arrays.<Object>asList("emp*b?", 3));
+        // The same wildcards as the CONTAINS constraint used when the summary is not cached
+        assertEquals(2, ColumnSummaryCache.filter(rows, "Emp*1").size());
+        assertEquals(Arrays.<Object>asList("employee B1", 2),
+                ColumnSummaryCache.filter(rows, "e b?").get(0));
+        assertEquals(2, ColumnSummaryCache.filter(rows, "e ?1").size());
+        assertEquals(3, ColumnSummaryCache.filter(rows, "*").size());
+        assertEquals(0, ColumnSummaryCache.filter(rows, "a?1").size());
+        // Escaped wildcards match themselves, and regular expression characters are literal
+        assertEquals(Arrays.<Object>asList("emp*b?", 3),
+                ColumnSummaryCache.filter(rows, "p\\*B\\?").get(0));
+        assertEquals(0, ColumnSummaryCache.filter(rows, "e.").size());
+    }
+
+    public void testLargeSummariesAreNotKept() throws Exception {
+        cache.setMaxRows(2);
+        assertNull(cache.getRows(q, 10, null));
+        int calls = os.getExecuteCalls();
+        assertNull(cache.getRows(q, 10, "employee"));
+        assertEquals(calls, os.getExecuteCalls());
+        assertEquals(1, cache.getTooBig());
+    }
+
+    public void testLeastRecentlyUsedAreDropped() throws Exception {
+        cache.setMaxEntries(1);
+        Query other = new Query();
+        QueryClass qc = new QueryClass(Employee.class);
+        other.addFrom(qc);
+        other.addToSelect(new QueryField(qc, "age"));
+        cache.getRows(q, 10, null);
+        cache.getRows(other, 10, null);
+        assertEquals(1, cache.size());
+        cache.getRows(q, 10, null);
+        assertEquals(3, cache.getMisses());
+
+        cache.setMaxEntries(0);
+        assertFalse(cache.isEnabled());
+        assertEquals(0, cache.size());
+    }
+
+    private void addRow(String value, int count) {
+        ResultsRow<Object> row = new ResultsRow<Object>();
+        row.add(value);
+        row.add(Integer.valueOf(count));
+        os.addRow(row);
+    }
+}
@@ -0,0 +1,310 @@
+package org.intermine.dataconversion;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.log4j.Logger;
+import org.intermine.model.fulldata.Attribute;
+import org.intermine.model.fulldata.Item;
+import org.intermine.model.fulldata.Reference;
+import org.intermine.model.fulldata.ReferenceList;
+import org.intermine.objectstore.ObjectStoreException;
+
+/**
+ * An ItemWriter that appends Items to a local file instead of an items database. The file can
+ * then be read by an ItemFileObjectStore, so a converter and the data loader can run without
+ * building, indexing and analysing a database of Items in between.
+ * <p>
+ * The file is written through memory-mapped segments. Each Item is one record, and each
+ * attribute, reference or collection stored separately for an Item after it was written is an
+ * extra record that points back to the previous one for the same Item. When the writer is closed,
+ * an index of the record offsets, the identifier hashes and the identifier namespaces is written
+ * to the end of the file.
+ */
+public class FileItemWriter implements ItemWriter
+{
+    private static final Logger LOG = Logger.getLogger(FileItemWriter.class);
+
+    static final int MAGIC = 0x494d4946;
+    static final byte ITEM = 1;
+    static final byte ATTRIBUTE = 2;
+    static final byte REFERENCE = 3;
+    static final byte COLLECTION = 4;
+    static final int HEADER_SIZE = 4;
+    private static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private File file;
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private MappedByteBuffer segment = null;
+    private long position = 0;
+    private int itemCount = 0;
+    // Indexed by item ID - 1
+    private long[] offsets = new long[1024];
+    private long[] lastPatches = new long[1024];
+    // Identifier hash in the high word and item ID in the low word
+    private long[] hashes = new long[1024];
+    private Map<String, Integer> namespaces = new TreeMap<String, Integer>();
+    private boolean closed = false;
+
+    /**
+     * Constructor. Any existing file is overwritten.
+     *
+     * @param file the File to write Items to
+     * @throws ObjectStoreException if the file cannot be opened
+     */
+    public FileItemWriter(File file) throws ObjectStoreException {
+        this.file = file;
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            raf.setLength(0);
+            channel = raf.getChannel();
+            writeInt(MAGIC);
+        } catch (IOException e) {
+            throw new ObjectStoreException("Could not open item file " + file, e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Integer store(Item item) throws ObjectStoreException {
+        checkOpen();
+        if (item.getIdentifier() == null) {
+            throw new ObjectStoreException("Item has no identifier: " + item);
+        }
+        int itemId = itemCount + 1;
+        if (itemCount == offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            lastPatches = Arrays.copyOf(lastPatches, lastPatches.length * 2);
+            hashes = Arrays.copyOf(hashes, hashes.length * 2);
+        }
+        try {
+            offsets[itemCount] = position;
+            lastPatches[itemCount] = -1;
+            hashes[itemCount] = (((long) item.getIdentifier().hashCode()) << 32) | itemId;
+            writeByte(ITEM);
+            writeString(item.getIdentifier());
+            writeString(item.getClassName());
+            writeString(item.getImplementations());
+            writeInt(item.getAttributes().size());
+            for (Attribute att : item.getAttributes()) {
+                writeString(att.getName());
+                writeString(att.getValue());
+            }
+            writeInt(item.getReferences().size());
+            for (Reference ref : item.getReferences()) {
+                writeString(ref.getName());
+                writeString(ref.getRefId());
+            }
+            writeInt(item.getCollections().size());
+            for (ReferenceList refs : item.getCollections()) {
+                writeString(refs.getName());
+                writeString(refs.getRefIds());
+            }
+        } catch (IOException e) {
+            throw new ObjectStoreException("Could not write to item file " + file, e);
+        }
+        itemCount++;
+        addNamespace(item.getIdentifier());
+        item.setId(new Integer(itemId));
+        return item.getId();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void storeAll(Collection<Item> items) throws ObjectStoreException {
+        for (Item item : items) {
+            store(item);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void store(Attribute att, Integer itemId) throws ObjectStoreException {
+        storePatch(ATTRIBUTE, att.getName(), att.getValue(), itemId);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void store(Reference ref, Integer itemId) throws ObjectStoreException {
+        storePatch(REFERENCE, ref.getName(), ref.getRefId(), itemId);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void store(ReferenceList refList, Integer itemId) throws ObjectStoreException {
+        storePatch(COLLECTION, refList.getName(), refList.getRefIds(), itemId);
+    }
+
+    private void storePatch(byte type, String name, String value, Integer itemId)
+        throws ObjectStoreException {
+        checkOpen();
+        if ((itemId == null) || (itemId.intValue() < 1) || (itemId.intValue() > itemCount)) {
+            throw new ObjectStoreException("No Item with ID " + itemId + " has been stored");
+        }
+        int index = itemId.intValue() - 1;
+        try {
+            long offset = position;
+            writeByte(type);
+            writeLong(lastPatches[index]);
+            writeString(name);
+            writeString(value);
+            lastPatches[index] = offset;
+        } catch (IOException e) {
+            throw new ObjectStoreException("Could not write to item file " + file, e);
+        }
+    }
+
+    /**
+     * Records the highest number used in the namespace of an identifier, which the
+     * ItemToObjectTranslator needs to turn identifiers into object IDs.
+     */
+    private void addNamespace(String identifier) {
+        int index = identifier.indexOf('_');
+        if (index == -1) {
+            return;
+        }
+        int number;
+        try {
+            number = Integer.parseInt(identifier.substring(index + 1));
+        } catch (NumberFormatException e) {
+            return;
+        }
+        String namespace = identifier.substring(0, index);
+        Integer highest = namespaces.get(namespace);
+        if ((highest == null) || (highest.intValue() < number)) {
+            namespaces.put(namespace, new Integer(number));
+        }
+    }
+
+    /**
+     * Returns the number of Items stored so far.
+     *
+     * @return an int
+     */
+    public int getItemCount() {
+        return itemCount;
+    }
+
+    /**
+     * Writes the index to the end of the file and closes it.
+     *
+     * @throws ObjectStoreException if the file cannot be written
+     */
+    public void close() throws ObjectStoreException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            long indexOffset = position;
+            writeInt(itemCount);
+            for (int i = 0; i < itemCount; i++) {
+                writeLong(offsets[i]);
+            }
+            for (int i = 0; i < itemCount; i++) {
+                writeLong(lastPatches[i]);
+            }
+            Arrays.sort(hashes, 0, itemCount);
+            for (int i = 0; i < itemCount; i++) {
+                writeLong(hashes[i]);
+            }
+            writeInt(namespaces.size());
+            for (Map.Entry<String, Integer> entry : namespaces.entrySet()) {
+                writeString(entry.getKey());
+                writeInt(entry.getValue().intValue());
+            }
+            writeLong(indexOffset);
+            if (segment != null) {
+                segment.force();
+            }
+            segment = null;
+            channel.truncate(position);
+            raf.close();
+            LOG.info("Wrote " + itemCount + " items (" + position + " bytes) to " + file);
+        } catch (IOException e) {
+            throw new ObjectStoreException("Could not write index of item file " + file, e);
+        }
+    }
+
+    private void checkOpen() throws ObjectStoreException {
+        if (closed) {
+            throw new ObjectStoreException("Item file " + file + " has been closed");
+        }
+    }
+
+    private void ensureSpace() throws IOException {
+        if ((segment == null) || (!segment.hasRemaining())) {
+            if (segment != null) {
+                segment.force();
+            }
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, position, SEGMENT_SIZE);
+        }
+    }
+
+    private void writeByte(byte b) throws IOException {
+        ensureSpace();
+        segment.put(b);
+        position++;
+    }
+
+    private void writeInt(int i) throws IOException {
+        if ((segment != null) && (segment.remaining() >= 4)) {
+            segment.putInt(i);
+            position += 4;
+            return;
+        }
+        writeByte((byte) (i >>> 24));
+        writeByte((byte) (i >>> 16));
+        writeByte((byte) (i >>> 8));
+        writeByte((byte) i);
+    }
+
+    private void writeLong(long l) throws IOException {
+        writeInt((int) (l >>> 32));
+        writeInt((int) l);
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        int done = 0;
+        while (done < bytes.length) {
+            ensureSpace();
+            int length = Math.min(segment.remaining(), bytes.length - done);
+            segment.put(bytes, done, length);
+            done += length;
+            position += length;
+        }
+    }
+
+    private void writeString(String s) throws IOException {
+        if (s == null) {
+            writeInt(-1);
+        } else {
+            byte[] bytes = s.getBytes("UTF-8");
+            writeInt(bytes.length);
+            writeBytes(bytes);
+        }
+    }
+}
@@ -0,0 +1,530 @@
+package org.intermine.dataconversion;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.intermine.metadata.Model;
+import org.intermine.model.InterMineObject;
+import org.intermine.model.fulldata.Attribute;
+import org.intermine.model.fulldata.Item;
+import org.intermine.model.fulldata.Reference;
+import org.intermine.model.fulldata.ReferenceList;
+import org.intermine.objectstore.ObjectStoreAbstractImpl;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.query.BagConstraint;
+import org.intermine.objectstore.query.Constraint;
+import org.intermine.objectstore.query.ConstraintOp;
+import org.intermine.objectstore.query.ConstraintSet;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.QueryField;
+import org.intermine.objectstore.query.QueryValue;
+import org.intermine.objectstore.query.ResultsInfo;
+import org.intermine.objectstore.query.ResultsRow;
+import org.intermine.objectstore.query.SimpleConstraint;
+
+/**
+ * A read-only ObjectStore of fulldata Items, read from a file written by a FileItemWriter. It
+ * answers the queries that the ItemToObjectTranslator produces - all Items, optionally
+ * constrained by identifier, id and className - so it can stand in for an items database under
+ * an ObjectStoreTranslatingImpl.
+ * <p>
+ * The file is memory-mapped, so the operating system rather than the Java heap caches the
+ * Items, and only the record offsets and identifier hashes are held in memory.
+ */
+public class ItemFileObjectStore extends ObjectStoreAbstractImpl
+{
+    private static final Logger LOG = Logger.getLogger(ItemFileObjectStore.class);
+    private static final long SEGMENT_SIZE = 1024L * 1024L * 1024L;
+
+    private File file;
+    private volatile MappedByteBuffer[] segments;
+    private int itemCount;
+    private long[] offsets;
+    private long[] lastPatches;
+    private long[] hashes;
+    private Map<String, Integer> namespaces = new LinkedHashMap<String, Integer>();
+    private Map<String, int[]> classItems = null;
+
+    /**
+     * Constructor.
+     *
+     * @param file a file written by a FileItemWriter
+     * @throws ObjectStoreException if the file cannot be read
+     */
+    public ItemFileObjectStore(File file) throws ObjectStoreException {
+        super(Model.getInstanceByName("fulldata"));
+        this.file = file;
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = raf.getChannel();
+                long length = channel.size();
+                int segmentCount = (int) ((length + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+                segments = new MappedByteBuffer[segmentCount];
+                for (int i = 0; i < segments.length; i++) {
+                    long start = i * SEGMENT_SIZE;
+                    segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                            Math.min(SEGMENT_SIZE, length - start));
+                }
+                if ((length < FileItemWriter.HEADER_SIZE + 12)
+                        || (readInt(0) != FileItemWriter.MAGIC)) {
+                    throw new ObjectStoreException(file + " is not an item file");
+                }
+                long pos = readLong(length - 8);
+                itemCount = readInt(pos);
+                pos += 4;
+                offsets = new long[itemCount];
+                lastPatches = new long[itemCount];
+                hashes = new long[itemCount];
+                for (int i = 0; i < itemCount; i++, pos += 8) {
+                    offsets[i] = readLong(pos);
+                }
+                for (int i = 0; i < itemCount; i++, pos += 8) {
+                    lastPatches[i] = readLong(pos);
+                }
+                for (int i = 0; i < itemCount; i++, pos += 8) {
+                    hashes[i] = readLong(pos);
+                }
+                int namespaceCount = readInt(pos);
+                pos += 4;
+                for (int i = 0; i < namespaceCount; i++) {
+                    String namespace = readString(pos);
+                    pos += 4 + readInt(pos);
+                    namespaces.put(namespace, new Integer(readInt(pos)));
+                    pos += 4;
+                }
+            } finally {
+                // The mappings remain valid after the channel is closed
+                raf.close();
+            }
+        } catch (IOException e) {
+            throw new ObjectStoreException("Could not read item file " + file, e);
+        }
+        LOG.info("Opened item file " + file + " with " + itemCount + " items");
+    }
+
+    /**
+     * Gets an ItemFileObjectStore for the given properties. The "file" property names the item
+     * file.
+     *
+     * @param osAlias the alias of this objectstore
+     * @param props the properties used to configure the objectstore
+     * @return the ObjectStore
+     * @throws ObjectStoreException if the file cannot be read
+     */
+    public static ItemFileObjectStore getInstance(String osAlias, Properties props)
+        throws ObjectStoreException {
+        String fileName = props.getProperty("file");
+        if (fileName == null) {
+            throw new IllegalArgumentException("No 'file' property specified for ObjectStore "
+                    + osAlias + " (check properties file)");
+        }
+        return new ItemFileObjectStore(new File(fileName));
+    }
+
+    /**
+     * Returns the namespaces of the Item identifiers in the file, with the highest number used
+     * in each, in the form that the ItemToObjectTranslator needs.
+     *
+     * @return a Map from namespace to highest number
+     */
+    public Map<String, Integer> getNamespaces() {
+        return Collections.unmodifiableMap(namespaces);
+    }
+
+    /**
+     * Returns the number of Items in the file.
+     *
+     * @return an int
+     */
+    public int getItemCount() {
+        return itemCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<ResultsRow<Object>> execute(Query q, int start, int limit, boolean optimise,
+            boolean explain, Map<Object, Integer> sequence) throws ObjectStoreException {
+        checkStartLimit(start, limit, q);
+        int[] itemIds = evaluate(q);
+        int size = (itemIds == null ? itemCount : itemIds.length);
+        List<ResultsRow<Object>> retval = new ArrayList<ResultsRow<Object>>();
+        for (int i = start; (i < size) && (i - start < limit); i++) {
+            ResultsRow<Object> row = new ResultsRow<Object>();
+            row.add(readItem(itemIds == null ? i + 1 : itemIds[i]));
+            retval.add(row);
+        }
+        return retval;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int count(Query q, Map<Object, Integer> sequence) throws ObjectStoreException {
+        int[] itemIds = evaluate(q);
+        return itemIds == null ? itemCount : itemIds.length;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ResultsInfo estimate(Query q) throws ObjectStoreException {
+        int rows = count(q, SEQUENCE_IGNORE);
+        return new ResultsInfo(0, 0, rows, rows, rows);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<Object> getComponentsForQuery(Query q) {
+        return Collections.emptySet();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isMultiConnection() {
+        return true;
+    }
+
+    /**
+     * Closes the item file. The memory mappings of the file are released when they are garbage
+     * collected, and the ObjectStore cannot be used afterwards.
+     */
+    public synchronized void close() {
+        if (segments != null) {
+            segments = null;
+            LOG.info("Closed item file " + file);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Integer getSerial() throws ObjectStoreException {
+        throw new UnsupportedOperationException("getSerial not supported by "
+                + "ItemFileObjectStore");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public InterMineObject getObjectByExample(InterMineObject o, Set<String> fieldNames)
+        throws ObjectStoreException {
+        throw new UnsupportedOperationException("getObjectByExample not supported by "
+                + "ItemFileObjectStore");
+    }
+
+    /**
+     * Works out which Items match a query.
+     *
+     * @return a sorted array of item IDs, or null for all Items
+     */
+    private int[] evaluate(Query q) throws ObjectStoreException {
+        if ((q.getSelect().size() != 1) || (q.getFrom().size() != 1)
+                || (q.getSelect().get(0) != q.getFrom().iterator().next())
+                || (!(q.getSelect().get(0) instanceof QueryClass))
+                || (!Item.class.equals(((QueryClass) q.getSelect().get(0)).getType()))
+                || (!q.getOrderBy().isEmpty()) || (!q.getGroupBy().isEmpty())) {
+            throw new ObjectStoreException("Query cannot be run on an item file: " + q);
+        }
+        return evaluate(q.getConstraint(), q);
+    }
+
+    private int[] evaluate(Constraint c, Query q) throws ObjectStoreException {
+        if (c == null) {
+            return null;
+        }
+        if ((c instanceof ConstraintSet) && (c.getOp() == ConstraintOp.AND)) {
+            int[] retval = null;
+            for (Constraint sub : ((ConstraintSet) c).getConstraints()) {
+                retval = intersect(retval, evaluate(sub, q));
+            }
+            return retval;
+        }
+        if ((c instanceof BagConstraint) && (c.getOp() == ConstraintOp.IN)
+                && (((BagConstraint) c).getQueryNode() instanceof QueryField)
+                && (((BagConstraint) c).getBag() != null)) {
+            String field = ((QueryField) ((BagConstraint) c).getQueryNode()).getFieldName();
+            return lookup(field, ((BagConstraint) c).getBag(), q);
+        }
+        if ((c instanceof SimpleConstraint) && (c.getOp() == ConstraintOp.EQUALS)) {
+            SimpleConstraint sc = (SimpleConstraint) c;
+            if ((sc.getArg1() instanceof QueryField) && (sc.getArg2() instanceof QueryValue)) {
+                String field = ((QueryField) sc.getArg1()).getFieldName();
+                Object value = ((QueryValue) sc.getArg2()).getValue();
+                if ("className".equals(field)) {
+                    int[] retval = getClassItems().get(value);
+                    return retval == null ? new int[0] : retval;
+                }
+                return lookup(field, Collections.singleton(value), q);
+            }
+        }
+        throw new ObjectStoreException("Query cannot be run on an item file: " + q);
+    }
+
+    private int[] lookup(String field, Collection<?> values, Query q)
+        throws ObjectStoreException {
+        int[] retval = new int[values.size()];
+        int count = 0;
+        if ("identifier".equals(field)) {
+            for (Object value : values) {
+                int itemId = findItem((String) value);
+                if (itemId != -1) {
+                    retval[count++] = itemId;
+                }
+            }
+        } else if ("id".equals(field)) {
+            for (Object value : values) {
+                int itemId = ((Integer) value).intValue();
+                if ((itemId >= 1) && (itemId <= itemCount)) {
+                    retval[count++] = itemId;
+                }
+            }
+        } else {
+            throw new ObjectStoreException("Query cannot be run on an item file: " + q);
+        }
+        retval = Arrays.copyOf(retval, count);
+        Arrays.sort(retval);
+        return retval;
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        int[] retval = new int[Math.min(a.length, b.length)];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while ((i < a.length) && (j < b.length)) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                retval[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(retval, count);
+    }
+
+    /**
+     * Finds the ID of the Item with the given identifier.
+     *
+     * @param identifier an Item identifier
+     * @return the item ID, or -1 if there is no such Item
+     */
+    public int findItem(String identifier) {
+        long hash = identifier.hashCode();
+        // Find the first entry with this hash
+        int low = 0;
+        int high = itemCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if ((hashes[mid] >> 32) < hash) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        for (int i = low; (i < itemCount) && ((hashes[i] >> 32) == hash); i++) {
+            int itemId = (int) hashes[i];
+            if (identifier.equals(readString(offsets[itemId - 1] + 1))) {
+                return itemId;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Builds the lists of the Items of each class, which needs one pass over the file.
+     */
+    private synchronized Map<String, int[]> getClassItems() {
+        if (classItems == null) {
+            Map<String, int[]> lists = new HashMap<String, int[]>();
+            Map<String, Integer> counts = new HashMap<String, Integer>();
+            for (int itemId = 1; itemId <= itemCount; itemId++) {
+                long pos = offsets[itemId - 1] + 1;
+                String className = readString(pos + stringLength(pos));
+                int[] list = lists.get(className);
+                Integer count = counts.get(className);
+                if (list == null) {
+                    list = new int[16];
+                    count = new Integer(0);
+                } else if (count.intValue() == list.length) {
+                    list = Arrays.copyOf(list, list.length * 2);
+                }
+                list[count.intValue()] = itemId;
+                lists.put(className, list);
+                counts.put(className, new Integer(count.intValue() + 1));
+            }
+            Iterator<Map.Entry<String, int[]>> iter = lists.entrySet().iterator();
+            while (iter.hasNext()) {
+                Map.Entry<String, int[]> entry = iter.next();
+                entry.setValue(Arrays.copyOf(entry.getValue(),
+                            counts.get(entry.getKey()).intValue()));
+            }
+            classItems = lists;
+            LOG.info("Indexed " + classItems.size() + " classes in item file " + file);
+        }
+        return classItems;
+    }
+
+    /**
+     * Reads an Item, with all the attributes, references and collections stored for it.
+     *
+     * @param itemId the item ID
+     * @return an Item
+     */
+    protected Item readItem(int itemId) {
+        long pos = offsets[itemId - 1] + 1;
+        Item item = new Item();
+        item.setId(new Integer(itemId));
+        item.setIdentifier(readString(pos));
+        pos += stringLength(pos);
+        item.setClassName(readString(pos));
+        pos += stringLength(pos);
+        item.setImplementations(readString(pos));
+        pos += stringLength(pos);
+        for (byte type = FileItemWriter.ATTRIBUTE; type <= FileItemWriter.COLLECTION; type++) {
+            int count = readInt(pos);
+            pos += 4;
+            for (int i = 0; i < count; i++) {
+                String name = readString(pos);
+                pos += stringLength(pos);
+                String value = readString(pos);
+                pos += stringLength(pos);
+                addField(item, type, name, value);
+            }
+        }
+        // Patches are chained from the last one back, so apply them in the order they were stored
+        List<Long> patches = new ArrayList<Long>();
+        for (long patch = lastPatches[itemId - 1]; patch != -1; patch = readLong(patch + 1)) {
+            patches.add(new Long(patch));
+        }
+        for (int i = patches.size() - 1; i >= 0; i--) {
+            long patch = patches.get(i).longValue();
+            byte type = readByte(patch);
+            pos = patch + 9;
+            String name = readString(pos);
+            pos += stringLength(pos);
+            addField(item, type, name, readString(pos));
+        }
+        return item;
+    }
+
+    private static void addField(Item item, byte type, String name, String value) {
+        if (type == FileItemWriter.ATTRIBUTE) {
+            Attribute att = new Attribute();
+            att.setName(name);
+            att.setValue(value);
+            att.setItem(item);
+            item.addAttributes(att);
+        } else if (type == FileItemWriter.REFERENCE) {
+            Reference ref = new Reference();
+            ref.setName(name);
+            ref.setRefId(value);
+            ref.setItem(item);
+            item.addReferences(ref);
+        } else {
+            ReferenceList refs = new ReferenceList();
+            refs.setName(name);
+            refs.setRefIds(value);
+            refs.setItem(item);
+            item.addCollections(refs);
+        }
+    }
+
+    private MappedByteBuffer segment(long pos) {
+        MappedByteBuffer[] mapped = segments;
+        if (mapped == null) {
+            throw new IllegalStateException("Item file " + file + " has been closed");
+        }
+        return mapped[(int) (pos / SEGMENT_SIZE)];
+    }
+
+    private byte readByte(long pos) {
+        return segment(pos).get((int) (pos % SEGMENT_SIZE));
+    }
+
+    private int readInt(long pos) {
+        int offset = (int) (pos % SEGMENT_SIZE);
+        MappedByteBuffer segment = segment(pos);
+        if (offset + 4 <= segment.limit()) {
+            return segment.getInt(offset);
+        }
+        return ((readByte(pos) & 0xFF) << 24) | ((readByte(pos + 1) & 0xFF) << 16)
+            | ((readByte(pos + 2) & 0xFF) << 8) | (readByte(pos + 3) & 0xFF);
+    }
+
+    private long readLong(long pos) {
+        return (((long) readInt(pos)) << 32) | (readInt(pos + 4) & 0xFFFFFFFFL);
+    }
+
+    private int stringLength(long pos) {
+        return 4 + Math.max(0, readInt(pos));
+    }
+
+    private String readString(long pos) {
+        int length = readInt(pos);
+        if (length == -1) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        long start = pos + 4;
+        int offset = (int) (start % SEGMENT_SIZE);
+        MappedByteBuffer segment = segment(start);
+        if (offset + length <= segment.limit()) {
+            // Use a duplicate, as the bulk get moves the position of the buffer
+            ByteBuffer buffer = segment.duplicate();
+            buffer.position(offset);
+            buffer.get(bytes);
+        } else {
+            for (int i = 0; i < length; i++) {
+                bytes[i] = readByte(start + i);
+            }
+        }
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -82,6 +82,16 @@ public class ItemToObjectTranslator extends Translator
      */
     public ItemToObjectTranslator(Model model, ObjectStore os) throws ObjectStoreException {
         this.model = model;
+        if (os instanceof ItemFileObjectStore) {
+            // The item file already knows its namespaces, so don't scan all the identifiers
+            int offset = 0;
+            for (Map.Entry<String, Integer> entry : ((ItemFileObjectStore) os).getNamespaces()
+                    .entrySet()) {
+                offset = addNamespace(entry.getKey(), offset, entry.getValue().intValue());
+            }
+            LOG.info("Namespace map: " + namespaceToId);
+            return;
+        }
         Query q = new Query();
         QueryClass qc = new QueryClass(Item.class);
         q.addFrom(qc);
@@ -107,11 +117,8 @@ public class ItemToObjectTranslator extends Translator
                 @SuppressWarnings("unchecked") Collection<ResultsRow<Object>> tmpRes =
                     (Collection) res;
                 for (ResultsRow<Object> row : tmpRes) {
-                    String namespace = (String) row.get(0);
-                    idToNamespace.put(new Integer(offset), namespace);
-                    namespaceToId.put(namespace, new Integer(offset));
-                    int highest = ((Integer) row.get(1)).intValue();
-                    offset += highest + 1;
+                    offset = addNamespace((String) row.get(0), offset,
+                            ((Integer) row.get(1)).intValue());
                 }
             }
         } catch (Exception e) {
@@ -120,6 +127,20 @@ public class ItemToObjectTranslator extends Translator
         LOG.info("Namespace map: " + namespaceToId);
     }
 
+    /**
+     * Reserves a range of object ids for the identifiers in a namespace.
+     *
+     * @param namespace the part of the identifiers before the underscore
+     * @param offset the first object id of the range
+     * @param highest the highest number used after the underscore in the namespace
+     * @return the first object id after the range
+     */
+    private int addNamespace(String namespace, int offset, int highest) {
+        idToNamespace.put(new Integer(offset), namespace);
+        namespaceToId.put(namespace, new Integer(offset));
+        return offset + highest + 1;
+    }
+
     /**
      * Turn an object id into an item identifier.
      * @param id an InterMineObject id
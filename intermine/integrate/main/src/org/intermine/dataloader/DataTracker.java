@@ -21,11 +21,11 @@ import java.sql.Statement;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 
 import org.intermine.sql.Database;
+import org.intermine.util.IntToObjectMap;
 
 import org.apache.log4j.Logger;
 
@@ -47,18 +47,18 @@ public class DataTracker
      * 3. Recently-used and clean - need not be written, but should be kept in memory.
      * 4. Not recently-used, and clean. These can be thrown away whenever the GC fancies it.
      *
-     * This class will store types 1, 2 and 3 in a LinkedHashMap, ordered by access, and type 4 in a
-     * WeakHashMap or CacheMap, or may not even store them at all.
+     * This class will store types 1, 2 and 3 in an IntToObjectMap, ordered by access, and type 4
+     * in a WeakHashMap or CacheMap, or may not even store them at all. The IntToObjectMap avoids
+     * creating an Integer and a map entry for each of the millions of objects being tracked.
      *
-     * The LinkedHashMap has a threshold size. When it grows bigger than maxSize, a database write
+     * The IntToObjectMap has a threshold size. When it grows bigger than maxSize, a database write
      * occurs, which stores commitSize least-recently-used entries in the database, which then
      * become type 4.
      */
     private int maxSize;
     private int commitSize;
-    private LinkedHashMap<Integer, ObjectDescription> cache;
-    private HashMap<Integer, ObjectDescription> writeBack =
-        new HashMap<Integer, ObjectDescription>();
+    private IntToObjectMap<ObjectDescription> cache;
+    private IntToObjectMap<ObjectDescription> writeBack = new IntToObjectMap<ObjectDescription>();
     private HashMap<String, Source> nameToSource = new HashMap<String, Source>();
     private HashMap<Source, String> sourceToName = new HashMap<Source, String>();
     private Connection conn;
@@ -86,7 +86,7 @@ public class DataTracker
         this.maxSize = maxSize;
         this.commitSize = commitSize;
         this.db = db;
-        cache = new LinkedHashMap<Integer, ObjectDescription>(maxSize * 14 / 10, 0.75F, true);
+        cache = new IntToObjectMap<ObjectDescription>(maxSize + maxSize / 10, true);
         try {
             conn = db.getConnection();
             conn.setAutoCommit(true);
@@ -148,10 +148,10 @@ public class DataTracker
                     throw e;
                 }
                 for (Integer id : ids) {
-                    ObjectDescription desc = cache.get(id);
+                    ObjectDescription desc = cache.get(id.intValue());
                     if (desc == null) {
-                        desc = writeBack.get(id);
-                        cache.put(id, desc);
+                        desc = writeBack.get(id.intValue());
+                        cache.put(id.intValue(), desc);
                     }
                     if (desc == null) {
                         toFetch.add(id);
@@ -208,7 +208,9 @@ public class DataTracker
                 if (version <= highestVersionSeen) {
                     version = highestVersionSeen + 1;
                 }
-                cache.putAll(idsFetched);
+                for (Map.Entry<Integer, ObjectDescription> entry : idsFetched.entrySet()) {
+                    cache.put(entry.getKey().intValue(), entry.getValue());
+                }
                 maybePoke();
                 batched += idsFetched.size();
             }
@@ -258,13 +260,13 @@ public class DataTracker
      */
     private ObjectDescription getDesc(Integer id, boolean forWrite) {
         long startTime = System.currentTimeMillis();
-        ObjectDescription desc = cache.get(id);
+        ObjectDescription desc = cache.get(id.intValue());
         if (desc == null) {
-            desc = writeBack.get(id);
+            desc = writeBack.get(id.intValue());
             if (forWrite && (desc != null)) {
                 desc = new ObjectDescription(desc);
             }
-            cache.put(id, desc);
+            cache.put(id.intValue(), desc);
         }
         if (desc == null) {
             desc = new ObjectDescription();
@@ -293,7 +295,7 @@ public class DataTracker
                 e2.initCause(broken);
                 throw e2;
             }
-            cache.put(id, desc);
+            cache.put(id.intValue(), desc);
             maybePoke();
             misses++;
         }
@@ -331,7 +333,7 @@ public class DataTracker
         // Lastly, we put the description into the cache, just in case we got it out of the
         // write-back cache. This guarantees that we won't lose data by forgetting to write it to
         // the database.
-        cache.put(id, desc);
+        cache.put(id.intValue(), desc);
         maybePoke();
     }
 
@@ -350,7 +352,7 @@ public class DataTracker
             throw e;
         }
         ObjectDescription desc = new ObjectDescription();
-        cache.put(id, desc);
+        cache.put(id.intValue(), desc);
         maybePoke();
     }
 
@@ -367,7 +369,7 @@ public class DataTracker
         }
         synchronized (writeBack) {
             int cacheSize = cache.size();
-            Map<Integer, ObjectDescription> writeBatch = getWriteBatch();
+            IntToObjectMap<ObjectDescription> writeBatch = getWriteBatch();
             if (writeBatch != null) {
                 LOG.info("Writing cache batch - batch size: " + writeBatch.size()
                         + ", cache size: " + cacheSize + "->" + cache.size());
@@ -447,22 +449,22 @@ public class DataTracker
      * that uses this method should not rely on this fact, because such a method may be passed the
      * cache instead in the instance of a flush().
      *
-     * @return a Map from Integer to ObjectDescription
+     * @return a map from object ID to ObjectDescription
      */
-    private synchronized Map<Integer, ObjectDescription> getWriteBatch() {
+    private synchronized IntToObjectMap<ObjectDescription> getWriteBatch() {
         if (cache.size() > maxSize) {
-            Map<Integer, ObjectDescription> retval = new HashMap<Integer, ObjectDescription>();
+            IntToObjectMap<ObjectDescription> retval = new IntToObjectMap<ObjectDescription>(
+                    commitSize, false);
             int count = 0;
-            Iterator<Map.Entry<Integer, ObjectDescription>> iter = cache.entrySet().iterator();
-            while ((count < commitSize) && iter.hasNext()) {
-                Map.Entry<Integer, ObjectDescription> iterEntry = iter.next();
-                Integer id = iterEntry.getKey();
-                ObjectDescription desc = iterEntry.getValue();
-                if (desc.isDirty()) {
+            IntToObjectMap<ObjectDescription>.Cursor cursor = cache.cursor();
+            while ((count < commitSize) && cursor.hasNext()) {
+                int id = cursor.next();
+                ObjectDescription desc = cursor.value();
+                if ((desc != null) && desc.isDirty()) {
                     retval.put(id, desc);
                     writeBack.put(id, desc);
                 }
-                iter.remove();
+                cursor.remove();
                 count++;
             }
             return retval;
@@ -485,12 +487,13 @@ public class DataTracker
      * Writes the contents of the given Map to the backing database. Attempts to make use of all the
      * SQL tricks to speed this operation up.
      *
-     * @param map a Map from Integer to ObjectDesciption
+     * @param map a map from object ID to ObjectDescription
      * @param clean true if this method should call clean() on all the entries in the given Map, or
      * false if the given Map is going to be thrown away.
      * @throws SQLException on any error with the backing database
      */
-    private void writeMap(Map<Integer, ObjectDescription> map, boolean clean) throws SQLException {
+    private void writeMap(IntToObjectMap<ObjectDescription> map, boolean clean)
+        throws SQLException {
         long start = System.currentTimeMillis();
         try {
             org.postgresql.copy.CopyManager copyManager = null;
@@ -512,21 +515,21 @@ public class DataTracker
                 s = storeConn.createStatement();
                 LOG.warn("Using slow portable writing method");
             }
-            for (Map.Entry<Integer, ObjectDescription> entry : map.entrySet()) {
-                Integer id = entry.getKey();
-                ObjectDescription desc = entry.getValue();
-                if (desc.isDirty()) {
-                    Map<String, Source> orig = desc.getOrig();
-                    Map<String, Source> newData = desc.getNewData();
-                    for (Map.Entry<String, Source> fieldEntry : newData.entrySet()) {
-                        String field = fieldEntry.getKey();
-                        Source source = fieldEntry.getValue();
-                        if (!orig.containsKey(field) || (!orig.get(field).equals(source))) {
+            IntToObjectMap<ObjectDescription>.Cursor cursor = map.cursor();
+            while (cursor.hasNext()) {
+                int id = cursor.next();
+                ObjectDescription desc = cursor.value();
+                if ((desc != null) && desc.isDirty()) {
+                    for (int i = 0; i < desc.getFieldCount(); i++) {
+                        String field = desc.getFieldName(i);
+                        Source source = desc.getNewSource(i);
+                        Source orig = desc.getOrigSource(i);
+                        if ((source != null) && ((orig == null) || (!orig.equals(source)))) {
                             // Insert required
                             if (s == null) {
                                 dos.writeShort(4); // Number of fields
                                 dos.writeInt(4); // Length of an integer
-                                dos.writeInt(id.intValue()); // objectid
+                                dos.writeInt(id); // objectid
                                 dos.writeInt(field.length()); // Length of fieldname
                                 dos.writeBytes(field); // Field name
                                 String sourceName = sourceToString(source);
@@ -10,12 +10,40 @@ package org.intermine.dataloader;
  *
  */
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.intermine.metadata.ClassDescriptor;
+import org.intermine.metadata.CollectionDescriptor;
+import org.intermine.metadata.FieldDescriptor;
+import org.intermine.metadata.Model;
+import org.intermine.metadata.ReferenceDescriptor;
 import org.intermine.model.InterMineObject;
+import org.intermine.objectstore.ObjectStore;
 import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.ObjectStoreWriter;
+import org.intermine.objectstore.proxy.ProxyReference;
 import org.intermine.util.DynamicUtil;
+import org.intermine.util.IntPresentSet;
 
 /**
  * A DataLoader with helper methods for creating and storing objects using an IntegrationWriter.
+ * <p>
+ * In bulk mode, objects of classes that have no primary keys for the source cannot be merged
+ * with anything, so they are written straight to the ObjectStoreWriter of the IntegrationWriter,
+ * in its transaction, without looking for equivalent objects and without DataTracker entries.
+ * The writer adds them to its write batch, which sends whole tables to the database with COPY
+ * from its background thread. Objects of the other classes still go through the
+ * IntegrationWriter. For the bulk path to be taken, every object referenced by a bulk object
+ * must have been stored before it - otherwise the object is quietly stored through the
+ * IntegrationWriter instead. An object stored in bulk that is stored again is written directly
+ * again, replacing the first copy, as it has no DataTracker entries for the IntegrationWriter to
+ * merge with. Bulk mode must not be used for classes that another source merges
+ * objects into, because those objects have no DataTracker entries.
  *
  * @author Kim Rutherford
  */
@@ -25,6 +53,12 @@ public class DirectDataLoader extends DataLoader
     private int idCounter = 0;
     private String sourceName;
     private String sourceType;
+    private boolean bulk = false;
+    private Map<Class<?>, Boolean> bulkClasses = new HashMap<Class<?>, Boolean>();
+    private IntPresentSet bulkIds = new IntPresentSet();
+    private int bulkCount = 0;
+    private int fallbackCount = 0;
+    private static final Logger LOG = Logger.getLogger(DirectDataLoader.class);
 
     /**
      * Create a new DirectDataLoader using the given IntegrationWriter and source name.
@@ -38,6 +72,19 @@ public class DirectDataLoader extends DataLoader
         this.sourceType = sourceType;
     }
 
+    /**
+     * Switch bulk mode on or off. This must be done before any objects are created.
+     *
+     * @param bulk true to write objects of classes without primary keys directly
+     * @throws IllegalArgumentException if the IntegrationWriter does not keep an ID map
+     */
+    public void setBulk(boolean bulk) {
+        if (bulk && (!(getIntegrationWriter() instanceof IntegrationWriterAbstractImpl))) {
+            throw new IllegalArgumentException("Bulk mode needs an IntegrationWriterAbstractImpl,"
+                    + " not " + getIntegrationWriter().getClass().getName());
+        }
+        this.bulk = bulk;
+    }
 
     /**
      * Store an object using the IntegrationWriter.
@@ -48,9 +95,141 @@ public class DirectDataLoader extends DataLoader
         Source source = getIntegrationWriter().getMainSource(sourceName, sourceType);
         Source skelSource = getIntegrationWriter().getSkeletonSource(sourceName, sourceType);
 
+        if (bulk && isBulkClass(o.getClass(), source) && storeBulk(o)) {
+            bulkCount++;
+            if (bulkCount % 1000000 == 0) {
+                LOG.info("Stored " + bulkCount + " objects in bulk for " + sourceName + ", "
+                        + fallbackCount + " through the IntegrationWriter");
+            }
+            return;
+        }
+        if (bulk) {
+            fallbackCount++;
+        }
         getIntegrationWriter().store(o, source, skelSource);
     }
 
+    /**
+     * Returns true if objects of the given class cannot be merged with any other object by the
+     * given source, because neither the class nor any of its superclasses has a primary key in
+     * the keys file of the source.
+     *
+     * @param c a class of InterMineObject
+     * @param source the Source
+     * @return a boolean
+     */
+    protected boolean isBulkClass(Class<?> c, Source source) {
+        Boolean retval = bulkClasses.get(c);
+        if (retval == null) {
+            retval = Boolean.valueOf(!hasPrimaryKeys(getIntegrationWriter().getModel(), c, source,
+                        getIntegrationWriter().getObjectStore()));
+            bulkClasses.put(c, retval);
+        }
+        return retval.booleanValue();
+    }
+
+    /**
+     * Returns true if the given class or any of its superclasses has a primary key for the given
+     * source.
+     *
+     * @param model the Model
+     * @param c a class of InterMineObject
+     * @param source the Source
+     * @param os the ObjectStore that the primary keys are used in
+     * @return a boolean
+     */
+    static boolean hasPrimaryKeys(Model model, Class<?> c, Source source,
+            ObjectStore os) {
+        for (ClassDescriptor cld : model.getClassDescriptorsForClass(c)) {
+            if (!DataLoaderHelper.getPrimaryKeys(cld, source, os).isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes an object directly to the ObjectStoreWriter, with its references translated through
+     * the ID map of the IntegrationWriter. An object already written by this method is written
+     * again in place of the first copy.
+     *
+     * @param o the InterMineObject
+     * @return false if the object was not stored, because it was stored through the
+     * IntegrationWriter or an object it references has not been stored yet
+     * @throws ObjectStoreException if the ObjectStoreWriter fails
+     */
+    private boolean storeBulk(InterMineObject o) throws ObjectStoreException {
+        IntegrationWriterAbstractImpl iw = (IntegrationWriterAbstractImpl) getIntegrationWriter();
+        if (o.getId() == null) {
+            return false;
+        }
+        boolean repeat = bulkIds.contains(o.getId());
+        if ((!repeat) && (iw.idMap.get(o.getId()) != null)) {
+            // The IntegrationWriter has DataTracker entries for it, so must merge it again
+            return false;
+        }
+        ObjectStoreWriter osw = iw.getObjectStoreWriter();
+        InterMineObject newObj = DynamicUtil.createObject(o.getClass());
+        newObj.setId(o.getId());
+        Map<String, FieldDescriptor> fields = iw.getModel().getFieldDescriptorsForClass(o
+                .getClass());
+        try {
+            for (FieldDescriptor field : fields.values()) {
+                String fieldName = field.getName();
+                if (field instanceof CollectionDescriptor) {
+                    // Only many-to-many collections are written - the others are the reverse of a
+                    // reference
+                    if (field.relationType() != FieldDescriptor.M_N_RELATION) {
+                        continue;
+                    }
+                    @SuppressWarnings("unchecked") Collection<InterMineObject> coll
+                        = (Collection<InterMineObject>) o.getFieldValue(fieldName);
+                    List<InterMineObject> targets = new ArrayList<InterMineObject>();
+                    for (InterMineObject target : coll) {
+                        InterMineObject proxy = translate(iw, osw, target);
+                        if (proxy == null) {
+                            return false;
+                        }
+                        targets.add(proxy);
+                    }
+                    @SuppressWarnings("unchecked") Collection<InterMineObject> newColl
+                        = (Collection<InterMineObject>) newObj.getFieldValue(fieldName);
+                    newColl.addAll(targets);
+                } else if (field instanceof ReferenceDescriptor) {
+                    InterMineObject target = (InterMineObject) o.getFieldProxy(fieldName);
+                    if (target != null) {
+                        InterMineObject proxy = translate(iw, osw, target);
+                        if (proxy == null) {
+                            return false;
+                        }
+                        newObj.setFieldValue(fieldName, proxy);
+                    }
+                } else if (!"id".equals(fieldName)) {
+                    newObj.setFieldValue(fieldName, o.getFieldValue(fieldName));
+                }
+            }
+        } catch (IllegalAccessException e) {
+            throw new ObjectStoreException("Could not copy fields of " + o, e);
+        }
+        // A repeat replaces the row written the first time
+        osw.store(newObj);
+        if (!repeat) {
+            // The ID was allocated by the database, so the object keeps it
+            iw.assignMapping(o.getId(), o.getId());
+            bulkIds.add(o.getId());
+        }
+        return true;
+    }
+
+    private static InterMineObject translate(IntegrationWriterAbstractImpl iw,
+            ObjectStoreWriter osw, InterMineObject target) {
+        Integer destId = (target.getId() == null ? null : iw.idMap.get(target.getId()));
+        if (destId == null) {
+            return null;
+        }
+        return new ProxyReference(osw, destId, InterMineObject.class);
+    }
+
     /**
      * Create a new object of the given class name and give it a unique ID.
      * @param className the class name
@@ -63,15 +242,24 @@ public class DirectDataLoader extends DataLoader
     }
 
     /**
-     * Create a new object of the given class and give it a unique ID.
+     * Create a new object of the given class and give it a unique ID. In bulk mode, the ID is
+     * allocated by the database, so that the object can be stored with it.
      * @param c the class
      * @param <C> the type of the class
      * @return the new InterMineObject
      */
     public <C extends InterMineObject> C createObject(Class<C> c) {
         C o = DynamicUtil.simpleCreateObject(c);
-        o.setId(new Integer(idCounter));
-        idCounter++;
+        if (bulk) {
+            try {
+                o.setId(getIntegrationWriter().getSerial());
+            } catch (ObjectStoreException e) {
+                throw new RuntimeException("Could not allocate an ID for a new " + c.getName(), e);
+            }
+        } else {
+            o.setId(new Integer(idCounter));
+            idCounter++;
+        }
         return o;
     }
 }
@@ -10,6 +10,7 @@ package org.intermine.dataloader;
  *
  */
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -17,13 +18,23 @@ import java.util.Map;
 /**
  * Object class used by DataTracker for data tracking.
  *
+ * The field names and Sources are held in small parallel arrays rather than HashMaps, as the
+ * DataTracker may hold millions of these objects. Field names are expected to be interned, and
+ * the Source objects are shared between all ObjectDescriptions.
+ *
  * @author Matthew Wakeling
  */
 public class ObjectDescription
 {
-    private boolean dirty = false;
-    private Map<String, Source> orig = null;
-    private Map<String, Source> newData = null;
+    private static final String[] NO_FIELDS = new String[0];
+    private static final Source[] NO_SOURCES = new Source[0];
+
+    private int size = 0;
+    private String[] fieldNames = NO_FIELDS;
+    // The Sources in the backing database, null where a field has only new data
+    private Source[] orig = NO_SOURCES;
+    // The Sources not yet in the backing database - null if this ObjectDescription is clean
+    private Source[] newData = null;
 
     /**
      * Constructs a new ObjectDescription.
@@ -38,13 +49,36 @@ public class ObjectDescription
      * @param desc an existing description
      */
     public ObjectDescription(ObjectDescription desc) {
-        dirty = desc.dirty;
-        if (desc.orig != null) {
-            orig = new HashMap<String, Source>(desc.orig);
-        }
+        size = desc.size;
+        fieldNames = Arrays.copyOf(desc.fieldNames, size);
+        orig = Arrays.copyOf(desc.orig, size);
         if (desc.newData != null) {
-            newData = new HashMap<String, Source>(desc.newData);
+            newData = Arrays.copyOf(desc.newData, size);
+        }
+    }
+
+    /**
+     * Returns the index of a field, adding it if it is not present.
+     */
+    private int indexOf(String fieldName, boolean add) {
+        for (int i = 0; i < size; i++) {
+            if (fieldNames[i].equals(fieldName)) {
+                return i;
+            }
+        }
+        if (!add) {
+            return -1;
+        }
+        if (size == fieldNames.length) {
+            int capacity = Math.max(4, size * 2);
+            fieldNames = Arrays.copyOf(fieldNames, capacity);
+            orig = Arrays.copyOf(orig, capacity);
+            if (newData != null) {
+                newData = Arrays.copyOf(newData, capacity);
+            }
         }
+        fieldNames[size] = fieldName;
+        return size++;
     }
 
     /**
@@ -55,13 +89,12 @@ public class ObjectDescription
      * @throws IllegalStateException if this ObjectDescription is already dirty
      */
     public void putClean(String fieldName, Source source) {
-        if (dirty) {
+        if (newData != null) {
             throw new IllegalStateException("Can't putClean() on a dirty ObjectDescription");
         }
-        if (orig == null) {
-            orig = new HashMap<String, Source>();
-        }
-        orig.put(fieldName, source);
+        // indexOf may replace the arrays, so it must be called before they are read
+        int index = indexOf(fieldName, true);
+        orig[index] = source;
     }
 
     /**
@@ -72,11 +105,11 @@ public class ObjectDescription
      * @param source the Source to map onto
      */
     public void put(String fieldName, Source source) {
-        if (!dirty) {
-            dirty = true;
-            newData = new HashMap<String, Source>();
+        if (newData == null) {
+            newData = new Source[fieldNames.length];
         }
-        newData.put(fieldName, source);
+        int index = indexOf(fieldName, true);
+        newData[index] = source;
     }
 
     /**
@@ -86,16 +119,14 @@ public class ObjectDescription
      * @return the Source, or null if it doesn't exist
      */
     public Source getSource(String fieldName) {
-        if (newData != null) {
-            Source retval = newData.get(fieldName);
-            if (retval != null) {
-                return retval;
-            }
+        int index = indexOf(fieldName, false);
+        if (index == -1) {
+            return null;
         }
-        if (orig != null) {
-            return orig.get(fieldName);
+        if ((newData != null) && (newData[index] != null)) {
+            return newData[index];
         }
-        return null;
+        return orig[index];
     }
 
     /**
@@ -104,7 +135,7 @@ public class ObjectDescription
      * @return true if the ObjectDescriptor is dirty
      */
     public boolean isDirty() {
-        return dirty;
+        return newData != null;
     }
 
     /**
@@ -112,36 +143,88 @@ public class ObjectDescription
      * database.
      */
     public void clean() {
-        if (dirty) {
-            dirty = false;
-            if (orig == null) {
-                orig = new HashMap<String, Source>();
-            }
-            for (Map.Entry<String, Source> entry : newData.entrySet()) {
-                orig.put(entry.getKey(), entry.getValue());
+        if (newData != null) {
+            for (int i = 0; i < size; i++) {
+                if (newData[i] != null) {
+                    orig[i] = newData[i];
+                }
             }
             newData = null;
         }
     }
 
+    /**
+     * Returns the number of fields that have a Source, in either the original or the new data.
+     *
+     * @return an int
+     */
+    protected int getFieldCount() {
+        return size;
+    }
+
+    /**
+     * Returns the name of a field.
+     *
+     * @param index a number from zero to getFieldCount() - 1
+     * @return the field name
+     */
+    protected String getFieldName(int index) {
+        return fieldNames[index];
+    }
+
+    /**
+     * Returns the Source of a field in the backing database.
+     *
+     * @param index a number from zero to getFieldCount() - 1
+     * @return the Source, or null if the field is not in the backing database
+     */
+    protected Source getOrigSource(int index) {
+        return orig[index];
+    }
+
+    /**
+     * Returns the Source of a field that needs to be written back into the backing database.
+     *
+     * @param index a number from zero to getFieldCount() - 1
+     * @return the Source, or null if the field has no new data
+     */
+    protected Source getNewSource(int index) {
+        return newData == null ? null : newData[index];
+    }
+
     /**
      * Returns the original data, as reflected in the backing database.
      *
      * @return a Map
      */
     protected Map<String, Source> getOrig() {
-        if (orig == null) {
+        Map<String, Source> retval = new HashMap<String, Source>();
+        for (int i = 0; i < size; i++) {
+            if (orig[i] != null) {
+                retval.put(fieldNames[i], orig[i]);
+            }
+        }
+        if (retval.isEmpty()) {
             return Collections.emptyMap();
         }
-        return orig;
+        return retval;
     }
 
     /**
      * Returns the new data, which needs to be written back into the backing database.
      *
-     * @return a Map
+     * @return a Map, or null if this ObjectDescription is clean
      */
     protected Map<String, Source> getNewData() {
-        return newData;
+        if (newData == null) {
+            return null;
+        }
+        Map<String, Source> retval = new HashMap<String, Source>();
+        for (int i = 0; i < size; i++) {
+            if (newData[i] != null) {
+                retval.put(fieldNames[i], newData[i]);
+            }
+        }
+        return retval;
     }
 }
@@ -80,133 +80,14 @@ public class ObjectStoreDataLoader extends DataLoader
             if (os instanceof ObjectStoreFastCollectionsForTranslatorImpl) {
                 ((ObjectStoreFastCollectionsForTranslatorImpl) os).setSource(source);
             }
-            if (getIntegrationWriter() instanceof IntegrationWriterDataTrackingImpl) {
-                Properties props = PropertiesUtil.getPropertiesStartingWith(
-                        "equivalentObjectFetcher");
-                if (!("false".equals(props.getProperty("equivalentObjectFetcher.useParallel")))) {
-                    LOG.info("Using ParallelBatchingFetcher - set the property "
-                            + "\"equivalentObjectFetcher.useParallel\" to false to use the standard"
-                            + " BatchingFetcher");
-                    ParallelBatchingFetcher eof =
-                        new ParallelBatchingFetcher(((IntegrationWriterAbstractImpl)
-                                getIntegrationWriter()).getBaseEof(),
-                            ((IntegrationWriterDataTrackingImpl) getIntegrationWriter())
-                            .getDataTracker(), source);
-                    ((IntegrationWriterAbstractImpl) getIntegrationWriter()).setEof(eof);
-                    os = eof.getNoseyObjectStore(os);
-                } else {
-                    LOG.info("Using BatchingFetcher - set the property "
-                            + "\"equivalentObjectFetcher.useParallel\" to true to use the "
-                            + "ParallelBatchingFetcher");
-                    BatchingFetcher eof =
-                        new BatchingFetcher(((IntegrationWriterAbstractImpl)
-                                getIntegrationWriter()).getBaseEof(),
-                            ((IntegrationWriterDataTrackingImpl) getIntegrationWriter())
-                            .getDataTracker(), source);
-                    ((IntegrationWriterAbstractImpl) getIntegrationWriter()).setEof(eof);
-                    os = eof.getNoseyObjectStore(os);
-                }
-            }
-            Properties props = PropertiesUtil.getPropertiesStartingWith("dataLoader");
-            boolean allowMultipleErrors = "true".equals(props.getProperty(
-                            "dataLoader.allowMultipleErrors"));
-            long[] times = new long[20];
-            for (int i = 0; i < 20; i++) {
-                times[i] = -1;
-            }
-            Query q = new Query();
-            QueryClass qc = new QueryClass(queryClass);
-            q.addFrom(qc);
-            q.addToSelect(qc);
-            q.setDistinct(false);
-            long opCount = 0;
-            long time = System.currentTimeMillis();
-            long startTime = time;
-            long timeSpentRead = 0;
-            long timeSpentWrite = 0;
-            long timeSpentCommit = 0;
-            long timeSpentLoop = 0;
-            getIntegrationWriter().beginTransaction();
-            SingletonResults res = os.executeSingleton(q, ITEM_READ_BATCH_SIZE, false, false, true);
-            long time4 = System.currentTimeMillis();
-            long time1, time2, time3;
-            @SuppressWarnings({ "unchecked", "rawtypes" })
-            Collection<FastPathObject> tmpRes = (Collection) res;
-            for (FastPathObject obj : tmpRes) {
-                time1 = System.currentTimeMillis();
-                timeSpentLoop += time1 - time4;
-                time2 = System.currentTimeMillis();
-                timeSpentRead += time2 - time1;
-                //if ("org.intermine.model.chado.feature".equals(obj.getClass().getName())) {
-                //    String objText = obj.toString();
-                //    int objTextLen = objText.length();
-                //    System//.out.println("Storing " + objText.substring(0, (objTextLen > 60 ? 60
-                //                    : objTextLen)));
-                //}
-                try {
-                    getIntegrationWriter().store(obj, source, skelSource);
-                } catch (RuntimeException e) {
-                    String identifier = null;
-                    if ((origOs instanceof ObjectStoreFastCollectionsForTranslatorImpl)
-                           && (obj instanceof InterMineObject)) {
-                        ItemToObjectTranslator trans = (ItemToObjectTranslator)
-                            ((ObjectStoreFastCollectionsForTranslatorImpl) origOs).getTranslator();
-                        identifier = trans.idToIdentifier(((InterMineObject) obj).getId());
-                    }
-                    LOG.error("Exception while dataloading" + (identifier == null ? ""
-                                : " item with identifier " + identifier), e);
-                    errorCount++;
-                    if (errorCount >= 100) {
-                        throw new RuntimeException("Too many data loading exceptions - to stop on"
-                                + " the first error, set the property"
-                                + " \"dataLoader.allowMultipleErrors\" to false", e);
-                    }
-                    if (!allowMultipleErrors) {
-                        throw new RuntimeException("Exception while dataloading - to allow multiple"
-                                + " errors, set the property \"dataLoader.allowMultipleErrors\" to"
-                                + " true\n" + (identifier == null ? ""
-                                    : "Problem while loading item identifier " + identifier
-                                    + " because\n") + e.getMessage(), e);
-                    }
-                }
-                time3 = System.currentTimeMillis();
-                timeSpentWrite += time3 - time2;
-                opCount++;
-                if (opCount % 10000 == 0) {
-                    long now = System.currentTimeMillis();
-                    if (times[(int) ((opCount / 10000) % 20)] == -1) {
-                        LOG.info("Dataloaded " + opCount + " objects - running at "
-                                + (600000000L / (now - time)) + " (avg "
-                                + ((60000L * opCount) / (now - startTime))
-                                + ") objects per minute -- now on "
-                                + DynamicUtil.getFriendlyName(obj.getClass()));
-                    } else {
-                        LOG.info("Dataloaded " + opCount + " objects - running at "
-                                + (600000000L / (now - time)) + " (200000 avg "
-                                + (12000000000L / (now - times[(int) ((opCount / 10000) % 20)]))
-                                + ") (avg = " + ((60000L * opCount) / (now - startTime))
-                                + ") objects per minute -- now on "
-                                + DynamicUtil.getFriendlyName(obj.getClass()));
-                    }
-                    time = now;
-                    times[(int) ((opCount / 10000) % 20)] = now;
-                    if (opCount % 500000 == 0) {
-                        getIntegrationWriter().batchCommitTransaction();
-                    }
-                }
-                time4 = System.currentTimeMillis();
-                timeSpentCommit += time4 - time3;
+            ParallelStoreLoop parallel = ParallelStoreLoop.getInstance(getIntegrationWriter(),
+                    PropertiesUtil.getPropertiesStartingWith("dataLoader"));
+            if (parallel != null) {
+                errorCount = parallel.process(os, queryClass, source, skelSource);
+                getIntegrationWriter().close();
+            } else {
+                errorCount = storeSerially(os, origOs, source, skelSource, queryClass);
             }
-            time3 = System.currentTimeMillis();
-            getIntegrationWriter().commitTransaction();
-            getIntegrationWriter().close();
-            long now = System.currentTimeMillis();
-            timeSpentCommit += now - time3;
-            LOG.info("Finished dataloading " + opCount + " objects at " + ((60000L * opCount)
-                        / (now - startTime)) + " objects per minute (" + (now - startTime)
-                    + " ms total) for source " + source.getName());
-            LOG.info("Time spent: Reading: " + (timeSpentRead + timeSpentLoop) + ", Writing: "
-                    + timeSpentWrite + ", Committing: " + timeSpentCommit);
         } catch (RuntimeException e) {
             if (origOs instanceof ObjectStoreFastCollectionsForTranslatorImpl) {
                 IntPresentSet doneAlready = ((ObjectStoreFastCollectionsForTranslatorImpl) origOs)
@@ -229,4 +110,149 @@ public class ObjectStoreDataLoader extends DataLoader
                     + ".allowMultipleErrors\" to false");
         }
     }
+
+    /**
+     * Stores all the objects of the given class in this thread, in source order.
+     *
+     * @param os the ObjectStore from which to read data
+     * @param origOs the ObjectStore originally given to the process method, for error reporting
+     * @param source the main Source
+     * @param skelSource the skeleton Source
+     * @param queryClass the class to load data for
+     * @return the number of objects that failed to store
+     * @throws ObjectStoreException if an error occurs on either the source or the destination
+     */
+    private int storeSerially(ObjectStore os, ObjectStore origOs, Source source,
+            Source skelSource, Class<? extends FastPathObject> queryClass)
+        throws ObjectStoreException {
+        int errorCount = 0;
+        if (getIntegrationWriter() instanceof IntegrationWriterDataTrackingImpl) {
+            Properties props = PropertiesUtil.getPropertiesStartingWith(
+                    "equivalentObjectFetcher");
+            if (!("false".equals(props.getProperty("equivalentObjectFetcher.useParallel")))) {
+                LOG.info("Using ParallelBatchingFetcher - set the property "
+                        + "\"equivalentObjectFetcher.useParallel\" to false to use the standard"
+                        + " BatchingFetcher");
+                ParallelBatchingFetcher eof =
+                    new ParallelBatchingFetcher(((IntegrationWriterAbstractImpl)
+                            getIntegrationWriter()).getBaseEof(),
+                        ((IntegrationWriterDataTrackingImpl) getIntegrationWriter())
+                        .getDataTracker(), source);
+                ((IntegrationWriterAbstractImpl) getIntegrationWriter()).setEof(eof);
+                os = eof.getNoseyObjectStore(os);
+            } else {
+                LOG.info("Using BatchingFetcher - set the property "
+                        + "\"equivalentObjectFetcher.useParallel\" to true to use the "
+                        + "ParallelBatchingFetcher");
+                BatchingFetcher eof =
+                    new BatchingFetcher(((IntegrationWriterAbstractImpl)
+                            getIntegrationWriter()).getBaseEof(),
+                        ((IntegrationWriterDataTrackingImpl) getIntegrationWriter())
+                        .getDataTracker(), source);
+                ((IntegrationWriterAbstractImpl) getIntegrationWriter()).setEof(eof);
+                os = eof.getNoseyObjectStore(os);
+            }
+        }
+        Properties props = PropertiesUtil.getPropertiesStartingWith("dataLoader");
+        boolean allowMultipleErrors = "true".equals(props.getProperty(
+                        "dataLoader.allowMultipleErrors"));
+        long[] times = new long[20];
+        for (int i = 0; i < 20; i++) {
+            times[i] = -1;
+        }
+        Query q = new Query();
+        QueryClass qc = new QueryClass(queryClass);
+        q.addFrom(qc);
+        q.addToSelect(qc);
+        q.setDistinct(false);
+        long opCount = 0;
+        long time = System.currentTimeMillis();
+        long startTime = time;
+        long timeSpentRead = 0;
+        long timeSpentWrite = 0;
+        long timeSpentCommit = 0;
+        long timeSpentLoop = 0;
+        getIntegrationWriter().beginTransaction();
+        SingletonResults res = os.executeSingleton(q, ITEM_READ_BATCH_SIZE, false, false, true);
+        long time4 = System.currentTimeMillis();
+        long time1, time2, time3;
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        Collection<FastPathObject> tmpRes = (Collection) res;
+        for (FastPathObject obj : tmpRes) {
+            time1 = System.currentTimeMillis();
+            timeSpentLoop += time1 - time4;
+            time2 = System.currentTimeMillis();
+            timeSpentRead += time2 - time1;
+            //if ("org.intermine.model.chado.feature".equals(obj.getClass().getName())) {
+            //    String objText = obj.toString();
+            //    int objTextLen = objText.length();
+            //    System//.out.println("Storing " + objText.substring(0, (objTextLen > 60 ? 60
+            //                    : objTextLen)));
+            //}
+            try {
+                getIntegrationWriter().store(obj, source, skelSource);
+            } catch (RuntimeException e) {
+                String identifier = null;
+                if ((origOs instanceof ObjectStoreFastCollectionsForTranslatorImpl)
+                       && (obj instanceof InterMineObject)) {
+                    ItemToObjectTranslator trans = (ItemToObjectTranslator)
+                        ((ObjectStoreFastCollectionsForTranslatorImpl) origOs).getTranslator();
+                    identifier = trans.idToIdentifier(((InterMineObject) obj).getId());
+                }
+                LOG.error("Exception while dataloading" + (identifier == null ? ""
+                            : " item with identifier " + identifier), e);
+                errorCount++;
+                if (errorCount >= 100) {
+                    throw new RuntimeException("Too many data loading exceptions - to stop on"
+                            + " the first error, set the property"
+                            + " \"dataLoader.allowMultipleErrors\" to false", e);
+                }
+                if (!allowMultipleErrors) {
+                    throw new RuntimeException("Exception while dataloading - to allow multiple"
+                            + " errors, set the property \"dataLoader.allowMultipleErrors\" to"
+                            + " true\n" + (identifier == null ? ""
+                                : "Problem while loading item identifier " + identifier
+                                + " because\n") + e.getMessage(), e);
+                }
+            }
+            time3 = System.currentTimeMillis();
+            timeSpentWrite += time3 - time2;
+            opCount++;
+            if (opCount % 10000 == 0) {
+                long now = System.currentTimeMillis();
+                if (times[(int) ((opCount / 10000) % 20)] == -1) {
+                    LOG.info("Dataloaded " + opCount + " objects - running at "
+                            + (600000000L / (now - time)) + " (avg "
+                            + ((60000L * opCount) / (now - startTime))
+                            + ") objects per minute -- now on "
+                            + DynamicUtil.getFriendlyName(obj.getClass()));
+                } else {
+                    LOG.info("Dataloaded " + opCount + " objects - running at "
+                            + (600000000L / (now - time)) + " (200000 avg "
+                            + (12000000000L / (now - times[(int) ((opCount / 10000) % 20)]))
+                            + ") (avg = " + ((60000L * opCount) / (now - startTime))
+                            + ") objects per minute -- now on "
+                            + DynamicUtil.getFriendlyName(obj.getClass()));
+                }
+                time = now;
+                times[(int) ((opCount / 10000) % 20)] = now;
+                if (opCount % 500000 == 0) {
+                    getIntegrationWriter().batchCommitTransaction();
+                }
+            }
+            time4 = System.currentTimeMillis();
+            timeSpentCommit += time4 - time3;
+        }
+        time3 = System.currentTimeMillis();
+        getIntegrationWriter().commitTransaction();
+        getIntegrationWriter().close();
+        long now = System.currentTimeMillis();
+        timeSpentCommit += now - time3;
+        LOG.info("Finished dataloading " + opCount + " objects at " + ((60000L * opCount)
+                    / (now - startTime)) + " objects per minute (" + (now - startTime)
+                + " ms total) for source " + source.getName());
+        LOG.info("Time spent: Reading: " + (timeSpentRead + timeSpentLoop) + ", Writing: "
+                + timeSpentWrite + ", Committing: " + timeSpentCommit);
+        return errorCount;
+    }
 }
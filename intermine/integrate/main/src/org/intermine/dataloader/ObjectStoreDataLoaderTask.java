@@ -10,11 +10,18 @@ package org.intermine.dataloader;
  *
  */
 
+import java.io.File;
+
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.Task;
 
+import org.intermine.dataconversion.ItemFileObjectStore;
+import org.intermine.dataconversion.ItemToObjectTranslator;
 import org.intermine.model.FastPathObject;
+import org.intermine.objectstore.ObjectStore;
 import org.intermine.objectstore.ObjectStoreFactory;
+import org.intermine.objectstore.fastcollections.ObjectStoreFastCollectionsForTranslatorImpl;
+import org.intermine.objectstore.translating.ObjectStoreTranslatingImpl;
 
 /**
  * Uses an IntegrationWriter to load data from another ObjectStore.
@@ -31,6 +38,7 @@ public class ObjectStoreDataLoaderTask extends Task
     protected boolean ignoreDuplicates;
     protected String queryClass = null;
     protected String allSources;
+    protected String itemFile = null;
 
     /**
      * Set the IntegrationWriter.
@@ -96,6 +104,16 @@ public class ObjectStoreDataLoaderTask extends Task
         this.allSources = allSources;
     }
 
+    /**
+     * Set a file written by a FileItemWriter to read Items from instead of the source
+     * objectstore. An empty value is ignored.
+     *
+     * @param itemFile the name of the item file
+     */
+    public void setItemFile(String itemFile) {
+        this.itemFile = ("".equals(itemFile) ? null : itemFile);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -104,14 +122,24 @@ public class ObjectStoreDataLoaderTask extends Task
         if (integrationWriter == null) {
             throw new BuildException("integrationWriter attribute is not set");
         }
-        if (source == null) {
+        if ((source == null) && (itemFile == null)) {
             throw new BuildException("source attribute is not set");
         }
 
+        ItemFileObjectStore itemOs = null;
         try {
             IntegrationWriter iw = IntegrationWriterFactory.getIntegrationWriter(integrationWriter);
             PriorityConfig.verify(iw.getModel(), allSources);
             iw.setIgnoreDuplicates(ignoreDuplicates);
+            ObjectStore os;
+            if (itemFile != null) {
+                itemOs = new ItemFileObjectStore(new File(itemFile));
+                os = new ObjectStoreFastCollectionsForTranslatorImpl(
+                        new ObjectStoreTranslatingImpl(iw.getModel(), itemOs,
+                            new ItemToObjectTranslator(iw.getModel(), itemOs)));
+            } else {
+                os = ObjectStoreFactory.getObjectStore(source);
+            }
             if (queryClass != null) {
                 Class<?> tmpQueryClass = Class.forName(queryClass);
                 if (!FastPathObject.class.isAssignableFrom(tmpQueryClass)) {
@@ -120,17 +148,20 @@ public class ObjectStoreDataLoaderTask extends Task
                 }
                 @SuppressWarnings("unchecked") Class<? extends FastPathObject> tmp2QueryClass =
                     (Class) tmpQueryClass;
-                new ObjectStoreDataLoader(iw).process(ObjectStoreFactory.getObjectStore(source),
-                        iw.getMainSource(sourceName, sourceType), iw.getSkeletonSource(sourceName,
-                                sourceType), tmp2QueryClass);
+                new ObjectStoreDataLoader(iw).process(os, iw.getMainSource(sourceName,
+                            sourceType), iw.getSkeletonSource(sourceName, sourceType),
+                        tmp2QueryClass);
 
             } else {
-                new ObjectStoreDataLoader(iw).process(ObjectStoreFactory.getObjectStore(source),
-                                                      iw.getMainSource(sourceName, sourceType),
+                new ObjectStoreDataLoader(iw).process(os, iw.getMainSource(sourceName, sourceType),
                                                       iw.getSkeletonSource(sourceName, sourceType));
             }
         } catch (Exception e) {
             throw new BuildException(e);
+        } finally {
+            if (itemOs != null) {
+                itemOs.close();
+            }
         }
     }
 
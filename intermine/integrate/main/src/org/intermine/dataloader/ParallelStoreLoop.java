@@ -0,0 +1,589 @@
+package org.intermine.dataloader;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.intermine.model.FastPathObject;
+import org.intermine.model.InterMineObject;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.ObjectStoreWriter;
+import org.intermine.objectstore.intermine.ObjectStoreInterMineImpl;
+import org.intermine.objectstore.proxy.ProxyReference;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.ResultsRow;
+import org.intermine.util.DynamicUtil;
+import org.intermine.util.PropertiesUtil;
+
+/**
+ * Stores the objects of a source with several threads, each with its own
+ * IntegrationWriterDataTrackingImpl and database connection, sharing the DataTracker of the main
+ * IntegrationWriter. Each thread has its own ObjectStoreWriter, which allocates IDs from the
+ * shared database sequence.
+ * <p>
+ * The source is read once to split it into independent partitions with a StorePartitioner, then
+ * the hub objects are stored and committed by the main IntegrationWriter, then the source is read
+ * again and each object is passed to the thread that handles its partition.
+ * <p>
+ * Objects in different partitions do not refer to each other and do not share primary key values,
+ * but they may still both match an object already in the database through different primary
+ * keys. A thread may only write to an existing object once it has claimed it, and a thread that
+ * finds an object claimed by another commits its own work and waits for the other to commit,
+ * so the two writes happen one after the other as they would if the source were loaded by one
+ * thread. Every release of claims is numbered, and a thread that claims an object released by
+ * another since it read it reads it again.
+ * <p>
+ * Like the single-threaded loop, each thread fetches the equivalent objects of a batch of
+ * objects at a time with a BatchingFetcher, or a ParallelBatchingFetcher unless the property
+ * "equivalentObjectFetcher.useParallel" is false. A batch is whatever is waiting in the thread's
+ * queue, up to QUEUE_SIZE objects.
+ * <p>
+ * This is used by the ObjectStoreDataLoader when the property "dataLoader.parallelWorkers" is
+ * more than one. The property "dataLoader.hubThreshold" sets the number of references to an object
+ * that make it a hub.
+ */
+public class ParallelStoreLoop
+{
+    private static final Logger LOG = Logger.getLogger(ParallelStoreLoop.class);
+    private static final int ITEM_READ_BATCH_SIZE = 5000;
+    private static final int QUEUE_SIZE = 1000;
+    private static final int COMMIT_INTERVAL = 10000;
+    /** The default number of references to an object that make it a hub */
+    public static final int DEFAULT_HUB_THRESHOLD = 1000;
+
+    private static final Object END = new Object();
+
+    private IntegrationWriterDataTrackingImpl iw;
+    private int workerCount;
+    private int hubThreshold;
+    private boolean allowMultipleErrors;
+
+    private final Map<Integer, Worker> claims = new HashMap<Integer, Worker>();
+    // The generation in which each recently claimed object was last released, oldest first. An
+    // entry is only needed while some worker is using a read made before that generation.
+    private final LinkedHashMap<Integer, Long> released = new LinkedHashMap<Integer, Long>();
+    private long generation = 0;
+    private Worker[] workers = new Worker[0];
+    private int errorCount = 0;
+    private volatile Throwable failure = null;
+
+    /**
+     * Constructor.
+     *
+     * @param iw the main IntegrationWriter, which stores the hub objects
+     * @param workerCount the number of threads to store objects with
+     * @param hubThreshold the number of references to an object that make it a hub
+     * @param allowMultipleErrors true to carry on after an object fails to store
+     */
+    public ParallelStoreLoop(IntegrationWriterDataTrackingImpl iw, int workerCount,
+            int hubThreshold, boolean allowMultipleErrors) {
+        this.iw = iw;
+        this.workerCount = workerCount;
+        this.hubThreshold = hubThreshold;
+        this.allowMultipleErrors = allowMultipleErrors;
+    }
+
+    /**
+     * Returns a ParallelStoreLoop for the given IntegrationWriter if the dataLoader properties ask
+     * for more than one worker and the IntegrationWriter supports it, or null to store the objects
+     * with one thread.
+     *
+     * @param iw the IntegrationWriter
+     * @param props the properties starting with "dataLoader"
+     * @return a ParallelStoreLoop, or null
+     */
+    public static ParallelStoreLoop getInstance(IntegrationWriter iw, Properties props) {
+        String workersString = props.getProperty("dataLoader.parallelWorkers");
+        if (workersString == null) {
+            return null;
+        }
+        int workers;
+        int hubThreshold = DEFAULT_HUB_THRESHOLD;
+        try {
+            workers = Integer.parseInt(workersString.trim());
+            String hubThresholdString = props.getProperty("dataLoader.hubThreshold");
+            if (hubThresholdString != null) {
+                hubThreshold = Integer.parseInt(hubThresholdString.trim());
+            }
+        } catch (NumberFormatException e) {
+            LOG.warn("Invalid dataLoader.parallelWorkers or dataLoader.hubThreshold property - "
+                    + "storing objects with one thread", e);
+            return null;
+        }
+        if (workers <= 1) {
+            return null;
+        }
+        if ((!(iw instanceof IntegrationWriterDataTrackingImpl))
+                || (!(((IntegrationWriterDataTrackingImpl) iw).getObjectStoreWriter()
+                        .getObjectStore() instanceof ObjectStoreInterMineImpl))) {
+            LOG.warn("Cannot store objects in parallel with " + iw.getClass().getName()
+                    + " - storing objects with one thread");
+            return null;
+        }
+        if (((IntegrationWriterDataTrackingImpl) iw).ignoreDuplicates) {
+            LOG.warn("Cannot store objects in parallel when ignoring duplicates - storing objects"
+                    + " with one thread");
+            return null;
+        }
+        boolean allowMultipleErrors = "true".equals(props.getProperty(
+                    "dataLoader.allowMultipleErrors"));
+        return new ParallelStoreLoop((IntegrationWriterDataTrackingImpl) iw, workers, hubThreshold,
+                allowMultipleErrors);
+    }
+
+    /**
+     * Stores all the objects of the given class from the given ObjectStore. The main
+     * IntegrationWriter is not closed.
+     *
+     * @param os the ObjectStore from which to read data
+     * @param queryClass the class to load data for
+     * @param source the main Source
+     * @param skelSource the skeleton Source
+     * @return the number of objects that failed to store
+     * @throws ObjectStoreException if an error occurs on either the source or the destination
+     */
+    public int process(ObjectStore os, Class<? extends FastPathObject> queryClass,
+            Source source, Source skelSource) throws ObjectStoreException {
+        Query q = new Query();
+        QueryClass qc = new QueryClass(queryClass);
+        q.addFrom(qc);
+        q.addToSelect(qc);
+        q.setDistinct(false);
+        long startTime = System.currentTimeMillis();
+        StorePartitioner partitioner = new StorePartitioner(iw.getModel(), source,
+                iw.getObjectStore(), hubThreshold);
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        Collection<FastPathObject> res = (Collection) os.executeSingleton(q,
+                ITEM_READ_BATCH_SIZE, false, false, true);
+        for (FastPathObject obj : res) {
+            partitioner.add(obj);
+        }
+        partitioner.finish();
+        long partitionTime = System.currentTimeMillis();
+        LOG.info("Found " + partitioner.getPartitionCount() + " independent partitions and "
+                + partitioner.getHubCount() + " hub objects in source " + source.getName()
+                + " - took " + (partitionTime - startTime) + " ms");
+
+        // Store the hubs first, so that every worker finds them in its ID map
+        Map<Integer, Integer> hubMappings = new HashMap<Integer, Integer>();
+        iw.beginTransaction();
+        List<Integer> hubIds = new ArrayList<Integer>(partitioner.getHubs());
+        for (int start = 0; start < hubIds.size(); start += ITEM_READ_BATCH_SIZE) {
+            List<Integer> batch = hubIds.subList(start, Math.min(hubIds.size(),
+                        start + ITEM_READ_BATCH_SIZE));
+            for (InterMineObject obj : os.getObjectsByIds(batch)) {
+                try {
+                    iw.store(obj, source, skelSource);
+                } catch (RuntimeException e) {
+                    handleError(obj, e);
+                }
+            }
+        }
+        iw.commitTransaction();
+        for (Integer hubId : hubIds) {
+            Integer destId = iw.idMap.get(hubId);
+            if (destId != null) {
+                hubMappings.put(hubId, destId);
+            }
+        }
+        long hubTime = System.currentTimeMillis();
+        LOG.info("Stored " + hubIds.size() + " hub objects - took " + (hubTime - partitionTime)
+                + " ms");
+
+        boolean useParallelFetcher = !"false".equals(PropertiesUtil.getProperties().getProperty(
+                    "equivalentObjectFetcher.useParallel"));
+        Worker[] workers = new Worker[workerCount];
+        Thread[] threads = new Thread[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new Worker(i, source, skelSource, hubMappings, useParallelFetcher);
+        }
+        synchronized (claims) {
+            this.workers = workers;
+        }
+        for (int i = 0; i < workerCount; i++) {
+            threads[i] = new Thread(workers[i], "ParallelStoreLoop worker " + i);
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+        long opCount = hubIds.size();
+        long time = System.currentTimeMillis();
+        try {
+            for (FastPathObject obj : res) {
+                if ((obj instanceof InterMineObject) && (((InterMineObject) obj).getId() != null)
+                        && partitioner.isHub(((InterMineObject) obj).getId().intValue())) {
+                    continue;
+                }
+                if (!workers[partitioner.getPartition(obj, workerCount)].put(obj)) {
+                    break;
+                }
+                opCount++;
+                if (opCount % 10000 == 0) {
+                    long now = System.currentTimeMillis();
+                    LOG.info("Dataloaded " + opCount + " objects - running at "
+                            + (600000000L / Math.max(1, now - time)) + " (avg "
+                            + ((60000L * opCount) / Math.max(1, now - startTime))
+                            + ") objects per minute with " + workerCount + " workers -- now on "
+                            + DynamicUtil.getFriendlyName(obj.getClass()));
+                    time = now;
+                }
+            }
+        } finally {
+            for (Worker worker : workers) {
+                worker.put(END);
+            }
+            for (Thread thread : threads) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    throw new ObjectStoreException("Interrupted while waiting for workers", e);
+                }
+            }
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure != null) {
+            throw new ObjectStoreException("Exception while dataloading", failure);
+        }
+        int skeletons = 0;
+        StringBuffer counts = new StringBuffer();
+        for (Worker worker : workers) {
+            skeletons += worker.writer.skeletons.size();
+            counts.append(counts.length() == 0 ? "" : ", ").append(worker.count);
+        }
+        if (skeletons > 0) {
+            throw new ObjectStoreException("Some skeletons were not replaced by real objects: "
+                    + skeletons);
+        }
+        long now = System.currentTimeMillis();
+        LOG.info("Finished dataloading " + opCount + " objects at " + ((60000L * opCount)
+                    / Math.max(1, now - startTime)) + " objects per minute (" + (now - startTime)
+                + " ms total, " + (partitionTime - startTime) + " ms partitioning, "
+                + (hubTime - partitionTime) + " ms storing hubs) with " + workerCount
+                + " workers storing " + counts + " objects for source " + source.getName());
+        return errorCount;
+    }
+
+    /**
+     * Counts a failure to store an object, and rethrows it if loading should stop.
+     */
+    private synchronized void handleError(FastPathObject obj, RuntimeException e) {
+        LOG.error("Exception while dataloading" + (obj instanceof InterMineObject ? " object with"
+                    + " ID " + ((InterMineObject) obj).getId() : ""), e);
+        errorCount++;
+        if (errorCount >= 100) {
+            throw new RuntimeException("Too many data loading exceptions - to stop on"
+                    + " the first error, set the property"
+                    + " \"dataLoader.allowMultipleErrors\" to false", e);
+        }
+        if (!allowMultipleErrors) {
+            throw new RuntimeException("Exception while dataloading - to allow multiple"
+                    + " errors, set the property \"dataLoader.allowMultipleErrors\" to"
+                    + " true\n" + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return the number of the last release of claims
+     */
+    private long currentGeneration() {
+        synchronized (claims) {
+            return generation;
+        }
+    }
+
+    /**
+     * Claims an object in the destination database for a worker, waiting for any other worker
+     * that has claimed it to commit.
+     *
+     * @param readAt the generation current when the worker started reading the object
+     * @return true if the worker did not already hold the claim and another worker has released
+     * the object since readAt, so that what the worker read may be out of date
+     */
+    private boolean claim(Worker worker, Integer id, long readAt) throws ObjectStoreException {
+        Worker owner;
+        synchronized (claims) {
+            owner = claims.get(id);
+            if (owner == worker) {
+                return false;
+            } else if (owner == null) {
+                claims.put(id, worker);
+                worker.claimed.add(id);
+            } else {
+                owner.commitRequested = true;
+            }
+        }
+        if (owner != null) {
+            // Commit first, so that this worker holds no claims while it waits
+            worker.commit();
+            synchronized (claims) {
+                owner = claims.get(id);
+                while (owner != null) {
+                    owner.commitRequested = true;
+                    try {
+                        claims.wait();
+                    } catch (InterruptedException e) {
+                        throw new ObjectStoreException("Interrupted while waiting for object "
+                                + id, e);
+                    }
+                    owner = claims.get(id);
+                }
+                claims.put(id, worker);
+                worker.claimed.add(id);
+            }
+        }
+        worker.writer.invalidateObjectById(id);
+        synchronized (claims) {
+            Long releasedAt = released.get(id);
+            return (releasedAt != null) && (releasedAt.longValue() > readAt);
+        }
+    }
+
+    private void release(Worker worker) {
+        synchronized (claims) {
+            if (!worker.claimed.isEmpty()) {
+                generation++;
+                Long releasedAt = new Long(generation);
+                for (Integer id : worker.claimed) {
+                    claims.remove(id);
+                    // Move the object to the end, so the entries stay in generation order
+                    released.remove(id);
+                    released.put(id, releasedAt);
+                }
+                worker.claimed.clear();
+            }
+            long oldestRead = Long.MAX_VALUE;
+            for (Worker other : workers) {
+                oldestRead = Math.min(oldestRead, other.batchReadAt);
+            }
+            Iterator<Long> iter = released.values().iterator();
+            while (iter.hasNext() && (iter.next().longValue() <= oldestRead)) {
+                iter.remove();
+            }
+            claims.notifyAll();
+        }
+    }
+
+    /**
+     * Stores the objects of some of the partitions, in its own transaction.
+     */
+    private class Worker implements Runnable
+    {
+        private final BlockingQueue<Object> queue = new ArrayBlockingQueue<Object>(QUEUE_SIZE);
+        private final int index;
+        private final Source source;
+        private final Source skelSource;
+        private final Map<Integer, Integer> hubMappings;
+        private final List<Integer> claimed = new ArrayList<Integer>();
+        private volatile boolean commitRequested = false;
+        // The generation when the current batch was read, or Long.MAX_VALUE between batches
+        private volatile long batchReadAt = Long.MAX_VALUE;
+        private PartitionWriter writer;
+        private BatchingFetcher fetcher;
+        private long count = 0;
+
+        Worker(int index, Source source, Source skelSource, Map<Integer, Integer> hubMappings,
+                boolean useParallelFetcher) throws ObjectStoreException {
+            this.index = index;
+            this.source = source;
+            this.skelSource = skelSource;
+            this.hubMappings = hubMappings;
+            ObjectStoreWriter osw = ((ObjectStoreInterMineImpl) iw.getObjectStoreWriter()
+                    .getObjectStore()).getNewWriter();
+            writer = new PartitionWriter(osw, iw.getDataTracker(), iw.trackerMissingClasses,
+                    this);
+            for (Map.Entry<Integer, Integer> entry : hubMappings.entrySet()) {
+                writer.idMap.put(entry.getKey(), entry.getValue());
+            }
+            if (useParallelFetcher) {
+                fetcher = new ParallelBatchingFetcher(writer.getBaseEof(), iw.getDataTracker(),
+                        source);
+            } else {
+                fetcher = new BatchingFetcher(writer.getBaseEof(), iw.getDataTracker(), source);
+            }
+            writer.setEof(fetcher);
+        }
+
+        /**
+         * Queues an object for this worker, giving up if loading has failed.
+         *
+         * @return false if loading has failed
+         */
+        boolean put(Object obj) {
+            try {
+                while (!queue.offer(obj, 1, TimeUnit.SECONDS)) {
+                    if (failure != null) {
+                        return false;
+                    }
+                }
+            } catch (InterruptedException e) {
+                failure = e;
+                return false;
+            }
+            return failure == null;
+        }
+
+        void commit() throws ObjectStoreException {
+            commitRequested = false;
+            writer.commitTransaction();
+            writer.beginTransaction();
+            release(this);
+        }
+
+        /**
+         * Fetches the equivalent objects of a batch of objects in one go.
+         */
+        void prefetch(List<Object> batch) throws ObjectStoreException {
+            List<ResultsRow<Object>> rows = new ArrayList<ResultsRow<Object>>();
+            for (Object obj : batch) {
+                if (obj != END) {
+                    ResultsRow<Object> row = new ResultsRow<Object>();
+                    row.add(obj);
+                    rows.add(row);
+                }
+            }
+            synchronized (claims) {
+                // Set under the lock, so that no release can forget what this batch will need
+                batchReadAt = generation;
+            }
+            fetcher.getEquivalentsFor(rows);
+        }
+
+        public void run() {
+            try {
+                writer.beginTransaction();
+                List<Object> batch = new ArrayList<Object>();
+                boolean finished = false;
+                while ((failure == null) && (!finished)) {
+                    batch.clear();
+                    queue.drainTo(batch, QUEUE_SIZE);
+                    if (batch.isEmpty()) {
+                        // Nothing to do - let other workers have our claims while we wait
+                        batchReadAt = Long.MAX_VALUE;
+                        commit();
+                        batch.add(queue.take());
+                        queue.drainTo(batch, QUEUE_SIZE - 1);
+                    }
+                    prefetch(batch);
+                    for (Object next : batch) {
+                        if ((next == END) || (failure != null)) {
+                            finished = true;
+                            break;
+                        }
+                        FastPathObject obj = (FastPathObject) next;
+                        try {
+                            writer.store(obj, source, skelSource);
+                        } catch (RuntimeException e) {
+                            handleError(obj, e);
+                        }
+                        count++;
+                        if (commitRequested || (count % COMMIT_INTERVAL == 0)) {
+                            commit();
+                        }
+                    }
+                }
+                if (failure == null) {
+                    writer.commitTransaction();
+                } else {
+                    writer.abortTransaction();
+                }
+            } catch (Throwable e) {
+                LOG.error("Worker " + index + " failed", e);
+                if (failure == null) {
+                    failure = e;
+                }
+                try {
+                    if (writer.isInTransaction()) {
+                        writer.abortTransaction();
+                    }
+                } catch (ObjectStoreException e2) {
+                    LOG.error("Could not abort transaction for worker " + index, e2);
+                }
+            } finally {
+                batchReadAt = Long.MAX_VALUE;
+                release(this);
+                fetcher.close(source);
+                try {
+                    writer.getObjectStoreWriter().close();
+                } catch (ObjectStoreException e) {
+                    LOG.error("Could not close writer for worker " + index, e);
+                }
+                LOG.info("Worker " + index + " stored " + count + " objects");
+            }
+        }
+    }
+
+    /**
+     * An IntegrationWriterDataTrackingImpl that claims every object in the destination database
+     * that it is about to merge with.
+     */
+    private class PartitionWriter extends IntegrationWriterDataTrackingImpl
+    {
+        private final Worker worker;
+
+        PartitionWriter(ObjectStoreWriter osw, DataTracker dataTracker,
+                Set<Class<?>> trackerMissingClasses, Worker worker) {
+            super(osw, dataTracker, trackerMissingClasses);
+            this.worker = worker;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Set<InterMineObject> getEquivalentObjects(InterMineObject obj,
+                Source source) throws ObjectStoreException {
+            // The batch fetched the equivalent objects no earlier than this
+            long readAt = worker.batchReadAt;
+            Set<InterMineObject> retval = super.getEquivalentObjects(obj, source);
+            while (claimAll(retval, readAt)) {
+                // Another worker has changed the objects since they were read, so read again
+                worker.fetcher.equivalents.remove(obj);
+                readAt = currentGeneration();
+                retval = super.getEquivalentObjects(obj, source);
+            }
+            return retval;
+        }
+
+        /**
+         * Claims the objects that this writer is about to merge with.
+         *
+         * @return true if any of them may have been changed since readAt
+         */
+        private boolean claimAll(Set<InterMineObject> equivalents, long readAt)
+            throws ObjectStoreException {
+            boolean stale = false;
+            for (InterMineObject equivalent : equivalents) {
+                // Objects in the ID map are our own or hubs, which are already committed
+                if ((!(equivalent instanceof ProxyReference))
+                        && (!dbIdsStored.contains(equivalent.getId()))) {
+                    stale |= claim(worker, equivalent.getId(), readAt);
+                }
+            }
+            return stale;
+        }
+    }
+}
@@ -0,0 +1,375 @@
+package org.intermine.dataloader;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.intermine.metadata.AttributeDescriptor;
+import org.intermine.metadata.ClassDescriptor;
+import org.intermine.metadata.FieldDescriptor;
+import org.intermine.metadata.Model;
+import org.intermine.metadata.PrimaryKey;
+import org.intermine.model.FastPathObject;
+import org.intermine.model.InterMineObject;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.util.IntPresentSet;
+import org.intermine.util.IntToIntMap;
+
+/**
+ * Splits the objects of a data source into partitions that can be stored independently of each
+ * other. Two objects are put into the same partition if one refers to the other, or if they share
+ * the value of a primary key, as storing either of them may then write to the other's row in the
+ * destination database.
+ * <p>
+ * Objects referred to by many others (for example the Organism objects of a source) would join
+ * almost everything into one partition, so any object referred to at least hubThreshold times
+ * becomes a hub instead, along with everything it refers to. Hubs are not in any partition, and
+ * must be stored before any of the partitions are.
+ * <p>
+ * Feed every object of the source to the add method, call finish, then use getPartition to route
+ * each object while storing.
+ */
+public class StorePartitioner
+{
+    private Model model;
+    private Source source;
+    private ObjectStore lookupOs;
+    private int hubThreshold;
+
+    // Union-find forest over source object IDs - an ID with no entry is a root
+    private IntToIntMap parent = new IntToIntMap();
+    private IntToIntMap inDegree = new IntToIntMap();
+    private IntPresentSet hubs = new IntPresentSet();
+    private Set<Integer> hubIds = new TreeSet<Integer>();
+    // Each edge is a source ID in the high word and a referenced ID in the low word
+    private long[] edges = new long[1024];
+    private int edgeCount = 0;
+    // Each entry is a primary key value hash in the high word and a source ID in the low word
+    private long[] keys = new long[1024];
+    private int keyCount = 0;
+    private int objectCount = 0;
+    private int unionCount = 0;
+    private boolean finished = false;
+
+    /**
+     * Constructor.
+     *
+     * @param model the Model of the objects
+     * @param source the Source, used to find the primary keys of each class
+     * @param lookupOs the ObjectStore that the primary keys are used in
+     * @param hubThreshold the number of references to an object that make it a hub
+     */
+    public StorePartitioner(Model model, Source source, ObjectStore lookupOs, int hubThreshold) {
+        this.model = model;
+        this.source = source;
+        this.lookupOs = lookupOs;
+        this.hubThreshold = hubThreshold;
+    }
+
+    /**
+     * Records the references and primary key values of an object.
+     *
+     * @param obj an object from the source
+     */
+    public void add(FastPathObject obj) {
+        if (finished) {
+            throw new IllegalStateException("Cannot add objects after finish() has been called");
+        }
+        Integer id = null;
+        if (obj instanceof InterMineObject) {
+            id = ((InterMineObject) obj).getId();
+        }
+        int first = -1;
+        try {
+            for (FieldDescriptor field : model.getFieldDescriptorsForClass(obj.getClass())
+                    .values()) {
+                int relationType = field.relationType();
+                if ((relationType == FieldDescriptor.N_ONE_RELATION)
+                        || (relationType == FieldDescriptor.ONE_ONE_RELATION)) {
+                    Object target = obj.getFieldProxy(field.getName());
+                    if (target instanceof InterMineObject) {
+                        first = addReference(id, first, ((InterMineObject) target).getId());
+                    }
+                } else if (relationType == FieldDescriptor.M_N_RELATION) {
+                    @SuppressWarnings("unchecked") Iterable<Object> col = (Iterable<Object>) obj
+                        .getFieldValue(field.getName());
+                    for (Object target : col) {
+                        if (target instanceof InterMineObject) {
+                            first = addReference(id, first, ((InterMineObject) target).getId());
+                        }
+                    }
+                }
+            }
+            if (id != null) {
+                objectCount++;
+                addKeys((InterMineObject) obj);
+            }
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException("Could not read fields of object " + obj, e);
+        }
+    }
+
+    /**
+     * Records a reference. An object without an ID is only ever stored as part of the objects it
+     * refers to, so those objects are tied together instead.
+     */
+    private int addReference(Integer from, int first, Integer to) {
+        if ((to == null) || (to.intValue() == -1)) {
+            return first;
+        }
+        if (from != null) {
+            addEdge(from.intValue(), to.intValue());
+            int count = inDegree.get(to.intValue());
+            inDegree.put(to.intValue(), count == -1 ? 1 : count + 1);
+            return first;
+        }
+        if (first == -1) {
+            return to.intValue();
+        }
+        addEdge(first, to.intValue());
+        return first;
+    }
+
+    private void addEdge(int from, int to) {
+        if (edgeCount == edges.length) {
+            edges = Arrays.copyOf(edges, edges.length * 2);
+        }
+        edges[edgeCount++] = (((long) from) << 32) | (to & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Records a hash of the value of each primary key of an object. A hash collision only makes
+     * the partitions larger than necessary.
+     */
+    private void addKeys(InterMineObject obj) throws IllegalAccessException {
+        for (ClassDescriptor cld : model.getClassDescriptorsForClass(obj.getClass())) {
+            Set<PrimaryKey> primaryKeys;
+            try {
+                primaryKeys = DataLoaderHelper.getPrimaryKeys(cld, source, lookupOs);
+            } catch (IllegalArgumentException e) {
+                // No keys file - no problem
+                continue;
+            }
+            for (PrimaryKey pk : primaryKeys) {
+                int hash = cld.getName().hashCode() * 31 + pk.getName().hashCode();
+                boolean complete = true;
+                for (String fieldName : pk.getFieldNames()) {
+                    FieldDescriptor fd = cld.getFieldDescriptorByName(fieldName);
+                    Object value;
+                    if (fd instanceof AttributeDescriptor) {
+                        value = obj.getFieldValue(fieldName);
+                    } else {
+                        Object target = obj.getFieldProxy(fieldName);
+                        value = (target == null ? null : ((InterMineObject) target).getId());
+                    }
+                    if (value == null) {
+                        complete = false;
+                        break;
+                    }
+                    hash = hash * 31 + value.hashCode();
+                }
+                if (complete) {
+                    if (keyCount == keys.length) {
+                        keys = Arrays.copyOf(keys, keys.length * 2);
+                    }
+                    keys[keyCount++] = (((long) hash) << 32) | (obj.getId().intValue()
+                            & 0xFFFFFFFFL);
+                }
+            }
+        }
+    }
+
+    /**
+     * Works out the hubs and partitions, once all the objects have been added.
+     */
+    public void finish() {
+        finished = true;
+        Arrays.sort(keys, 0, keyCount);
+        // Find the hubs, and everything they refer to or share a key with
+        for (int i = 0; i < edgeCount; i++) {
+            int to = (int) edges[i];
+            if ((inDegree.get(to) >= hubThreshold) && (!hubs.contains(to))) {
+                addHub(to);
+            }
+        }
+        inDegree = null;
+        boolean changed = hubs.size() > 0;
+        while (changed) {
+            changed = false;
+            for (int i = 0; i < edgeCount; i++) {
+                int from = (int) (edges[i] >> 32);
+                int to = (int) edges[i];
+                if (hubs.contains(from) && (!hubs.contains(to))) {
+                    addHub(to);
+                    changed = true;
+                }
+            }
+            int start = 0;
+            while (start < keyCount) {
+                int end = endOfKeyGroup(start);
+                boolean anyHub = false;
+                boolean allHub = true;
+                for (int i = start; i < end; i++) {
+                    boolean hub = hubs.contains((int) keys[i]);
+                    anyHub = anyHub || hub;
+                    allHub = allHub && hub;
+                }
+                if (anyHub && (!allHub)) {
+                    for (int i = start; i < end; i++) {
+                        if (!hubs.contains((int) keys[i])) {
+                            addHub((int) keys[i]);
+                        }
+                    }
+                    changed = true;
+                }
+                start = end;
+            }
+        }
+        for (int i = 0; i < edgeCount; i++) {
+            int from = (int) (edges[i] >> 32);
+            int to = (int) edges[i];
+            if ((!hubs.contains(from)) && (!hubs.contains(to))) {
+                union(from, to);
+            }
+        }
+        edges = null;
+        int start = 0;
+        while (start < keyCount) {
+            int end = endOfKeyGroup(start);
+            for (int i = start + 1; i < end; i++) {
+                union((int) keys[start], (int) keys[i]);
+            }
+            start = end;
+        }
+        keys = null;
+    }
+
+    private void addHub(int id) {
+        hubs.set(id, true);
+        hubIds.add(new Integer(id));
+    }
+
+    private int endOfKeyGroup(int start) {
+        int end = start + 1;
+        while ((end < keyCount) && ((keys[end] >> 32) == (keys[start] >> 32))) {
+            end++;
+        }
+        return end;
+    }
+
+    private int find(int id) {
+        int root = id;
+        int next = parent.get(root);
+        while (next != -1) {
+            root = next;
+            next = parent.get(root);
+        }
+        // Path compression
+        while (id != root) {
+            next = parent.get(id);
+            parent.put(id, root);
+            id = next;
+        }
+        return root;
+    }
+
+    private void union(int a, int b) {
+        int rootA = find(a);
+        int rootB = find(b);
+        if (rootA != rootB) {
+            if (rootA < rootB) {
+                parent.put(rootB, rootA);
+            } else {
+                parent.put(rootA, rootB);
+            }
+            unionCount++;
+        }
+    }
+
+    /**
+     * Returns whether the object with the given source ID is a hub.
+     *
+     * @param id a source object ID
+     * @return true if the object must be stored before any partition
+     */
+    public boolean isHub(int id) {
+        return hubs.contains(id);
+    }
+
+    /**
+     * Returns the number of hub objects.
+     *
+     * @return an int
+     */
+    public int getHubCount() {
+        return hubs.size();
+    }
+
+    /**
+     * Returns the source IDs of the hub objects. Some of these may be objects that are referred to
+     * but are not in the source.
+     *
+     * @return a sorted Set of IDs
+     */
+    public Set<Integer> getHubs() {
+        return hubIds;
+    }
+
+    /**
+     * Returns the number of independent partitions found among the objects that are not hubs.
+     *
+     * @return an int
+     */
+    public int getPartitionCount() {
+        return objectCount - hubs.size() - unionCount;
+    }
+
+    /**
+     * Returns which of a number of buckets an object should be stored in. Objects in the same
+     * partition always go to the same bucket. Objects without an ID go with the objects they
+     * refer to.
+     *
+     * @param obj an object that was added, which is not a hub
+     * @param buckets the number of buckets
+     * @return a number from zero to buckets - 1
+     */
+    public int getPartition(FastPathObject obj, int buckets) {
+        int id = -1;
+        if ((obj instanceof InterMineObject) && (((InterMineObject) obj).getId() != null)) {
+            id = ((InterMineObject) obj).getId().intValue();
+        } else {
+            try {
+                for (Map.Entry<String, FieldDescriptor> entry : model
+                        .getFieldDescriptorsForClass(obj.getClass()).entrySet()) {
+                    if (entry.getValue().isReference()) {
+                        Object target = obj.getFieldProxy(entry.getKey());
+                        if ((target instanceof InterMineObject)
+                                && (((InterMineObject) target).getId() != null)
+                                && (!hubs.contains(((InterMineObject) target).getId()))) {
+                            id = ((InterMineObject) target).getId().intValue();
+                            break;
+                        }
+                    }
+                }
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException("Could not read fields of object " + obj, e);
+            }
+            if (id == -1) {
+                return 0;
+            }
+        }
+        int root = find(id) * 0x9E3779B1;
+        return (root >>> 1) % buckets;
+    }
+}
@@ -31,6 +31,7 @@ public class ConverterTask extends DynamicAttributeTask
     private String modelName = null;
     private String osName;
     private String excludeList;
+    private String itemFile = null;
 
     /**
      * Set the objectstore name
@@ -40,6 +41,22 @@ public class ConverterTask extends DynamicAttributeTask
         this.osName = osName;
     }
 
+    /**
+     * Set a file to write the Items to instead of the objectstore. An empty value is ignored.
+     * @param itemFile the name of the item file
+     */
+    public void setItemFile(String itemFile) {
+        this.itemFile = ("".equals(itemFile) ? null : itemFile);
+    }
+
+    /**
+     * Return the item file set by setItemFile().
+     * @return the name of the item file, or null if Items are written to the objectstore
+     */
+    public String getItemFile() {
+        return itemFile;
+    }
+
     /**
      * Sets the list of classes to NOT try and convert
      * @param excludeList the suitably formatted list of classes to exclude.
@@ -31,6 +31,7 @@ public abstract class DirectDataLoaderTask extends Task
     protected String sourceName;
     private String sourceType;
     private boolean ignoreDuplicates = false;
+    private boolean bulk = false;
     private DirectDataLoader directDataLoader;
     private IntegrationWriter iw;
 
@@ -70,6 +71,17 @@ public abstract class DirectDataLoaderTask extends Task
         this.ignoreDuplicates = ignoreDuplicates;
     }
 
+    /**
+     * Set whether objects of classes with no primary keys for this source should be written
+     * directly to the ObjectStoreWriter instead of going through the IntegrationWriter.
+     *
+     * @param bulk true to load in bulk mode
+     * @see DirectDataLoader#setBulk(boolean)
+     */
+    public void setBulk(boolean bulk) {
+        this.bulk = bulk;
+    }
+
 
     /**
      * Return the IntegrationWriter for this task.
@@ -98,6 +110,7 @@ public abstract class DirectDataLoaderTask extends Task
     public DirectDataLoader getDirectDataLoader() throws ObjectStoreException {
         if (directDataLoader == null) {
             directDataLoader = new DirectDataLoader(getIntegrationWriter(), sourceName, sourceType);
+            directDataLoader.setBulk(bulk);
         }
         return directDataLoader;
     }
@@ -0,0 +1,188 @@
+package org.intermine.dataconversion;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.intermine.metadata.Model;
+import org.intermine.model.fulldata.Attribute;
+import org.intermine.model.fulldata.Item;
+import org.intermine.model.fulldata.Reference;
+import org.intermine.model.fulldata.ReferenceList;
+import org.intermine.model.testmodel.Address;
+import org.intermine.model.testmodel.Company;
+import org.intermine.model.testmodel.Department;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.query.BagConstraint;
+import org.intermine.objectstore.query.ConstraintOp;
+import org.intermine.objectstore.query.ConstraintSet;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.QueryField;
+import org.intermine.objectstore.query.QueryValue;
+import org.intermine.objectstore.query.SimpleConstraint;
+import org.intermine.objectstore.translating.ObjectStoreTranslatingImpl;
+
+public class FileItemWriterTest extends TestCase
+{
+    private File file;
+    private ItemFileObjectStore os;
+
+    public FileItemWriterTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        file = File.createTempFile("items", ".dat");
+        FileItemWriter writer = new FileItemWriter(file);
+        Item company = item("0_1", "Company");
+        company.addAttributes(attribute("name", "CompanyA"));
+        company.addReferences(reference("address", "1_1"));
+        writer.store(company);
+        writer.store(item("1_1", "Address"));
+        Item department = item("2_4", "Department");
+        department.addAttributes(attribute("name", "DepartmentA"));
+        writer.store(department);
+        Item department2 = item("2_5", "Department");
+        writer.store(department2);
+        // Stored after the Items themselves, as converters do
+        writer.store(attribute("name", "DepartmentB"), department2.getId());
+        writer.store(reference("company", "0_1"), department.getId());
+        ReferenceList departments = new ReferenceList();
+        departments.setName("departments");
+        departments.setRefIds("2_4 2_5");
+        writer.store(departments, company.getId());
+        writer.store(attribute("address", "Address A"), new Integer(2));
+        assertEquals(4, writer.getItemCount());
+        writer.close();
+        os = new ItemFileObjectStore(file);
+    }
+
+    public void tearDown() throws Exception {
+        os.close();
+        file.delete();
+    }
+
+    private static Item item(String identifier, String className) {
+        Item item = new Item();
+        item.setIdentifier(identifier);
+        item.setClassName(className);
+        item.setImplementations("");
+        return item;
+    }
+
+    private static Attribute attribute(String name, String value) {
+        Attribute att = new Attribute();
+        att.setName(name);
+        att.setValue(value);
+        return att;
+    }
+
+    private static Reference reference(String name, String refId) {
+        Reference ref = new Reference();
+        ref.setName(name);
+        ref.setRefId(refId);
+        return ref;
+    }
+
+    private static String getAttribute(Item item, String name) {
+        for (Attribute att : item.getAttributes()) {
+            if (name.equals(att.getName())) {
+                return att.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static Query itemQuery() {
+        Query q = new Query();
+        QueryClass qc = new QueryClass(Item.class);
+        q.addFrom(qc);
+        q.addToSelect(qc);
+        return q;
+    }
+
+    public void testReadItems() throws Exception {
+        assertEquals(4, os.getItemCount());
+        Query q = itemQuery();
+        List<?> results = os.executeSingleton(q);
+        assertEquals(4, results.size());
+        Item company = (Item) results.get(0);
+        assertEquals("0_1", company.getIdentifier());
+        assertEquals("CompanyA", getAttribute(company, "name"));
+        assertEquals(1, company.getReferences().size());
+        assertEquals("1_1", company.getReferences().iterator().next().getRefId());
+        assertEquals(1, company.getCollections().size());
+        assertEquals("2_4 2_5", company.getCollections().iterator().next().getRefIds());
+        assertEquals("Address A", getAttribute((Item) results.get(1), "address"));
+        assertEquals("DepartmentB", getAttribute((Item) results.get(3), "name"));
+    }
+
+    public void testClose() throws Exception {
+        assertEquals(1, os.findItem("0_1"));
+        os.close();
+        try {
+            os.findItem("0_1");
+            fail("Expected: IllegalStateException");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+        // Closing twice does nothing
+        os.close();
+    }
+
+    public void testQueries() throws Exception {
+        Query q = itemQuery();
+        QueryClass qc = (QueryClass) q.getSelect().get(0);
+        q.setConstraint(new BagConstraint(new QueryField(qc, "identifier"), ConstraintOp.IN,
+                    Arrays.asList("2_5", "1_1", "9_9")));
+        List<?> results = os.executeSingleton(q);
+        assertEquals(2, results.size());
+        assertEquals("1_1", ((Item) results.get(0)).getIdentifier());
+        assertEquals("2_5", ((Item) results.get(1)).getIdentifier());
+
+        ConstraintSet cs = new ConstraintSet(ConstraintOp.AND);
+        cs.addConstraint(new SimpleConstraint(new QueryField(qc, "className"),
+                    ConstraintOp.EQUALS, new QueryValue("Department")));
+        cs.addConstraint(new BagConstraint(new QueryField(qc, "identifier"), ConstraintOp.IN,
+                    Arrays.asList("0_1", "2_4")));
+        q.setConstraint(cs);
+        results = os.executeSingleton(q);
+        assertEquals(1, results.size());
+        assertEquals("2_4", ((Item) results.get(0)).getIdentifier());
+        assertEquals(3, os.findItem("2_4"));
+        assertEquals(-1, os.findItem("2_6"));
+    }
+
+    public void testTranslate() throws Exception {
+        Map<String, Integer> namespaces = os.getNamespaces();
+        assertEquals(new Integer(1), namespaces.get("0"));
+        assertEquals(new Integer(5), namespaces.get("2"));
+
+        Model model = Model.getInstanceByName("testmodel");
+        ItemToObjectTranslator translator = new ItemToObjectTranslator(model, os);
+        ObjectStore translated = new ObjectStoreTranslatingImpl(model, os, translator);
+        Integer companyId = translator.identifierToId("0_1");
+        Company company = (Company) translated.getObjectById(companyId, Company.class);
+        assertEquals("CompanyA", company.getName());
+        Address address = company.getAddress();
+        assertEquals("Address A", address.getAddress());
+        assertEquals(2, company.getDepartments().size());
+        Department department = (Department) translated.getObjectById(translator
+                .identifierToId("2_4"), Department.class);
+        assertEquals(companyId, department.getCompany().getId());
+    }
+}
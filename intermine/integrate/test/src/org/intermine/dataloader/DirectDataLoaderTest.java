@@ -0,0 +1,211 @@
+package org.intermine.dataloader;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.intermine.metadata.Model;
+import org.intermine.model.InterMineObject;
+import org.intermine.model.testmodel.Bank;
+import org.intermine.model.testmodel.Company;
+import org.intermine.model.testmodel.Contractor;
+import org.intermine.model.testmodel.Employee;
+import org.intermine.model.testmodel.Range;
+import org.intermine.model.testmodel.Types;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.ObjectStoreWriter;
+import org.intermine.objectstore.ObjectStoreWriterFactory;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.SingletonResults;
+
+public class DirectDataLoaderTest extends TestCase
+{
+    // The benchmark only runs if this is set, eg. -Ddirectdataloader.benchmark.count=10000000
+    private static final int BENCHMARK_COUNT =
+        Integer.getInteger("directdataloader.benchmark.count", 0).intValue();
+
+    private Model model;
+    private IntegrationWriter iw;
+
+    public DirectDataLoaderTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        model = Model.getInstanceByName("testmodel");
+    }
+
+    public void tearDown() throws Exception {
+        if (iw == null) {
+            return;
+        }
+        if (iw.isInTransaction()) {
+            iw.abortTransaction();
+        }
+        iw.close();
+        ObjectStoreWriter osw = ObjectStoreWriterFactory.getObjectStoreWriter("osw.unittest");
+        Query q = new Query();
+        QueryClass qc = new QueryClass(InterMineObject.class);
+        q.addFrom(qc);
+        q.addToSelect(qc);
+        SingletonResults res = osw.getObjectStore().executeSingleton(q);
+        osw.beginTransaction();
+        for (Object o : res) {
+            osw.delete((InterMineObject) o);
+        }
+        osw.commitTransaction();
+        osw.close();
+    }
+
+    public void testHasPrimaryKeys() throws Exception {
+        Source source = new Source("testsource");
+        assertTrue(DirectDataLoader.hasPrimaryKeys(model, Company.class, source, null));
+        // Employable.key is inherited
+        assertTrue(DirectDataLoader.hasPrimaryKeys(model, Employee.class, source, null));
+        assertTrue(DirectDataLoader.hasPrimaryKeys(model, Contractor.class, source, null));
+        assertFalse(DirectDataLoader.hasPrimaryKeys(model, Bank.class, source, null));
+        assertFalse(DirectDataLoader.hasPrimaryKeys(model, Range.class, source, null));
+        assertFalse(DirectDataLoader.hasPrimaryKeys(model, Company.class, new Source("nokeys"),
+                    null));
+    }
+
+    public void testBulkStore() throws Exception {
+        iw = IntegrationWriterFactory.getIntegrationWriter("integration.unittestmulti");
+        iw.beginTransaction();
+        DirectDataLoader loader = new DirectDataLoader(iw, "testsource", "testsource");
+        loader.setBulk(true);
+
+        Company company = loader.createObject(Company.class);
+        company.setName("CompanyA");
+        company.setVatNumber(1234);
+        loader.store(company);
+        Range range = loader.createObject(Range.class);
+        range.setName("Range1");
+        range.setParent(company);
+        loader.store(range);
+        // A Bank stored before the Company that refers to it
+        Bank bank = loader.createObject(Bank.class);
+        bank.setName("BankA");
+        loader.store(bank);
+        Company company2 = loader.createObject(Company.class);
+        company2.setName("CompanyB");
+        company2.setVatNumber(5678);
+        company2.setBank(bank);
+        loader.store(company2);
+        // A Range stored before the Company it refers to goes through the IntegrationWriter
+        Company company3 = loader.createObject(Company.class);
+        company3.setName("CompanyC");
+        company3.setVatNumber(9012);
+        Range range2 = loader.createObject(Range.class);
+        range2.setName("Range2");
+        range2.setParent(company3);
+        loader.store(range2);
+        loader.store(company3);
+        iw.commitTransaction();
+
+        ObjectStore os = iw.getObjectStore();
+        Bank storedBank = (Bank) os.getObjectById(bank.getId(), Bank.class);
+        assertEquals("BankA", storedBank.getName());
+        assertEquals(1, storedBank.getCorporateCustomers().size());
+        assertEquals("CompanyB", storedBank.getCorporateCustomers().iterator().next().getName());
+        Range storedRange = (Range) os.getObjectById(range.getId(), Range.class);
+        assertEquals("Range1", storedRange.getName());
+        assertEquals("CompanyA", storedRange.getParent().getName());
+        List<?> ranges = iw.getObjectStore().executeSingleton(rangeQuery());
+        assertEquals(2, ranges.size());
+        for (Object o : ranges) {
+            Range r = (Range) o;
+            if ("Range2".equals(r.getName())) {
+                assertEquals("CompanyC", r.getParent().getName());
+            }
+        }
+    }
+
+    public void testBulkStoreTwice() throws Exception {
+        iw = IntegrationWriterFactory.getIntegrationWriter("integration.unittestmulti");
+        iw.beginTransaction();
+        DirectDataLoader loader = new DirectDataLoader(iw, "testsource", "testsource");
+        loader.setBulk(true);
+
+        Company company = loader.createObject(Company.class);
+        company.setName("CompanyA");
+        company.setVatNumber(1234);
+        loader.store(company);
+        Range range = loader.createObject(Range.class);
+        range.setName("Range1");
+        range.setParent(company);
+        loader.store(range);
+        range.setName("Range1b");
+        loader.store(range);
+        iw.commitTransaction();
+
+        List<?> ranges = iw.getObjectStore().executeSingleton(rangeQuery());
+        assertEquals(1, ranges.size());
+        Range storedRange = (Range) ranges.get(0);
+        assertEquals(range.getId(), storedRange.getId());
+        assertEquals("Range1b", storedRange.getName());
+        assertEquals("CompanyA", storedRange.getParent().getName());
+    }
+
+    public void testBenchmark() throws Exception {
+        if (BENCHMARK_COUNT == 0) {
+            return;
+        }
+        long normal = load(false);
+        long bulk = load(true);
+        System.out.println("Stored " + BENCHMARK_COUNT + " objects through the IntegrationWriter"
+                + " in " + normal + " ms, and in bulk in " + bulk + " ms");
+        assertEquals(2 * BENCHMARK_COUNT, iw.getObjectStore().count(typesQuery(),
+                    ObjectStore.SEQUENCE_IGNORE));
+    }
+
+    /**
+     * Loads BENCHMARK_COUNT objects with a new IntegrationWriter, as each source would be.
+     */
+    private long load(boolean bulk) throws Exception {
+        if (iw != null) {
+            iw.close();
+        }
+        iw = IntegrationWriterFactory.getIntegrationWriter("integration.unittestmulti");
+        long start = System.currentTimeMillis();
+        iw.beginTransaction();
+        DirectDataLoader loader = new DirectDataLoader(iw, "testsource", "testsource");
+        loader.setBulk(bulk);
+        for (int i = 0; i < BENCHMARK_COUNT; i++) {
+            Types types = loader.createObject(Types.class);
+            types.setName("Types" + i);
+            types.setIntType(i);
+            types.setDoubleType(i / 7.0);
+            loader.store(types);
+        }
+        iw.commitTransaction();
+        return System.currentTimeMillis() - start;
+    }
+
+    private static Query rangeQuery() {
+        Query q = new Query();
+        QueryClass qc = new QueryClass(Range.class);
+        q.addFrom(qc);
+        q.addToSelect(qc);
+        return q;
+    }
+
+    private static Query typesQuery() {
+        Query q = new Query();
+        QueryClass qc = new QueryClass(Types.class);
+        q.addFrom(qc);
+        q.addToSelect(qc);
+        return q;
+    }
+}
@@ -0,0 +1,73 @@
+package org.intermine.dataloader;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import junit.framework.TestCase;
+
+public class ObjectDescriptionTest extends TestCase
+{
+    private Source source1 = new Source("source1", "type", false);
+    private Source source2 = new Source("source2", "type", false);
+
+    public ObjectDescriptionTest(String arg) {
+        super(arg);
+    }
+
+    public void testCleanAndDirty() throws Exception {
+        ObjectDescription desc = new ObjectDescription();
+        desc.putClean("name", source1);
+        desc.putClean("address", source1);
+        assertFalse(desc.isDirty());
+        assertEquals(source1, desc.getSource("name"));
+        assertNull(desc.getSource("age"));
+        assertNull(desc.getNewData());
+
+        desc.put("name", source2);
+        desc.put("age", source2);
+        assertTrue(desc.isDirty());
+        assertEquals(source2, desc.getSource("name"));
+        assertEquals(source1, desc.getSource("address"));
+        assertEquals(source2, desc.getSource("age"));
+        assertEquals(3, desc.getFieldCount());
+        assertEquals(2, desc.getNewData().size());
+        assertEquals("age", desc.getFieldName(2));
+        assertNull(desc.getOrigSource(2));
+        assertNull(desc.getNewSource(1));
+        try {
+            desc.putClean("other", source1);
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        ObjectDescription copy = new ObjectDescription(desc);
+        desc.clean();
+        assertFalse(desc.isDirty());
+        assertEquals(source2, desc.getSource("name"));
+        assertEquals(source2, desc.getOrig().get("age"));
+        assertEquals(3, desc.getOrig().size());
+
+        // The copy is unaffected
+        assertTrue(copy.isDirty());
+        assertEquals(source1, copy.getOrig().get("name"));
+        assertEquals(2, copy.getOrig().size());
+    }
+
+    public void testEmpty() throws Exception {
+        ObjectDescription desc = new ObjectDescription();
+        assertNull(desc.getSource("name"));
+        assertEquals(0, desc.getOrig().size());
+        ObjectDescription copy = new ObjectDescription(desc);
+        copy.put("name", source1);
+        assertEquals(source1, copy.getSource("name"));
+        assertNull(desc.getSource("name"));
+    }
+}
@@ -0,0 +1,219 @@
+package org.intermine.dataloader;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+import org.intermine.metadata.AttributeDescriptor;
+import org.intermine.metadata.CollectionDescriptor;
+import org.intermine.metadata.FieldDescriptor;
+import org.intermine.metadata.Model;
+import org.intermine.model.FastPathObject;
+import org.intermine.model.InterMineObject;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.dummy.ObjectStoreDummyImpl;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.ResultsRow;
+import org.intermine.util.DynamicUtil;
+import org.intermine.util.PropertiesUtil;
+import org.intermine.util.XmlBinding;
+
+/**
+ * Tests that loading the testmodel data with a ParallelStoreLoop stores the same objects, with
+ * the same DataTracker sources, as loading it with one thread.
+ */
+public class ParallelStoreLoopTest extends TestCase
+{
+    private Model model;
+    private Map<Integer, InterMineObject> data;
+
+    public ParallelStoreLoopTest(String arg) {
+        super(arg);
+    }
+
+    @Override
+    public void setUp() throws Exception {
+        model = Model.getInstanceByName("testmodel");
+        List<FastPathObject> objects = new XmlBinding(model).unmarshal(
+                getClass().getClassLoader().getResourceAsStream("testmodel_data.xml"));
+        data = new HashMap<Integer, InterMineObject>();
+        int id = 1;
+        for (FastPathObject o : objects) {
+            if (o instanceof InterMineObject) {
+                InterMineObject imo = (InterMineObject) o;
+                imo.setId(new Integer(id++));
+                data.put(imo.getId(), imo);
+            }
+        }
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        Properties props = PropertiesUtil.getProperties();
+        props.remove("dataLoader.parallelWorkers");
+        props.remove("dataLoader.hubThreshold");
+        IntegrationWriterDataTrackingImpl iw = getIntegrationWriter();
+        try {
+            removeData(iw);
+        } finally {
+            iw.close();
+        }
+    }
+
+    public void testParallelLoadMatchesSerialLoad() throws Exception {
+        List<String> serial = load(1);
+        IntegrationWriterDataTrackingImpl iw = getIntegrationWriter();
+        try {
+            removeData(iw);
+        } finally {
+            iw.close();
+        }
+        List<String> parallel = load(3);
+        assertFalse(serial.isEmpty());
+        assertEquals(serial, parallel);
+    }
+
+    /**
+     * Loads the data with an ObjectStoreDataLoader, and describes what was stored.
+     */
+    private List<String> load(int workers) throws Exception {
+        Properties props = PropertiesUtil.getProperties();
+        if (workers > 1) {
+            props.setProperty("dataLoader.parallelWorkers", "" + workers);
+            // Small enough that the companies are stored as hubs
+            props.setProperty("dataLoader.hubThreshold", "3");
+        } else {
+            props.remove("dataLoader.parallelWorkers");
+        }
+        IntegrationWriterDataTrackingImpl iw = getIntegrationWriter();
+        Source source = iw.getMainSource("storedata", "storedata");
+        Source skelSource = iw.getSkeletonSource("storedata", "storedata");
+        long start = System.currentTimeMillis();
+        new ObjectStoreDataLoader(iw).process(getSourceObjectStore(), source, skelSource);
+        if (workers <= 1) {
+            // The parallel loop closes the IntegrationWriter itself
+            iw.close();
+        }
+        long time = Math.max(1, System.currentTimeMillis() - start);
+        System.out.println("Stored " + data.size() + " objects with " + workers + " worker"
+                + (workers == 1 ? "" : "s") + " in " + time + " ms - "
+                + (60000L * data.size() / time) + " objects per minute");
+        iw = getIntegrationWriter();
+        try {
+            return describe(iw);
+        } finally {
+            iw.close();
+        }
+    }
+
+    private ObjectStore getSourceObjectStore() {
+        ObjectStoreDummyImpl os = new ObjectStoreDummyImpl() {
+            @Override
+            public List<InterMineObject> getObjectsByIds(Collection<Integer> ids) {
+                List<InterMineObject> retval = new ArrayList<InterMineObject>();
+                for (Integer id : ids) {
+                    retval.add(data.get(id));
+                }
+                return retval;
+            }
+        };
+        os.setModel(model);
+        for (InterMineObject o : new TreeMap<Integer, InterMineObject>(data).values()) {
+            ResultsRow<Object> row = new ResultsRow<Object>();
+            row.add(o);
+            os.addRow(row);
+        }
+        os.setResultsSize(data.size());
+        return os;
+    }
+
+    /**
+     * Describes every object in the destination without its ID, with the source of each field.
+     */
+    private List<String> describe(IntegrationWriterDataTrackingImpl iw) throws Exception {
+        Query q = new Query();
+        QueryClass qc = new QueryClass(InterMineObject.class);
+        q.addFrom(qc);
+        q.addToSelect(qc);
+        List<String> retval = new ArrayList<String>();
+        for (Object o : iw.getObjectStore().executeSingleton(q)) {
+            InterMineObject obj = (InterMineObject) o;
+            StringBuffer sb = new StringBuffer(label(obj));
+            for (FieldDescriptor field : fields(obj)) {
+                String name = field.getName();
+                if ("id".equals(name)) {
+                    continue;
+                } else if (field instanceof CollectionDescriptor) {
+                    List<String> labels = new ArrayList<String>();
+                    @SuppressWarnings("unchecked")
+                    Collection<InterMineObject> coll =
+                        (Collection<InterMineObject>) obj.getFieldValue(name);
+                    for (InterMineObject target : coll) {
+                        labels.add(label(target));
+                    }
+                    Collections.sort(labels);
+                    sb.append(" ").append(name).append("=").append(labels);
+                } else if (!(field instanceof AttributeDescriptor)) {
+                    InterMineObject target = (InterMineObject) obj.getFieldValue(name);
+                    sb.append(" ").append(name).append("=")
+                        .append(target == null ? null : label(target));
+                }
+                if (!(field instanceof CollectionDescriptor)) {
+                    Source source = iw.getDataTracker().getSource(obj.getId(), name);
+                    sb.append(" ").append(name).append("@")
+                        .append(source == null ? null : source.getName());
+                }
+            }
+            retval.add(sb.toString());
+        }
+        Collections.sort(retval);
+        return retval;
+    }
+
+    /**
+     * Describes an object by its class and attributes.
+     */
+    private String label(InterMineObject obj) throws Exception {
+        StringBuffer sb = new StringBuffer(DynamicUtil.getFriendlyName(obj.getClass()));
+        for (FieldDescriptor field : fields(obj)) {
+            if ((field instanceof AttributeDescriptor) && (!"id".equals(field.getName()))) {
+                sb.append(" ").append(field.getName()).append("=")
+                    .append(obj.getFieldValue(field.getName()));
+            }
+        }
+        return sb.toString();
+    }
+
+    private Collection<FieldDescriptor> fields(InterMineObject obj) {
+        return new TreeMap<String, FieldDescriptor>(model.getFieldDescriptorsForClass(
+                    obj.getClass())).values();
+    }
+
+    private static IntegrationWriterDataTrackingImpl getIntegrationWriter() throws Exception {
+        return (IntegrationWriterDataTrackingImpl) IntegrationWriterFactory.getIntegrationWriter(
+                "integration.unittestmulti");
+    }
+
+    private static void removeData(IntegrationWriterDataTrackingImpl iw) throws Exception {
+        iw.getDataTracker().clear();
+        IntegrationWriterDataTrackingImplTest.removeDataFromStore(iw.getObjectStoreWriter());
+    }
+}
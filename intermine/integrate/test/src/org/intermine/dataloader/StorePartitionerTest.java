@@ -0,0 +1,150 @@
+package org.intermine.dataloader;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+import org.intermine.metadata.Model;
+import org.intermine.model.InterMineObject;
+import org.intermine.model.testmodel.Address;
+import org.intermine.model.testmodel.Company;
+import org.intermine.model.testmodel.Department;
+import org.intermine.model.testmodel.Employee;
+import org.intermine.util.DynamicUtil;
+
+public class StorePartitionerTest extends TestCase
+{
+    private static final int BUCKETS = 1000;
+
+    private Model model;
+    private Source source;
+
+    public StorePartitionerTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        model = Model.getInstanceByName("testmodel");
+        source = new Source("testsource");
+    }
+
+    private Company company(int id, String name, Address address) {
+        Company c = (Company) DynamicUtil.createObject(Collections.singleton(Company.class));
+        c.setId(new Integer(id));
+        c.setName(name);
+        c.setAddress(address);
+        return c;
+    }
+
+    private Address address(int id, String text) {
+        Address a = new Address();
+        a.setId(new Integer(id));
+        a.setAddress(text);
+        return a;
+    }
+
+    private Department department(int id, String name, Company company) {
+        Department d = new Department();
+        d.setId(new Integer(id));
+        d.setName(name);
+        d.setCompany(company);
+        return d;
+    }
+
+    private Employee employee(int id, String name, Department department) {
+        Employee e = new Employee();
+        e.setId(new Integer(id));
+        e.setName(name);
+        e.setDepartment(department);
+        return e;
+    }
+
+    private int partition(StorePartitioner partitioner, InterMineObject obj) {
+        return partitioner.getPartition(obj, BUCKETS);
+    }
+
+    public void testReferences() throws Exception {
+        Address a1 = address(1, "Address 1");
+        Address a2 = address(2, "Address 2");
+        Company c1 = company(3, "Company 1", a1);
+        Company c2 = company(4, "Company 2", a2);
+        Department d1 = department(5, "Sales", c1);
+        Department d2 = department(6, "Sales", c2);
+        Employee e1 = employee(7, "Employee 1", d1);
+        Employee e2 = employee(8, "Employee 2", d2);
+        StorePartitioner partitioner = new StorePartitioner(model, source, null, 1000);
+        for (InterMineObject obj : new InterMineObject[] {a1, a2, c1, c2, d1, d2, e1, e2}) {
+            partitioner.add(obj);
+        }
+        partitioner.finish();
+        assertEquals(0, partitioner.getHubCount());
+        assertEquals(2, partitioner.getPartitionCount());
+        assertEquals(partition(partitioner, a1), partition(partitioner, e1));
+        assertEquals(partition(partitioner, c1), partition(partitioner, d1));
+        assertEquals(partition(partitioner, a2), partition(partitioner, e2));
+        assertEquals(partition(partitioner, c2), partition(partitioner, d2));
+        assertTrue(partition(partitioner, e1) != partition(partitioner, e2));
+    }
+
+    public void testHubs() throws Exception {
+        Address a1 = address(1, "Address 1");
+        Company c1 = company(2, "Company 1", a1);
+        Company c2 = company(3, "Company 2", a1);
+        Department d1 = department(4, "Sales", c1);
+        Department d2 = department(5, "Sales", c2);
+        StorePartitioner partitioner = new StorePartitioner(model, source, null, 2);
+        for (InterMineObject obj : new InterMineObject[] {a1, c1, c2, d1, d2}) {
+            partitioner.add(obj);
+        }
+        partitioner.finish();
+        assertEquals(1, partitioner.getHubCount());
+        assertTrue(partitioner.isHub(1));
+        assertFalse(partitioner.isHub(2));
+        assertEquals(Collections.singleton(new Integer(1)), partitioner.getHubs());
+        assertEquals(2, partitioner.getPartitionCount());
+        assertEquals(partition(partitioner, c1), partition(partitioner, d1));
+        assertTrue(partition(partitioner, d1) != partition(partitioner, d2));
+    }
+
+    public void testHubClosure() throws Exception {
+        Address a1 = address(1, "Address 1");
+        Company c1 = company(2, "Company 1", a1);
+        Department d1 = department(3, "Sales", c1);
+        Department d2 = department(4, "Marketing", c1);
+        StorePartitioner partitioner = new StorePartitioner(model, source, null, 2);
+        for (InterMineObject obj : new InterMineObject[] {a1, c1, d1, d2}) {
+            partitioner.add(obj);
+        }
+        partitioner.finish();
+        // The company is a hub, so the address it refers to must be stored with it
+        assertEquals(2, partitioner.getHubCount());
+        assertTrue(partitioner.isHub(1));
+        assertTrue(partitioner.isHub(2));
+        assertEquals(2, partitioner.getPartitionCount());
+    }
+
+    public void testPrimaryKeys() throws Exception {
+        // Employable.key is name, so these may be merged with the same object in the database
+        Employee e1 = employee(1, "Fred", null);
+        Employee e2 = employee(2, "Fred", null);
+        Employee e3 = employee(3, "Bob", null);
+        StorePartitioner partitioner = new StorePartitioner(model, source, null, 1000);
+        for (InterMineObject obj : new InterMineObject[] {e1, e2, e3}) {
+            partitioner.add(obj);
+        }
+        partitioner.finish();
+        assertEquals(2, partitioner.getPartitionCount());
+        assertEquals(partition(partitioner, e1), partition(partitioner, e2));
+        assertTrue(partition(partitioner, e1) != partition(partitioner, e3));
+    }
+}
@@ -122,6 +122,7 @@ public class JavaModelOutput
                 }
             }
             sb.append("import org.intermine.objectstore.ObjectStore;" + ENDL);
+            sb.append("import org.intermine.objectstore.intermine.CompactObjectFormat;" + ENDL);
             sb.append("import org.intermine.objectstore.intermine.NotXmlParser;" + ENDL);
             sb.append("import org.intermine.objectstore.intermine.NotXmlRenderer;" + ENDL);
             if (hasCollections) {
@@ -641,7 +642,15 @@ public class JavaModelOutput
         sb.append(INDENT)
             .append("public void setoBJECT(String notXml, ObjectStore os) {\n")
             .append(INDENT + INDENT)
+            .append("if (CompactObjectFormat.isCompact(notXml)) {\n")
+            .append(INDENT + INDENT + INDENT)
+            .append("CompactObjectFormat.parseInto(this, notXml, os);\n")
+            .append(INDENT + INDENT)
+            .append("} else {\n")
+            .append(INDENT + INDENT + INDENT)
             .append("setoBJECT(NotXmlParser.SPLITTER.split(notXml), os);\n")
+            .append(INDENT + INDENT)
+            .append("}\n")
             .append(INDENT)
             .append("}\n")
             .append(INDENT)
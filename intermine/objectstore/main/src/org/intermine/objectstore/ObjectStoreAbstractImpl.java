@@ -26,6 +26,9 @@ import org.apache.log4j.Logger;
 import org.intermine.metadata.MetaDataException;
 import org.intermine.metadata.Model;
 import org.intermine.model.InterMineObject;
+import org.intermine.objectstore.cache.ObjectCache;
+import org.intermine.objectstore.cache.SoftObjectCache;
+import org.intermine.objectstore.cache.StripedObjectCache;
 import org.intermine.objectstore.query.Clob;
 import org.intermine.objectstore.query.ObjectStoreBag;
 import org.intermine.objectstore.query.Query;
@@ -33,7 +36,6 @@ import org.intermine.objectstore.query.QueryCreator;
 import org.intermine.objectstore.query.Results;
 import org.intermine.objectstore.query.ResultsRow;
 import org.intermine.objectstore.query.SingletonResults;
-import org.intermine.util.CacheMap;
 import org.intermine.util.PropertiesUtil;
 
 /**
@@ -53,7 +55,7 @@ public abstract class ObjectStoreAbstractImpl implements ObjectStore
     protected int maxOffset = Integer.MAX_VALUE;
     protected int maxLimit = Integer.MAX_VALUE;
     protected long maxTime = Long.MAX_VALUE;
-    protected CacheMap<Integer, InterMineObject> cache;
+    protected ObjectCache cache;
 
     protected int getObjectOps = 0;
     protected int getObjectHits = 0;
@@ -92,8 +94,69 @@ public abstract class ObjectStoreAbstractImpl implements ObjectStore
 
         LOG.info("Creating new " + getClass().getName() + " with sequence = " + sequenceNumber
                 + ", model = \"" + model.getName() + "\"");
-        cache = new CacheMap<Integer, InterMineObject>(getClass().getName() + " with sequence = "
-                + sequenceNumber + ", model = \"" + model.getName() + "\" getObjectById cache");
+        cache = createObjectCache(getClass().getName() + " with sequence = " + sequenceNumber
+                + ", model = \"" + model.getName() + "\" getObjectById cache", props);
+    }
+
+    /**
+     * Creates the getObjectById cache, configured by the os.query.object-cache properties:
+     * <ul>
+     * <li>object-cache.type - "soft" (the default) for a SoftObjectCache, which holds objects
+     * until the garbage collector needs the space, or "striped" for a bounded StripedObjectCache,
+     * which holds them strongly.  As the os.query properties apply to every ObjectStore,
+     * including writers and the stores of a build, a striped cache is best chosen for a single
+     * store, such as the production store of a webapp, with os.&lt;alias&gt;.object-cache.type
+     * (see ObjectStoreInterMineImpl)</li>
+     * <li>object-cache.max-entries - the maximum number of objects held by a striped cache</li>
+     * <li>object-cache.max-bytes - the maximum estimated size of the objects held by a striped
+     * cache</li>
+     * <li>object-cache.segments - the number of independently locked segments of a striped
+     * cache</li>
+     * </ul>
+     *
+     * @param name the name of the cache, for log messages and JMX
+     * @param props the os.query properties, with the prefix removed
+     * @return a new ObjectCache
+     */
+    protected static ObjectCache createObjectCache(String name, Properties props) {
+        String type = props.getProperty("object-cache.type", "soft");
+        if ("soft".equals(type)) {
+            return new SoftObjectCache(name);
+        } else if (!"striped".equals(type)) {
+            throw new IllegalArgumentException("Unknown os.query.object-cache.type \"" + type
+                    + "\" - should be \"striped\" or \"soft\"");
+        }
+        int maxEntries = StripedObjectCache.DEFAULT_MAX_ENTRIES;
+        long maxBytes = StripedObjectCache.DEFAULT_MAX_BYTES;
+        int segments = StripedObjectCache.DEFAULT_SEGMENTS;
+        if (props.get("object-cache.max-entries") != null) {
+            maxEntries = Integer.parseInt((String) props.get("object-cache.max-entries"));
+        }
+        if (props.get("object-cache.max-bytes") != null) {
+            maxBytes = Long.parseLong((String) props.get("object-cache.max-bytes"));
+        }
+        if (props.get("object-cache.segments") != null) {
+            segments = Integer.parseInt((String) props.get("object-cache.segments"));
+        }
+        return new StripedObjectCache(name, maxEntries, maxBytes, segments);
+    }
+
+    /**
+     * Returns the getObjectById cache of this ObjectStore.
+     *
+     * @return an ObjectCache
+     */
+    public ObjectCache getObjectCache() {
+        return cache;
+    }
+
+    /**
+     * Replaces the getObjectById cache of this ObjectStore. The new cache should be empty.
+     *
+     * @param cache an ObjectCache
+     */
+    public void setObjectCache(ObjectCache cache) {
+        this.cache = cache;
     }
 
     /**
@@ -185,30 +248,16 @@ public abstract class ObjectStoreAbstractImpl implements ObjectStore
             LOG.info("getObjectById called " + getObjectOps + " times. Cache hits: "
                     + getObjectHits + ". Prefetches: " + getObjectPrefetches);
         }
-        boolean contains = true;
-        InterMineObject cached = null;
-        synchronized (cache) {
-            cached = cache.get(id);
-            if (cached == null) {
-                contains = cache.containsKey(id);
-            }
-        }
-        if (contains) {
+        InterMineObject cached = cache.get(id);
+        if ((cached != null) || cache.containsKey(id)) {
             getObjectHits++;
             return cached;
         }
+        // Read the generation first, so that if the database is altered (and the cache flushed)
+        // while we are fetching the object, we do not cache a stale copy
+        long generation = cache.getGeneration();
         InterMineObject fromDb = internalGetObjectById(id, clazz);
-        synchronized (cache) {
-            cached = cache.get(id);
-            if (cached == null) {
-                contains = cache.containsKey(id);
-            }
-            if (contains) {
-                fromDb = cached;
-            } else {
-                cacheObjectById(id, fromDb);
-            }
-        }
+        fromDb = cache.cacheIfAbsent(id, fromDb, generation);
         return fromDb;
     }
 
@@ -290,18 +339,14 @@ public abstract class ObjectStoreAbstractImpl implements ObjectStore
      * {@inheritDoc}
      */
     public void invalidateObjectById(Integer id) {
-        synchronized (cache) {
-            cache.remove(id);
-        }
+        cache.remove(id);
     }
 
     /**
      * {@inheritDoc}
      */
     public Object cacheObjectById(Integer id, InterMineObject obj) {
-        synchronized (cache) {
-            cache.put(id, obj);
-        }
+        cache.put(id, obj);
         return obj;
     }
 
@@ -309,18 +354,14 @@ public abstract class ObjectStoreAbstractImpl implements ObjectStore
      * {@inheritDoc}
      */
     public void flushObjectById() {
-        synchronized (cache) {
-            cache.clear();
-        }
+        cache.clear();
     }
 
     /**
      * {@inheritDoc}
      */
     public InterMineObject pilferObjectById(Integer id) {
-        synchronized (cache) {
-            return cache.get(id);
-        }
+        return cache.get(id);
     }
 
     /**
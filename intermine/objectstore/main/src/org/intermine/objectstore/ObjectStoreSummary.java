@@ -10,6 +10,7 @@ package org.intermine.objectstore;
  *
  */
 
+import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -17,11 +18,17 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.log4j.Logger;
 import org.intermine.metadata.AttributeDescriptor;
@@ -31,6 +38,7 @@ import org.intermine.metadata.Model;
 import org.intermine.metadata.ReferenceDescriptor;
 import org.intermine.model.FastPathObject;
 import org.intermine.model.InterMineObject;
+import org.intermine.objectstore.query.ClobAccess;
 import org.intermine.objectstore.query.ConstraintOp;
 import org.intermine.objectstore.query.ConstraintSet;
 import org.intermine.objectstore.query.ContainsConstraint;
@@ -38,6 +46,7 @@ import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.QueryClass;
 import org.intermine.objectstore.query.QueryCollectionReference;
 import org.intermine.objectstore.query.QueryField;
+import org.intermine.objectstore.query.QueryForeignKey;
 import org.intermine.objectstore.query.QueryObjectReference;
 import org.intermine.objectstore.query.QueryReference;
 import org.intermine.objectstore.query.QueryValue;
@@ -73,6 +82,7 @@ public class ObjectStoreSummary
     static final String NULL_MARKER = "___NULL___";
     static final String FIELD_DELIM = "$_^";
     static final String MAX_FIELD_VALUES = "max.field.values";
+    static final String SUMMARY_THREADS = "summary.threads";
 
     /**
      * The default number of values to make available for UI dropdowns - attributes with more values
@@ -81,7 +91,9 @@ public class ObjectStoreSummary
     public static final int DEFAULT_MAX_VALUES = 200;
 
     /**
-     * Construct a summary from by running queries in the ObjectStore.
+     * Construct a summary from by running queries in the ObjectStore.  If summary.threads is set
+     * in the configuration each class table is read once, by that many threads at a time, instead
+     * of running a query for each field.
      *
      * @param os the objectstore
      * @param configuration the configuration for summarization
@@ -90,6 +102,18 @@ public class ObjectStoreSummary
      */
     public ObjectStoreSummary(ObjectStore os, Properties configuration)
         throws ClassNotFoundException, ObjectStoreException {
+        long startTime = System.currentTimeMillis();
+        String threadsString = (String) configuration.get(SUMMARY_THREADS);
+        if (threadsString == null) {
+            summariseByQueries(os, configuration);
+        } else {
+            summariseByScanning(os, configuration, Integer.parseInt(threadsString.trim()));
+        }
+        LOG.info("Summarised objectstore in " + (System.currentTimeMillis() - startTime) + "ms");
+    }
+
+    private void summariseByQueries(ObjectStore os, Properties configuration)
+        throws ObjectStoreException {
 
         // 1. get counts of each class
         // 2. count unique values for each field of each class
@@ -263,6 +287,264 @@ public class ObjectStoreSummary
     }
 
 
+    /**
+     * Summarise the objectstore by reading each class table once, collecting the count, the
+     * values of each attribute (until there are too many) and which references are set.  Empty
+     * collections are still found with a query each.  Gives the same summary as
+     * summariseByQueries().
+     */
+    private void summariseByScanning(final ObjectStore os, Properties configuration, int threads)
+        throws ObjectStoreException {
+        Model model = os.getModel();
+        String maxValuesString = (String) configuration.get(MAX_FIELD_VALUES);
+        maxValues =
+            (maxValuesString == null ? DEFAULT_MAX_VALUES : Integer.parseInt(maxValuesString));
+        final Set<String> ignoreFields =
+            getIgnoreFields((String) configuration.get("ignore.counts"));
+        if (ignoreFields.size() > 0) {
+            LOG.warn("Not counting ignored fields: " + ignoreFields);
+        }
+        final Set<String> notEmptyFields = Collections.synchronizedSet(new HashSet<String>());
+
+        // subclasses first, so that non-empty collections can be pushed up to superclasses
+        List<ClassDescriptor> clds = new ArrayList<ClassDescriptor>(
+                new LinkedHashSet<ClassDescriptor>(model.getBottomUpLevelTraversal()));
+        LOG.info("Scanning " + clds.size() + " classes with " + threads + " threads...");
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+        Map<ClassDescriptor, Future<TableSummary>> futures =
+            new HashMap<ClassDescriptor, Future<TableSummary>>();
+        try {
+            for (final ClassDescriptor cld : clds) {
+                futures.put(cld, pool.submit(new Callable<TableSummary>() {
+                    @Override
+                    public TableSummary call() throws ObjectStoreException {
+                        return summariseTable(os, cld, ignoreFields, notEmptyFields);
+                    }
+                }));
+            }
+            int queries = 0;
+            int queriesByField = 0;
+            for (ClassDescriptor cld : clds) {
+                TableSummary summary;
+                try {
+                    summary = futures.get(cld).get();
+                } catch (InterruptedException e) {
+                    throw new ObjectStoreException("Interrupted while summarising "
+                            + cld.getName(), e);
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof ObjectStoreException) {
+                        throw (ObjectStoreException) e.getCause();
+                    }
+                    throw new ObjectStoreException("Error summarising " + cld.getName(),
+                            e.getCause());
+                }
+                classCountsMap.put(cld.getName(), new Integer(summary.count));
+                nonEmptyFieldsMap.put(cld.getName(), new HashSet<String>());
+                queries += summary.queries;
+                queriesByField++;
+                if (summary.count == 0) {
+                    continue;
+                }
+                queriesByField += summary.fieldValues.size() + summary.references.size()
+                    + summary.collections.size();
+                for (Map.Entry<String, List<Object>> entry : summary.fieldValues.entrySet()) {
+                    String fieldName = entry.getKey();
+                    List<Object> fieldValues = entry.getValue();
+                    if (fieldValues == null) {
+                        LOG.info("Too many values for " + cld.getUnqualifiedName() + "."
+                                + fieldName);
+                        continue;
+                    }
+                    if (fieldValues.size() == 1 && fieldValues.get(0) == null) {
+                        Set<String> emptyAttributes = emptyAttributesMap.get(cld.getName());
+                        if (emptyAttributes == null) {
+                            emptyAttributes = new HashSet<String>();
+                            emptyAttributesMap.put(cld.getName(), emptyAttributes);
+                        }
+                        emptyAttributes.add(fieldName);
+                    }
+                    fieldValuesMap.put(cld.getName() + "." + fieldName, fieldValues);
+                }
+                for (String fieldName : summary.references) {
+                    if (!summary.nonEmptyReferences.contains(fieldName)) {
+                        addToEmptyFields(cld.getName(), fieldName);
+                    }
+                }
+                for (String fieldName : summary.emptyCollections) {
+                    addToEmptyFields(cld.getName(), fieldName);
+                }
+            }
+            LOG.info("Summarised " + clds.size() + " classes with " + queries
+                    + " queries, instead of up to " + queriesByField + " with one query per"
+                    + " field");
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Read one class table, or count it if there are no attributes or references to look at.
+     */
+    private TableSummary summariseTable(ObjectStore os, ClassDescriptor cld,
+            Set<String> ignoreFields, Set<String> notEmptyFields) throws ObjectStoreException {
+        long startTime = System.currentTimeMillis();
+        TableSummary summary = new TableSummary();
+        List<String> attributes = new ArrayList<String>();
+        for (AttributeDescriptor att : cld.getAllAttributeDescriptors()) {
+            if (!"id".equals(att.getName())
+                    && !ignoreFields.contains(cld.getName() + "." + att.getName())) {
+                attributes.add(att.getName());
+            }
+        }
+        for (ReferenceDescriptor ref : cld.getAllReferenceDescriptors()) {
+            if (!ignoreFields.contains(ref.getName())) {
+                summary.references.add(ref.getName());
+            }
+        }
+        for (CollectionDescriptor col : cld.getAllCollectionDescriptors()) {
+            if (!ignoreFields.contains(col.getName())) {
+                summary.collections.add(col.getName());
+            }
+        }
+
+        if (attributes.isEmpty() && summary.references.isEmpty()) {
+            summary.count = countClass(os, cld.getType());
+            summary.queries++;
+        } else {
+            Query q = new Query();
+            q.setDistinct(false);
+            QueryClass qc = new QueryClass(cld.getType());
+            q.addFrom(qc);
+            q.addToSelect(new QueryField(qc, "id"));
+            for (String fieldName : attributes) {
+                q.addToSelect(new QueryField(qc, fieldName));
+            }
+            for (String fieldName : summary.references) {
+                q.addToSelect(new QueryForeignKey(qc, fieldName));
+            }
+            // the values of each attribute, by a key that is equal where the database's is
+            List<Map<Object, Object>> values = new ArrayList<Map<Object, Object>>();
+            for (int i = 0; i < attributes.size(); i++) {
+                values.add(new HashMap<Object, Object>());
+            }
+            boolean[] nonEmpty = new boolean[summary.references.size()];
+            Results results = os.execute(q, 10000, false, false, false);
+            summary.queries++;
+            for (Object resRow : results) {
+                ResultsRow<?> row = (ResultsRow<?>) resRow;
+                summary.count++;
+                for (int i = 0; i < attributes.size(); i++) {
+                    Map<Object, Object> attributeValues = values.get(i);
+                    if (attributeValues != null) {
+                        Object value = row.get(i + 1);
+                        attributeValues.put(distinctKey(value), value);
+                        if (attributeValues.size() > maxValues) {
+                            // stop collecting
+                            values.set(i, null);
+                        }
+                    }
+                }
+                for (int i = 0; i < nonEmpty.length; i++) {
+                    nonEmpty[i] = nonEmpty[i] || (row.get(i + 1 + attributes.size()) != null);
+                }
+            }
+            for (int i = 0; i < attributes.size(); i++) {
+                List<Object> fieldValues = null;
+                if (values.get(i) != null) {
+                    fieldValues = new ArrayList<Object>();
+                    for (Object value : values.get(i).values()) {
+                        fieldValues.add(value == null ? null : value.toString());
+                    }
+                    Collections.sort(fieldValues, new NullsLastComparator());
+                }
+                summary.fieldValues.put(attributes.get(i), fieldValues);
+            }
+            for (int i = 0; i < nonEmpty.length; i++) {
+                if (nonEmpty[i]) {
+                    summary.nonEmptyReferences.add(summary.references.get(i));
+                }
+            }
+        }
+
+        if (summary.count > 0) {
+            for (CollectionDescriptor col : cld.getAllCollectionDescriptors()) {
+                String fieldName = col.getName();
+                if (!summary.collections.contains(fieldName)) {
+                    continue;
+                }
+                if (notEmptyFields.contains(cld.getName() + "." + fieldName)) {
+                    LOG.info("Skipping " + cld.getName() + "." + fieldName
+                            + " - already know it's not empty");
+                    continue;
+                }
+                summary.queries++;
+                if (isReferenceEmpty(cld, col, os)) {
+                    summary.emptyCollections.add(fieldName);
+                } else {
+                    // this isn't empty, so CAN'T be empty for any super classes
+                    for (ClassDescriptor superCld : cld.getAllSuperDescriptors()) {
+                        if (!cld.equals(superCld)
+                                && superCld.getCollectionDescriptorByName(fieldName, true)
+                                != null) {
+                            notEmptyFields.add(superCld.getName() + "." + fieldName);
+                        }
+                    }
+                }
+            }
+        }
+        LOG.info("Summarised " + cld.getUnqualifiedName() + " (" + summary.count + " objects) in "
+                + (System.currentTimeMillis() - startTime) + "ms");
+        return summary;
+    }
+
+    /**
+     * Returns an object for a field value that is equal to another one when the database would
+     * find the values equal in a DISTINCT.
+     */
+    private static Object distinctKey(Object value) {
+        if (value instanceof ClobAccess) {
+            return ((ClobAccess) value).getDbDescription();
+        }
+        if (value instanceof BigDecimal) {
+            BigDecimal decimal = (BigDecimal) value;
+            return decimal.signum() == 0 ? BigDecimal.ZERO : decimal.stripTrailingZeros();
+        }
+        return value;
+    }
+
+    /**
+     * The summary of one class table.
+     */
+    private static class TableSummary
+    {
+        private int count = 0;
+        private int queries = 0;
+        // field name to sorted values, or null if there are too many
+        private final Map<String, List<Object>> fieldValues =
+            new HashMap<String, List<Object>>();
+        private final List<String> references = new ArrayList<String>();
+        private final Set<String> nonEmptyReferences = new HashSet<String>();
+        private final List<String> collections = new ArrayList<String>();
+        private final Set<String> emptyCollections = new HashSet<String>();
+    }
+
+    /**
+     * Orders values by their String value, with nulls at the end.
+     */
+    private static class NullsLastComparator implements Comparator<Object>
+    {
+        @Override
+        public int compare(Object arg0, Object arg1) {
+            if (arg0 == null) {
+                return arg1 == null ? 0 : 1;
+            }
+            if (arg1 == null) {
+                return -1;
+            }
+            return arg0.toString().compareTo(arg1.toString());
+        }
+    }
+
     /**
      * Construct a summary from a properties object.
      *
@@ -0,0 +1,88 @@
+package org.intermine.objectstore.cache;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import org.intermine.model.InterMineObject;
+
+/**
+ * A cache of InterMineObjects by ID, used to implement the getObjectById cache of an ObjectStore.
+ * A null value may be cached, which records that there is no object with that ID in the
+ * database. Implementations must be thread-safe without any external synchronisation.
+ * <p>
+ * Every implementation keeps a generation number, which changes whenever the cache is cleared.
+ * A caller that fetches an object from the database should read the generation before it starts,
+ * and pass it to cacheIfAbsent(), so that an object read before the database was altered is not
+ * put into the cache after the cache has been flushed.
+ */
+public interface ObjectCache
+{
+    /**
+     * Returns the object cached for the given ID. A return value of null means either that there
+     * is no entry, or that the entry is null - use containsKey() to tell the difference.
+     *
+     * @param id the ID of the object
+     * @return an InterMineObject, or null
+     */
+    InterMineObject get(Integer id);
+
+    /**
+     * Returns true if there is an entry (possibly null) for the given ID.
+     *
+     * @param id the ID of the object
+     * @return a boolean
+     */
+    boolean containsKey(Integer id);
+
+    /**
+     * Unconditionally places an entry in the cache, replacing any existing entry.
+     *
+     * @param id the ID of the object
+     * @param obj the object, or null if there is no object with that ID
+     */
+    void put(Integer id, InterMineObject obj);
+
+    /**
+     * Places an entry in the cache, unless there is already an entry for the ID or the cache has
+     * been cleared since the given generation was read.
+     *
+     * @param id the ID of the object
+     * @param obj the object, or null if there is no object with that ID
+     * @param generation the value of getGeneration() read before obj was fetched
+     * @return the object now associated with the ID, which is the existing entry if there was one
+     */
+    InterMineObject cacheIfAbsent(Integer id, InterMineObject obj, long generation);
+
+    /**
+     * Removes the entry for the given ID, if there is one.
+     *
+     * @param id the ID of the object
+     */
+    void remove(Integer id);
+
+    /**
+     * Removes all entries from the cache, and advances the generation.
+     */
+    void clear();
+
+    /**
+     * Returns the current generation of the cache.
+     *
+     * @return a long
+     */
+    long getGeneration();
+
+    /**
+     * Returns the number of entries in the cache.
+     *
+     * @return an int
+     */
+    int size();
+}
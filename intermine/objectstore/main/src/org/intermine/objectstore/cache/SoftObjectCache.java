@@ -0,0 +1,100 @@
+package org.intermine.objectstore.cache;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import org.intermine.model.InterMineObject;
+import org.intermine.util.CacheMap;
+
+/**
+ * An ObjectCache backed by a CacheMap, so the entries are held by SoftReferences and are only
+ * removed when the garbage collector needs the space. All operations synchronise on a single
+ * lock. This is the behaviour ObjectStores had before StripedObjectCache was introduced, and is
+ * selected with the property os.query.object-cache.type=soft.
+ */
+public class SoftObjectCache implements ObjectCache
+{
+    private final CacheMap<Integer, InterMineObject> cache;
+    private long generation = 0;
+
+    /**
+     * Constructs a new SoftObjectCache.
+     *
+     * @param name a name for the cache, printed in log messages
+     */
+    public SoftObjectCache(String name) {
+        cache = new CacheMap<Integer, InterMineObject>(name);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized InterMineObject get(Integer id) {
+        return cache.get(id);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized boolean containsKey(Integer id) {
+        return cache.containsKey(id);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void put(Integer id, InterMineObject obj) {
+        cache.put(id, obj);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized InterMineObject cacheIfAbsent(Integer id, InterMineObject obj,
+            long gen) {
+        InterMineObject cached = cache.get(id);
+        if ((cached != null) || cache.containsKey(id)) {
+            return cached;
+        }
+        if (gen == generation) {
+            cache.put(id, obj);
+        }
+        return obj;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void remove(Integer id) {
+        cache.remove(id);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void clear() {
+        generation++;
+        cache.clear();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized int size() {
+        return cache.size();
+    }
+}
@@ -0,0 +1,476 @@
+package org.intermine.objectstore.cache;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+import org.intermine.model.InterMineObject;
+import org.intermine.util.TypeUtil;
+
+/**
+ * A bounded ObjectCache that does not serialise its users. Lookups go straight to a
+ * ConcurrentHashMap without taking any lock. The entries are divided by ID into a number of
+ * segments, each with its own lock, its own share of the limits, and its own CLOCK queue (an
+ * approximation of LRU in which a lookup only sets a flag on the entry, rather than reordering a
+ * list). When a segment holds more than its share of either the maximum number of entries or the
+ * maximum estimated size, the entries that have not been looked up since the clock hand last
+ * passed them are evicted.
+ * <p>
+ * Unlike a CacheMap, the contents of this cache are held strongly, so a full garbage collection
+ * does not empty it. The limits should therefore be set with the heap size in mind.
+ */
+public class StripedObjectCache implements ObjectCache, StripedObjectCacheMBean
+{
+    private static final Logger LOG = Logger.getLogger(StripedObjectCache.class);
+
+    /** The default maximum number of entries */
+    public static final int DEFAULT_MAX_ENTRIES = 200000;
+    /** The default maximum estimated size, in bytes */
+    public static final long DEFAULT_MAX_BYTES = 128L * 1024L * 1024L;
+    /** The default number of segments */
+    public static final int DEFAULT_SEGMENTS = 64;
+
+    private static final int ENTRY_OVERHEAD = 64;
+    private static final Map<Class<?>, String[]> FIELD_NAMES
+        = new ConcurrentHashMap<Class<?>, String[]>();
+
+    private final String name;
+    private final int maxEntries;
+    private final long maxBytes;
+    private final ConcurrentHashMap<Integer, Entry> map;
+    private final Segment[] segments;
+    private final int segmentMask;
+    private final AtomicLong generation = new AtomicLong();
+    private ObjectName jmxName = null;
+
+    /**
+     * Constructs a new StripedObjectCache with the default limits.
+     *
+     * @param name a name for the cache, used in log messages and in JMX
+     */
+    public StripedObjectCache(String name) {
+        this(name, DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES, DEFAULT_SEGMENTS);
+    }
+
+    /**
+     * Constructs a new StripedObjectCache.
+     *
+     * @param name a name for the cache, used in log messages and in JMX
+     * @param maxEntries the maximum number of entries to hold
+     * @param maxBytes the maximum estimated size of the cached objects, in bytes
+     * @param segmentCount the number of segments to divide the cache into, which is rounded up
+     * to a power of two
+     */
+    public StripedObjectCache(String name, int maxEntries, long maxBytes, int segmentCount) {
+        if ((maxEntries < 1) || (maxBytes < 1) || (segmentCount < 1)) {
+            throw new IllegalArgumentException("Invalid cache limits: maxEntries = " + maxEntries
+                    + ", maxBytes = " + maxBytes + ", segments = " + segmentCount);
+        }
+        int size = 1;
+        while (size < segmentCount) {
+            size <<= 1;
+        }
+        this.name = name;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        segmentMask = size - 1;
+        segments = new Segment[size];
+        int segmentEntries = Math.max(1, maxEntries / size);
+        long segmentBytes = Math.max(1L, maxBytes / size);
+        for (int i = 0; i < size; i++) {
+            segments[i] = new Segment(segmentEntries, segmentBytes);
+        }
+        map = new ConcurrentHashMap<Integer, Entry>(Math.min(maxEntries, 1024), 0.75F, size);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public InterMineObject get(Integer id) {
+        Entry e = map.get(id);
+        Segment segment = segmentFor(id);
+        if (e == null) {
+            segment.misses.incrementAndGet();
+            return null;
+        }
+        e.referenced = true;
+        segment.hits.incrementAndGet();
+        return e.value;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean containsKey(Integer id) {
+        return map.containsKey(id);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void put(Integer id, InterMineObject obj) {
+        Segment segment = segmentFor(id);
+        Entry e = new Entry(id, obj, estimateSize(obj));
+        segment.lock.lock();
+        try {
+            segment.unlink(map.put(id, e));
+            segment.link(e);
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public InterMineObject cacheIfAbsent(Integer id, InterMineObject obj, long gen) {
+        if (gen != generation.get()) {
+            return obj;
+        }
+        Segment segment = segmentFor(id);
+        Entry e = new Entry(id, obj, estimateSize(obj));
+        segment.lock.lock();
+        try {
+            Entry existing = map.putIfAbsent(id, e);
+            if (existing != null) {
+                return existing.value;
+            }
+            segment.link(e);
+            if (gen != generation.get()) {
+                // The cache was cleared while we were adding the entry, so obj may be stale
+                map.remove(id, e);
+                segment.unlink(e);
+            }
+        } finally {
+            segment.lock.unlock();
+        }
+        return obj;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void remove(Integer id) {
+        Segment segment = segmentFor(id);
+        segment.lock.lock();
+        try {
+            segment.unlink(map.remove(id));
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void clear() {
+        generation.incrementAndGet();
+        for (Segment segment : segments) {
+            segment.lock.lock();
+            try {
+                for (Entry e : segment.queue) {
+                    if (!e.dead) {
+                        map.remove(e.id, e);
+                        e.dead = true;
+                    }
+                }
+                segment.queue.clear();
+                segment.count = 0;
+                segment.bytes = 0;
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int size() {
+        return map.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getSize() {
+        return size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getEstimatedBytes() {
+        long retval = 0;
+        for (Segment segment : segments) {
+            segment.lock.lock();
+            try {
+                retval += segment.bytes;
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getHits() {
+        long retval = 0;
+        for (Segment segment : segments) {
+            retval += segment.hits.get();
+        }
+        return retval;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getMisses() {
+        long retval = 0;
+        for (Segment segment : segments) {
+            retval += segment.misses.get();
+        }
+        return retval;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double getHitRatio() {
+        long hits = getHits();
+        long total = hits + getMisses();
+        return total == 0 ? 0.0 : ((double) hits) / total;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getEvictions() {
+        long retval = 0;
+        for (Segment segment : segments) {
+            retval += segment.evictions.get();
+        }
+        return retval;
+    }
+
+    /**
+     * Registers this cache with the platform MBean server, so that its statistics can be watched
+     * with JMX tools. Failure to register is logged and otherwise ignored.
+     */
+    public synchronized void registerMBean() {
+        if (jmxName != null) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName("org.intermine:type=ObjectCache,name="
+                    + ObjectName.quote(name + "@" + Integer.toHexString(System
+                            .identityHashCode(this))));
+            server.registerMBean(this, objectName);
+            jmxName = objectName;
+        } catch (JMException e) {
+            LOG.warn("Could not register getObjectById cache \"" + name + "\" with JMX", e);
+        }
+    }
+
+    /**
+     * Removes this cache from the platform MBean server, if it was registered.
+     */
+    public synchronized void unregisterMBean() {
+        if (jmxName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(jmxName);
+        } catch (JMException e) {
+            LOG.warn("Could not unregister getObjectById cache \"" + name + "\" from JMX", e);
+        }
+        jmxName = null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "StripedObjectCache " + name + " (size = " + size() + ", hits = " + getHits()
+            + ", misses = " + getMisses() + ", evictions = " + getEvictions() + ")";
+    }
+
+    private Segment segmentFor(Integer id) {
+        // Spread the bits, as IDs are usually allocated in sequential blocks
+        int h = id.intValue() * 0x9E3779B9;
+        return segments[(h ^ (h >>> 16)) & segmentMask];
+    }
+
+    /**
+     * Returns a rough estimate of the number of bytes of heap used by an object, counting the
+     * object itself and any Strings it holds, but not any objects it refers to.
+     *
+     * @param obj an InterMineObject, or null
+     * @return a number of bytes
+     */
+    protected static int estimateSize(InterMineObject obj) {
+        if (obj == null) {
+            return ENTRY_OVERHEAD;
+        }
+        Class<?> c = obj.getClass();
+        String[] fieldNames = FIELD_NAMES.get(c);
+        if (fieldNames == null) {
+            fieldNames = TypeUtil.getFieldInfos(c).keySet().toArray(new String[0]);
+            FIELD_NAMES.put(c, fieldNames);
+        }
+        int retval = ENTRY_OVERHEAD + 16;
+        for (String fieldName : fieldNames) {
+            retval += 8;
+            try {
+                Object value = obj.getFieldProxy(fieldName);
+                if (value instanceof String) {
+                    retval += 40 + 2 * ((String) value).length();
+                } else if (value != null) {
+                    retval += 16;
+                }
+            } catch (IllegalAccessException e) {
+                // Leave this field as just the reference
+            }
+        }
+        return retval;
+    }
+
+    private static class Entry
+    {
+        final Integer id;
+        final InterMineObject value;
+        final int size;
+        volatile boolean referenced = false;
+        // Only accessed while holding the lock of the Segment
+        boolean dead = false;
+
+        Entry(Integer id, InterMineObject value, int size) {
+            this.id = id;
+            this.value = value;
+            this.size = size;
+        }
+    }
+
+    private class Segment
+    {
+        final ReentrantLock lock = new ReentrantLock();
+        final ArrayDeque<Entry> queue = new ArrayDeque<Entry>();
+        final int maxSegmentEntries;
+        final long maxSegmentBytes;
+        final AtomicLong hits = new AtomicLong();
+        final AtomicLong misses = new AtomicLong();
+        final AtomicLong evictions = new AtomicLong();
+        int count = 0;
+        long bytes = 0;
+
+        Segment(int maxSegmentEntries, long maxSegmentBytes) {
+            this.maxSegmentEntries = maxSegmentEntries;
+            this.maxSegmentBytes = maxSegmentBytes;
+        }
+
+        /**
+         * Adds a new entry, which must already be in the map, and evicts entries until the
+         * segment is within its limits. Must be called holding the lock.
+         */
+        void link(Entry e) {
+            queue.addLast(e);
+            count++;
+            bytes += e.size;
+            evict(e);
+            if (queue.size() > 2 * count + 64) {
+                // Lots of entries have been removed directly, so clean them out of the queue
+                Iterator<Entry> iter = queue.iterator();
+                while (iter.hasNext()) {
+                    if (iter.next().dead) {
+                        iter.remove();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Accounts for the removal of an entry from the map. The entry is left in the queue to be
+         * skipped over later. Must be called holding the lock.
+         */
+        void unlink(Entry e) {
+            if ((e != null) && (!e.dead)) {
+                e.dead = true;
+                count--;
+                bytes -= e.size;
+            }
+        }
+
+        private void evict(Entry newest) {
+            // Only queue.size() second chances are given per call, so this loop terminates even
+            // if other threads keep looking entries up. The entry just added is never evicted.
+            int secondChances = queue.size();
+            while (((count > maxSegmentEntries) || (bytes > maxSegmentBytes)) && (count > 1)) {
+                Entry e = queue.pollFirst();
+                if (e.dead) {
+                    continue;
+                }
+                if ((e == newest) || (e.referenced && (secondChances-- > 0))) {
+                    e.referenced = false;
+                    queue.addLast(e);
+                    continue;
+                }
+                map.remove(e.id, e);
+                e.dead = true;
+                count--;
+                bytes -= e.size;
+                evictions.incrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package org.intermine.objectstore.cache;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+/**
+ * JMX management interface for StripedObjectCache.
+ */
+public interface StripedObjectCacheMBean
+{
+    /**
+     * @return the name of the cache
+     */
+    String getName();
+
+    /**
+     * @return the number of entries in the cache
+     */
+    int getSize();
+
+    /**
+     * @return the estimated number of bytes used by the cached objects
+     */
+    long getEstimatedBytes();
+
+    /**
+     * @return the maximum number of entries the cache will hold
+     */
+    int getMaxEntries();
+
+    /**
+     * @return the maximum estimated number of bytes the cache will hold
+     */
+    long getMaxBytes();
+
+    /**
+     * @return the number of lookups that found an entry
+     */
+    long getHits();
+
+    /**
+     * @return the number of lookups that did not find an entry
+     */
+    long getMisses();
+
+    /**
+     * @return the proportion of lookups that found an entry, between 0 and 1
+     */
+    double getHitRatio();
+
+    /**
+     * @return the number of entries removed to keep the cache within its limits
+     */
+    long getEvictions();
+
+    /**
+     * @return the number of times the cache has been cleared
+     */
+    long getGeneration();
+
+    /**
+     * Removes all entries from the cache.
+     */
+    void clear();
+}
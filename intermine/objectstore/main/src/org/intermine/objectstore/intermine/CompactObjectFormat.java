@@ -0,0 +1,604 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.sf.cglib.proxy.Factory;
+
+import org.intermine.metadata.AttributeDescriptor;
+import org.intermine.metadata.ClassDescriptor;
+import org.intermine.metadata.CollectionDescriptor;
+import org.intermine.metadata.FieldDescriptor;
+import org.intermine.metadata.Model;
+import org.intermine.metadata.ReferenceDescriptor;
+import org.intermine.model.FastPathObject;
+import org.intermine.model.InterMineObject;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.proxy.ProxyCollection;
+import org.intermine.objectstore.proxy.ProxyReference;
+import org.intermine.objectstore.query.ClobAccess;
+import org.intermine.util.DynamicBean;
+import org.intermine.util.DynamicUtil;
+import org.intermine.util.StringConstructor;
+import org.intermine.util.TypeUtil;
+
+/**
+ * A compact alternative to NotXml for the OBJECT field of database tables.
+ * <p>
+ * A compact object starts with the HEADER character, which can never start NotXml, so the two
+ * formats can be mixed in one database and NotXmlParser.parse() reads either. After the header
+ * comes a fingerprint of the model, then the number of classes of the object and the position of
+ * each class in an alphabetical
+ * list of the classes in the model (with 0 followed by the class name for a class that is not in
+ * the model). Then for each field that is not null there is the position of the field in the
+ * alphabetical list of fields of the object and its value. References are stored as IDs, ints,
+ * longs, booleans and dates are stored as numbers, floats and doubles as their bits, and
+ * everything else as a string prefixed with its length, so nothing needs to be escaped or
+ * searched for when reading.
+ * <p>
+ * Numbers are written as variable-length sequences of characters between 0x20 and 0x7F, five
+ * bits at a time in characters below 0x40 and the last six bits in a character from 0x40, so the
+ * encoding is still valid text for the database, and small numbers take a single byte. Because
+ * classes and fields are stored as positions in the model, a compact object can only be read
+ * with the same model that wrote it. The fingerprint is a hash of the names and types of the
+ * classes and fields in the model, and reading an object whose fingerprint does not match the
+ * model fails rather than putting values into the wrong fields.
+ */
+public final class CompactObjectFormat
+{
+    private CompactObjectFormat() {
+    }
+
+    /**
+     * The character that starts every compact object.
+     */
+    public static final char HEADER = '#';
+
+    private static final int CONTINUE_BASE = 0x20;
+    private static final int LAST_BASE = 0x40;
+    private static Map<String, Dictionary> dictionaries = new ConcurrentHashMap<String,
+        Dictionary>();
+
+    /**
+     * Returns true if the given String from an OBJECT field is in the compact format.
+     *
+     * @param object the contents of an OBJECT field
+     * @return a boolean
+     */
+    public static boolean isCompact(String object) {
+        return (object != null) && (object.length() > 0) && (object.charAt(0) == HEADER);
+    }
+
+    /**
+     * Renders the given object in the compact format.
+     *
+     * @param obj the object to render
+     * @param model the Model of the database that the object will be stored in
+     * @return a StringConstructor containing the compact object
+     */
+    public static StringConstructor render(Object obj, Model model) {
+        ClassPlan plan = getDictionary(model).getPlan(obj.getClass());
+        StringBuilder sb = new StringBuilder(plan.header.length() + 16 * plan.fields.length);
+        sb.append(plan.header);
+        try {
+            for (int i = 0; i < plan.fields.length; i++) {
+                FieldPlan field = plan.fields[i];
+                Object value;
+                if (obj instanceof FastPathObject) {
+                    value = ((FastPathObject) obj).getFieldProxy(field.fieldName);
+                } else {
+                    value = TypeUtil.getFieldProxy(obj, field.fieldName);
+                }
+                if ((value == null) || (value instanceof Collection<?>)) {
+                    continue;
+                }
+                writeUnsigned(sb, i);
+                field.write(sb, value);
+            }
+        } catch (IllegalAccessException e) {
+            IllegalArgumentException e2 = new IllegalArgumentException();
+            e2.initCause(e);
+            throw e2;
+        }
+        StringConstructor retval = new StringConstructor();
+        retval.append(sb.toString());
+        return retval;
+    }
+
+    /**
+     * Parses a compact object.
+     *
+     * @param object the compact object String
+     * @param os the ObjectStore from which to create lazy objects
+     * @return an InterMineObject
+     * @throws ClassNotFoundException if a class cannot be found
+     */
+    public static InterMineObject parse(String object, ObjectStore os)
+        throws ClassNotFoundException {
+        Reader reader = new Reader(object);
+        ClassPlan plan = readPlan(reader, os.getModel());
+        InterMineObject retval = (InterMineObject) DynamicUtil.createObject(plan.clazz);
+        readFields(reader, plan, retval, os);
+        return retval;
+    }
+
+    /**
+     * Reads a compact object into an existing object of the same class.
+     *
+     * @param target the object to set the fields of
+     * @param object the compact object String
+     * @param os the ObjectStore from which to create lazy objects
+     */
+    public static void parseInto(FastPathObject target, String object, ObjectStore os) {
+        Reader reader = new Reader(object);
+        try {
+            ClassPlan plan = readPlan(reader, os.getModel());
+            if (!plan.clazz.equals(target.getClass())) {
+                throw new IllegalStateException("Class " + target.getClass().getName()
+                        + " does not match object (" + plan.clazz.getName() + ")");
+            }
+            readFields(reader, plan, target, os);
+        } catch (ClassNotFoundException e) {
+            IllegalArgumentException e2 = new IllegalArgumentException("Unknown class in "
+                    + object);
+            e2.initCause(e);
+            throw e2;
+        }
+    }
+
+    private static ClassPlan readPlan(Reader reader, Model model)
+        throws ClassNotFoundException {
+        if (reader.next() != HEADER) {
+            throw new IllegalArgumentException("Not a compact object: " + reader.s);
+        }
+        Dictionary dictionary = getDictionary(model);
+        int fingerprint = reader.readUnsigned();
+        if (fingerprint != dictionary.fingerprint) {
+            throw new IllegalArgumentException("Compact object was written with a different model"
+                    + " to " + model.getName() + " (fingerprint " + fingerprint + ", expected "
+                    + dictionary.fingerprint + "): " + reader.s);
+        }
+        int headerStart = reader.pos;
+        int classCount = reader.readUnsigned();
+        if (classCount == 1) {
+            // By far the most usual case, so avoid making a String to look the plan up with
+            int index = reader.readUnsigned();
+            if (index > 0) {
+                return dictionary.getPlan(index);
+            }
+            reader.readString();
+        } else {
+            for (int i = 0; i < classCount; i++) {
+                if (reader.readUnsigned() == 0) {
+                    reader.readString();
+                }
+            }
+        }
+        return dictionary.getPlan(reader.s.substring(headerStart, reader.pos));
+    }
+
+    private static void readFields(Reader reader, ClassPlan plan, FastPathObject retval,
+            ObjectStore os) {
+        Map<String, Object> valueMap = null;
+        boolean fetchFromInterMineObject = false;
+        if (plan.dynamic) {
+            valueMap = ((DynamicBean) ((Factory) retval).getCallback(0)).getMap();
+            fetchFromInterMineObject = (os instanceof ObjectStoreInterMineImpl)
+                && ((ObjectStoreInterMineImpl) os).getSchema().isFetchFromInterMineObject();
+        }
+        int length = reader.s.length();
+        while (reader.pos < length) {
+            int index = reader.readUnsigned();
+            if (index >= plan.fields.length) {
+                throw new IllegalArgumentException("Unknown field " + index + " for "
+                        + plan.clazz + " in compact object: " + reader.s);
+            }
+            FieldPlan field = plan.fields[index];
+            Object value = field.read(reader, os, fetchFromInterMineObject);
+            if (valueMap != null) {
+                valueMap.put(field.fieldName, value);
+            } else {
+                retval.setFieldValue(field.fieldName, value);
+            }
+        }
+        for (int i = 0; i < plan.collectionNames.length; i++) {
+            Collection<Object> lazyColl = new ProxyCollection<Object>(os,
+                    (InterMineObject) retval, plan.collectionNames[i], plan.collectionTypes[i]);
+            if (valueMap != null) {
+                valueMap.put(plan.collectionNames[i], lazyColl);
+            } else {
+                retval.setFieldValue(plan.collectionNames[i], lazyColl);
+            }
+        }
+    }
+
+    private static Dictionary getDictionary(Model model) {
+        Dictionary dictionary = dictionaries.get(model.getName());
+        if ((dictionary == null) || (dictionary.model != model)) {
+            dictionary = new Dictionary(model);
+            dictionaries.put(model.getName(), dictionary);
+        }
+        return dictionary;
+    }
+
+    /**
+     * Writes a non-negative number, five bits to a character until the last six bits.
+     */
+    private static void writeUnsigned(StringBuilder sb, long value) {
+        while ((value & ~0x3FL) != 0) {
+            sb.append((char) (CONTINUE_BASE + (value & 0x1F)));
+            value >>>= 5;
+        }
+        sb.append((char) (LAST_BASE + value));
+    }
+
+    private static void writeSigned(StringBuilder sb, long value) {
+        writeUnsigned(sb, (value << 1) ^ (value >> 63));
+    }
+
+    private static void writeString(StringBuilder sb, String value) {
+        writeUnsigned(sb, value.length());
+        sb.append(value);
+    }
+
+    /**
+     * Reads through a compact object.
+     */
+    private static final class Reader
+    {
+        final String s;
+        int pos = 0;
+
+        Reader(String s) {
+            this.s = s;
+        }
+
+        char next() {
+            if (pos >= s.length()) {
+                throw new IllegalArgumentException("Truncated compact object: " + s);
+            }
+            return s.charAt(pos++);
+        }
+
+        long readUnsignedLong() {
+            long retval = 0;
+            int shift = 0;
+            char c = next();
+            while (c < LAST_BASE) {
+                if (c < CONTINUE_BASE) {
+                    throw new IllegalArgumentException("Invalid character in compact object: "
+                            + s);
+                }
+                retval |= ((long) (c - CONTINUE_BASE)) << shift;
+                shift += 5;
+                c = next();
+            }
+            return retval | (((long) (c - LAST_BASE)) << shift);
+        }
+
+        int readUnsigned() {
+            return (int) readUnsignedLong();
+        }
+
+        long readSigned() {
+            long value = readUnsignedLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        String readString() {
+            int length = readUnsigned();
+            int start = pos;
+            pos += length;
+            if (pos > s.length()) {
+                throw new IllegalArgumentException("Truncated compact object: " + s);
+            }
+            return s.substring(start, pos);
+        }
+    }
+
+    /**
+     * Returns the fingerprint of a model, which changes when a class or field is added, removed,
+     * renamed or changes type.
+     *
+     * @param model a Model
+     * @return a number from 0 to 65535
+     */
+    protected static int getFingerprint(Model model) {
+        return getDictionary(model).fingerprint;
+    }
+
+    /**
+     * The alphabetical list of classes in a model, and the ClassPlans made from it.
+     */
+    private static final class Dictionary
+    {
+        final Model model;
+        final int fingerprint;
+        final Class<?>[] classes;
+        final Map<Class<?>, Integer> classIndexes = new HashMap<Class<?>, Integer>();
+        final ClassPlan[] singlePlans;
+        final Map<String, ClassPlan> headerPlans = new ConcurrentHashMap<String, ClassPlan>();
+        final Map<Class<?>, ClassPlan> classPlans = new ConcurrentHashMap<Class<?>, ClassPlan>();
+
+        Dictionary(Model model) {
+            this.model = model;
+            Map<String, Class<?>> sorted = new TreeMap<String, Class<?>>();
+            Map<String, String> signatures = new TreeMap<String, String>();
+            for (ClassDescriptor cld : model.getClassDescriptors()) {
+                sorted.put(cld.getName(), cld.getType());
+                Map<String, String> fieldTypes = new TreeMap<String, String>();
+                for (FieldDescriptor fd : cld.getAllFieldDescriptors()) {
+                    if (fd instanceof AttributeDescriptor) {
+                        fieldTypes.put(fd.getName(), ((AttributeDescriptor) fd).getType());
+                    } else if (fd instanceof CollectionDescriptor) {
+                        fieldTypes.put(fd.getName(), "collection");
+                    } else {
+                        fieldTypes.put(fd.getName(), ((ReferenceDescriptor) fd)
+                                .getReferencedClassName());
+                    }
+                }
+                signatures.put(cld.getName(), fieldTypes.toString());
+            }
+            // Sixteen bits takes three characters in the header
+            fingerprint = signatures.toString().hashCode() & 0xFFFF;
+            // Position 0 means a class name follows
+            classes = new Class<?>[sorted.size() + 1];
+            int i = 1;
+            for (Class<?> c : sorted.values()) {
+                classes[i] = c;
+                classIndexes.put(c, new Integer(i));
+                i++;
+            }
+            singlePlans = new ClassPlan[classes.length];
+        }
+
+        ClassPlan getPlan(int index) throws ClassNotFoundException {
+            if (index >= classes.length) {
+                throw new ClassNotFoundException("No class number " + index + " in model "
+                        + model.getName());
+            }
+            ClassPlan plan = singlePlans[index];
+            if (plan == null) {
+                Set<Class<?>> classSet = new HashSet<Class<?>>();
+                classSet.add(classes[index]);
+                plan = new ClassPlan(this, classSet);
+                singlePlans[index] = plan;
+            }
+            return plan;
+        }
+
+        ClassPlan getPlan(String header) throws ClassNotFoundException {
+            ClassPlan plan = headerPlans.get(header);
+            if (plan == null) {
+                Reader reader = new Reader(header);
+                int classCount = reader.readUnsigned();
+                Set<Class<?>> classSet = new HashSet<Class<?>>();
+                for (int i = 0; i < classCount; i++) {
+                    int index = reader.readUnsigned();
+                    if (index == 0) {
+                        classSet.add(Class.forName(reader.readString()));
+                    } else if (index < classes.length) {
+                        classSet.add(classes[index]);
+                    } else {
+                        throw new ClassNotFoundException("No class number " + index
+                                + " in model " + model.getName());
+                    }
+                }
+                plan = new ClassPlan(this, classSet);
+                headerPlans.put(header, plan);
+            }
+            return plan;
+        }
+
+        ClassPlan getPlan(Class<?> clazz) {
+            ClassPlan plan = classPlans.get(clazz);
+            if (plan == null) {
+                plan = new ClassPlan(this, DynamicUtil.decomposeClass(clazz));
+                classPlans.put(clazz, plan);
+            }
+            return plan;
+        }
+    }
+
+    /**
+     * Everything needed to read or write objects of one class: the encoded classes, the fields
+     * in the order they are numbered, and the collections to fill with ProxyCollections.
+     */
+    private static final class ClassPlan
+    {
+        final String header;
+        final Class<? extends FastPathObject> clazz;
+        final boolean dynamic;
+        final FieldPlan[] fields;
+        final String[] collectionNames;
+        final Class<?>[] collectionTypes;
+
+        ClassPlan(Dictionary dictionary, Set<Class<?>> classes) {
+            StringBuilder sb = new StringBuilder();
+            sb.append(HEADER);
+            writeUnsigned(sb, dictionary.fingerprint);
+            writeUnsigned(sb, classes.size());
+            for (Class<?> c : classes) {
+                Integer index = dictionary.classIndexes.get(c);
+                if (index == null) {
+                    writeUnsigned(sb, 0);
+                    writeString(sb, c.getName());
+                } else {
+                    writeUnsigned(sb, index.intValue());
+                }
+            }
+            header = sb.toString();
+            clazz = DynamicUtil.createObject(classes).getClass();
+            dynamic = Factory.class.isAssignableFrom(clazz);
+
+            Model model = dictionary.model;
+            Map<String, FieldDescriptor> descriptors = model.getFieldDescriptorsForClass(clazz);
+            List<FieldPlan> fieldList = new ArrayList<FieldPlan>();
+            // getFieldInfos is sorted by field name
+            for (TypeUtil.FieldInfo info : TypeUtil.getFieldInfos(clazz).values()) {
+                FieldDescriptor fd = descriptors.get(info.getName());
+                if (fd instanceof CollectionDescriptor) {
+                    continue;
+                }
+                if (fd instanceof ReferenceDescriptor) {
+                    @SuppressWarnings("unchecked") Class<? extends InterMineObject> type =
+                        (Class) ((ReferenceDescriptor) fd).getReferencedClassDescriptor()
+                        .getType();
+                    fieldList.add(new FieldPlan(info.getName(), FieldPlan.REFERENCE,
+                                InterMineObject.class, type));
+                } else {
+                    fieldList.add(new FieldPlan(info.getName(), FieldPlan.kindOf(info.getType()),
+                                info.getType(), null));
+                }
+            }
+            fields = fieldList.toArray(new FieldPlan[fieldList.size()]);
+            Map<String, Class<?>> collections = model.getCollectionsForClass(clazz);
+            collectionNames = new String[collections.size()];
+            collectionTypes = new Class<?>[collections.size()];
+            int i = 0;
+            for (Map.Entry<String, Class<?>> collEntry : collections.entrySet()) {
+                collectionNames[i] = collEntry.getKey();
+                collectionTypes[i] = collEntry.getValue();
+                i++;
+            }
+        }
+    }
+
+    /**
+     * How to write and read the value of one field.
+     */
+    private static final class FieldPlan
+    {
+        static final int REFERENCE = 0;
+        static final int STRING = 1;
+        static final int INTEGER = 2;
+        static final int SHORT = 3;
+        static final int LONG = 4;
+        static final int BOOLEAN = 5;
+        static final int FLOAT = 6;
+        static final int DOUBLE = 7;
+        static final int DATE = 8;
+        static final int CLOB = 9;
+        static final int OTHER = 10;
+
+        final String fieldName;
+        final int kind;
+        final Class<?> type;
+        final Class<? extends InterMineObject> referencedType;
+
+        FieldPlan(String fieldName, int kind, Class<?> type,
+                Class<? extends InterMineObject> referencedType) {
+            this.fieldName = fieldName;
+            this.kind = kind;
+            this.type = type;
+            this.referencedType = referencedType;
+        }
+
+        static int kindOf(Class<?> type) {
+            if (String.class.equals(type)) {
+                return STRING;
+            } else if (Integer.class.equals(type) || Integer.TYPE.equals(type)) {
+                return INTEGER;
+            } else if (Short.class.equals(type) || Short.TYPE.equals(type)) {
+                return SHORT;
+            } else if (Long.class.equals(type) || Long.TYPE.equals(type)) {
+                return LONG;
+            } else if (Boolean.class.equals(type) || Boolean.TYPE.equals(type)) {
+                return BOOLEAN;
+            } else if (Float.class.equals(type) || Float.TYPE.equals(type)) {
+                return FLOAT;
+            } else if (Double.class.equals(type) || Double.TYPE.equals(type)) {
+                return DOUBLE;
+            } else if (Date.class.equals(type)) {
+                return DATE;
+            } else if (ClobAccess.class.equals(type)) {
+                return CLOB;
+            }
+            return OTHER;
+        }
+
+        void write(StringBuilder sb, Object value) {
+            switch (kind) {
+                case REFERENCE:
+                    writeSigned(sb, ((InterMineObject) value).getId().intValue());
+                    break;
+                case STRING:
+                    writeString(sb, (String) value);
+                    break;
+                case INTEGER:
+                case SHORT:
+                case LONG:
+                    writeSigned(sb, ((Number) value).longValue());
+                    break;
+                case BOOLEAN:
+                    writeUnsigned(sb, ((Boolean) value).booleanValue() ? 1 : 0);
+                    break;
+                case FLOAT:
+                    // Reversed so that the usually empty low bits of the mantissa come first
+                    writeUnsigned(sb, Integer.reverse(Float.floatToIntBits(((Float) value)
+                                    .floatValue())) & 0xFFFFFFFFL);
+                    break;
+                case DOUBLE:
+                    writeUnsigned(sb, Long.reverse(Double.doubleToLongBits(((Double) value)
+                                    .doubleValue())));
+                    break;
+                case DATE:
+                    writeSigned(sb, ((Date) value).getTime());
+                    break;
+                case CLOB:
+                    writeString(sb, ((ClobAccess) value).getDbDescription());
+                    break;
+                default:
+                    writeString(sb, value.toString());
+            }
+        }
+
+        Object read(Reader reader, ObjectStore os, boolean fetchFromInterMineObject) {
+            switch (kind) {
+                case REFERENCE:
+                    return new ProxyReference(os, Integer.valueOf((int) reader.readSigned()),
+                            fetchFromInterMineObject ? InterMineObject.class : referencedType);
+                case STRING:
+                    return reader.readString();
+                case INTEGER:
+                    return Integer.valueOf((int) reader.readSigned());
+                case SHORT:
+                    return Short.valueOf((short) reader.readSigned());
+                case LONG:
+                    return Long.valueOf(reader.readSigned());
+                case BOOLEAN:
+                    return Boolean.valueOf(reader.readUnsigned() != 0);
+                case FLOAT:
+                    return Float.valueOf(Float.intBitsToFloat(Integer.reverse(
+                                    (int) reader.readUnsignedLong())));
+                case DOUBLE:
+                    return Double.valueOf(Double.longBitsToDouble(Long.reverse(
+                                    reader.readUnsignedLong())));
+                case DATE:
+                    return new Date(reader.readSigned());
+                case CLOB:
+                    return ClobAccess.decodeDbDescription(os, reader.readString());
+                default:
+                    return TypeUtil.stringToObject(type, reader.readString());
+            }
+        }
+    }
+}
@@ -0,0 +1,504 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+
+import org.apache.log4j.Logger;
+import org.intermine.metadata.AttributeDescriptor;
+import org.intermine.metadata.FieldDescriptor;
+import org.intermine.model.InterMineObject;
+import org.intermine.objectstore.query.Constraint;
+import org.intermine.objectstore.query.ConstraintOp;
+import org.intermine.objectstore.query.ConstraintSet;
+import org.intermine.objectstore.query.FromElement;
+import org.intermine.objectstore.query.OrderDescending;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.QueryEvaluable;
+import org.intermine.objectstore.query.QueryField;
+import org.intermine.objectstore.query.QueryFunction;
+import org.intermine.objectstore.query.QueryPathExpression;
+import org.intermine.objectstore.query.QuerySelectable;
+import org.intermine.objectstore.query.QueryValue;
+import org.intermine.objectstore.query.ResultsRow;
+import org.intermine.objectstore.query.SimpleConstraint;
+
+/**
+ * Keyset (or "seek") pagination for an ObjectStoreInterMineImpl. After a batch of a suitable
+ * query has been fetched, the values of every ORDER BY column of the last row (the "last seen
+ * key") are remembered against the row number that follows it. A later request for a batch
+ * starting at or just after that row number is then answered with a WHERE clause equivalent to
+ * (a, b, id) &gt; (x, y, z) and a small or zero OFFSET, instead of making the database scan and
+ * discard all the preceding rows.
+ *
+ * A query is only suitable if its effective ORDER BY defines a total order over the rows and
+ * every ORDER BY value can be read back out of the result rows, so that the constraint cannot
+ * skip or repeat a row. All other queries fall back to the normal OFFSET behaviour.
+ */
+public class KeysetPagination
+{
+    private static final Logger LOG = Logger.getLogger(KeysetPagination.class);
+
+    /** The maximum number of keys remembered for a single query. */
+    public static final int MAX_KEYS_PER_QUERY = 100;
+
+    /**
+     * The maximum number of rows that may be skipped with an OFFSET after the nearest remembered
+     * key before it is not worth using.
+     */
+    public static final int MAX_OFFSET_FROM_KEY = 100000;
+
+    private DatabaseSchema schema;
+    private Map<Query, SortedMap<Integer, List<Object>>> keys = Collections.synchronizedMap(
+            new WeakHashMap<Query, SortedMap<Integer, List<Object>>>());
+    private Map<Query, List<KeyColumn>> columnsCache = Collections.synchronizedMap(
+            new WeakHashMap<Query, List<KeyColumn>>());
+    private long keysetQueries = 0;
+    private long offsetQueries = 0;
+
+    /**
+     * Constructs a new KeysetPagination for the given schema.
+     *
+     * @param schema the DatabaseSchema of the ObjectStore
+     */
+    public KeysetPagination(DatabaseSchema schema) {
+        this.schema = schema;
+    }
+
+    /**
+     * Returns the key to use to fetch a batch starting at the given row, or null if no useful key
+     * is known.
+     *
+     * @param q the Query
+     * @param start the first row of the batch
+     * @return a KeysetPosition, or null
+     */
+    public KeysetPosition getPosition(Query q, int start) {
+        if (start <= 0) {
+            return null;
+        }
+        SortedMap<Integer, List<Object>> queryKeys = keys.get(q);
+        if (queryKeys != null) {
+            synchronized (queryKeys) {
+                SortedMap<Integer, List<Object>> headMap = queryKeys.headMap(new Integer(start
+                            + 1));
+                if (!headMap.isEmpty()) {
+                    Integer keyRow = headMap.lastKey();
+                    if (start - keyRow.intValue() < MAX_OFFSET_FROM_KEY) {
+                        synchronized (this) {
+                            keysetQueries++;
+                        }
+                        return new KeysetPosition(keyRow.intValue(), headMap.get(keyRow));
+                    }
+                }
+            }
+        }
+        synchronized (this) {
+            offsetQueries++;
+        }
+        return null;
+    }
+
+    /**
+     * Builds the constraint that selects all the rows after the given key, in the order of the
+     * query. Returns null if there are definitely no such rows.
+     *
+     * @param q the Query
+     * @param key a key previously returned from getPosition
+     * @return a Constraint, or null if no rows can follow the key
+     */
+    public Constraint buildConstraint(Query q, List<Object> key) {
+        List<KeyColumn> columns = getColumns(q);
+        return buildConstraint(columns, key, 0);
+    }
+
+    private Constraint buildConstraint(List<KeyColumn> columns, List<Object> key, int index) {
+        KeyColumn column = columns.get(index);
+        Object value = key.get(index);
+        Constraint after = column.after(value);
+        if (index + 1 == columns.size()) {
+            return after;
+        }
+        Constraint rest = buildConstraint(columns, key, index + 1);
+        Constraint equalAndRest = null;
+        if (rest != null) {
+            ConstraintSet and = new ConstraintSet(ConstraintOp.AND);
+            and.addConstraint(column.equalTo(value));
+            and.addConstraint(rest);
+            equalAndRest = and;
+        }
+        if (after == null) {
+            return equalAndRest;
+        } else if (equalAndRest == null) {
+            return after;
+        }
+        ConstraintSet or = new ConstraintSet(ConstraintOp.OR);
+        or.addConstraint(after);
+        or.addConstraint(equalAndRest);
+        return or;
+    }
+
+    /**
+     * Records the key of the last row of a batch that has just been fetched, so that the batch
+     * following it can be fetched with a keyset constraint.
+     *
+     * @param q the Query
+     * @param start the row number of the first row in the batch
+     * @param rows the rows of the batch
+     */
+    public void registerBatch(Query q, int start, List<ResultsRow<Object>> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        List<KeyColumn> columns = getColumns(q);
+        if (columns.isEmpty()) {
+            return;
+        }
+        ResultsRow<Object> lastRow = rows.get(rows.size() - 1);
+        List<Object> key = new ArrayList<Object>();
+        for (KeyColumn column : columns) {
+            Object value;
+            try {
+                value = column.getValue(lastRow);
+            } catch (IllegalAccessException e) {
+                LOG.warn("Could not read key value for keyset pagination of query " + q, e);
+                return;
+            }
+            if (!((value == null) || (value instanceof String) || (value instanceof Integer)
+                        || (value instanceof Long) || (value instanceof Short)
+                        || (value instanceof BigDecimal) || (value instanceof Date))) {
+                // Other values, including Booleans and floating point numbers, may not survive
+                // the round trip into SQL exactly.
+                return;
+            }
+            if ((value == null) && (!column.isNullable())) {
+                return;
+            }
+            key.add(value);
+        }
+        SortedMap<Integer, List<Object>> queryKeys;
+        synchronized (keys) {
+            queryKeys = keys.get(q);
+            if (queryKeys == null) {
+                queryKeys = new TreeMap<Integer, List<Object>>();
+                keys.put(q, queryKeys);
+            }
+        }
+        synchronized (queryKeys) {
+            queryKeys.put(new Integer(start + rows.size()), key);
+            while (queryKeys.size() > MAX_KEYS_PER_QUERY) {
+                queryKeys.remove(queryKeys.firstKey());
+            }
+        }
+    }
+
+    /**
+     * Discards all remembered keys. This must be called whenever the data in the database
+     * changes.
+     */
+    public void flush() {
+        keys.clear();
+    }
+
+    /**
+     * Returns true if keyset pagination can be used for the given query.
+     *
+     * @param q the Query
+     * @return a boolean
+     */
+    public boolean isSuitable(Query q) {
+        return !getColumns(q).isEmpty();
+    }
+
+    /**
+     * Returns the number of batches that have been fetched using a keyset constraint.
+     *
+     * @return a long
+     */
+    public synchronized long getKeysetQueries() {
+        return keysetQueries;
+    }
+
+    /**
+     * Returns the number of batches of suitable queries that had to be fetched using OFFSET.
+     *
+     * @return a long
+     */
+    public synchronized long getOffsetQueries() {
+        return offsetQueries;
+    }
+
+    /**
+     * Returns the key columns of a query, or an empty List if the query is unsuitable for keyset
+     * pagination.
+     *
+     * @param q the Query
+     * @return a List of KeyColumn objects
+     */
+    protected List<KeyColumn> getColumns(Query q) {
+        List<KeyColumn> retval = columnsCache.get(q);
+        if (retval == null) {
+            retval = findColumns(q);
+            columnsCache.put(q, retval);
+        }
+        return retval;
+    }
+
+    private List<KeyColumn> findColumns(Query q) {
+        List<KeyColumn> unsuitable = Collections.emptyList();
+        if (!q.getGroupBy().isEmpty()) {
+            return unsuitable;
+        }
+        List<QuerySelectable> select = q.getSelect();
+        for (QuerySelectable selectable : select) {
+            if (selectable instanceof QueryFunction) {
+                return unsuitable;
+            } else if (!((selectable instanceof QueryClass)
+                        || (selectable instanceof QueryEvaluable)
+                        || (selectable instanceof QueryPathExpression))) {
+                // ObjectStoreBags, Clobs and friends have their own SQL
+                return unsuitable;
+            }
+        }
+        List<KeyColumn> retval = new ArrayList<KeyColumn>();
+        Set<FromElement> keyedClasses = new HashSet<FromElement>();
+        for (Object node : q.getEffectiveOrderBy()) {
+            boolean desc = false;
+            if (node instanceof OrderDescending) {
+                desc = true;
+                node = ((OrderDescending) node).getQueryOrderable();
+            }
+            if ((node instanceof QueryValue) || (node instanceof QueryPathExpression)) {
+                // These are not part of the SQL ORDER BY
+                continue;
+            }
+            KeyColumn column;
+            if (node instanceof QueryClass) {
+                QueryClass qc = (QueryClass) node;
+                if (!InterMineObject.class.isAssignableFrom(qc.getType())) {
+                    return unsuitable;
+                }
+                int selectIndex = select.indexOf(qc);
+                QueryField idField = new QueryField(qc, "id");
+                if (selectIndex == -1) {
+                    selectIndex = select.indexOf(idField);
+                    if (selectIndex == -1) {
+                        return unsuitable;
+                    }
+                    column = new KeyColumn(idField, desc, false, selectIndex, null);
+                } else {
+                    column = new KeyColumn(idField, desc, false, selectIndex, "id");
+                }
+                keyedClasses.add(qc);
+            } else if (node instanceof QueryField) {
+                QueryField qf = (QueryField) node;
+                FromElement fe = qf.getFromElement();
+                boolean nullable = true;
+                if (fe instanceof QueryClass) {
+                    String fieldName = qf.getFieldName();
+                    if ("id".equals(fieldName)) {
+                        nullable = false;
+                        keyedClasses.add(fe);
+                    } else if ("class".equals(fieldName)) {
+                        return unsuitable;
+                    } else {
+                        FieldDescriptor desc2 = schema.getModel().getFieldDescriptorsForClass(
+                                ((QueryClass) fe).getType()).get(fieldName);
+                        if ((desc2 instanceof AttributeDescriptor)
+                                && ((AttributeDescriptor) desc2).isPrimitive()) {
+                            nullable = false;
+                        }
+                    }
+                } else if (!(fe instanceof Query)) {
+                    return unsuitable;
+                }
+                int selectIndex = select.indexOf(qf);
+                if (selectIndex != -1) {
+                    column = new KeyColumn(qf, desc, nullable, selectIndex, null);
+                } else if (fe instanceof QueryClass) {
+                    selectIndex = select.indexOf(fe);
+                    if (selectIndex == -1) {
+                        return unsuitable;
+                    }
+                    column = new KeyColumn(qf, desc, nullable, selectIndex, qf.getFieldName());
+                } else {
+                    return unsuitable;
+                }
+            } else if ((node instanceof QueryEvaluable) && (!(node instanceof QueryFunction))) {
+                int selectIndex = select.indexOf(node);
+                if (selectIndex == -1) {
+                    return unsuitable;
+                }
+                column = new KeyColumn((QueryEvaluable) node, desc, true, selectIndex, null);
+            } else {
+                return unsuitable;
+            }
+            retval.add(column);
+        }
+        if (retval.isEmpty()) {
+            return unsuitable;
+        }
+        if (!q.isDistinct()) {
+            // Without DISTINCT, rows are only guaranteed to be unique if every class in the FROM
+            // list is identified by its id in the ORDER BY.
+            for (FromElement fe : q.getFrom()) {
+                if (!keyedClasses.contains(fe)) {
+                    return unsuitable;
+                }
+            }
+        }
+        return Collections.unmodifiableList(retval);
+    }
+
+    /**
+     * A position in the results of a query, described by the key of the row before it.
+     */
+    public static class KeysetPosition
+    {
+        private int row;
+        private List<Object> key;
+
+        /**
+         * Constructor.
+         *
+         * @param row the row number of the first row after the key
+         * @param key the values of the ORDER BY columns of the row before
+         */
+        public KeysetPosition(int row, List<Object> key) {
+            this.row = row;
+            this.key = key;
+        }
+
+        /**
+         * Returns the row number of the first row after the key.
+         *
+         * @return an int
+         */
+        public int getRow() {
+            return row;
+        }
+
+        /**
+         * Returns the values of the ORDER BY columns of the row before.
+         *
+         * @return a List of values
+         */
+        public List<Object> getKey() {
+            return key;
+        }
+    }
+
+    /**
+     * Describes one column of the key of a query, and how to read it out of a results row.
+     */
+    protected static class KeyColumn
+    {
+        private QueryEvaluable evaluable;
+        private boolean desc;
+        private boolean nullable;
+        private int selectIndex;
+        private String fieldName;
+
+        /**
+         * Constructor.
+         *
+         * @param evaluable the QueryEvaluable in the ORDER BY
+         * @param desc true if the ordering is descending
+         * @param nullable true if the column may contain null values
+         * @param selectIndex the index in the SELECT list to read the value from
+         * @param fieldName the name of the field to read from the object in the SELECT list, or
+         * null to use the value in the SELECT list directly
+         */
+        public KeyColumn(QueryEvaluable evaluable, boolean desc, boolean nullable,
+                int selectIndex, String fieldName) {
+            this.evaluable = evaluable;
+            this.desc = desc;
+            this.nullable = nullable;
+            this.selectIndex = selectIndex;
+            this.fieldName = fieldName;
+        }
+
+        /**
+         * Returns whether this column may contain null values.
+         *
+         * @return a boolean
+         */
+        public boolean isNullable() {
+            return nullable;
+        }
+
+        /**
+         * Reads the value of this column from a results row.
+         *
+         * @param row a ResultsRow
+         * @return the value
+         * @throws IllegalAccessException if the field cannot be read
+         */
+        public Object getValue(ResultsRow<Object> row) throws IllegalAccessException {
+            Object value = row.get(selectIndex);
+            if ((fieldName != null) && (value != null)) {
+                value = ((InterMineObject) value).getFieldValue(fieldName);
+            }
+            if (value instanceof InterMineObject) {
+                value = ((InterMineObject) value).getId();
+            }
+            return value;
+        }
+
+        /**
+         * Returns a constraint matching rows that have the given value in this column.
+         *
+         * @param value the value
+         * @return a Constraint
+         */
+        public Constraint equalTo(Object value) {
+            if (value == null) {
+                return new SimpleConstraint(evaluable, ConstraintOp.IS_NULL);
+            }
+            return new SimpleConstraint(evaluable, ConstraintOp.EQUALS, new QueryValue(value));
+        }
+
+        /**
+         * Returns a constraint matching rows that sort strictly after the given value in this
+         * column, or null if no value can sort after it. Postgres sorts nulls after all other
+         * values in ascending order, and before them in descending order.
+         *
+         * @param value the value
+         * @return a Constraint, or null
+         */
+        public Constraint after(Object value) {
+            if (value == null) {
+                return desc ? new SimpleConstraint(evaluable, ConstraintOp.IS_NOT_NULL) : null;
+            }
+            SimpleConstraint compare = new SimpleConstraint(evaluable,
+                    desc ? ConstraintOp.LESS_THAN : ConstraintOp.GREATER_THAN,
+                    new QueryValue(value));
+            if (desc || (!nullable)) {
+                return compare;
+            }
+            ConstraintSet cs = new ConstraintSet(ConstraintOp.OR);
+            cs.addConstraint(compare);
+            cs.addConstraint(new SimpleConstraint(evaluable, ConstraintOp.IS_NULL));
+            return cs;
+        }
+    }
+}
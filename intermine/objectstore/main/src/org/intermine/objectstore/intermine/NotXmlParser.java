@@ -11,11 +11,10 @@ package org.intermine.objectstore.intermine;
  */
 
 import java.util.Collection;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 import net.sf.cglib.proxy.Factory;
@@ -23,6 +22,7 @@ import net.sf.cglib.proxy.Factory;
 import org.apache.log4j.Logger;
 import org.intermine.metadata.CollectionDescriptor;
 import org.intermine.metadata.FieldDescriptor;
+import org.intermine.metadata.Model;
 import org.intermine.metadata.ReferenceDescriptor;
 import org.intermine.model.FastPathObject;
 import org.intermine.model.InterMineObject;
@@ -56,17 +56,19 @@ public final class NotXmlParser
      * A Pattern that will find delimiters.
      */
     public static final Pattern SPLITTER = Pattern.compile(DELIM, Pattern.LITERAL);
-    private static final Pattern SPACE_SPLITTER = Pattern.compile(" ", Pattern.LITERAL);
-    private static int opCount = 0;
-    private static long splitTime = 0;
-    private static long classTime = 0;
-    private static long createTime = 0;
-    private static long parseTime = 0;
-    private static Map<String, Class<? extends FastPathObject>> classCache
-        = Collections.synchronizedMap(new HashMap<String, Class<? extends FastPathObject>>());
+    private static final int DELIM_LENGTH = DELIM.length();
+    private static final char ENCODED_DELIM_CHAR = ENCODED_DELIM.charAt(0);
+    private static Map<String, ClassPlan> planCache = new ConcurrentHashMap<String, ClassPlan>();
+    private static volatile ClassPlan lastPlan = null;
 
     /**
      * Parse the given NotXml String into an Object.
+     * <p>
+     * The String is scanned once from start to end, without splitting it up. The class names
+     * are looked up in a cache of ClassPlans, each of which knows how to set every field that
+     * may appear for that class, so the only objects created are the result, its field values
+     * and its proxies. Strings in the CompactObjectFormat are recognised by their first character
+     * and parsed by that class instead.
      *
      * @param xml the NotXml String
      * @param os the ObjectStore from which to create lazy objects
@@ -80,174 +82,314 @@ public final class NotXmlParser
             e.fillInStackTrace();
             LOG.warn("Parsing " + xml, e);
         }
-        long time1 = System.currentTimeMillis();
-        String[] a = SPLITTER.split(xml);
-        long time2 = System.currentTimeMillis();
-        splitTime += time2 - time1;
+        if (CompactObjectFormat.isCompact(xml)) {
+            return CompactObjectFormat.parse(xml, os);
+        }
+        int length = xml.length();
+        int classEnd = xml.indexOf(DELIM, DELIM_LENGTH);
+        if (classEnd == -1) {
+            classEnd = length;
+        }
+        ClassPlan plan = getPlan(xml, DELIM_LENGTH, classEnd, os.getModel());
+        InterMineObject retval = (InterMineObject) DynamicUtil.createObject(plan.clazz);
+        Map<String, Object> valueMap = null;
+        boolean fetchFromInterMineObject = false;
+        if (plan.dynamic) {
+            valueMap = ((DynamicBean) ((Factory) retval).getCallback(0)).getMap();
+            fetchFromInterMineObject = os.getSchema().isFetchFromInterMineObject();
+        }
+
+        int pos = classEnd;
+        while (pos < length) {
+            // pos is at the delimiter before a field name
+            int nameStart = pos + DELIM_LENGTH;
+            int nameEnd = xml.indexOf(DELIM, nameStart);
+            if (nameEnd == -1) {
+                nameEnd = length;
+            }
+            FieldPlan field = plan.getField(xml, nameStart, nameEnd);
+            if (field == null) {
+                throw new IllegalArgumentException("Unknown field "
+                        + xml.substring(nameStart, nameEnd) + " for " + plan.clazz
+                        + " in NotXml: " + xml);
+            }
+            int valueStart = Math.min(nameEnd + DELIM_LENGTH, length);
+            int valueEnd = xml.indexOf(DELIM, valueStart);
+            if (valueEnd == -1) {
+                valueEnd = length;
+            }
+            Object value;
+            if (field.kind == FieldPlan.REFERENCE) {
+                Integer id = Integer.valueOf(parseInt(xml, valueStart, valueEnd));
+                value = new ProxyReference(os, id, fetchFromInterMineObject
+                        ? InterMineObject.class : field.referencedType);
+            } else if ((valueEnd + DELIM_LENGTH < length)
+                    && (xml.charAt(valueEnd + DELIM_LENGTH) == ENCODED_DELIM_CHAR)) {
+                // The value contains encoded delimiters
+                StringBuilder string = new StringBuilder(valueEnd - valueStart + 32);
+                string.append(xml, valueStart, valueEnd);
+                while ((valueEnd + DELIM_LENGTH < length)
+                        && (xml.charAt(valueEnd + DELIM_LENGTH) == ENCODED_DELIM_CHAR)) {
+                    int partStart = valueEnd + DELIM_LENGTH + 1;
+                    valueEnd = xml.indexOf(DELIM, partStart);
+                    if (valueEnd == -1) {
+                        valueEnd = length;
+                    }
+                    string.append(DELIM).append(xml, partStart, valueEnd);
+                }
+                value = field.convert(string.toString(), os);
+            } else {
+                value = field.convert(xml, valueStart, valueEnd, os);
+            }
+            if (valueMap != null) {
+                valueMap.put(field.fieldName, value);
+            } else {
+                retval.setFieldValue(field.fieldName, value);
+            }
+            pos = valueEnd;
+        }
+
+        for (int i = 0; i < plan.collectionNames.length; i++) {
+            Collection<Object> lazyColl = new ProxyCollection<Object>(os, retval,
+                    plan.collectionNames[i], plan.collectionTypes[i]);
+            if (valueMap != null) {
+                valueMap.put(plan.collectionNames[i], lazyColl);
+            } else {
+                retval.setFieldValue(plan.collectionNames[i], lazyColl);
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Returns the ClassPlan for the class names in the given region of the NotXml.
+     */
+    private static ClassPlan getPlan(String xml, int start, int end, Model model)
+        throws ClassNotFoundException {
+        ClassPlan plan = lastPlan;
+        // Results usually contain many objects of the same class, so check the last one used
+        // before making a String to look up in the cache
+        if ((plan != null) && (plan.model == model)
+                && (plan.classNames.length() == end - start)
+                && xml.regionMatches(start, plan.classNames, 0, end - start)) {
+            return plan;
+        }
+        String classNames = xml.substring(start, end);
+        plan = planCache.get(classNames);
+        if ((plan == null) || (plan.model != model)) {
+            plan = new ClassPlan(classNames, model);
+            planCache.put(classNames, plan);
+        }
+        lastPlan = plan;
+        return plan;
+    }
 
-        InterMineObject retval;
+    /**
+     * Parses an int from a region of a String without creating a substring, falling back to
+     * Integer.parseInt for anything other than an optional minus sign followed by digits.
+     */
+    private static int parseInt(String xml, int start, int end) {
+        long retval = 0;
+        int i = start;
+        boolean negative = (i < end) && (xml.charAt(i) == '-');
+        if (negative) {
+            i++;
+        }
+        if ((i == end) || (end - i > 10)) {
+            return Integer.parseInt(xml.substring(start, end));
+        }
+        for (; i < end; i++) {
+            char c = xml.charAt(i);
+            if ((c < '0') || (c > '9')) {
+                return Integer.parseInt(xml.substring(start, end));
+            }
+            retval = retval * 10 + (c - '0');
+        }
+        retval = negative ? -retval : retval;
+        if ((retval < Integer.MIN_VALUE) || (retval > Integer.MAX_VALUE)) {
+            return Integer.parseInt(xml.substring(start, end));
+        }
+        return (int) retval;
+    }
 
-        Class<? extends FastPathObject> clazz = classCache.get(a[1]);
-        if (clazz == null) {
+    /**
+     * Everything needed to parse the NotXml of one class: the class to instantiate, a table from
+     * each field name as it appears in the NotXml (with its "a" or "r" prefix) to a FieldPlan,
+     * and the collections to fill with ProxyCollections.
+     */
+    private static final class ClassPlan
+    {
+        final String classNames;
+        final Model model;
+        final Class<? extends FastPathObject> clazz;
+        final boolean dynamic;
+        final FieldPlan[] fields;
+        final int mask;
+        final String[] collectionNames;
+        final Class<?>[] collectionTypes;
+
+        ClassPlan(String classNames, Model model) throws ClassNotFoundException {
+            this.classNames = classNames;
+            this.model = model;
             Set<Class<?>> classes = new HashSet<Class<?>>();
-            if (!"".equals(a[1])) {
-                String[] b = SPACE_SPLITTER.split(a[1]);
-                for (int i = 0; i < b.length; i++) {
-                    classes.add(Class.forName(b[i]));
+            if (!"".equals(classNames)) {
+                int start = 0;
+                while (start <= classNames.length()) {
+                    int end = classNames.indexOf(' ', start);
+                    if (end == -1) {
+                        end = classNames.length();
+                    }
+                    classes.add(Class.forName(classNames.substring(start, end)));
+                    start = end + 1;
                 }
             }
-            time1 = System.currentTimeMillis();
-            classTime += time1 - time2;
-
-            retval = (InterMineObject) DynamicUtil.createObject(classes);
-            clazz = retval.getClass();
-            classCache.put(a[1], clazz);
-        } else {
-            time1 = System.currentTimeMillis();
-            classTime += time1 - time2;
-            retval = (InterMineObject) DynamicUtil.createObject(clazz);
-        }
-        time2 = System.currentTimeMillis();
-        createTime += time2 - time1;
-
-        if (retval instanceof Factory) {
-            DynamicBean bean = (DynamicBean) ((Factory) retval).getCallback(0);
-            Map<String, Object> valueMap = bean.getMap();
-            Map<String, FieldDescriptor> fields = os.getModel()
-                .getFieldDescriptorsForClass(retval.getClass());
+            clazz = DynamicUtil.createObject(classes).getClass();
+            dynamic = Factory.class.isAssignableFrom(clazz);
+
+            Map<String, FieldDescriptor> descriptors = model.getFieldDescriptorsForClass(clazz);
             Map<String, TypeUtil.FieldInfo> fieldInfos = TypeUtil.getFieldInfos(clazz);
-            boolean fetchFromInterMineObject = os.getSchema().isFetchFromInterMineObject();
-            for (int i = 2; i < a.length; i += 2) {
-                if (a[i].startsWith("a")) {
-                    String fieldName = a[i].substring(1).intern();
-                    Class<?> fieldClass = fieldInfos.get(fieldName).getType();
-                    String firstString = (i + 1 == a.length ? "" : a[i + 1]);
-                    StringBuffer string = null;
-                    while ((i + 2 < a.length) && (a[i + 2].startsWith(ENCODED_DELIM))) {
-                        i++;
-                        if (string == null) {
-                            string = new StringBuffer(firstString);
-                        }
-                        string.append(DELIM).append(a[i + 1].substring(1));
-                    }
-                    if (ClobAccess.class.equals(fieldClass)) {
-                        valueMap.put(fieldName, ClobAccess.decodeDbDescription(os, string == null
-                                ? firstString : string.toString()));
-                    } else {
-                        valueMap.put(fieldName,
-                                TypeUtil.stringToObject(fieldClass, (string == null ? firstString
-                                        : string.toString())));
-                    }
-                } else if (a[i].startsWith("r")) {
-                    String fieldName = a[i].substring(1).intern();
-                    Integer id = Integer.valueOf(a[i + 1]);
-                    if (fetchFromInterMineObject) {
-                        valueMap.put(fieldName, new ProxyReference(os, id,
-                                    InterMineObject.class));
-                    } else {
-                        ReferenceDescriptor ref = (ReferenceDescriptor) fields.get(fieldName);
-                        if (ref == null) {
-                            throw new RuntimeException("failed to get field " + fieldName
-                                    + " for object from XML: " + xml);
-                        }
-                        @SuppressWarnings("unchecked") Class<? extends InterMineObject> tmpType =
-                            (Class) ref.getReferencedClassDescriptor().getType();
-                        valueMap.put(fieldName, new ProxyReference(os, id, tmpType));
-                    }
+            int size = 4;
+            while (size < fieldInfos.size() * 4) {
+                size <<= 1;
+            }
+            fields = new FieldPlan[size];
+            mask = size - 1;
+            for (TypeUtil.FieldInfo info : fieldInfos.values()) {
+                FieldDescriptor fd = descriptors.get(info.getName());
+                if (fd instanceof CollectionDescriptor) {
+                    // Collections do not appear in the NotXml
+                    continue;
                 }
+                if (fd instanceof ReferenceDescriptor) {
+                    @SuppressWarnings("unchecked") Class<? extends InterMineObject> type =
+                        (Class) ((ReferenceDescriptor) fd).getReferencedClassDescriptor()
+                        .getType();
+                    add(new FieldPlan("r" + info.getName(), info.getName(), FieldPlan.REFERENCE,
+                                InterMineObject.class, type));
+                } else {
+                    add(new FieldPlan("a" + info.getName(), info.getName(),
+                                FieldPlan.kindOf(info.getType()), info.getType(), null));
+                }
+            }
+            Map<String, Class<?>> collections = model.getCollectionsForClass(clazz);
+            collectionNames = new String[collections.size()];
+            collectionTypes = new Class<?>[collections.size()];
+            int i = 0;
+            for (Map.Entry<String, Class<?>> collEntry : collections.entrySet()) {
+                collectionNames[i] = collEntry.getKey();
+                collectionTypes[i] = collEntry.getValue();
+                i++;
             }
+        }
 
-            for (Map.Entry<String, Class<?>> collEntry : os.getModel().getCollectionsForClass(clazz)
-                    .entrySet()) {
-                Collection<Object> lazyColl = new ProxyCollection<Object>(os, retval,
-                        collEntry.getKey(), collEntry.getValue());
-                valueMap.put(collEntry.getKey(), lazyColl);
-            }
-            time1 = System.currentTimeMillis();
-            parseTime += time1 - time2;
-            opCount++;
-            if (opCount >= 100000) {
-                LOG.info("(Fast Factory) Split: " + splitTime + " ms, Class: " + classTime
-                        + " ms, Create: " + createTime + " ms, Parse: " + parseTime + " ms");
-                opCount = 0;
-            }
-            return retval;
-        } else {
-            try {
-                retval.setoBJECT(a, os);
-    //                LOG.error("Used fast xml parser for class " + classes);
-                time1 = System.currentTimeMillis();
-                parseTime += time1 - time2;
-                opCount++;
-                if (opCount >= 100000) {
-                    LOG.info("(Fast Class) Split: " + splitTime + " ms, Class: " + classTime
-                            + " ms, Create: " + createTime + " ms, Parse: " + parseTime + " ms");
-                    opCount = 0;
-                }
-                return retval;
-            } catch (IllegalStateException e) {
-                // It's alright - fall back to old slow method.
-
-                //LOG.error("Falling back to slow parsing for " + retval.getClass(), e);
-
-                Map<String, FieldDescriptor> fields = os.getModel()
-                    .getFieldDescriptorsForClass(retval.getClass());
-                Map<String, TypeUtil.FieldInfo> fieldInfos = TypeUtil.getFieldInfos(clazz);
-                for (int i = 2; i < a.length; i += 2) {
-                    if (a[i].startsWith("a")) {
-                        String fieldName = a[i].substring(1);
-                        Class<?> fieldClass = fieldInfos.get(fieldName).getType();
-                        String firstString = (i + 1 == a.length ? "" : a[i + 1]);
-                        StringBuffer string = null;
-                        if (firstString.length() * 10 < xml.length() * 9) {
-                            string = new StringBuffer(firstString);
-                        }
-                        while ((i + 2 < a.length) && (a[i + 2].startsWith(ENCODED_DELIM))) {
-                            i++;
-                            if (string == null) {
-                                string = new StringBuffer(firstString);
-                            }
-                            string.append(DELIM).append(a[i + 1].substring(1));
-                        }
-                        if (ClobAccess.class.equals(fieldClass)) {
-                            retval.setFieldValue(fieldName, ClobAccess.decodeDbDescription(os,
-                                    string == null ? firstString : string.toString()));
-                        } else {
-                            retval.setFieldValue(fieldName, TypeUtil.stringToObject(fieldClass,
-                                    (string == null ? firstString : string.toString())));
-                        }
-                    } else if (a[i].startsWith("r")) {
-                        String fieldName = a[i].substring(1);
-                        Integer id = Integer.valueOf(a[i + 1]);
-                        ReferenceDescriptor ref = (ReferenceDescriptor) fields.get(fieldName);
-                        if (ref == null) {
-                            throw new RuntimeException("failed to get field " + fieldName
-                                    + " for object from XML: " + xml);
-                        }
-                        @SuppressWarnings("unchecked") Class<? extends InterMineObject> tmpType =
-                            (Class) ref.getReferencedClassDescriptor().getType();
-                        retval.setFieldValue(fieldName, new ProxyReference(os, id, tmpType));
-                    }
+        private void add(FieldPlan field) {
+            int index = hash(field.token, 0, field.token.length()) & mask;
+            while (fields[index] != null) {
+                index = (index + 1) & mask;
+            }
+            fields[index] = field;
+        }
+
+        FieldPlan getField(String xml, int start, int end) {
+            int length = end - start;
+            int index = hash(xml, start, end) & mask;
+            FieldPlan field = fields[index];
+            while (field != null) {
+                if ((field.token.length() == length)
+                        && xml.regionMatches(start, field.token, 0, length)) {
+                    return field;
                 }
+                index = (index + 1) & mask;
+                field = fields[index];
+            }
+            return null;
+        }
 
-                for (Map.Entry<String, FieldDescriptor> collEntry : fields.entrySet()) {
-                    FieldDescriptor maybeColl = collEntry.getValue();
-                    if (maybeColl instanceof CollectionDescriptor) {
-                        CollectionDescriptor coll = (CollectionDescriptor) maybeColl;
-                        Collection<Object> lazyColl = new ProxyCollection<Object>(os, retval,
-                                coll.getName(), coll.getReferencedClassDescriptor().getType());
-                        retval.setFieldValue(coll.getName(), lazyColl);
+        private static int hash(String s, int start, int end) {
+            int h = 0;
+            for (int i = start; i < end; i++) {
+                h = 31 * h + s.charAt(i);
+            }
+            return h ^ (h >>> 16);
+        }
+    }
+
+    /**
+     * How to convert the value of one field in the NotXml.
+     */
+    private static final class FieldPlan
+    {
+        static final int REFERENCE = 0;
+        static final int STRING = 1;
+        static final int INTEGER = 2;
+        static final int LONG = 3;
+        static final int BOOLEAN = 4;
+        static final int CLOB = 5;
+        static final int OTHER = 6;
+
+        final String token;
+        final String fieldName;
+        final int kind;
+        final Class<?> type;
+        final Class<? extends InterMineObject> referencedType;
+
+        FieldPlan(String token, String fieldName, int kind, Class<?> type,
+                Class<? extends InterMineObject> referencedType) {
+            this.token = token;
+            this.fieldName = fieldName;
+            this.kind = kind;
+            this.type = type;
+            this.referencedType = referencedType;
+        }
+
+        static int kindOf(Class<?> type) {
+            if (String.class.equals(type)) {
+                return STRING;
+            } else if (Integer.class.equals(type) || Integer.TYPE.equals(type)) {
+                return INTEGER;
+            } else if (Long.class.equals(type) || Long.TYPE.equals(type)) {
+                return LONG;
+            } else if (Boolean.class.equals(type) || Boolean.TYPE.equals(type)) {
+                return BOOLEAN;
+            } else if (ClobAccess.class.equals(type)) {
+                return CLOB;
+            }
+            return OTHER;
+        }
+
+        /**
+         * Converts a value held in a region of the NotXml String.
+         */
+        Object convert(String xml, int start, int end, ObjectStoreInterMineImpl os) {
+            switch (kind) {
+                case INTEGER:
+                    return Integer.valueOf(parseInt(xml, start, end));
+                case BOOLEAN:
+                    if ((end - start == 4) && xml.regionMatches(true, start, "true", 0, 4)) {
+                        return Boolean.TRUE;
+                    } else if ((end - start == 5)
+                            && xml.regionMatches(true, start, "false", 0, 5)) {
+                        return Boolean.FALSE;
                     }
-                }
-                time1 = System.currentTimeMillis();
-                parseTime += time1 - time2;
-                opCount++;
-                if (opCount >= 100000) {
-                    LOG.info("(Fallback) Split: " + splitTime + " ms, Class: " + classTime
-                            + " ms, Create: " + createTime + " ms, Parse: " + parseTime + " ms");
-                    opCount = 0;
-                }
-                return retval;
+                    return convert(xml.substring(start, end), os);
+                default:
+                    return convert(xml.substring(start, end), os);
+            }
+        }
+
+        /**
+         * Converts a value that has already been extracted from the NotXml.
+         */
+        Object convert(String value, ObjectStoreInterMineImpl os) {
+            switch (kind) {
+                case STRING:
+                    return value;
+                case LONG:
+                    return Long.valueOf(value);
+                case CLOB:
+                    return ClobAccess.decodeDbDescription(os, value);
+                default:
+                    return TypeUtil.stringToObject(type, value);
             }
         }
     }
@@ -0,0 +1,281 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.intermine.model.InterMineObject;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.cache.ObjectCache;
+
+/**
+ * Coalesces getObjectById lookups for an ObjectStoreInterMineImpl, so that many objects are
+ * fetched with a single "id IN (...)" query instead of one query each.
+ * <p>
+ * The first thread to ask for an object of a particular class opens a batch, and other threads
+ * asking for objects of the same class join that batch until it is dispatched. A batch is
+ * dispatched straight away if fewer than the maximum number of batch queries are running, so a
+ * lone thread sees no extra latency. Otherwise it collects lookups until a query finishes, the
+ * batch is full, or a short time has passed. Every thread in a batch waits for the single query
+ * and gets its own object out of the result.
+ * <p>
+ * IDs passed to prefetch() are queued, and added to the next batch of InterMineObject lookups.
+ * A lookup of a queued ID is moved into that batch whatever class it asks for, so touching one
+ * prefetched object fetches all the queued ones. A full queue of prefetches is fetched straight
+ * away. Objects fetched for prefetches are only put into the getObjectById cache.
+ */
+public class ObjectByIdLoader
+{
+    private static final Logger LOG = Logger.getLogger(ObjectByIdLoader.class);
+
+    /** The default maximum number of IDs in one batch */
+    public static final int DEFAULT_BATCH_SIZE = 200;
+    /** The default maximum number of batch queries running at once */
+    public static final int DEFAULT_CONCURRENCY = 4;
+    /** The longest time in milliseconds a batch will wait for a running query to finish */
+    public static final long MAX_WAIT = 10;
+
+    private final ObjectStoreInterMineImpl os;
+    private final int batchSize;
+    private final int concurrency;
+    private final Map<Class<?>, Batch> openBatches = new HashMap<Class<?>, Batch>();
+    private final Set<Integer> prefetched = new LinkedHashSet<Integer>();
+    private int inFlight = 0;
+    private long requestCount = 0;
+    private long batchCount = 0;
+    private long idCount = 0;
+
+    /**
+     * Constructs a new ObjectByIdLoader.
+     *
+     * @param os the ObjectStoreInterMineImpl to fetch objects from
+     * @param batchSize the maximum number of IDs to fetch in one query
+     * @param concurrency the maximum number of batch queries to run at once before lookups are
+     * held back to be coalesced
+     */
+    public ObjectByIdLoader(ObjectStoreInterMineImpl os, int batchSize, int concurrency) {
+        if ((batchSize < 1) || (concurrency < 1)) {
+            throw new IllegalArgumentException("Invalid batch size " + batchSize
+                    + " or concurrency " + concurrency);
+        }
+        this.os = os;
+        this.batchSize = batchSize;
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Fetches an object from the database, sharing the query with any other lookups being made
+     * at the same time.
+     *
+     * @param id the ID of the object
+     * @param clazz a class of the object
+     * @return the object, or null if there is no object with that ID of that class
+     * @throws ObjectStoreException if the query fails
+     */
+    public InterMineObject load(Integer id, Class<? extends InterMineObject> clazz)
+        throws ObjectStoreException {
+        Batch batch;
+        boolean leader = false;
+        synchronized (this) {
+            requestCount++;
+            // A prefetched ID has been queued for the InterMineObject batch, so fetch it there,
+            // and take all the other queued prefetches with it
+            Class<? extends InterMineObject> batchClass = (prefetched.contains(id)
+                    ? InterMineObject.class : clazz);
+            batch = openBatches.get(batchClass);
+            if (batch == null) {
+                batch = new Batch(batchClass);
+                openBatches.put(batchClass, batch);
+                leader = true;
+            }
+            batch.ids.add(id);
+            if (batch.ids.size() >= batchSize) {
+                openBatches.remove(batchClass);
+                notifyAll();
+            }
+        }
+        if (leader) {
+            dispatch(batch);
+        }
+        InterMineObject retval = batch.await(id);
+        if ((retval != null) && (!clazz.isInstance(retval))) {
+            // Fetched by a wider batch, but not an object of the class asked for
+            return null;
+        }
+        return retval;
+    }
+
+    /**
+     * Queues an ID to be fetched into the cache with the next batch of lookups.
+     *
+     * @param id the ID of an object
+     */
+    public void prefetch(Integer id) {
+        Batch batch = null;
+        synchronized (this) {
+            prefetched.add(id);
+            if (prefetched.size() >= batchSize) {
+                batch = new Batch(InterMineObject.class);
+                batch.ids.addAll(prefetched);
+                prefetched.clear();
+            }
+        }
+        if (batch != null) {
+            dispatch(batch);
+        }
+    }
+
+    /**
+     * Waits until the batch may be run, closes it to new lookups, runs the query, and hands the
+     * results to all the threads waiting on the batch.
+     */
+    private void dispatch(Batch batch) {
+        synchronized (this) {
+            long deadline = System.currentTimeMillis() + MAX_WAIT;
+            boolean interrupted = false;
+            while ((inFlight >= concurrency) && (batch.ids.size() < batchSize)) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (openBatches.get(batch.clazz) == batch) {
+                openBatches.remove(batch.clazz);
+            }
+            if (InterMineObject.class.equals(batch.clazz)) {
+                Iterator<Integer> iter = prefetched.iterator();
+                while (iter.hasNext() && (batch.ids.size() < batchSize)) {
+                    batch.ids.add(iter.next());
+                    iter.remove();
+                }
+            }
+            inFlight++;
+            batchCount++;
+            idCount += batch.ids.size();
+            if (batchCount % 1000 == 0) {
+                LOG.info("getObjectById batches: " + batchCount + ", average batch size: "
+                        + getAverageBatchSize() + ", lookups per batch: "
+                        + (((double) requestCount) / batchCount));
+            }
+        }
+        Map<Integer, InterMineObject> results = null;
+        ObjectStoreException failure = null;
+        try {
+            ObjectCache cache = os.getObjectCache();
+            long generation = cache.getGeneration();
+            results = os.internalGetObjectsByIds(batch.ids, batch.clazz);
+            for (Map.Entry<Integer, InterMineObject> entry : results.entrySet()) {
+                cache.cacheIfAbsent(entry.getKey(), entry.getValue(), generation);
+            }
+        } catch (ObjectStoreException e) {
+            failure = e;
+        } catch (RuntimeException e) {
+            failure = new ObjectStoreException("Error fetching a batch of objects by id", e);
+        } finally {
+            batch.complete(results, failure);
+            synchronized (this) {
+                inFlight--;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of lookups made through this loader.
+     *
+     * @return a long
+     */
+    public synchronized long getRequestCount() {
+        return requestCount;
+    }
+
+    /**
+     * Returns the number of batch queries run.
+     *
+     * @return a long
+     */
+    public synchronized long getBatchCount() {
+        return batchCount;
+    }
+
+    /**
+     * Returns the average number of IDs fetched by each batch query, including prefetches.
+     *
+     * @return a double
+     */
+    public synchronized double getAverageBatchSize() {
+        return batchCount == 0 ? 0.0 : ((double) idCount) / batchCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized String toString() {
+        return "ObjectByIdLoader (lookups = " + requestCount + ", batches = " + batchCount
+            + ", average batch size = " + getAverageBatchSize() + ")";
+    }
+
+    private static class Batch
+    {
+        final Class<? extends InterMineObject> clazz;
+        final Set<Integer> ids = new LinkedHashSet<Integer>();
+        private boolean done = false;
+        private Map<Integer, InterMineObject> results;
+        private ObjectStoreException failure;
+
+        Batch(Class<? extends InterMineObject> clazz) {
+            this.clazz = clazz;
+        }
+
+        synchronized void complete(Map<Integer, InterMineObject> newResults,
+                ObjectStoreException newFailure) {
+            results = newResults;
+            failure = newFailure;
+            if ((results == null) && (failure == null)) {
+                failure = new ObjectStoreException("Batch of objects by id was not fetched");
+            }
+            done = true;
+            notifyAll();
+        }
+
+        synchronized InterMineObject await(Integer id) throws ObjectStoreException {
+            boolean interrupted = false;
+            while (!done) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (failure != null) {
+                throw new ObjectStoreException("Error fetching object with id " + id, failure);
+            }
+            return results.get(id);
+        }
+    }
+}
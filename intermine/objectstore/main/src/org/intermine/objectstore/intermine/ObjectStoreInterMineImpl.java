@@ -35,6 +35,12 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.WeakHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 import org.intermine.metadata.ClassDescriptor;
@@ -48,6 +54,7 @@ import org.intermine.objectstore.ObjectStoreAbstractImpl;
 import org.intermine.objectstore.ObjectStoreException;
 import org.intermine.objectstore.ObjectStoreQueryDurationException;
 import org.intermine.objectstore.ObjectStoreWriter;
+import org.intermine.objectstore.cache.StripedObjectCache;
 import org.intermine.objectstore.query.BagConstraint;
 import org.intermine.objectstore.query.Clob;
 import org.intermine.objectstore.query.Constraint;
@@ -132,6 +139,11 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
     protected static final int SEQUENCE_MULTIPLE = 1000000;
     protected boolean logExplains = false;
     protected boolean disableResultsCache = false;
+    protected KeysetPagination keysetPagination = null;
+    protected ObjectByIdLoader objectByIdLoader = null;
+    protected boolean compactObjects = false;
+    protected ThreadPoolExecutor conversionPool = null;
+    protected boolean persistOptimiserCache = false;
 
     // don't use a table to represent bags if the bag is smaller than this value
     protected int minBagTableSize = -1;
@@ -339,6 +351,14 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
         String logExplainsString = props.getProperty("logExplains");
         String logBeforeExecuteString = props.getProperty("logBeforeExecute");
         String disableResultsCacheString = props.getProperty("disableResultsCache");
+        String keysetPaginationString = props.getProperty("keysetPagination");
+        String objectByIdBatchSizeString = props.getProperty("objectByIdBatchSize");
+        String objectByIdConcurrencyString = props.getProperty("objectByIdConcurrency");
+        String objectFormatString = props.getProperty("objectFormat");
+        String conversionThreadsString = props.getProperty("conversionThreads");
+        String optimiserCacheSizeString = props.getProperty("optimiserCacheSize");
+        String persistOptimiserCacheString = props.getProperty("persistOptimiserCache");
+        String optimiserThreadsString = props.getProperty("optimiserThreads");
 
         synchronized (instances) {
             ObjectStoreInterMineImpl os = instances.get(osAlias);
@@ -495,6 +515,67 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
                 if ("true".equals(disableResultsCacheString)) {
                     os.setDisableResultsCache(true);
                 }
+                if ("true".equals(keysetPaginationString)) {
+                    os.setKeysetPagination(true);
+                }
+                if (conversionThreadsString != null) {
+                    try {
+                        os.setConversionThreads(Integer.parseInt(conversionThreadsString));
+                    } catch (NumberFormatException e) {
+                        LOG.warn("Error setting conversionThreads: " + e);
+                    }
+                }
+                if ("compact".equals(objectFormatString)) {
+                    os.setCompactObjects(true);
+                } else if ((objectFormatString != null) && (!"notxml".equals(objectFormatString))) {
+                    throw new ObjectStoreException("Invalid value for property objectFormat: "
+                            + objectFormatString);
+                }
+                try {
+                    int objectByIdBatchSize = ObjectByIdLoader.DEFAULT_BATCH_SIZE;
+                    int objectByIdConcurrency = ObjectByIdLoader.DEFAULT_CONCURRENCY;
+                    if (objectByIdBatchSizeString != null) {
+                        objectByIdBatchSize = Integer.parseInt(objectByIdBatchSizeString);
+                    }
+                    if (objectByIdConcurrencyString != null) {
+                        objectByIdConcurrency = Integer.parseInt(objectByIdConcurrencyString);
+                    }
+                    os.setObjectByIdBatching(objectByIdBatchSize, objectByIdConcurrency);
+                } catch (NumberFormatException e) {
+                    LOG.warn("Error setting objectByIdBatchSize or objectByIdConcurrency: " + e);
+                }
+                if (props.getProperty("object-cache.type") != null) {
+                    // A cache for this store alone, rather than for every ObjectStore
+                    os.setObjectCache(createObjectCache(osAlias + " getObjectById cache", props));
+                }
+                if (os.cache instanceof StripedObjectCache) {
+                    // Only the shared instances are registered, not every writer
+                    ((StripedObjectCache) os.cache).registerMBean();
+                }
+                if (optimiserThreadsString != null) {
+                    try {
+                        os.limitedContext.setExplainThreads(Integer.parseInt(
+                                    optimiserThreadsString));
+                    } catch (IllegalArgumentException e) {
+                        LOG.warn("Error setting optimiserThreads: " + e);
+                    }
+                }
+                OptimiserCache optimiserCache = OptimiserCache.getInstance(database);
+                if (optimiserCacheSizeString != null) {
+                    try {
+                        optimiserCache.setCapacity(Integer.parseInt(optimiserCacheSizeString));
+                    } catch (IllegalArgumentException e) {
+                        LOG.warn("Error setting optimiserCacheSize: " + e);
+                    }
+                }
+                if ("true".equals(persistOptimiserCacheString)) {
+                    os.persistOptimiserCache = true;
+                    try {
+                        optimiserCache.load(database);
+                    } catch (SQLException e) {
+                        LOG.warn("Could not load optimiser cache from database: " + e);
+                    }
+                }
                 instances.put(osAlias, os);
             }
             return os;
@@ -643,6 +724,139 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
         return disableResultsCache;
     }
 
+    /**
+     * Sets the keysetPagination configuration option. When switched on, batches of suitable
+     * queries that follow an already-fetched batch are retrieved using a constraint on the ORDER
+     * BY columns of the last row seen rather than an OFFSET.
+     *
+     * @param keysetPagination a boolean
+     */
+    public synchronized void setKeysetPagination(boolean keysetPagination) {
+        if (keysetPagination) {
+            if (this.keysetPagination == null) {
+                this.keysetPagination = new KeysetPagination(schema);
+            }
+        } else {
+            this.keysetPagination = null;
+        }
+    }
+
+    /**
+     * Gets the keysetPagination configuration option.
+     *
+     * @return a boolean
+     */
+    public boolean getKeysetPagination() {
+        return keysetPagination != null;
+    }
+
+    /**
+     * Sets the format that the OBJECT fields of new objects are written in. When switched on,
+     * writers store objects in the CompactObjectFormat, otherwise in NotXml. Objects in either
+     * format are always readable, so this can be changed for an existing database.
+     *
+     * @param compactObjects a boolean
+     */
+    public void setCompactObjects(boolean compactObjects) {
+        this.compactObjects = compactObjects;
+    }
+
+    /**
+     * Gets the compactObjects configuration option.
+     *
+     * @return a boolean
+     */
+    public boolean getCompactObjects() {
+        return compactObjects;
+    }
+
+    /**
+     * Sets the number of threads used to parse the objects in large batches of results. The
+     * thread reading the ResultSet hands the OBJECT fields to these threads in chunks, and
+     * carries on reading. If every thread is busy and a few chunks are already waiting, the
+     * reading thread parses the next chunk itself. Zero switches this off, so that objects are
+     * parsed as they are read.
+     *
+     * @param threads the number of threads
+     */
+    public synchronized void setConversionThreads(int threads) {
+        ThreadPoolExecutor oldPool = conversionPool;
+        if (threads > 0) {
+            final String poolName = "ResultsConverter " + description + " ";
+            conversionPool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(threads * 2), new ThreadFactory() {
+                        private AtomicInteger threadNo = new AtomicInteger();
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, poolName + threadNo.incrementAndGet());
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    }, new ThreadPoolExecutor.CallerRunsPolicy());
+            conversionPool.allowCoreThreadTimeOut(true);
+        } else {
+            conversionPool = null;
+        }
+        if (oldPool != null) {
+            oldPool.shutdown();
+        }
+    }
+
+    /**
+     * Gets the number of threads used to parse objects in large batches of results.
+     *
+     * @return an int
+     */
+    public synchronized int getConversionThreads() {
+        return conversionPool == null ? 0 : conversionPool.getMaximumPoolSize();
+    }
+
+    /**
+     * Returns the pool of threads used to parse objects in large batches of results, or null if
+     * objects are parsed by the thread reading the results.
+     *
+     * @return an ExecutorService
+     */
+    public synchronized ExecutorService getConversionPool() {
+        return conversionPool;
+    }
+
+    /**
+     * Returns the KeysetPagination object holding the last seen keys of queries, or null if
+     * keyset pagination is switched off.
+     *
+     * @return a KeysetPagination object
+     */
+    public KeysetPagination getKeysetPaginationState() {
+        return keysetPagination;
+    }
+
+    /**
+     * Configures the coalescing of getObjectById lookups. Lookups made at the same time, and IDs
+     * passed to prefetchObjectById, are fetched together with one query of up to batchSize IDs.
+     * A batchSize of less than 2 switches coalescing off, so every lookup runs its own query.
+     *
+     * @param batchSize the maximum number of IDs to fetch in one query
+     * @param concurrency the number of batch queries that may run at once before further lookups
+     * are held back to be coalesced
+     */
+    public synchronized void setObjectByIdBatching(int batchSize, int concurrency) {
+        if (batchSize < 2) {
+            objectByIdLoader = null;
+        } else {
+            objectByIdLoader = new ObjectByIdLoader(this, batchSize, concurrency);
+        }
+    }
+
+    /**
+     * Returns the ObjectByIdLoader that coalesces getObjectById lookups, for access to its
+     * statistics, or null if coalescing is switched off.
+     *
+     * @return an ObjectByIdLoader
+     */
+    public ObjectByIdLoader getObjectByIdLoader() {
+        return objectByIdLoader;
+    }
+
     /**
      * Allows the log table to be flushed, guaranteeing that all log entries are committed to the
      * database.
@@ -995,6 +1209,83 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
         }
     }
 
+    /**
+     * Executes a Query through a single database cursor, returning an Iterator that reads and
+     * converts the rows a batch at a time as it is consumed. This is intended for exporting the
+     * whole of a large result set, where fetching it through a Results object would issue one
+     * query per batch. The returned object holds a database connection until it has been read to
+     * the end or closed.
+     *
+     * @param q the Query to run
+     * @return a StreamingResults object
+     * @throws ObjectStoreException if the query cannot be started
+     */
+    public StreamingResults executeStreaming(Query q) throws ObjectStoreException {
+        return executeStreaming(q, DEFAULT_BATCH_SIZE, true);
+    }
+
+    /**
+     * Executes a Query through a single database cursor, returning an Iterator that reads and
+     * converts the rows a batch at a time as it is consumed. The returned object holds a database
+     * connection until it has been read to the end or closed.
+     *
+     * @param q the Query to run
+     * @param fetchSize the number of rows to read from the cursor at a time
+     * @param optimise true if the query should be optimised
+     * @return a StreamingResults object
+     * @throws ObjectStoreException if the query cannot be started, or its estimated time is
+     * greater than the maximum allowed
+     */
+    public StreamingResults executeStreaming(Query q, int fetchSize, boolean optimise)
+        throws ObjectStoreException {
+        Map<Object, Integer> sequence = getSequence(getComponentsForQuery(q));
+        Connection c = null;
+        try {
+            c = getConnection();
+            String sql;
+            try {
+                sql = generateSql(c, q, 0, Integer.MAX_VALUE);
+                if (optimise && everOptimise()) {
+                    Set<PrecomputedTable> goFasterTables = goFasterMap.get(q);
+                    if (goFasterTables != null) {
+                        sql = QueryOptimiser.optimiseWith(sql, null, db, c,
+                                QueryOptimiserContext.DEFAULT, goFasterTables,
+                                goFasterCacheMap.get(q)).getBestQueryString();
+                    } else {
+                        sql = QueryOptimiser.optimise(sql, null, db, c,
+                                QueryOptimiserContext.DEFAULT).getBestQueryString();
+                    }
+                }
+            } catch (CompletelyFalseException e) {
+                sql = null;
+            }
+            if (sql != null) {
+                // the same guard as execute(), as the whole query is run through the cursor
+                ExplainResult explainResult = ExplainResult.getInstance(sql, c);
+                if (explainResult.getTime() > getMaxTime()) {
+                    throw (new ObjectStoreQueryDurationException("Estimated time to run query("
+                                + explainResult.getTime() + ") greater than permitted maximum ("
+                                + getMaxTime() + "): IQL query: " + q + ", SQL query: " + sql));
+                }
+            }
+            if (getLogBeforeExecute()) {
+                SQLLOGGER.info("(BEFORE STREAMING) iql: " + q + "\n" + "sql: " + sql);
+            }
+            // The cursor reads one snapshot of the database, so this is the only check needed
+            checkSequence(sequence, q, "Execute streaming ");
+            // The StreamingResults object takes ownership of the connection, even if it fails
+            Connection streamingConnection = c;
+            c = null;
+            return new StreamingResults(this, streamingConnection, q, sql, fetchSize, optimise,
+                    sequence);
+        } catch (SQLException e) {
+            throw new ObjectStoreException("Problem starting streaming query \"" + q + "\"", e);
+        } finally {
+            // Only non-null if we failed before handing the connection over
+            releaseConnection(c);
+        }
+    }
+
     /**
      * Overrides Object.finalize - release the DB log connection.
      *
@@ -1070,6 +1361,22 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
             LOG.warn("Exception caught while shutting down ObjectStoreInterMineImpl: "
                     + e);
         }
+        if (cache instanceof StripedObjectCache) {
+            LOG.info("getObjectById cache statistics: " + cache);
+            ((StripedObjectCache) cache).unregisterMBean();
+        }
+        if (conversionPool != null) {
+            conversionPool.shutdown();
+        }
+        OptimiserCache optimiserCache = OptimiserCache.getInstance(db);
+        LOG.info("Query optimiser cache statistics: " + optimiserCache);
+        if (persistOptimiserCache) {
+            try {
+                optimiserCache.dump(db);
+            } catch (SQLException e) {
+                LOG.warn("Could not save optimiser cache to database: " + e);
+            }
+        }
     }
 
     /**
@@ -1121,9 +1428,31 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
             flushOldTempBagTables(c);
         }
         long preGenTime = System.currentTimeMillis();
+        KeysetPagination keyset = keysetPagination;
+        if ((keyset != null) && (!keyset.isSuitable(q))) {
+            keyset = null;
+        }
         String sql;
         try {
-            sql = SqlGenerator.generate(q, start, limit, schema, db, bagConstraintTables);
+            KeysetPagination.KeysetPosition position = null;
+            if (keyset != null) {
+                position = keyset.getPosition(q, start);
+            }
+            if (position != null) {
+                Constraint keysetCon = keyset.buildConstraint(q, position.getKey());
+                if (keysetCon == null) {
+                    return Collections.emptyList();
+                }
+                synchronized (q) {
+                    sql = SqlGenerator.generate(q, schema, db, keysetCon,
+                            SqlGenerator.QUERY_NORMAL, bagConstraintTables);
+                }
+                int offset = start - position.getRow();
+                sql += (limit == Integer.MAX_VALUE ? "" : " LIMIT " + limit)
+                    + (offset == 0 ? "" : " OFFSET " + offset);
+            } else {
+                sql = SqlGenerator.generate(q, start, limit, schema, db, bagConstraintTables);
+            }
         } catch (CompletelyFalseException e) {
             return Collections.emptyList();
         }
@@ -1264,6 +1593,10 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
                     }
                 }
             }
+            if (keyset != null) {
+                keyset.registerBatch(q, start, objResults);
+                return objResults;
+            }
             Object firstOrderByObject = q.getEffectiveOrderBy().iterator().next();
             if ((firstOrderByObject instanceof QueryOrderable)
                     && (!(firstOrderByObject instanceof QueryObjectReference))) {
@@ -1677,6 +2010,10 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
             if ((tablesAltered.size() > 1) || (!tablesAltered.contains(INT_BAG_TABLE_NAME))) {
                 flushObjectById();
             }
+            KeysetPagination keyset = keysetPagination;
+            if (keyset != null) {
+                keyset.flush();
+            }
             try {
                 PrecomputedTableManager ptm = PrecomputedTableManager.getInstance(db);
                 ptm.dropAffected(tableNames);
@@ -1711,6 +2048,10 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
         if (schema.isFlatMode(clazz)) {
             return super.internalGetObjectById(id, clazz);
         }
+        ObjectByIdLoader loader = objectByIdLoader;
+        if (loader != null) {
+            return loader.load(id, clazz);
+        }
         Connection c = null;
         try {
             c = getConnection();
@@ -1722,6 +2063,70 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
         }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * When getObjectById lookups are being coalesced, the ID is queued and fetched with the next
+     * batch of lookups, rather than straight away.
+     */
+    @Override
+    public void prefetchObjectById(Integer id) {
+        ObjectByIdLoader loader = objectByIdLoader;
+        if ((loader == null) || schema.isFlatMode(InterMineObject.class)) {
+            super.prefetchObjectById(id);
+        } else if (!cache.containsKey(id)) {
+            getObjectPrefetches++;
+            loader.prefetch(id);
+        }
+    }
+
+    /**
+     * Fetches a set of objects by id with a single query. Used by ObjectByIdLoader.
+     *
+     * @param ids the IDs of the objects to fetch
+     * @param clazz a class that all the objects are
+     * @return a Map from ID to object, for those IDs that were found
+     * @throws ObjectStoreException if an error occurs
+     */
+    protected Map<Integer, InterMineObject> internalGetObjectsByIds(Collection<Integer> ids,
+            Class<?> clazz) throws ObjectStoreException {
+        Map<Integer, InterMineObject> retval = new HashMap<Integer, InterMineObject>();
+        if (ids.isEmpty()) {
+            return retval;
+        }
+        String sql = SqlGenerator.generateQueryForIds(ids, clazz, schema);
+        String currentColumn = null;
+        Connection c = null;
+        try {
+            c = getConnection();
+            Statement s = c.createStatement();
+            ResultSet sqlResults;
+            registerStatement(s);
+            try {
+                sqlResults = s.executeQuery(sql);
+            } finally {
+                deregisterStatement(s);
+            }
+            while (sqlResults.next()) {
+                currentColumn = sqlResults.getString("a1_");
+                InterMineObject o = NotXmlParser.parse(currentColumn, this);
+                if (retval.put(o.getId(), o) != null) {
+                    throw new ObjectStoreException("More than one object in the database has the"
+                            + " primary key " + o.getId());
+                }
+            }
+            s.close();
+        } catch (SQLException e) {
+            throw new ObjectStoreException("Problem running SQL statement \"" + sql + "\"", e);
+        } catch (ClassNotFoundException e) {
+            throw new ObjectStoreException("Unknown class mentioned in database OBJECT field"
+                    + " while converting results: " + currentColumn, e);
+        } finally {
+            releaseConnection(c);
+        }
+        return retval;
+    }
+
     /**
      * Gets an object by id given a Connection.
      *
@@ -26,6 +26,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
 
 import org.intermine.metadata.AttributeDescriptor;
 import org.intermine.metadata.ClassDescriptor;
@@ -104,7 +105,10 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
     public ObjectStoreWriterInterMineImpl(ObjectStore os) throws ObjectStoreException {
         super(((ObjectStoreInterMineImpl) os).getModel());
         schema = ((ObjectStoreInterMineImpl) os).getSchema();
-        limitedContext = ((ObjectStoreInterMineImpl) os).limitedContext;
+        // Candidate queries must be explained on the writer's own connection, so that they can
+        // see data and bag tables that have not been committed yet
+        limitedContext = new QueryOptimiserContext();
+        limitedContext.setTimeLimit(((ObjectStoreInterMineImpl) os).limitedContext.getTimeLimit());
         description = "Writer(" + ((ObjectStoreInterMineImpl) os).description + ")";
         if (os instanceof ObjectStoreWriter) {
             throw new ObjectStoreException("Cannot create an ObjectStoreWriterInterMineImpl from "
@@ -331,6 +335,30 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
         return os.getDisableResultsCache();
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setConversionThreads(@SuppressWarnings("unused") int threads) {
+        throw new UnsupportedOperationException("Cannot change conversionThreads on a writer");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getConversionThreads() {
+        return os.getConversionThreads();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ExecutorService getConversionPool() {
+        return os.getConversionPool();
+    }
+
     /**
      * Allows the changing of the BatchWriter that this ObjectStoreWriter uses.
      *
@@ -643,7 +671,9 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
                             value = objectClass;
                         } else if ("OBJECT".equals(tableInfo.colNames[colNo])) {
                             if (xml == null) {
-                                if (o instanceof InterMineObject) {
+                                if (os.getCompactObjects()) {
+                                    xml = CompactObjectFormat.render(o, getModel());
+                                } else if (o instanceof InterMineObject) {
                                     xml = ((InterMineObject) o).getoBJECT();
                                 } else {
                                     xml = NotXmlRenderer.render(o);
@@ -0,0 +1,476 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.QuerySelectable;
+import org.intermine.objectstore.query.ResultsInfo;
+import org.intermine.objectstore.query.iql.IqlQuery;
+import org.intermine.sql.precompute.PrecomputedTable;
+import org.intermine.sql.precompute.PrecomputedTableManager;
+
+/**
+ * Uses the queries recorded in an objectstore's execute log or log table to decide which
+ * precomputed tables are worth having.
+ * <p>
+ * Each precomputed table is credited with a use every time a logged query was run using it.
+ * Queries that were run without a precomputed table are grouped by their IQL, and each is
+ * scored by the time it would save, taken to be the number of times it was run multiplied by its
+ * mean execution time, divided by the estimated size of a precomputed table for it. A plan then
+ * drops unused tables in chosen categories, and adds the best-scoring queries while the total
+ * size of the precomputed tables stays within a disk budget.
+ */
+public class PrecomputeAdvisor
+{
+    private static final Logger LOG = Logger.getLogger(PrecomputeAdvisor.class);
+    private static final Pattern TOKENS = Pattern.compile("[^A-Za-z0-9_]+");
+
+    /** The category of precomputed tables created by the advisor. */
+    public static final String CATEGORY = "advisor";
+    /** Estimated bytes per row in a precomputed table for each object in the SELECT list. */
+    public static final long OBJECT_BYTES = 300;
+    /** Estimated bytes per row in a precomputed table for each other value in the SELECT list. */
+    public static final long VALUE_BYTES = 20;
+
+    private ObjectStoreInterMineImpl os;
+    private Map<String, TableUsage> usage = new LinkedHashMap<String, TableUsage>();
+    private Map<String, Workload> workload = new HashMap<String, Workload>();
+    private int entryCount = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param os the ObjectStoreInterMineImpl that ran the queries, or null if the advisor will
+     * only be used to count usage
+     * @param tables the precomputed tables in the database
+     */
+    public PrecomputeAdvisor(ObjectStoreInterMineImpl os, Collection<PrecomputedTable> tables) {
+        this.os = os;
+        for (PrecomputedTable pt : tables) {
+            usage.put(pt.getName().toLowerCase(), new TableUsage(pt.getName(), pt.getCategory()));
+        }
+    }
+
+    /**
+     * Records a query from the log.
+     *
+     * @param entry a QueryLogEntry
+     */
+    public void add(QueryLogEntry entry) {
+        entryCount++;
+        boolean served = false;
+        for (String token : TOKENS.split(entry.getSql())) {
+            TableUsage tableUsage = usage.get(token.toLowerCase());
+            if (tableUsage != null) {
+                tableUsage.uses++;
+                tableUsage.executeTime += entry.getExecute();
+                served = true;
+            }
+        }
+        if (!served) {
+            Workload load = workload.get(entry.getIql());
+            if (load == null) {
+                load = new Workload(entry.getIql());
+                workload.put(entry.getIql(), load);
+            }
+            load.uses++;
+            load.executeTime += entry.getExecute();
+        }
+    }
+
+    /**
+     * Records queries from the log.
+     *
+     * @param entries a Collection of QueryLogEntry objects
+     */
+    public void addAll(Collection<QueryLogEntry> entries) {
+        for (QueryLogEntry entry : entries) {
+            add(entry);
+        }
+    }
+
+    /**
+     * Fetches the size on disk of each precomputed table, including its indexes.
+     *
+     * @param c a Connection to the database
+     * @throws SQLException if something goes wrong
+     */
+    public void measureTables(Connection c) throws SQLException {
+        PreparedStatement s = c.prepareStatement("SELECT pg_total_relation_size(?)");
+        try {
+            for (TableUsage tableUsage : usage.values()) {
+                s.setString(1, tableUsage.name);
+                ResultSet r = s.executeQuery();
+                if (r.next()) {
+                    tableUsage.size = r.getLong(1);
+                }
+                r.close();
+            }
+        } finally {
+            s.close();
+        }
+    }
+
+    /**
+     * Returns the usage of each precomputed table, least used first.
+     *
+     * @return a List of TableUsage objects
+     */
+    public List<TableUsage> getUsage() {
+        List<TableUsage> retval = new ArrayList<TableUsage>(usage.values());
+        Collections.sort(retval, new Comparator<TableUsage>() {
+            public int compare(TableUsage a, TableUsage b) {
+                if (a.uses != b.uses) {
+                    return a.uses < b.uses ? -1 : 1;
+                }
+                return a.name.compareTo(b.name);
+            }
+        });
+        return retval;
+    }
+
+    /**
+     * Works out which of the logged queries that were run without a precomputed table could be
+     * precomputed, and scores them. Queries that cannot be parsed from the log (for example
+     * because they contain bags), and those that were run fewer than minUses times or took less
+     * than minTime milliseconds on average, are not considered.
+     *
+     * @param minUses the minimum number of times a query must have been run
+     * @param minTime the minimum mean execution time in milliseconds
+     * @return a List of Candidates, best first
+     * @throws ObjectStoreException if a query cannot be estimated
+     */
+    public List<Candidate> getCandidates(int minUses, long minTime) throws ObjectStoreException {
+        List<Candidate> retval = new ArrayList<Candidate>();
+        int unparsable = 0;
+        for (Workload load : workload.values()) {
+            if ((load.uses < minUses) || (load.executeTime < minTime * load.uses)) {
+                continue;
+            }
+            Query q;
+            try {
+                q = new IqlQuery(load.iql, os.getModel().getPackageName()).toQuery();
+            } catch (RuntimeException e) {
+                unparsable++;
+                continue;
+            }
+            ResultsInfo info = os.estimate(q);
+            retval.add(new Candidate(q, load.iql, load.uses, load.executeTime,
+                        estimateSize(q, info.getRows())));
+        }
+        Collections.sort(retval);
+        LOG.info("Found " + retval.size() + " candidate queries to precompute from "
+                + entryCount + " log entries (" + unparsable + " could not be parsed)");
+        return retval;
+    }
+
+    /**
+     * Returns a rough estimate of the size of a precomputed table for a query.
+     *
+     * @param q the Query
+     * @param rows the estimated number of rows
+     * @return a number of bytes
+     */
+    protected static long estimateSize(Query q, long rows) {
+        long rowSize = 0;
+        for (QuerySelectable qs : q.getSelect()) {
+            rowSize += (qs instanceof QueryClass ? OBJECT_BYTES : VALUE_BYTES);
+        }
+        return rows * rowSize;
+    }
+
+    /**
+     * Decides which precomputed tables to drop and which to create. Tables in one of the given
+     * categories that were never used are dropped. Then candidates are added, best first,
+     * while the total size of the precomputed tables stays within the disk budget.
+     *
+     * @param candidates the Candidates, best first
+     * @param diskBudget the maximum total size in bytes of all precomputed tables
+     * @param maxNew the maximum number of tables to create
+     * @param dropCategories the categories of tables that may be dropped
+     * @return a Plan
+     */
+    public Plan plan(List<Candidate> candidates, long diskBudget, int maxNew,
+            Set<String> dropCategories) {
+        Plan plan = new Plan();
+        long size = 0;
+        for (TableUsage tableUsage : usage.values()) {
+            if ((tableUsage.uses == 0) && dropCategories.contains(tableUsage.category)) {
+                plan.drop.add(tableUsage);
+            } else {
+                size += tableUsage.size;
+            }
+        }
+        for (Candidate candidate : candidates) {
+            if (plan.create.size() >= maxNew) {
+                break;
+            }
+            if (size + candidate.size <= diskBudget) {
+                plan.create.add(candidate);
+                size += candidate.size;
+            }
+        }
+        plan.size = size;
+        return plan;
+    }
+
+    /**
+     * Carries out a plan, dropping tables one at a time and then creating tables in parallel.
+     *
+     * @param plan the Plan
+     * @param threads the number of tables to create at once
+     * @throws ObjectStoreException if something goes wrong
+     */
+    public void apply(Plan plan, int threads) throws ObjectStoreException {
+        try {
+            PrecomputedTableManager ptm = PrecomputedTableManager.getInstance(os.getDatabase());
+            Set<String> toDrop = new HashSet<String>();
+            for (TableUsage tableUsage : plan.drop) {
+                toDrop.add(tableUsage.name);
+            }
+            for (PrecomputedTable pt : new ArrayList<PrecomputedTable>(
+                        ptm.getPrecomputedTables())) {
+                if (toDrop.contains(pt.getName())) {
+                    ptm.delete(pt);
+                }
+            }
+        } catch (SQLException e) {
+            throw new ObjectStoreException("Error dropping precomputed tables", e);
+        }
+        List<ParallelPrecomputer.Job> jobs = new ArrayList<ParallelPrecomputer.Job>();
+        for (Candidate candidate : plan.create) {
+            jobs.add(new ParallelPrecomputer.Job(candidate.iql, candidate.query, null, false,
+                        CATEGORY));
+        }
+        new ParallelPrecomputer(os, threads).precompute(jobs);
+    }
+
+    /**
+     * Describes the usage of the precomputed tables and a plan.
+     *
+     * @param plan a Plan, or null
+     * @return a String
+     */
+    public String report(Plan plan) {
+        StringBuilder retval = new StringBuilder("Precomputed table usage from " + entryCount
+                + " log entries:\n");
+        for (TableUsage tableUsage : getUsage()) {
+            retval.append("  ").append(tableUsage).append("\n");
+        }
+        if (plan != null) {
+            retval.append("Drop ").append(plan.drop.size()).append(" unused tables:\n");
+            for (TableUsage tableUsage : plan.drop) {
+                retval.append("  ").append(tableUsage.name).append("\n");
+            }
+            retval.append("Create ").append(plan.create.size()).append(" tables:\n");
+            for (Candidate candidate : plan.create) {
+                retval.append("  ").append(candidate).append("\n");
+            }
+            retval.append("Estimated total size afterwards: ").append(plan.size)
+                .append(" bytes\n");
+        }
+        return retval.toString();
+    }
+
+    /**
+     * The number of times logged queries used a precomputed table.
+     */
+    public static class TableUsage
+    {
+        protected String name;
+        protected String category;
+        protected int uses = 0;
+        protected long executeTime = 0;
+        protected long size = 0;
+
+        /**
+         * Constructor.
+         *
+         * @param name the name of the precomputed table
+         * @param category the category of the precomputed table
+         */
+        public TableUsage(String name, String category) {
+            this.name = name;
+            this.category = category;
+        }
+
+        /**
+         * @return the name of the precomputed table
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the number of logged queries that used the table
+         */
+        public int getUses() {
+            return uses;
+        }
+
+        /**
+         * @return the total execution time in milliseconds of the queries that used the table
+         */
+        public long getExecuteTime() {
+            return executeTime;
+        }
+
+        /**
+         * @return the size of the table in bytes, if it has been measured
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return name + " (" + category + "): " + uses + " uses, " + executeTime
+                + " ms executing, " + size + " bytes";
+        }
+    }
+
+    /**
+     * The logged queries with the same IQL that did not use a precomputed table.
+     */
+    private static class Workload
+    {
+        String iql;
+        int uses = 0;
+        long executeTime = 0;
+
+        Workload(String iql) {
+            this.iql = iql;
+        }
+    }
+
+    /**
+     * A query that could be precomputed.
+     */
+    public static class Candidate implements Comparable<Candidate>
+    {
+        protected Query query;
+        protected String iql;
+        protected int uses;
+        protected long executeTime;
+        protected long size;
+
+        /**
+         * Constructor.
+         *
+         * @param query the Query to precompute
+         * @param iql the IQL of the query, as logged
+         * @param uses the number of times the query was run
+         * @param executeTime the total execution time of the query in milliseconds
+         * @param size the estimated size of a precomputed table for the query in bytes
+         */
+        public Candidate(Query query, String iql, int uses, long executeTime, long size) {
+            this.query = query;
+            this.iql = iql;
+            this.uses = uses;
+            this.executeTime = executeTime;
+            this.size = size;
+        }
+
+        /**
+         * Returns the number of milliseconds of execution time the precomputed table would
+         * save per megabyte of disk.
+         *
+         * @return a double
+         */
+        public double getScore() {
+            return executeTime / Math.max(1.0, size / 1048576.0);
+        }
+
+        /**
+         * @return the IQL of the query
+         */
+        public String getIql() {
+            return iql;
+        }
+
+        /**
+         * @return the estimated size of the precomputed table in bytes
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public int compareTo(Candidate c) {
+            int retval = Double.compare(c.getScore(), getScore());
+            return (retval != 0 ? retval : iql.compareTo(c.iql));
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return "score " + ((long) getScore()) + ": " + uses + " uses, " + executeTime
+                + " ms executing, about " + size + " bytes: " + iql;
+        }
+    }
+
+    /**
+     * The precomputed tables to drop and create.
+     */
+    public static class Plan
+    {
+        protected List<TableUsage> drop = new ArrayList<TableUsage>();
+        protected List<Candidate> create = new ArrayList<Candidate>();
+        protected long size = 0;
+
+        /**
+         * @return the tables to drop
+         */
+        public List<TableUsage> getDrop() {
+            return drop;
+        }
+
+        /**
+         * @return the queries to precompute
+         */
+        public List<Candidate> getCreate() {
+            return create;
+        }
+
+        /**
+         * @return the estimated total size in bytes of the precomputed tables afterwards
+         */
+        public long getSize() {
+            return size;
+        }
+    }
+}
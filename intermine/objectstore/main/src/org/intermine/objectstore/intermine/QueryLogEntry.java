@@ -0,0 +1,205 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A query that was run by an ObjectStoreInterMineImpl, as recorded in its execute log (the
+ * logfile property) or log table (the logTable property).
+ */
+public class QueryLogEntry
+{
+    private String iql;
+    private String sql;
+    private long optimise;
+    private long execute;
+
+    /**
+     * Constructor.
+     *
+     * @param iql the IQL of the query
+     * @param sql the SQL that was run, after optimisation
+     * @param optimise the number of milliseconds spent optimising the query
+     * @param execute the number of milliseconds spent executing the query
+     */
+    public QueryLogEntry(String iql, String sql, long optimise, long execute) {
+        this.iql = iql;
+        this.sql = sql;
+        this.optimise = optimise;
+        this.execute = execute;
+    }
+
+    /**
+     * Returns the IQL of the query, including the values of any parameters.
+     *
+     * @return a String
+     */
+    public String getIql() {
+        return iql;
+    }
+
+    /**
+     * Returns the SQL that was run, after optimisation.
+     *
+     * @return a String
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * Returns the number of milliseconds spent optimising the query.
+     *
+     * @return a long
+     */
+    public long getOptimise() {
+        return optimise;
+    }
+
+    /**
+     * Returns the number of milliseconds spent executing the query.
+     *
+     * @return a long
+     */
+    public long getExecute() {
+        return execute;
+    }
+
+    /**
+     * Parses a line of an execute log.
+     *
+     * @param line a line of the log
+     * @return a QueryLogEntry, or null if the line does not describe an executed query
+     */
+    public static QueryLogEntry parse(String line) {
+        String[] fields = line.split("\t");
+        if ((fields.length != 8) || (!"EXECUTE".equals(fields[0]))) {
+            return null;
+        }
+        try {
+            return new QueryLogEntry(fields[6], fields[7], parseTime(fields[1], "optimise: "),
+                    parseTime(fields[3], "execute: "));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static long parseTime(String field, String label) {
+        if (!field.startsWith(label)) {
+            throw new NumberFormatException("Expected " + label + " but got " + field);
+        }
+        return Long.parseLong(field.substring(label.length()));
+    }
+
+    /**
+     * Reads the most recent entries from an execute log file.
+     *
+     * @param fileName the name of the file
+     * @param maxEntries the maximum number of entries to read
+     * @return a List of the last maxEntries QueryLogEntry objects, in the order they were logged
+     * @throws IOException if the file cannot be read
+     */
+    public static List<QueryLogEntry> readFile(String fileName, int maxEntries)
+        throws IOException {
+        ArrayDeque<QueryLogEntry> retval = new ArrayDeque<QueryLogEntry>();
+        if (maxEntries < 1) {
+            return new ArrayList<QueryLogEntry>();
+        }
+        BufferedReader reader = new BufferedReader(new FileReader(fileName));
+        try {
+            String line = reader.readLine();
+            while (line != null) {
+                QueryLogEntry entry = parse(line);
+                if (entry != null) {
+                    if (retval.size() >= maxEntries) {
+                        retval.removeFirst();
+                    }
+                    retval.addLast(entry);
+                }
+                line = reader.readLine();
+            }
+        } finally {
+            reader.close();
+        }
+        return new ArrayList<QueryLogEntry>(retval);
+    }
+
+    /**
+     * Reads the most recent entries from a log table.
+     *
+     * @param c a Connection to the database containing the table
+     * @param tableName the name of the log table
+     * @param maxEntries the maximum number of entries to read
+     * @return a List of the last maxEntries QueryLogEntry objects, in the order they were logged
+     * @throws SQLException if the table cannot be read
+     */
+    public static List<QueryLogEntry> readTable(Connection c, String tableName, int maxEntries)
+        throws SQLException {
+        List<QueryLogEntry> retval = new ArrayList<QueryLogEntry>();
+        Statement s = c.createStatement();
+        try {
+            s.setMaxRows(maxEntries);
+            ResultSet r = s.executeQuery("SELECT iql, sql, optimise, execute FROM " + tableName
+                    + " ORDER BY timestamp DESC");
+            while (r.next()) {
+                retval.add(new QueryLogEntry(r.getString(1), r.getString(2), r.getLong(3),
+                            r.getLong(4)));
+            }
+        } finally {
+            s.close();
+        }
+        Collections.reverse(retval);
+        return retval;
+    }
+
+    /**
+     * Reads entries from either an execute log file or a log table in an objectstore's database.
+     *
+     * @param os the ObjectStoreInterMineImpl whose database contains the log table
+     * @param fileName the name of the execute log file, or null to read the log table
+     * @param tableName the name of the log table, used if fileName is null
+     * @param maxEntries the maximum number of entries to read
+     * @return a List of the last maxEntries QueryLogEntry objects, in the order they were logged
+     * @throws IOException if the file cannot be read
+     * @throws SQLException if the table cannot be read
+     */
+    public static List<QueryLogEntry> read(ObjectStoreInterMineImpl os, String fileName,
+            String tableName, int maxEntries) throws IOException, SQLException {
+        if (fileName != null) {
+            return readFile(fileName, maxEntries);
+        }
+        Connection c = os.getConnection();
+        try {
+            return readTable(c, tableName, maxEntries);
+        } finally {
+            os.releaseConnection(c);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "optimise: " + optimise + ", execute: " + execute + ", " + iql;
+    }
+}
@@ -24,6 +24,10 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.intermine.metadata.AttributeDescriptor;
 import org.intermine.metadata.CollectionDescriptor;
@@ -62,6 +66,12 @@ public final class ResultsConverter
     private ResultsConverter() {
     }
 
+    /**
+     * The number of objects parsed together by one thread, when objects are parsed in parallel.
+     * Batches with fewer objects than this are parsed by the thread reading the ResultSet.
+     */
+    public static final int CONVERSION_CHUNK_SIZE = 250;
+
     /**
      * Method to convert from SQL results to InterMine object-based results.
      * This method accepts an SQL ResultSet and a Query as an input. The ResultSet must contain a
@@ -70,6 +80,10 @@ public final class ResultsConverter
      * any other value.
      * <br>
      * This method will return a List of ResultsRow objects.
+     * <br>
+     * If the ObjectStore has a conversion pool, the OBJECT fields are handed to it to be parsed
+     * in chunks while the ResultSet is still being read. Each chunk puts its objects straight
+     * into their places in the rows, so the order of the results is unchanged.
      *
      * @param sqlResults the ResultSet
      * @param q the Query
@@ -88,6 +102,34 @@ public final class ResultsConverter
             ObjectStoreInterMineImpl os, Connection c, Map<Object, Integer> sequence,
             boolean optimise, ExtraQueryTime extra, Set<PrecomputedTable> goFasterTables,
             OptimiserCache goFasterCache) throws ObjectStoreException {
+        return convert(sqlResults, q, os, c, sequence, optimise, extra, goFasterTables,
+                goFasterCache, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Method to convert from SQL results to InterMine object-based results, reading no more than
+     * a given number of rows from the ResultSet. The ResultSet is left positioned so that a
+     * further call will carry on from the next row, which allows a large ResultSet to be
+     * converted in pieces.
+     *
+     * @param sqlResults the ResultSet
+     * @param q the Query
+     * @param os the ObjectStoreInterMineImpl with which to associate any new lazy objects
+     * @param c a Connection with which to make extra requests
+     * @param sequence an object representing the state of the database
+     * @param optimise whether to use optimisation on path expression queries
+     * @param extra object to record extra query execution time
+     * @param goFasterTables a Set of PrecomputedTables that may help with extra queries
+     * @param goFasterCache an OptimiserCache that may help with extra queries
+     * @param maxRows the maximum number of rows to read from the ResultSet
+     * @return a List of ResultsRow objects
+     * @throws ObjectStoreException if the ResultSet does not match the Query in any way, or if a
+     * SQL exception occurs
+     */
+    public static List<ResultsRow<Object>> convert(ResultSet sqlResults, Query q,
+            ObjectStoreInterMineImpl os, Connection c, Map<Object, Integer> sequence,
+            boolean optimise, ExtraQueryTime extra, Set<PrecomputedTable> goFasterTables,
+            OptimiserCache goFasterCache, int maxRows) throws ObjectStoreException {
         Object currentColumn = null;
         HashSet<QuerySelectable> noObjectColumns = new HashSet<QuerySelectable>();
         HashSet<String> noObjectClassColumns = new HashSet<String>();
@@ -95,6 +137,13 @@ public final class ResultsConverter
         try {
             List<ResultsRow<Object>> retval = new ArrayList<ResultsRow<Object>>();
             HashSet<Integer> idsToFetch = new HashSet<Integer>();
+            ExecutorService pool = os.getConversionPool();
+            List<Future<Object>> conversions = new ArrayList<Future<Object>>();
+            ParseChunk chunk = null;
+            // The objects handed to the pool in this batch, so that an id that turns up again
+            // gets the same instance, as it would from the cache when converting serially
+            Map<Integer, ParseChunk.Parse> pending = new HashMap<Integer, ParseChunk.Parse>();
+            List<Repeat> repeats = new ArrayList<Repeat>();
 
             // populate aliases map once - ensure keys are Java object ids not the hashCode
             Map<QuerySelectable, String> aliases = new IdentityHashMap<QuerySelectable, String>();
@@ -102,7 +151,7 @@ public final class ResultsConverter
                 aliases.put(node, DatabaseUtil.generateSqlCompatibleName(q.getAliases().get(node)));
             }
 
-            while (sqlResults.next()) {
+            while ((retval.size() < maxRows) && sqlResults.next()) {
                 ResultsRow<Object> row = new ResultsRow<Object>();
                 for (QuerySelectable node : q.getSelect()) {
                     String alias = aliases.get(node);
@@ -130,7 +179,21 @@ public final class ResultsConverter
                                 } else {
                                     try {
                                         objectField = sqlResults.getString(alias);
-                                        if (objectField != null) {
+                                        ParseChunk.Parse parse = (idField == null) ? null
+                                            : pending.get(idField);
+                                        if ((objectField != null) && (parse != null)) {
+                                            // Filled in once the first occurrence is parsed
+                                            repeats.add(new Repeat(row, row.size(), parse));
+                                        } else if ((objectField != null) && (pool != null)) {
+                                            // Leave a null in the row for the chunk to fill in
+                                            if (chunk == null) {
+                                                chunk = new ParseChunk(os);
+                                            }
+                                            parse = chunk.add(row, row.size(), objectField);
+                                            if (idField != null) {
+                                                pending.put(idField, parse);
+                                            }
+                                        } else if (objectField != null) {
                                             currentColumn = objectField;
                                             obj = NotXmlParser.parse(objectField, os);
                                             //if (objectField.length() < ObjectStoreInterMineImpl
@@ -198,6 +261,19 @@ public final class ResultsConverter
                     }
                 }
                 retval.add(row);
+                // Only hand over whole rows, as the rows are not safe to change from two threads
+                if ((chunk != null) && (chunk.size() >= CONVERSION_CHUNK_SIZE)) {
+                    conversions.add(pool.submit(chunk));
+                    chunk = null;
+                }
+            }
+            if (chunk != null) {
+                // Parse the last few objects on this thread while the pool finishes off
+                chunk.call();
+            }
+            waitForConversions(conversions);
+            for (Repeat repeat : repeats) {
+                repeat.row.set(repeat.column, repeat.parse.obj);
             }
             if (!idsToFetch.isEmpty()) {
                 Map<Integer, InterMineObject> fetched = fetchByIds(os, c, sequence,
@@ -254,6 +330,118 @@ public final class ResultsConverter
         }
     }
 
+    /**
+     * Waits for the chunks of objects being parsed by the conversion pool to finish, and throws
+     * the exception from the first chunk that failed.
+     */
+    private static void waitForConversions(List<Future<Object>> conversions)
+        throws ObjectStoreException {
+        ObjectStoreException failure = null;
+        boolean interrupted = false;
+        for (Future<Object> conversion : conversions) {
+            while (true) {
+                try {
+                    conversion.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        if (e.getCause() instanceof ObjectStoreException) {
+                            failure = (ObjectStoreException) e.getCause();
+                        } else {
+                            failure = new ObjectStoreException("Error converting results",
+                                    e.getCause());
+                        }
+                    }
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * A chunk of OBJECT fields to parse, and the places in the rows to put the objects.
+     */
+    private static class ParseChunk implements Callable<Object>
+    {
+        private final ObjectStoreInterMineImpl os;
+        private final List<Parse> parses = new ArrayList<Parse>();
+
+        ParseChunk(ObjectStoreInterMineImpl os) {
+            this.os = os;
+        }
+
+        Parse add(ResultsRow<Object> row, int column, String objectField) {
+            Parse parse = new Parse(row, column, objectField);
+            parses.add(parse);
+            return parse;
+        }
+
+        int size() {
+            return parses.size();
+        }
+
+        public Object call() throws ObjectStoreException {
+            String objectField = null;
+            try {
+                for (Parse parse : parses) {
+                    objectField = parse.objectField;
+                    InterMineObject obj = NotXmlParser.parse(objectField, os);
+                    os.cacheObjectById(obj.getId(), obj);
+                    parse.row.set(parse.column, obj);
+                    parse.obj = obj;
+                }
+            } catch (ClassNotFoundException e) {
+                throw new ObjectStoreException("Unknown class mentioned in database OBJECT field"
+                        + " while converting results: " + objectField, e);
+            } catch (ClassCastException e) {
+                throw new ObjectStoreException("Object is of wrong type while converting results: "
+                        + objectField, e);
+            }
+            return null;
+        }
+
+        /**
+         * One OBJECT field, its place in the rows, and the object once it has been parsed.
+         */
+        static class Parse
+        {
+            final ResultsRow<Object> row;
+            final int column;
+            final String objectField;
+            InterMineObject obj = null;
+
+            Parse(ResultsRow<Object> row, int column, String objectField) {
+                this.row = row;
+                this.column = column;
+                this.objectField = objectField;
+            }
+        }
+    }
+
+    /**
+     * A place in the rows for an object that appears earlier in the same batch.
+     */
+    private static class Repeat
+    {
+        final ResultsRow<Object> row;
+        final int column;
+        final ParseChunk.Parse parse;
+
+        Repeat(ResultsRow<Object> row, int column, ParseChunk.Parse parse) {
+            this.row = row;
+            this.column = column;
+            this.parse = parse;
+        }
+    }
+
     //private static long timeSpentBuildObject = 0;
     //private static long timeSpentSql = 0;
     //private static int countBuildObject = 0;
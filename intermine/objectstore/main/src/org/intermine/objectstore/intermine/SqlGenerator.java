@@ -168,6 +168,47 @@ public final class SqlGenerator
         }
     }
 
+    /**
+     * Generates a query to retrieve a set of objects from the database, by id. The query returns
+     * one row for each object found, with the serialised object in the a1_ column.
+     *
+     * @param ids the ids of the objects to fetch
+     * @param clazz a Class that all of the objects are - if unsure use InterMineObject
+     * @param schema the DatabaseSchema
+     * @return a String suitable for passing to an SQL server
+     * @throws ObjectStoreException if the given class is not in the model
+     */
+    public static String generateQueryForIds(Collection<Integer> ids, Class<?> clazz,
+            DatabaseSchema schema) throws ObjectStoreException {
+        ClassDescriptor tableMaster;
+        if (schema.isMissingNotXml()) {
+            tableMaster = schema.getModel()
+                .getClassDescriptorByName(InterMineObject.class.getName());
+        } else {
+            ClassDescriptor cld = schema.getModel().getClassDescriptorByName(clazz.getName());
+            if (cld == null) {
+                throw new ObjectStoreException(clazz.toString() + " is not in the model");
+            }
+            tableMaster = schema.getTableMaster(cld);
+        }
+        StringBuffer retval = new StringBuffer("SELECT a1_.OBJECT AS a1_ FROM ")
+            .append(DatabaseUtil.getTableName(tableMaster))
+            .append(" AS a1_ WHERE a1_.id IN (");
+        boolean needComma = false;
+        for (Integer id : ids) {
+            if (needComma) {
+                retval.append(", ");
+            }
+            needComma = true;
+            retval.append(id.toString());
+        }
+        retval.append(")");
+        if (schema.isTruncated(tableMaster)) {
+            retval.append(" AND a1_.tableclass = '").append(clazz.getName()).append("'");
+        }
+        return retval.toString();
+    }
+
     /**
      * Returns the table name used by the ID fetch query.
      *
@@ -0,0 +1,217 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.apache.log4j.Logger;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.ResultsRow;
+
+/**
+ * An Iterator over the results of a Query that reads them through a single server-side cursor,
+ * rather than through a Results object issuing one LIMIT/OFFSET query per batch. Only one chunk
+ * of fetchSize rows is held in memory at a time, and the next chunk is only read from the
+ * database when the consumer asks for it, so a slow consumer holds back the database rather than
+ * filling up memory.
+ *
+ * A StreamingResults object holds a database Connection with an open transaction until it has
+ * been read to the end or close() is called. Callers that may stop reading early MUST call
+ * close().
+ */
+public class StreamingResults implements Iterator<ResultsRow<Object>>
+{
+    private static final Logger LOG = Logger.getLogger(StreamingResults.class);
+
+    private ObjectStoreInterMineImpl os;
+    private Query q;
+    private int fetchSize;
+    private boolean optimise;
+    private Map<Object, Integer> sequence;
+    private Connection c;
+    private Statement s;
+    private ResultSet sqlResults;
+    private List<ResultsRow<Object>> chunk = Collections.emptyList();
+    private int chunkPos = 0;
+    private boolean exhausted = false;
+    private int rowCount = 0;
+    private long startTime;
+    private long convertTime = 0;
+
+    /**
+     * Constructs a new StreamingResults object. This is only called by ObjectStoreInterMineImpl.
+     *
+     * @param os the ObjectStoreInterMineImpl
+     * @param c a Connection, which this object takes ownership of
+     * @param q the Query
+     * @param sql the SQL to run
+     * @param fetchSize the number of rows to read from the cursor at a time
+     * @param optimise whether to optimise the extra queries made while converting results
+     * @param sequence an object representing the state of the database
+     * @throws ObjectStoreException if the query cannot be started
+     */
+    protected StreamingResults(ObjectStoreInterMineImpl os, Connection c, Query q, String sql,
+            int fetchSize, boolean optimise, Map<Object, Integer> sequence)
+        throws ObjectStoreException {
+        this.os = os;
+        this.c = c;
+        this.q = q;
+        this.fetchSize = fetchSize;
+        this.optimise = optimise;
+        this.sequence = sequence;
+        startTime = System.currentTimeMillis();
+        if (sql == null) {
+            exhausted = true;
+            close();
+            return;
+        }
+        try {
+            // Postgres only uses a cursor for the ResultSet if autocommit is off
+            c.setAutoCommit(false);
+            s = c.createStatement();
+            s.setFetchSize(fetchSize);
+            sqlResults = s.executeQuery(sql);
+        } catch (SQLException e) {
+            exhausted = true;
+            close();
+            throw new ObjectStoreException("Problem running SQL statement \"" + sql
+                    + "\" while streaming query \"" + q + "\"", e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean hasNext() {
+        if (chunkPos < chunk.size()) {
+            return true;
+        }
+        if (exhausted) {
+            return false;
+        }
+        try {
+            fetchChunk();
+        } catch (ObjectStoreException e) {
+            close();
+            throw new RuntimeException("ObjectStore error has occurred while streaming results",
+                    e);
+        }
+        return chunkPos < chunk.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ResultsRow<Object> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return chunk.get(chunkPos++);
+    }
+
+    /**
+     * This method is not supported.
+     */
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    private void fetchChunk() throws ObjectStoreException {
+        long preConvert = System.currentTimeMillis();
+        ExtraQueryTime extra = new ExtraQueryTime();
+        chunk = ResultsConverter.convert(sqlResults, q, os, c, sequence, optimise, extra, null,
+                null, fetchSize);
+        chunkPos = 0;
+        rowCount += chunk.size();
+        convertTime += System.currentTimeMillis() - preConvert;
+        if (chunk.size() < fetchSize) {
+            exhausted = true;
+            close();
+        }
+    }
+
+    /**
+     * Returns the number of rows read from the database so far.
+     *
+     * @return an int
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Returns true if this object has been closed, and the database connection released.
+     *
+     * @return a boolean
+     */
+    public synchronized boolean isClosed() {
+        return c == null;
+    }
+
+    /**
+     * Closes the cursor and releases the database connection. This method may safely be called
+     * more than once.
+     */
+    public synchronized void close() {
+        if (c == null) {
+            return;
+        }
+        try {
+            if (sqlResults != null) {
+                sqlResults.close();
+            }
+            if (s != null) {
+                s.close();
+            }
+            if (!c.getAutoCommit()) {
+                c.commit();
+                c.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            LOG.warn("Error closing streaming results for query " + q, e);
+        } finally {
+            os.releaseConnection(c);
+            c = null;
+            sqlResults = null;
+            s = null;
+            if (!exhausted) {
+                chunk = Collections.emptyList();
+                exhausted = true;
+            }
+        }
+        LOG.info("Streamed " + rowCount + " rows in " + (System.currentTimeMillis() - startTime)
+                + " ms (convert: " + convertTime + " ms) for query " + q);
+    }
+
+    /**
+     * Overrides Object.finalize - release the database connection if the caller forgot to.
+     *
+     * @throws Throwable never
+     */
+    @Override
+    protected void finalize() throws Throwable {
+        super.finalize();
+        if (c != null) {
+            LOG.error("Garbage collecting StreamingResults that were never closed, for query "
+                    + q);
+            close();
+        }
+    }
+}
@@ -72,16 +72,37 @@ public class ClobAccess implements CharSequence, Lazy
         subSequence = true;
     }
 
+    /**
+     * Construct a ClobAccess object representing a subsequence of a Clob, without accessing the
+     * database until the contents are needed.
+     *
+     * @param os the ObjectStore that the Clob is stored in
+     * @param clob the Clob to access
+     * @param offset the offset
+     * @param length the length
+     */
+    private ClobAccess(ObjectStore os, Clob clob, int offset, int length) {
+        this.os = os;
+        this.clob = clob;
+        this.offset = offset;
+        this.length = length;
+        subSequence = true;
+    }
+
     /**
      * Initialises the state of this object. This is done lazily, because it requires the use of a
      * database connection to discover the length of the clob, and that cannot be done while inside
-     * the ObjectStoreWriter while it has exclusive use of the connection.
+     * the ObjectStoreWriter while it has exclusive use of the connection. The length of a
+     * subsequence is already known.
      */
     protected void init() {
         if (results == null) {
             Query q = new Query();
             q.addToSelect(clob);
             results = os.executeSingleton(q, 20, false, false, true);
+            if (subSequence) {
+                return;
+            }
             int pageCount = results.size();
             if (pageCount == 0) {
                 length = 0;
@@ -125,9 +146,9 @@ public class ClobAccess implements CharSequence, Lazy
         if (index >= length) {
             throw new IndexOutOfBoundsException("index is not less than length");
         }
-        int page = index / CLOB_PAGE_SIZE;
+        int page = (offset + index) / CLOB_PAGE_SIZE;
         String pageText = (String) results.get(page);
-        return pageText.charAt(index - page * CLOB_PAGE_SIZE);
+        return pageText.charAt(offset + index - page * CLOB_PAGE_SIZE);
     }
 
     /**
@@ -136,7 +157,9 @@ public class ClobAccess implements CharSequence, Lazy
      * @return the number of chars in this sequence
      */
     public int length() {
-        init();
+        if (!subSequence) {
+            init();
+        }
         return length;
     }
 
@@ -233,7 +256,7 @@ public class ClobAccess implements CharSequence, Lazy
      */
     public String getDbDescription() {
         if (subSequence) {
-            return clob.getClobId() + "," + offset + "," + length();
+            return clob.getClobId() + "," + offset + "," + length;
         } else {
             return clob.getClobId() + "";
         }
@@ -293,11 +316,13 @@ public class ClobAccess implements CharSequence, Lazy
      */
     public static ClobAccess decodeDbDescription(ObjectStore os, String description) {
         String[] parts = description.split(",");
-        ClobAccess clob = new ClobAccess(os, new Clob(Integer.parseInt(parts[0])));
+        ClobAccess clob;
         if (parts.length >= 3) {
-            int offset = Integer.parseInt(parts[1]);
-            int length = Integer.parseInt(parts[2]);
-            clob = clob.subSequence(offset, offset + length);
+            // Reading the object does not need a query for the length of the whole clob
+            clob = new ClobAccess(os, new Clob(Integer.parseInt(parts[0])),
+                    Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+        } else {
+            clob = new ClobAccess(os, new Clob(Integer.parseInt(parts[0])));
         }
         String className = null;
         if (parts.length == 2) {
@@ -10,25 +10,57 @@ package org.intermine.sql.precompute;
  *
  */
 
+import java.lang.management.ManagementFactory;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
 import org.intermine.sql.Database;
+import org.intermine.sql.DatabaseUtil;
 import org.intermine.util.CacheMap;
 
 /**
  * A class that provides an implementation of a cache for String-based SQL query optimisation.
+ * <p>
+ * The cache is split into shards by the hash of the original query, each with its own lock, so
+ * that lookups for different queries do not wait for each other. When a shard is full, the entry
+ * to remove is chosen by the GreedyDual algorithm: each entry has a priority of the time its
+ * optimisation took plus an inflation value, which is raised to the priority of every entry
+ * removed. Entries that were expensive to optimise are kept for longer, but entries that are
+ * never used eventually make way for new ones. The entries are held softly, so the garbage
+ * collector may also remove them when memory is short.
+ * <p>
+ * The contents of the cache can be written to a table in the database with dump(), and read back
+ * with load() when the application next starts, as long as the precomputed tables have not
+ * changed in between.
  *
  * @author Matthew Wakeling
  */
-public class OptimiserCache
+public class OptimiserCache implements OptimiserCacheMBean
 {
-    /** Maximum number of cache linesets in the cache. */
+    private static final Logger LOG = Logger.getLogger(OptimiserCache.class);
+
+    /** Default maximum number of cache linesets in the cache. */
     public static final int MAX_LINESETS = 1000;
-    /** Number of events to happen before an expiration run. */
-    public static final int EXPIRE_INTERVAL = 100;
+    /** Default number of shards the cache is split into. */
+    public static final int DEFAULT_SHARDS = 16;
+    /** The name of the table that the cache is dumped to. */
+    public static final String DUMP_TABLE = "optimiser_cache";
 
     // Caches need to be per-database, so we will provide a static method to retrieve a cache object
     // given a database. We need to be careful about synchronisation in this whole class.
@@ -41,31 +73,79 @@ public class OptimiserCache
      * @return an OptimiserCache object
      */
     public static synchronized OptimiserCache getInstance(Database db) {
-        if (!caches.containsKey(db)) {
-            caches.put(db, new OptimiserCache());
+        OptimiserCache cache = caches.get(db);
+        if (cache == null) {
+            cache = new OptimiserCache();
+            caches.put(db, cache);
+            if (db != null) {
+                cache.registerMBean(db.getURL());
+            }
         }
-        return caches.get(db);
+        return cache;
     }
 
+    private final Shard[] shards;
+    private volatile int capacity;
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong timeSaved = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
 
     /**
-     * A Map that holds a mapping from unoptimised query string (with LIMIT and OFFSET stripped off)
-     * to a Set of OptimiserCacheLine objects.
+     * Constructor for this object.
      */
-    protected Map<String, Set<OptimiserCacheLine>> cacheLines;
+    public OptimiserCache() {
+        this(MAX_LINESETS, DEFAULT_SHARDS);
+    }
 
     /**
-     * Constructor for this object.
+     * Constructor for this object, with a particular size.
+     *
+     * @param capacity the maximum number of original queries to hold
+     * @param shardCount the number of shards to split the cache into, rounded up to a power of two
      */
-    public OptimiserCache() {
-        cacheLines = new CacheMap<String, Set<OptimiserCacheLine>>();
+    public OptimiserCache(int capacity, int shardCount) {
+        int size = 1;
+        while (size < shardCount) {
+            size <<= 1;
+        }
+        shards = new Shard[size];
+        for (int i = 0; i < size; i++) {
+            shards[i] = new Shard();
+        }
+        setCapacity(capacity);
+    }
+
+    /**
+     * Sets the maximum number of original queries that the cache will hold. The capacity is
+     * divided evenly between the shards.
+     *
+     * @param capacity the maximum number of original queries
+     */
+    public void setCapacity(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getCapacity() {
+        return capacity;
     }
 
     /**
      * Removes all entries from the cache.
      */
-    public synchronized void flush() {
-        cacheLines.clear();
+    public void flush() {
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                shard.entries.clear();
+                shard.inflation = 0.0;
+            }
+        }
     }
 
     /**
@@ -75,22 +155,50 @@ public class OptimiserCache
      * @param optimised the optimised SQL string (stripped of LIMIT and OFFSET)
      * @param limit the limit that was used during the optimisation
      */
-    public synchronized void addCacheLine(String original, String optimised, int limit) {
+    public void addCacheLine(String original, String optimised, int limit) {
+        addCacheLine(original, optimised, limit, 0);
+    }
+
+    /**
+     * Adds a new OptimiserCacheLine object to the cache, recording how long the optimisation
+     * took so that expensive optimisations are kept for longer.
+     *
+     * @param original the original SQL string (stripped of LIMIT and OFFSET)
+     * @param optimised the optimised SQL string (stripped of LIMIT and OFFSET)
+     * @param limit the limit that was used during the optimisation
+     * @param cost the time in milliseconds that the optimisation took
+     */
+    public void addCacheLine(String original, String optimised, int limit, long cost) {
         if (original.toUpperCase().startsWith("EXPLAIN ")) {
             original = original.substring(8);
         }
         if (optimised.toUpperCase().startsWith("EXPLAIN ")) {
             optimised = optimised.substring(8);
         }
-        Set<OptimiserCacheLine> lines = cacheLines.get(original);
-        if (lines == null) {
-            lines = new HashSet<OptimiserCacheLine>();
-            cacheLines.put(original, lines);
+        OptimiserCacheLine line = new OptimiserCacheLine(optimised, limit, original, cost);
+        Shard shard = shardFor(original);
+        synchronized (shard) {
+            Entry entry = shard.entries.get(original);
+            if (entry == null) {
+                entry = new Entry();
+                shard.entries.put(original, entry);
+            }
+            // Replace any line made with the same limit, for example by another thread
+            // optimising the same query at the same time
+            Iterator<OptimiserCacheLine> iter = entry.lines.iterator();
+            while (iter.hasNext()) {
+                if (iter.next().getLimit() == limit) {
+                    iter.remove();
+                }
+            }
+            entry.lines.add(line);
+            entry.cost = Math.max(entry.cost, cost);
+            entry.priority = shard.inflation + entry.cost;
+            int shardCapacity = Math.max(1, capacity / shards.length);
+            while ((shard.entries.size() > shardCapacity) && evict(shard, entry)) {
+                // Keep evicting
+            }
         }
-
-        OptimiserCacheLine line = new OptimiserCacheLine(optimised, limit, original);
-
-        lines.add(line);
     }
 
     /**
@@ -100,7 +208,7 @@ public class OptimiserCache
      * @param limit the limit required
      * @return a possible optimised SQL string (minus LIMIT and OFFSET)
      */
-    public synchronized String lookup(String original, int limit) {
+    public String lookup(String original, int limit) {
         //LOG.debug("Looking up query \"" + original + "\" with limit " + limit
         //        + " and offset " + offset + " - ");
         boolean originalWasExplain = false;
@@ -108,26 +216,278 @@ public class OptimiserCache
             original = original.substring(8);
             originalWasExplain = true;
         }
-        Set<OptimiserCacheLine> lines = cacheLines.get(original);
-        if (lines == null) {
-            // Couldn't find anything.
-            //LOG.debug("Complete cache miss");
-            return null;
-        }
-        double bestScore = Double.POSITIVE_INFINITY;
+        lookups.incrementAndGet();
         OptimiserCacheLine bestLine = null;
-        for (OptimiserCacheLine line : lines) {
-            double score = line.score(limit);
-            if (score < bestScore) {
-                bestScore = score;
-                bestLine = line;
+        Shard shard = shardFor(original);
+        synchronized (shard) {
+            Entry entry = shard.entries.get(original);
+            if (entry == null) {
+                // Couldn't find anything.
+                //LOG.debug("Complete cache miss");
+                return null;
             }
-        }
-        if (bestScore > 1.0) {
-            //LOG.debug("Cache didn't have anything near enough");
-            return null;
+            double bestScore = Double.POSITIVE_INFINITY;
+            for (OptimiserCacheLine line : entry.lines) {
+                double score = line.score(limit);
+                if (score < bestScore) {
+                    bestScore = score;
+                    bestLine = line;
+                }
+            }
+            if (bestScore > 1.0) {
+                //LOG.debug("Cache didn't have anything near enough");
+                return null;
+            }
+            entry.priority = shard.inflation + entry.cost;
         }
         //LOG.debug("Cache hit");
+        hits.incrementAndGet();
+        timeSaved.addAndGet(bestLine.getCost());
         return (originalWasExplain ? "EXPLAIN " : "") + bestLine.getOptimised();
     }
+
+    /**
+     * Removes the entry with the lowest priority from a shard, other than the entry just added.
+     *
+     * @return false if there was nothing to remove
+     */
+    private boolean evict(Shard shard, Entry keep) {
+        String victim = null;
+        double lowest = Double.POSITIVE_INFINITY;
+        for (String original : new ArrayList<String>(shard.entries.keySet())) {
+            Entry entry = shard.entries.get(original);
+            if ((entry != null) && (entry != keep) && (entry.priority < lowest)) {
+                lowest = entry.priority;
+                victim = original;
+            }
+        }
+        if (victim == null) {
+            return false;
+        }
+        shard.entries.remove(victim);
+        shard.inflation = lowest;
+        evictions.incrementAndGet();
+        return true;
+    }
+
+    private Shard shardFor(String original) {
+        int h = original.hashCode();
+        return shards[(h ^ (h >>> 16)) & (shards.length - 1)];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getSize() {
+        int size = 0;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                size += shard.entries.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getLookups() {
+        return lookups.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double getHitRatio() {
+        long lookupCount = lookups.get();
+        return lookupCount == 0 ? 0.0 : ((double) hits.get()) / lookupCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getTimeSaved() {
+        return timeSaved.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "OptimiserCache (size = " + getSize() + ", lookups = " + getLookups()
+            + ", hits = " + getHits() + ", time saved = " + getTimeSaved() + " ms, evictions = "
+            + getEvictions() + ")";
+    }
+
+    /**
+     * Writes the contents of the cache to the DUMP_TABLE table in the given database, replacing
+     * anything already there. Each line is stored with a digest of the names of the precomputed
+     * tables in the database, so that load() can tell whether the lines are still usable.
+     *
+     * @param db the Database to write the cache to
+     * @throws SQLException if something goes wrong
+     */
+    public void dump(Database db) throws SQLException {
+        List<Object[]> rows = new ArrayList<Object[]>();
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                for (String original : new ArrayList<String>(shard.entries.keySet())) {
+                    Entry entry = shard.entries.get(original);
+                    if (entry == null) {
+                        continue;
+                    }
+                    for (OptimiserCacheLine line : entry.lines) {
+                        rows.add(new Object[] {line.getOriginal(), line.getOptimised(),
+                            new Integer(line.getLimit()), new Long(line.getCost())});
+                    }
+                }
+            }
+        }
+        String signature = precomputedTablesSignature(db);
+        Connection c = db.getConnection();
+        boolean autoCommit = c.getAutoCommit();
+        try {
+            c.setAutoCommit(false);
+            Statement s = c.createStatement();
+            if (DatabaseUtil.tableExists(c, DUMP_TABLE)) {
+                s.execute("DELETE FROM " + DUMP_TABLE);
+            } else {
+                s.execute("CREATE TABLE " + DUMP_TABLE + " (original text, optimised text,"
+                        + " querylimit integer, cost bigint, signature text)");
+            }
+            s.close();
+            PreparedStatement insert = c.prepareStatement("INSERT INTO " + DUMP_TABLE
+                    + " (original, optimised, querylimit, cost, signature)"
+                    + " VALUES (?, ?, ?, ?, ?)");
+            for (Object[] row : rows) {
+                insert.setString(1, (String) row[0]);
+                insert.setString(2, (String) row[1]);
+                insert.setInt(3, ((Integer) row[2]).intValue());
+                insert.setLong(4, ((Long) row[3]).longValue());
+                insert.setString(5, signature);
+                insert.addBatch();
+            }
+            insert.executeBatch();
+            insert.close();
+            c.commit();
+        } catch (SQLException e) {
+            c.rollback();
+            throw e;
+        } finally {
+            c.setAutoCommit(autoCommit);
+            c.close();
+        }
+        LOG.info("Dumped " + rows.size() + " optimiser cache lines to " + DUMP_TABLE);
+    }
+
+    /**
+     * Reads cache lines written by dump() from the given database into the cache, most
+     * expensive first, until the cache is full. Lines written while the database had a different
+     * set of precomputed tables are ignored.
+     *
+     * @param db the Database to read the cache from
+     * @return the number of lines read
+     * @throws SQLException if something goes wrong
+     */
+    public int load(Database db) throws SQLException {
+        String signature = precomputedTablesSignature(db);
+        int count = 0;
+        int skipped = 0;
+        Connection c = db.getConnection();
+        try {
+            if (!DatabaseUtil.tableExists(c, DUMP_TABLE)) {
+                return 0;
+            }
+            Statement s = c.createStatement();
+            ResultSet r = s.executeQuery("SELECT original, optimised, querylimit, cost, signature"
+                    + " FROM " + DUMP_TABLE + " ORDER BY cost DESC");
+            while (r.next() && (count < capacity)) {
+                if (signature.equals(r.getString(5))) {
+                    addCacheLine(r.getString(1), r.getString(2), r.getInt(3), r.getLong(4));
+                    count++;
+                } else {
+                    skipped++;
+                }
+            }
+            r.close();
+            s.close();
+        } finally {
+            c.close();
+        }
+        LOG.info("Loaded " + count + " optimiser cache lines from " + DUMP_TABLE
+                + (skipped > 0 ? ", ignored " + skipped + " made with other precomputed tables"
+                    : ""));
+        return count;
+    }
+
+    /**
+     * Returns a digest of the names of the precomputed tables in the database.
+     */
+    private static String precomputedTablesSignature(Database db) throws SQLException {
+        TreeSet<String> names = new TreeSet<String>();
+        for (PrecomputedTable pt : PrecomputedTableManager.getInstance(db)
+                .getPrecomputedTables()) {
+            names.add(pt.getName());
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            for (String name : names) {
+                digest.update(name.getBytes("UTF-8"));
+                digest.update((byte) 0);
+            }
+            StringBuilder retval = new StringBuilder();
+            for (byte b : digest.digest()) {
+                retval.append(Integer.toHexString((b & 0xFF) | 0x100).substring(1));
+            }
+            return retval.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (java.io.UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void registerMBean(String name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(
+                        "org.intermine:type=OptimiserCache,name=" + ObjectName.quote(name + "@"
+                            + Integer.toHexString(System.identityHashCode(this)))));
+        } catch (JMException e) {
+            LOG.warn("Could not register optimiser cache for " + name + " with JMX", e);
+        }
+    }
+
+    /**
+     * The lines of one shard of the cache, and its GreedyDual inflation value.
+     */
+    private static final class Shard
+    {
+        final Map<String, Entry> entries = new CacheMap<String, Entry>("OptimiserCache");
+        double inflation = 0.0;
+    }
+
+    /**
+     * The cache lines for one original query.
+     */
+    private static final class Entry
+    {
+        final List<OptimiserCacheLine> lines = new ArrayList<OptimiserCacheLine>(2);
+        long cost = 0;
+        double priority = 0.0;
+    }
 }
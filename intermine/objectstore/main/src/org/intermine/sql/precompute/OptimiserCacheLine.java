@@ -22,7 +22,7 @@ public class OptimiserCacheLine
     private String optimised;
     private int limit;
     private String original;
-
+    private long cost;
 
     /**
      * Constructor for this object.
@@ -32,9 +32,22 @@ public class OptimiserCacheLine
      * @param original the original sql query
      */
     public OptimiserCacheLine(String optimised, int limit, String original) {
+        this(optimised, limit, original, 0);
+    }
+
+    /**
+     * Constructor for this object, recording how long the optimisation took.
+     *
+     * @param optimised the optimised SQL String, minus the LIMIT and OFFSET
+     * @param limit the limit that was used to generate optimised
+     * @param original the original sql query
+     * @param cost the time in milliseconds that it took to optimise the query
+     */
+    public OptimiserCacheLine(String optimised, int limit, String original, long cost) {
         this.optimised = optimised;
         this.limit = limit;
         this.original = original;
+        this.cost = cost;
     }
 
     /**
@@ -60,6 +73,25 @@ public class OptimiserCacheLine
         return optimised;
     }
 
+    /**
+     * Returns the limit that was used to generate the optimised query.
+     *
+     * @return the limit
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Returns the time in milliseconds that it took to optimise the query, which is the time
+     * saved every time this line is used.
+     *
+     * @return a number of milliseconds
+     */
+    public long getCost() {
+        return cost;
+    }
+
     /**
      * Returns the original SQL string.
      *
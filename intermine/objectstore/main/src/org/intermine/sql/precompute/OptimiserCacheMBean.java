@@ -0,0 +1,57 @@
+package org.intermine.sql.precompute;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+/**
+ * JMX management interface for OptimiserCache.
+ */
+public interface OptimiserCacheMBean
+{
+    /**
+     * @return the number of original queries in the cache
+     */
+    int getSize();
+
+    /**
+     * @return the maximum number of original queries the cache will hold
+     */
+    int getCapacity();
+
+    /**
+     * @return the number of lookups made
+     */
+    long getLookups();
+
+    /**
+     * @return the number of lookups that found an optimised query
+     */
+    long getHits();
+
+    /**
+     * @return the fraction of lookups that found an optimised query
+     */
+    double getHitRatio();
+
+    /**
+     * @return the total time in milliseconds that the queries found by lookups took to optimise
+     */
+    long getTimeSaved();
+
+    /**
+     * @return the number of original queries removed to make room for others
+     */
+    long getEvictions();
+
+    /**
+     * Removes all entries from the cache.
+     */
+    void flush();
+}
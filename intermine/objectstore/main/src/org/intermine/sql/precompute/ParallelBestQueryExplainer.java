@@ -0,0 +1,474 @@
+package org.intermine.sql.precompute;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.log4j.Logger;
+import org.intermine.sql.Database;
+import org.intermine.sql.query.ExplainResult;
+import org.intermine.sql.query.Query;
+
+/**
+ * A BestQueryExplainer that explains several candidate queries at once using a shared
+ * ExecutorService. Candidates are chosen for explaining in the same way as by BestQueryExplainer.
+ * <p>
+ * The explains do not take connections from the Database's pool while they run, because the
+ * caller is usually holding one of those connections, and many callers waiting for explains that
+ * are waiting for connections would deadlock. Instead each Database has a separate, bounded set of
+ * connections for explains, which are opened when first needed and then kept open. All the
+ * explainers for a Database share it, so the number of explain connections does not grow with
+ * the number of callers.
+ * <p>
+ * Unlike BestQueryExplainer, the time limit is a deadline: when it expires, explains that have
+ * not started are cancelled and the best candidate explained so far is returned. If no candidate
+ * has been explained by then, getBestQuery() and getBestQueryString() return the first candidate
+ * added (normally the original query), and getBestExplainResult() returns null, as for a
+ * BestQueryFallback.
+ */
+public class ParallelBestQueryExplainer extends BestQueryExplainer
+{
+    private static final Logger LOG = Logger.getLogger(ParallelBestQueryExplainer.class);
+    private static final long OVERHEAD = 300;
+
+    private static Map<Database, ExplainConnections> explainConnections
+        = new HashMap<Database, ExplainConnections>();
+
+    /**
+     * Returns the connections used for explains on a Database, making sure that there may be at
+     * least the given number of them.
+     *
+     * @param db a Database
+     * @param size the number of connections required
+     * @return an ExplainConnections object
+     */
+    protected static synchronized ExplainConnections getExplainConnections(Database db,
+            int size) {
+        ExplainConnections retval = explainConnections.get(db);
+        if (retval == null) {
+            retval = new ExplainConnections(db);
+            explainConnections.put(db, retval);
+        }
+        retval.grow(size);
+        return retval;
+    }
+
+    protected Database db;
+    protected ExplainConnections connections;
+    protected ExecutorService pool;
+    protected int parallelism;
+    protected List<Future<Candidate>> pending = new ArrayList<Future<Candidate>>();
+    protected Candidate firstCandidate = null;
+    protected boolean finished = false;
+    protected int explained = 0;
+    protected int cancelled = 0;
+
+    /**
+     * Constructs a ParallelBestQueryExplainer.
+     *
+     * @param db the Database to explain queries in, or null to use DummyExplainResults
+     * @param pool the ExecutorService to run explains in
+     * @param parallelism the maximum number of explains for this query to run at once, and the
+     * number of connections kept for explains on the Database
+     * @param timeLimit a deadline in milliseconds from now, or -1 for no limit
+     */
+    public ParallelBestQueryExplainer(Database db, ExecutorService pool, int parallelism,
+            long timeLimit) {
+        super();
+        if (pool == null) {
+            throw new NullPointerException("pool cannot be null");
+        }
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        }
+        this.db = db;
+        this.connections = (db == null ? null : getExplainConnections(db, parallelism));
+        this.pool = pool;
+        this.parallelism = parallelism;
+        this.timeLimit = timeLimit;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected synchronized void add(Candidate c) throws BestQueryException, SQLException {
+        if (firstCandidate == null) {
+            firstCandidate = c;
+        }
+        int tableCount = c.getTableCount();
+        boolean doExplain = (tableCount <= ALWAYS_EXPLAIN_TABLES);
+        if (tableCount < candidateTables) {
+            candidateTables = tableCount;
+            candidates.clear();
+            if (tableCount < NEVER_EXPLAIN_TABLES) {
+                doExplain = true;
+            }
+        }
+        if (doExplain) {
+            submit(c);
+        } else {
+            didNotExplain(c);
+            if (tableCount == candidateTables) {
+                candidates.add(c);
+            }
+        }
+        collect(false);
+
+        long elapsed = System.currentTimeMillis() - start.getTime();
+        if ((timeLimit >= 0) && (elapsed >= timeLimit)) {
+            throwBestQueryException("Optimiser reached time limit (limit = " + timeLimit
+                    + "ms, elapsed = " + elapsed + "ms)");
+        }
+        if ((bestCandidate != null) && (bestCandidate.getExplain().getTime()
+                    < (elapsed + OVERHEAD))) {
+            throwBestQueryException("Explain time: " + bestCandidate.getExplain().getTime()
+                    + ", elapsed time: " + elapsed);
+        }
+    }
+
+    /**
+     * Submits a candidate to be explained, first waiting for one of the explains already running
+     * for this query to finish if there are too many.
+     *
+     * @param c the Candidate
+     * @throws SQLException if an explain fails
+     */
+    protected void submit(final Candidate c) throws SQLException {
+        while (pending.size() >= parallelism) {
+            if (!waitForOne()) {
+                return;
+            }
+        }
+        pending.add(pool.submit(new Callable<Candidate>() {
+            public Candidate call() throws SQLException {
+                c.getExplain();
+                return c;
+            }
+        }));
+    }
+
+    /**
+     * Waits until the oldest pending explain finishes or the deadline passes.
+     *
+     * @return false if the deadline passed
+     * @throws SQLException if an explain fails
+     */
+    private boolean waitForOne() throws SQLException {
+        Future<Candidate> future = pending.get(0);
+        long remaining = remaining();
+        try {
+            if (remaining == Long.MAX_VALUE) {
+                future.get();
+            } else if (remaining > 0) {
+                future.get(remaining, TimeUnit.MILLISECONDS);
+            } else {
+                return false;
+            }
+        } catch (TimeoutException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            // Reported by collect()
+        } catch (CancellationException e) {
+            // Reported by collect()
+        }
+        collect(false);
+        return true;
+    }
+
+    /**
+     * Moves finished explains from the pending list into the best candidate.
+     *
+     * @param cancelRest true to cancel all explains that have not finished
+     * @throws SQLException if an explain failed
+     */
+    private void collect(boolean cancelRest) throws SQLException {
+        Iterator<Future<Candidate>> iter = pending.iterator();
+        while (iter.hasNext()) {
+            Future<Candidate> future = iter.next();
+            if (future.isDone()) {
+                iter.remove();
+                try {
+                    Candidate c = future.get();
+                    explained++;
+                    if (c.betterThan(bestCandidate)) {
+                        bestCandidate = c;
+                    }
+                } catch (CancellationException e) {
+                    // Ignore
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    cancelAll();
+                    if (e.getCause() instanceof SQLException) {
+                        throw (SQLException) e.getCause();
+                    } else if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) e.getCause();
+                    }
+                    throw new RuntimeException(e.getCause());
+                }
+            } else if (cancelRest) {
+                // Explains that are already running are left to finish in the background, so
+                // that their connections are returned to the pool in a sane state
+                future.cancel(false);
+                iter.remove();
+                cancelled++;
+            }
+        }
+    }
+
+    private void cancelAll() {
+        for (Future<Candidate> future : pending) {
+            future.cancel(false);
+        }
+        cancelled += pending.size();
+        pending.clear();
+    }
+
+    /**
+     * Returns the number of milliseconds until the deadline, or Long.MAX_VALUE if there is none.
+     */
+    private long remaining() {
+        if (timeLimit < 0) {
+            return Long.MAX_VALUE;
+        }
+        return start.getTime() + timeLimit - System.currentTimeMillis();
+    }
+
+    /**
+     * Finishes the search, by explaining the candidates that were put aside and waiting for all
+     * pending explains, until the deadline passes.
+     *
+     * @return the best Candidate
+     * @throws SQLException if an explain fails
+     */
+    @Override
+    protected synchronized Candidate getBest() throws SQLException {
+        if (!finished) {
+            finished = true;
+            try {
+                Iterator<Candidate> iter = candidates.iterator();
+                while (iter.hasNext() && (remaining() > 0) && (!goodEnough())) {
+                    Candidate c = iter.next();
+                    iter.remove();
+                    submit(c);
+                    collect(false);
+                }
+                while ((!pending.isEmpty()) && (!goodEnough())) {
+                    if (!waitForOne()) {
+                        break;
+                    }
+                }
+            } finally {
+                candidates.clear();
+                collect(true);
+            }
+            if (cancelled > 0) {
+                LOG.debug("Optimiser deadline of " + timeLimit + " ms reached after "
+                        + explained + " explains, " + cancelled + " cancelled");
+            }
+        }
+        return (bestCandidate == null ? firstCandidate : bestCandidate);
+    }
+
+    /**
+     * Returns true if the best candidate so far will take less time to run than the time already
+     * spent optimising.
+     */
+    private boolean goodEnough() throws SQLException {
+        long elapsed = System.currentTimeMillis() - start.getTime();
+        return (bestCandidate != null)
+            && (bestCandidate.getExplain().getTime() < (elapsed + OVERHEAD));
+    }
+
+    /**
+     * Gets the ExplainResult for the best Query found so far, or null if the deadline passed
+     * before any query was explained.
+     *
+     * @return an ExplainResult, or null
+     * @throws SQLException if an error occurs in the underlying database
+     */
+    @Override
+    public ExplainResult getBestExplainResult() throws SQLException {
+        getBest();
+        // The first candidate may still be being explained in the background, so only the
+        // result of a finished explain is returned
+        return (bestCandidate == null ? null : bestCandidate.getExplain());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected ExplainResult getExplainResult(Query q) throws SQLException {
+        if (connections == null) {
+            return ExplainResult.getInstance(q, null);
+        }
+        Connection c = connections.acquire();
+        boolean ok = false;
+        try {
+            ExplainResult retval = ExplainResult.getInstance(q, c);
+            ok = true;
+            return retval;
+        } finally {
+            connections.release(c, ok);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected ExplainResult getExplainResult(String q) throws SQLException {
+        if (connections == null) {
+            return ExplainResult.getInstance(q, null);
+        }
+        Connection c = connections.acquire();
+        boolean ok = false;
+        try {
+            ExplainResult retval = ExplainResult.getInstance(q, c);
+            ok = true;
+            return retval;
+        } finally {
+            connections.release(c, ok);
+        }
+    }
+
+    /**
+     * Returns the number of candidates explained.
+     *
+     * @return an int
+     */
+    public synchronized int getExplainedCount() {
+        return explained;
+    }
+
+    /**
+     * Returns the number of explains cancelled because the deadline passed.
+     *
+     * @return an int
+     */
+    public synchronized int getCancelledCount() {
+        return cancelled;
+    }
+
+    /**
+     * The connections used for explains on one Database. At most the given number of them are
+     * open at once, and idle connections are kept for the next explain rather than being
+     * returned to the Database.
+     */
+    protected static class ExplainConnections
+    {
+        private final Database db;
+        private final Semaphore permits = new Semaphore(0);
+        private final LinkedList<Connection> idle = new LinkedList<Connection>();
+        private int size = 0;
+
+        /**
+         * Constructs an empty ExplainConnections object.
+         *
+         * @param db the Database to open connections to
+         */
+        public ExplainConnections(Database db) {
+            this.db = db;
+        }
+
+        /**
+         * Raises the maximum number of connections to at least the given size.
+         *
+         * @param newSize the number of connections required
+         */
+        public synchronized void grow(int newSize) {
+            if (newSize > size) {
+                permits.release(newSize - size);
+                size = newSize;
+            }
+        }
+
+        /**
+         * Returns the maximum number of connections.
+         *
+         * @return an int
+         */
+        public synchronized int getSize() {
+            return size;
+        }
+
+        /**
+         * Returns an idle connection, or opens a new one, waiting until fewer than the maximum
+         * number are in use.
+         *
+         * @return a Connection
+         * @throws SQLException if a new connection cannot be opened
+         */
+        public Connection acquire() throws SQLException {
+            permits.acquireUninterruptibly();
+            synchronized (this) {
+                if (!idle.isEmpty()) {
+                    return idle.removeFirst();
+                }
+            }
+            boolean ok = false;
+            try {
+                Connection retval = db.getConnection();
+                ok = true;
+                return retval;
+            } finally {
+                if (!ok) {
+                    permits.release();
+                }
+            }
+        }
+
+        /**
+         * Returns a connection after an explain. Connections whose explain failed are closed,
+         * in case they are no longer usable.
+         *
+         * @param c the Connection
+         * @param ok false if the explain failed
+         */
+        public void release(Connection c, boolean ok) {
+            try {
+                if (ok) {
+                    synchronized (this) {
+                        idle.addFirst(c);
+                    }
+                } else {
+                    try {
+                        c.close();
+                    } catch (SQLException e) {
+                        LOG.warn("Could not close explain connection", e);
+                    }
+                }
+            } finally {
+                permits.release();
+            }
+        }
+    }
+}
@@ -26,6 +26,11 @@ import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 import org.intermine.sql.Database;
@@ -67,6 +72,35 @@ public final class QueryOptimiser
 
     private static final String ALIAS_PREFIX = "P";
     private static int callCount = 0;
+    private static ThreadPoolExecutor explainPool = null;
+
+    /**
+     * Returns the pool of threads used to explain candidate queries in parallel, making sure that
+     * it has at least the given number of threads. The pool is shared by all queries and
+     * databases, and its threads die when idle.
+     *
+     * @param threads the number of threads required
+     * @return an ExecutorService
+     */
+    protected static synchronized ExecutorService getExplainPool(int threads) {
+        if (explainPool == null) {
+            explainPool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        private int threadNo = 0;
+
+                        public synchronized Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "QueryOptimiser explain " + (++threadNo));
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+            explainPool.allowCoreThreadTimeOut(true);
+        } else if (explainPool.getMaximumPoolSize() < threads) {
+            explainPool.setMaximumPoolSize(threads);
+            explainPool.setCorePoolSize(threads);
+        }
+        return explainPool;
+    }
 
     /**
      * Runs the optimiser through the query represented in the String, given the database. If
@@ -200,13 +234,19 @@ public final class QueryOptimiser
             return new BestQueryFallback(null, limitOffsetQuery.reconstruct(cachedQuery));
         }
         try {
+            boolean parallel = (context.getMode() == QueryOptimiserContext.MODE_NORMAL)
+                && (context.getExplainThreads() > 0) && (database != null);
             boolean openedConnection = false;
-            if (explainConnection == null) {
+            if ((explainConnection == null) && (!parallel)) {
                 openedConnection = true;
                 explainConnection = database.getConnection();
             }
             BestQuery bestQuery;
-            if (context.getMode() == QueryOptimiserContext.MODE_VERBOSE) {
+            if (parallel) {
+                bestQuery = new ParallelBestQueryExplainer(database,
+                        getExplainPool(context.getExplainThreads()), context.getExplainThreads(),
+                        context.getTimeLimit());
+            } else if (context.getMode() == QueryOptimiserContext.MODE_VERBOSE) {
                 bestQuery = new BestQueryExplainerVerbose(explainConnection,
                         context.getTimeLimit());
             } else if (context.getMode() == QueryOptimiserContext.MODE_VERBOSE_LIST) {
@@ -251,7 +291,7 @@ public final class QueryOptimiser
             LimitOffsetQuery limitOffsetOptimisedQuery = new LimitOffsetQuery(optimisedQuery);
             LOG.debug("New cache line produced - limit = " + limitOffsetQuery.getLimit());
             cache.addCacheLine(limitOffsetQuery.getQuery(), limitOffsetOptimisedQuery.getQuery(),
-                    limitOffsetQuery.getLimit());
+                    limitOffsetQuery.getLimit(), (new Date()).getTime() - start);
             LOG.debug("Optimising " + (expectedTime == 0 ? "" : expectedTime + " ms ")
                     + "query took " + ((new Date()).getTime() - start)
                     + (parseTime == 0 ? " ms without parsing " : " ms including "
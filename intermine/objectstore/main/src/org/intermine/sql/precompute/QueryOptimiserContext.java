@@ -29,6 +29,7 @@ public class QueryOptimiserContext
 
     private String mode = MODE_NORMAL;
     private long timeLimit = -1;
+    private int explainThreads = 0;
 
     /**
      * Sets the optimiser mode of operation.
@@ -78,6 +79,30 @@ public class QueryOptimiserContext
         return timeLimit;
     }
 
+    /**
+     * Sets the number of candidate queries that the optimiser may explain at once, each on a
+     * separate connection from the Database. A value of zero means that candidates are explained
+     * one at a time on the connection given to the optimiser. When more than zero, the time limit
+     * becomes a deadline, after which the best query explained so far is used.
+     *
+     * @param explainThreads the number of explains to run at once
+     */
+    public void setExplainThreads(int explainThreads) {
+        if (explainThreads < 0) {
+            throw new IllegalArgumentException("Invalid explain threads " + explainThreads);
+        }
+        this.explainThreads = explainThreads;
+    }
+
+    /**
+     * Returns the number of candidate queries that may be explained at once.
+     *
+     * @return explain threads
+     */
+    public int getExplainThreads() {
+        return explainThreads;
+    }
+
     /**
      * Returns true if the optimiser will print out stuff.
      *
@@ -113,5 +138,16 @@ public class QueryOptimiserContext
         public long getTimeLimit() {
             return -1;
         }
+
+        @Override
+        public void setExplainThreads(@SuppressWarnings("unused") int explainThreads) {
+            throw new IllegalStateException("This is the default QueryOptimiserContext - it cannot"
+                    + " be altered");
+        }
+
+        @Override
+        public int getExplainThreads() {
+            return 0;
+        }
     };
 }
@@ -0,0 +1,201 @@
+package org.intermine.task;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.apache.log4j.Logger;
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Task;
+import org.intermine.metadata.ClassDescriptor;
+import org.intermine.model.InterMineObject;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.ObjectStoreFactory;
+import org.intermine.objectstore.intermine.CompactObjectFormat;
+import org.intermine.objectstore.intermine.DatabaseSchema;
+import org.intermine.objectstore.intermine.NotXmlParser;
+import org.intermine.objectstore.intermine.ObjectStoreInterMineImpl;
+import org.intermine.sql.DatabaseUtil;
+
+/**
+ * Task to rewrite the OBJECT field of every table in a database in either the compact format or
+ * NotXml. Objects that are already in the requested format are left alone, so the task can be
+ * run again if it is interrupted. Precomputed tables keep their copies in the old format, which
+ * can still be read. Remember to also set the objectFormat property of the objectstore, so that
+ * new objects are written in the same format.
+ */
+public class ConvertObjectFormatTask extends Task
+{
+    private static final Logger LOG = Logger.getLogger(ConvertObjectFormatTask.class);
+
+    protected String osName;
+    protected boolean compact = true;
+    protected int batchSize = 1000;
+
+    /**
+     * Set the objectstore alias
+     * @param osName the objectstore alias
+     */
+    public void setOsName(String osName) {
+        this.osName = osName;
+    }
+
+    /**
+     * Set the format to convert to, either "compact" or "notxml"
+     * @param format the format
+     */
+    public void setFormat(String format) {
+        if ("compact".equals(format)) {
+            compact = true;
+        } else if ("notxml".equals(format)) {
+            compact = false;
+        } else {
+            throw new BuildException("format must be compact or notxml, not " + format);
+        }
+    }
+
+    /**
+     * Set the number of rows to convert in each transaction
+     * @param batchSize the number of rows
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void execute() {
+        if (osName == null) {
+            throw new BuildException("osName attribute is not set");
+        }
+        ObjectStoreInterMineImpl osii = null;
+        Connection c = null;
+        try {
+            ObjectStore os = ObjectStoreFactory.getObjectStore(osName);
+            if (!(os instanceof ObjectStoreInterMineImpl)) {
+                throw new BuildException("ObjectStore " + osName
+                        + " is not an ObjectStoreInterMineImpl");
+            }
+            osii = (ObjectStoreInterMineImpl) os;
+            DatabaseSchema schema = osii.getSchema();
+            c = osii.getConnection();
+            c.setAutoCommit(false);
+            for (ClassDescriptor cld : schema.getModel().getClassDescriptors()) {
+                String tableName = DatabaseUtil.getTableName(cld);
+                if ((schema.getTableMaster(cld) == cld)
+                        && InterMineObject.class.isAssignableFrom(cld.getType())
+                        && (!schema.isFlatMode(cld.getType()))
+                        && ((!schema.isMissingNotXml())
+                            || InterMineObject.class.equals(cld.getType()))
+                        && (!schema.getMissingTables().contains(tableName.toLowerCase()))) {
+                    convertTable(c, osii, tableName);
+                }
+            }
+            c.setAutoCommit(true);
+            if (osii.getCompactObjects() != compact) {
+                LOG.warn("The objectFormat property of " + osName + " does not match the "
+                        + "format the database has been converted to");
+            }
+        } catch (BuildException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new BuildException(e);
+        } finally {
+            if (c != null) {
+                try {
+                    c.setAutoCommit(true);
+                } catch (SQLException e) {
+                    // Ignore
+                }
+                osii.releaseConnection(c);
+            }
+        }
+    }
+
+    /**
+     * Rewrites the OBJECT field of one table, a batch of rows at a time in order of ID.
+     *
+     * @param c a Connection, not in auto-commit mode
+     * @param os the ObjectStore to parse objects with
+     * @param tableName the name of the table
+     * @throws Exception if anything goes wrong
+     */
+    protected void convertTable(Connection c, ObjectStoreInterMineImpl os, String tableName)
+        throws Exception {
+        long start = System.currentTimeMillis();
+        long rows = 0;
+        long converted = 0;
+        long oldBytes = 0;
+        long newBytes = 0;
+        PreparedStatement select = c.prepareStatement("SELECT id, OBJECT FROM " + tableName
+                + " WHERE id > ? ORDER BY id LIMIT " + batchSize);
+        PreparedStatement update = c.prepareStatement("UPDATE " + tableName
+                + " SET OBJECT = ? WHERE id = ?");
+        try {
+            int lastId = Integer.MIN_VALUE;
+            boolean more = true;
+            while (more) {
+                select.setInt(1, lastId);
+                ResultSet r = select.executeQuery();
+                int batchRows = 0;
+                while (r.next()) {
+                    batchRows++;
+                    lastId = r.getInt(1);
+                    String object = r.getString(2);
+                    if ((object == null) || (CompactObjectFormat.isCompact(object) == compact)) {
+                        continue;
+                    }
+                    InterMineObject o = NotXmlParser.parse(object, os);
+                    String newObject;
+                    if (compact) {
+                        newObject = CompactObjectFormat.render(o, os.getModel()).toString();
+                    } else {
+                        newObject = o.getoBJECT().toString();
+                    }
+                    oldBytes += object.length();
+                    newBytes += newObject.length();
+                    update.setString(1, newObject);
+                    update.setInt(2, lastId);
+                    update.addBatch();
+                    converted++;
+                }
+                r.close();
+                update.executeBatch();
+                c.commit();
+                rows += batchRows;
+                more = (batchRows == batchSize);
+            }
+        } finally {
+            select.close();
+            update.close();
+        }
+        if (converted > 0) {
+            Statement s = c.createStatement();
+            try {
+                c.setAutoCommit(true);
+                s.execute("ANALYSE " + tableName);
+            } finally {
+                s.close();
+                c.setAutoCommit(false);
+            }
+        }
+        LOG.info("Converted " + converted + " of " + rows + " objects in " + tableName + " to "
+                + (compact ? "compact" : "NotXml") + " format in "
+                + (System.currentTimeMillis() - start) + " ms, size changed from " + oldBytes
+                + " to " + newBytes + " characters");
+    }
+}
@@ -0,0 +1,186 @@
+package org.intermine.task;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.sql.Connection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Task;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.ObjectStoreFactory;
+import org.intermine.objectstore.intermine.ObjectStoreInterMineImpl;
+import org.intermine.objectstore.intermine.PrecomputeAdvisor;
+import org.intermine.objectstore.intermine.QueryLogEntry;
+import org.intermine.sql.precompute.PrecomputedTableManager;
+
+/**
+ * Task to report how often each precomputed table was used by the queries in an execute log or
+ * log table, and to suggest precomputed tables to drop and create within a disk budget. If the
+ * apply attribute is true, the suggestions are carried out. By default only tables created by
+ * this task are ever dropped.
+ */
+public class PrecomputeAdvisorTask extends Task
+{
+    private static final Logger LOG = Logger.getLogger(PrecomputeAdvisorTask.class);
+
+    protected String osName;
+    protected String logFile;
+    protected String logTable;
+    protected int maxEntries = 1000000;
+    protected long diskBudget = Long.MAX_VALUE;
+    protected int maxNew = 20;
+    protected int minUses = 2;
+    protected long minTime = 100;
+    protected String dropCategories = PrecomputeAdvisor.CATEGORY;
+    protected int threads = 4;
+    protected boolean apply = false;
+
+    /**
+     * Set the objectstore alias
+     * @param osName the objectstore alias
+     */
+    public void setOsName(String osName) {
+        this.osName = osName;
+    }
+
+    /**
+     * Set the execute log file to read queries from
+     * @param logFile the file name
+     */
+    public void setLogFile(String logFile) {
+        this.logFile = logFile;
+    }
+
+    /**
+     * Set the log table in the objectstore's database to read queries from
+     * @param logTable the table name
+     */
+    public void setLogTable(String logTable) {
+        this.logTable = logTable;
+    }
+
+    /**
+     * Set the maximum number of log entries to read
+     * @param maxEntries the number of entries
+     */
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Set the maximum total size of the precomputed tables, in megabytes
+     * @param diskBudget the size in megabytes
+     */
+    public void setDiskBudget(long diskBudget) {
+        this.diskBudget = diskBudget * 1048576L;
+    }
+
+    /**
+     * Set the maximum number of precomputed tables to create
+     * @param maxNew the number of tables
+     */
+    public void setMaxNew(int maxNew) {
+        this.maxNew = maxNew;
+    }
+
+    /**
+     * Set the number of times a query must have been run to be worth precomputing
+     * @param minUses the number of times
+     */
+    public void setMinUses(int minUses) {
+        this.minUses = minUses;
+    }
+
+    /**
+     * Set the mean execution time in milliseconds a query must have taken to be worth
+     * precomputing
+     * @param minTime the time in milliseconds
+     */
+    public void setMinTime(long minTime) {
+        this.minTime = minTime;
+    }
+
+    /**
+     * Set the categories of unused precomputed tables that may be dropped, separated by commas
+     * @param dropCategories the categories
+     */
+    public void setDropCategories(String dropCategories) {
+        this.dropCategories = dropCategories;
+    }
+
+    /**
+     * Set the number of precomputed tables to create at once
+     * @param threads the number of threads
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Set whether to drop and create the suggested precomputed tables, rather than just report
+     * @param apply true to change the database
+     */
+    public void setApply(boolean apply) {
+        this.apply = apply;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void execute() {
+        if (osName == null) {
+            throw new BuildException("osName attribute is not set");
+        }
+        if ((logFile == null) == (logTable == null)) {
+            throw new BuildException("exactly one of logFile and logTable must be set");
+        }
+        try {
+            ObjectStore os = ObjectStoreFactory.getObjectStore(osName);
+            if (!(os instanceof ObjectStoreInterMineImpl)) {
+                throw new BuildException("ObjectStore " + osName
+                        + " is not an ObjectStoreInterMineImpl");
+            }
+            ObjectStoreInterMineImpl osii = (ObjectStoreInterMineImpl) os;
+            PrecomputeAdvisor advisor = new PrecomputeAdvisor(osii, PrecomputedTableManager
+                    .getInstance(osii.getDatabase()).getPrecomputedTables());
+            List<QueryLogEntry> entries = QueryLogEntry.read(osii, logFile, logTable,
+                    maxEntries);
+            advisor.addAll(entries);
+            Connection c = osii.getConnection();
+            try {
+                advisor.measureTables(c);
+            } finally {
+                osii.releaseConnection(c);
+            }
+            Set<String> categories = new HashSet<String>();
+            for (String category : dropCategories.split(",")) {
+                categories.add(category.trim());
+            }
+            PrecomputeAdvisor.Plan plan = advisor.plan(advisor.getCandidates(minUses, minTime),
+                    diskBudget, maxNew, categories);
+            String report = advisor.report(plan);
+            LOG.info(report);
+            System.out .println(report);
+            if (apply) {
+                advisor.apply(plan, threads);
+            }
+        } catch (BuildException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new BuildException(e);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package org.intermine.task;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Task;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.ObjectStoreFactory;
+import org.intermine.objectstore.intermine.ObjectStoreInterMineImpl;
+import org.intermine.objectstore.intermine.QueryLogEntry;
+import org.intermine.objectstore.intermine.SqlGenerator;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.iql.IqlQuery;
+import org.intermine.sql.Database;
+import org.intermine.sql.precompute.BestQuery;
+import org.intermine.sql.precompute.BestQueryExplainer;
+import org.intermine.sql.precompute.LimitOffsetQuery;
+import org.intermine.sql.precompute.OptimiserCache;
+import org.intermine.sql.precompute.PrecomputedTable;
+import org.intermine.sql.precompute.PrecomputedTableManager;
+import org.intermine.sql.precompute.QueryOptimiser;
+import org.intermine.sql.precompute.QueryOptimiserContext;
+import org.intermine.sql.query.ExplainResult;
+
+/**
+ * Task to replay the queries in an execute log (the logfile property of an objectstore) or a log
+ * table (the logTable property) through the query optimiser, and report how long optimisation
+ * takes with different numbers of explain threads. The queries are not run. Each query is
+ * regenerated from its IQL where possible, because the logged SQL has already been optimised.
+ */
+public class ReplayQueryLogTask extends Task
+{
+    private static final Logger LOG = Logger.getLogger(ReplayQueryLogTask.class);
+
+    protected String osName;
+    protected String logFile;
+    protected String logTable;
+    protected String threads = "0,4";
+    protected long timeLimit = -2;
+    protected int maxQueries = 10000;
+
+    /**
+     * Set the objectstore alias
+     * @param osName the objectstore alias
+     */
+    public void setOsName(String osName) {
+        this.osName = osName;
+    }
+
+    /**
+     * Set the execute log file to read queries from
+     * @param logFile the file name
+     */
+    public void setLogFile(String logFile) {
+        this.logFile = logFile;
+    }
+
+    /**
+     * Set the log table in the objectstore's database to read queries from
+     * @param logTable the table name
+     */
+    public void setLogTable(String logTable) {
+        this.logTable = logTable;
+    }
+
+    /**
+     * Set the numbers of explain threads to compare, separated by commas. Zero means the
+     * optimiser explains candidates one at a time.
+     * @param threads a comma-separated list of numbers
+     */
+    public void setThreads(String threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Set the optimiser time limit in milliseconds, or -1 for none. The default is the limit
+     * the objectstore uses for queries that are explained.
+     * @param timeLimit the time limit
+     */
+    public void setTimeLimit(long timeLimit) {
+        this.timeLimit = timeLimit;
+    }
+
+    /**
+     * Set the maximum number of queries to replay
+     * @param maxQueries the number of queries
+     */
+    public void setMaxQueries(int maxQueries) {
+        this.maxQueries = maxQueries;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void execute() {
+        if (osName == null) {
+            throw new BuildException("osName attribute is not set");
+        }
+        if ((logFile == null) == (logTable == null)) {
+            throw new BuildException("exactly one of logFile and logTable must be set");
+        }
+        try {
+            ObjectStore os = ObjectStoreFactory.getObjectStore(osName);
+            if (!(os instanceof ObjectStoreInterMineImpl)) {
+                throw new BuildException("ObjectStore " + osName
+                        + " is not an ObjectStoreInterMineImpl");
+            }
+            ObjectStoreInterMineImpl osii = (ObjectStoreInterMineImpl) os;
+            Database db = osii.getDatabase();
+            List<String> queries = readQueries(osii);
+            Set<PrecomputedTable> precomputedTables = PrecomputedTableManager.getInstance(db)
+                .getPrecomputedTables();
+            long limit = (timeLimit == -2 ? osii.getMaxTime() / 10 : timeLimit);
+            String report = "Replayed " + queries.size() + " queries with "
+                + precomputedTables.size() + " precomputed tables and a time limit of " + limit
+                + " ms";
+            for (String threadCount : threads.split(",")) {
+                QueryOptimiserContext context = new QueryOptimiserContext();
+                context.setTimeLimit(limit);
+                context.setExplainThreads(Integer.parseInt(threadCount.trim()));
+                report += "\n" + replay(queries, db, precomputedTables, context);
+            }
+            LOG.info(report);
+            System.out .println(report);
+        } catch (BuildException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new BuildException(e);
+        }
+    }
+
+    /**
+     * Reads the queries from the log, and regenerates the unoptimised SQL for each one.
+     *
+     * @param os the ObjectStore
+     * @return a List of SQL strings
+     * @throws Exception if something goes wrong
+     */
+    protected List<String> readQueries(ObjectStoreInterMineImpl os) throws Exception {
+        List<QueryLogEntry> logged = QueryLogEntry.read(os, logFile, logTable, maxQueries);
+        List<String> retval = new ArrayList<String>();
+        int regenerated = 0;
+        for (QueryLogEntry entry : logged) {
+            String sql = entry.getSql();
+            try {
+                LimitOffsetQuery limitOffset = new LimitOffsetQuery(sql);
+                Query q = new IqlQuery(entry.getIql(), os.getModel().getPackageName()).toQuery();
+                sql = SqlGenerator.generate(q, limitOffset.getOffset(), limitOffset.getLimit(),
+                        os.getSchema(), os.getDatabase(), new HashMap<Object, String>());
+                regenerated++;
+            } catch (Exception e) {
+                // Queries with bags cannot be parsed from the log, so use the SQL as logged
+            }
+            retval.add(sql);
+        }
+        LOG.info("Read " + retval.size() + " queries, regenerated " + regenerated
+                + " from IQL");
+        return retval;
+    }
+
+    /**
+     * Optimises every query with the given context, and describes the distribution of times
+     * taken.
+     *
+     * @param queries the SQL to optimise
+     * @param db the Database
+     * @param precomputedTables the precomputed tables to use
+     * @param context the optimiser settings
+     * @return a line of report
+     * @throws SQLException if something goes wrong
+     */
+    protected String replay(List<String> queries, Database db,
+            Set<PrecomputedTable> precomputedTables, QueryOptimiserContext context)
+        throws SQLException {
+        long[] times = new long[queries.size()];
+        long total = 0;
+        long estimated = 0;
+        int rewritten = 0;
+        for (int i = 0; i < times.length; i++) {
+            String sql = queries.get(i);
+            // A new cache each time, so every query is optimised from scratch
+            long start = System.currentTimeMillis();
+            BestQuery bestQuery = QueryOptimiser.optimiseWith(sql, null, db, null, context,
+                    precomputedTables, new OptimiserCache(1, 1));
+            String optimised = bestQuery.getBestQueryString();
+            times[i] = System.currentTimeMillis() - start;
+            total += times[i];
+            if (!sql.equals(optimised)) {
+                rewritten++;
+            }
+            if (bestQuery instanceof BestQueryExplainer) {
+                ExplainResult explain = ((BestQueryExplainer) bestQuery).getBestExplainResult();
+                if (explain != null) {
+                    estimated += explain.getTime();
+                }
+            }
+        }
+        Arrays.sort(times);
+        return context.getExplainThreads() + " explain threads: total " + total + " ms, mean "
+            + (times.length == 0 ? 0 : total / times.length) + " ms, median "
+            + percentile(times, 50) + " ms, 90% " + percentile(times, 90) + " ms, 99% "
+            + percentile(times, 99) + " ms, max " + percentile(times, 100) + " ms, "
+            + rewritten + " queries rewritten, total estimated run time " + estimated + " ms";
+    }
+
+    private static long percentile(long[] sorted, int percent) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(sorted.length * percent / 100.0) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+}
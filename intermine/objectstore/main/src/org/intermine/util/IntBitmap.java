@@ -0,0 +1,512 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A compressed set of ints, for holding the ids of a bag and combining bags in memory.
+ * <p>
+ * The ints are split by their top 16 bits into chunks of 65536 possible values.  A chunk with up
+ * to 4096 members is held as a sorted array of the bottom 16 bits, two bytes per member, and a
+ * fuller chunk as a 65536 bit bitmap, at most two bytes per member.  Empty chunks aren't held at
+ * all.  This is the layout of "Roaring" bitmaps.  Object ids are handed out in blocks, so the ids
+ * of a bag are usually clustered into a few chunks.
+ * <p>
+ * The combining methods return new bitmaps and never alter their arguments.  Adding to a bitmap
+ * is not thread-safe, but a bitmap that is no longer being added to can be read and combined by
+ * many threads at once.
+ */
+public class IntBitmap
+{
+    private static final int ARRAY_MAX = 4096;
+    private static final int WORDS = 1024;
+
+    private static final int OR = 0;
+    private static final int AND = 1;
+    private static final int AND_NOT = 2;
+    private static final int XOR = 3;
+
+    // The top 16 bits of the members of each chunk, in signed order
+    private int[] keys;
+    // Each chunk, either a short[] of sorted unsigned low bits or a long[] bitmap of them
+    private Object[] chunks;
+    private int[] cardinalities;
+    private int chunkCount = 0;
+
+    /**
+     * Creates an empty bitmap.
+     */
+    public IntBitmap() {
+        this(4);
+    }
+
+    private IntBitmap(int capacity) {
+        keys = new int[capacity];
+        chunks = new Object[capacity];
+        cardinalities = new int[capacity];
+    }
+
+    /**
+     * Creates a bitmap holding some ints.
+     *
+     * @param values the ints, in any order and with any duplicates
+     * @return a new bitmap
+     */
+    public static IntBitmap of(Collection<Integer> values) {
+        int[] sorted = new int[values.size()];
+        int i = 0;
+        for (Integer value : values) {
+            sorted[i++] = value.intValue();
+        }
+        return of(sorted);
+    }
+
+    /**
+     * Creates a bitmap holding some ints.
+     *
+     * @param values the ints, in any order and with any duplicates.  The array is sorted.
+     * @return a new bitmap
+     */
+    public static IntBitmap of(int[] values) {
+        Arrays.sort(values);
+        IntBitmap retval = new IntBitmap();
+        for (int value : values) {
+            retval.add(value);
+        }
+        return retval;
+    }
+
+    /**
+     * Adds an int.
+     *
+     * @param value any int
+     * @return true if it wasn't already present
+     */
+    public boolean add(int value) {
+        int key = value >> 16;
+        int low = value & 0xFFFF;
+        int index = findKey(key);
+        if (index < 0) {
+            index = -index - 1;
+            insertChunk(index, key, new short[] {(short) low}, 1);
+            return true;
+        }
+        Object chunk = chunks[index];
+        int cardinality = cardinalities[index];
+        if (chunk instanceof long[]) {
+            long[] words = (long[]) chunk;
+            long bit = 1L << low;
+            if ((words[low >>> 6] & bit) != 0) {
+                return false;
+            }
+            words[low >>> 6] |= bit;
+            cardinalities[index]++;
+            return true;
+        }
+        short[] array = (short[]) chunk;
+        int position = unsignedSearch(array, cardinality, low);
+        if (position >= 0) {
+            return false;
+        }
+        position = -position - 1;
+        if (cardinality == ARRAY_MAX) {
+            long[] words = toWords(array, cardinality);
+            words[low >>> 6] |= 1L << low;
+            chunks[index] = words;
+        } else {
+            if (cardinality == array.length) {
+                array = Arrays.copyOf(array, Math.min(ARRAY_MAX, cardinality * 2));
+                chunks[index] = array;
+            }
+            System.arraycopy(array, position, array, position + 1, cardinality - position);
+            array[position] = (short) low;
+        }
+        cardinalities[index]++;
+        return true;
+    }
+
+    /**
+     * Returns whether an int is present.
+     *
+     * @param value any int
+     * @return true if it is present
+     */
+    public boolean contains(int value) {
+        int index = findKey(value >> 16);
+        if (index < 0) {
+            return false;
+        }
+        return chunkContains(chunks[index], cardinalities[index], value & 0xFFFF);
+    }
+
+    /**
+     * @return the number of ints present
+     */
+    public int getCardinality() {
+        int retval = 0;
+        for (int i = 0; i < chunkCount; i++) {
+            retval += cardinalities[i];
+        }
+        return retval;
+    }
+
+    /**
+     * @return true if no ints are present
+     */
+    public boolean isEmpty() {
+        return chunkCount == 0;
+    }
+
+    /**
+     * @return roughly the number of bytes of memory the bitmap takes up
+     */
+    public long getSizeInBytes() {
+        long retval = 64 + 16L * keys.length;
+        for (int i = 0; i < chunkCount; i++) {
+            if (chunks[i] instanceof long[]) {
+                retval += 16 + 8 * WORDS;
+            } else {
+                retval += 16 + 2 * ((short[]) chunks[i]).length;
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * @return the ints present, in ascending order
+     */
+    public int[] toArray() {
+        int[] retval = new int[getCardinality()];
+        int n = 0;
+        for (int i = 0; i < chunkCount; i++) {
+            int high = keys[i] << 16;
+            if (chunks[i] instanceof long[]) {
+                long[] words = (long[]) chunks[i];
+                for (int w = 0; w < WORDS; w++) {
+                    long word = words[w];
+                    while (word != 0) {
+                        retval[n++] = high | (w << 6) | Long.numberOfTrailingZeros(word);
+                        word &= word - 1;
+                    }
+                }
+            } else {
+                short[] array = (short[]) chunks[i];
+                for (int j = 0; j < cardinalities[i]; j++) {
+                    retval[n++] = high | (array[j] & 0xFFFF);
+                }
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * @return the ints present, in ascending order, as an unmodifiable list backed by an array
+     */
+    public List<Integer> toList() {
+        final int[] values = toArray();
+        return new AbstractList<Integer>() {
+            @Override
+            public Integer get(int index) {
+                return Integer.valueOf(values[index]);
+            }
+
+            @Override
+            public int size() {
+                return values.length;
+            }
+        };
+    }
+
+    /**
+     * @param other another bitmap
+     * @return a new bitmap of the ints in either bitmap
+     */
+    public IntBitmap or(IntBitmap other) {
+        return combine(this, other, OR);
+    }
+
+    /**
+     * @param other another bitmap
+     * @return a new bitmap of the ints in both bitmaps
+     */
+    public IntBitmap and(IntBitmap other) {
+        return combine(this, other, AND);
+    }
+
+    /**
+     * @param other another bitmap
+     * @return a new bitmap of the ints in this bitmap but not the other
+     */
+    public IntBitmap andNot(IntBitmap other) {
+        return combine(this, other, AND_NOT);
+    }
+
+    /**
+     * @param other another bitmap
+     * @return a new bitmap of the ints in exactly one of the bitmaps
+     */
+    public IntBitmap xor(IntBitmap other) {
+        return combine(this, other, XOR);
+    }
+
+    /**
+     * @param bitmaps some bitmaps
+     * @return a new bitmap of the ints in any of them
+     */
+    public static IntBitmap or(Collection<IntBitmap> bitmaps) {
+        IntBitmap retval = new IntBitmap();
+        for (IntBitmap bitmap : bitmaps) {
+            retval = retval.or(bitmap);
+        }
+        return retval;
+    }
+
+    /**
+     * @param bitmaps some bitmaps
+     * @return a new bitmap of the ints in all of them, which is empty if there are no bitmaps
+     */
+    public static IntBitmap and(Collection<IntBitmap> bitmaps) {
+        IntBitmap retval = null;
+        for (IntBitmap bitmap : bitmaps) {
+            retval = (retval == null) ? bitmap.copy() : retval.and(bitmap);
+        }
+        return retval == null ? new IntBitmap() : retval;
+    }
+
+    /**
+     * @return a new bitmap of the same ints
+     */
+    public IntBitmap copy() {
+        return combine(this, new IntBitmap(), OR);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof IntBitmap)) {
+            return false;
+        }
+        return Arrays.equals(toArray(), ((IntBitmap) o).toArray());
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(toArray());
+    }
+
+    @Override
+    public String toString() {
+        return "IntBitmap [" + getCardinality() + " ints in " + chunkCount + " chunks]";
+    }
+
+    private static IntBitmap combine(IntBitmap a, IntBitmap b, int op) {
+        IntBitmap retval = new IntBitmap(Math.max(4, op == AND ? Math.min(a.chunkCount,
+                        b.chunkCount) : a.chunkCount + b.chunkCount));
+        int i = 0;
+        int j = 0;
+        while (i < a.chunkCount || j < b.chunkCount) {
+            if (j >= b.chunkCount || (i < a.chunkCount && a.keys[i] < b.keys[j])) {
+                // only in a
+                if (op != AND) {
+                    retval.appendCopy(a.keys[i], a.chunks[i], a.cardinalities[i]);
+                }
+                i++;
+            } else if (i >= a.chunkCount || b.keys[j] < a.keys[i]) {
+                // only in b
+                if (op == OR || op == XOR) {
+                    retval.appendCopy(b.keys[j], b.chunks[j], b.cardinalities[j]);
+                }
+                j++;
+            } else {
+                retval.combineChunks(a.keys[i], a.chunks[i], a.cardinalities[i], b.chunks[j],
+                        b.cardinalities[j], op);
+                i++;
+                j++;
+            }
+        }
+        return retval;
+    }
+
+    private void combineChunks(int key, Object ca, int na, Object cb, int nb, int op) {
+        if (ca instanceof short[] && cb instanceof short[]) {
+            mergeArrays(key, (short[]) ca, na, (short[]) cb, nb, op);
+        } else if (ca instanceof short[] && (op == AND || op == AND_NOT)) {
+            filterArray(key, (short[]) ca, na, cb, nb, op == AND);
+        } else if (cb instanceof short[] && op == AND) {
+            filterArray(key, (short[]) cb, nb, ca, na, true);
+        } else {
+            long[] wa = ca instanceof long[] ? (long[]) ca : toWords((short[]) ca, na);
+            long[] wb = cb instanceof long[] ? (long[]) cb : toWords((short[]) cb, nb);
+            long[] words = new long[WORDS];
+            int cardinality = 0;
+            for (int w = 0; w < WORDS; w++) {
+                long word;
+                switch (op) {
+                    case OR:
+                        word = wa[w] | wb[w];
+                        break;
+                    case AND:
+                        word = wa[w] & wb[w];
+                        break;
+                    case AND_NOT:
+                        word = wa[w] & ~wb[w];
+                        break;
+                    default:
+                        word = wa[w] ^ wb[w];
+                        break;
+                }
+                words[w] = word;
+                cardinality += Long.bitCount(word);
+            }
+            if (cardinality > ARRAY_MAX) {
+                append(key, words, cardinality);
+            } else if (cardinality > 0) {
+                append(key, toArray(words, cardinality), cardinality);
+            }
+        }
+    }
+
+    private void mergeArrays(int key, short[] a, int na, short[] b, int nb, int op) {
+        short[] merged = new short[op == AND ? Math.min(na, nb) : (op == AND_NOT ? na : na + nb)];
+        int n = 0;
+        int i = 0;
+        int j = 0;
+        while (i < na || j < nb) {
+            int va = i < na ? a[i] & 0xFFFF : Integer.MAX_VALUE;
+            int vb = j < nb ? b[j] & 0xFFFF : Integer.MAX_VALUE;
+            if (va < vb) {
+                if (op != AND) {
+                    merged[n++] = a[i];
+                }
+                i++;
+            } else if (vb < va) {
+                if (op == OR || op == XOR) {
+                    merged[n++] = b[j];
+                }
+                j++;
+            } else {
+                if (op == OR || op == AND) {
+                    merged[n++] = a[i];
+                }
+                i++;
+                j++;
+            }
+        }
+        if (n > ARRAY_MAX) {
+            append(key, toWords(merged, n), n);
+        } else if (n > 0) {
+            append(key, n == merged.length ? merged : Arrays.copyOf(merged, n), n);
+        }
+    }
+
+    private void filterArray(int key, short[] array, int n, Object other, int otherN,
+            boolean keepPresent) {
+        short[] filtered = new short[n];
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            if (chunkContains(other, otherN, array[i] & 0xFFFF) == keepPresent) {
+                filtered[count++] = array[i];
+            }
+        }
+        if (count > 0) {
+            append(key, count == n ? filtered : Arrays.copyOf(filtered, count), count);
+        }
+    }
+
+    private void appendCopy(int key, Object chunk, int cardinality) {
+        if (chunk instanceof long[]) {
+            append(key, ((long[]) chunk).clone(), cardinality);
+        } else {
+            append(key, Arrays.copyOf((short[]) chunk, cardinality), cardinality);
+        }
+    }
+
+    private void append(int key, Object chunk, int cardinality) {
+        insertChunk(chunkCount, key, chunk, cardinality);
+    }
+
+    private void insertChunk(int index, int key, Object chunk, int cardinality) {
+        if (chunkCount == keys.length) {
+            int capacity = keys.length * 2;
+            keys = Arrays.copyOf(keys, capacity);
+            chunks = Arrays.copyOf(chunks, capacity);
+            cardinalities = Arrays.copyOf(cardinalities, capacity);
+        }
+        System.arraycopy(keys, index, keys, index + 1, chunkCount - index);
+        System.arraycopy(chunks, index, chunks, index + 1, chunkCount - index);
+        System.arraycopy(cardinalities, index, cardinalities, index + 1, chunkCount - index);
+        keys[index] = key;
+        chunks[index] = chunk;
+        cardinalities[index] = cardinality;
+        chunkCount++;
+    }
+
+    private int findKey(int key) {
+        // ids are mostly added in ascending order
+        if (chunkCount > 0 && keys[chunkCount - 1] == key) {
+            return chunkCount - 1;
+        }
+        return Arrays.binarySearch(keys, 0, chunkCount, key);
+    }
+
+    private static boolean chunkContains(Object chunk, int cardinality, int low) {
+        if (chunk instanceof long[]) {
+            return (((long[]) chunk)[low >>> 6] & (1L << low)) != 0;
+        }
+        return unsignedSearch((short[]) chunk, cardinality, low) >= 0;
+    }
+
+    private static int unsignedSearch(short[] array, int n, int low) {
+        // ids are mostly added in ascending order
+        if (n > 0 && (array[n - 1] & 0xFFFF) < low) {
+            return -n - 1;
+        }
+        int from = 0;
+        int to = n - 1;
+        while (from <= to) {
+            int mid = (from + to) >>> 1;
+            int value = array[mid] & 0xFFFF;
+            if (value < low) {
+                from = mid + 1;
+            } else if (value > low) {
+                to = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -from - 1;
+    }
+
+    private static long[] toWords(short[] array, int n) {
+        long[] words = new long[WORDS];
+        for (int i = 0; i < n; i++) {
+            int low = array[i] & 0xFFFF;
+            words[low >>> 6] |= 1L << low;
+        }
+        return words;
+    }
+
+    private static short[] toArray(long[] words, int cardinality) {
+        short[] array = new short[cardinality];
+        int n = 0;
+        for (int w = 0; w < WORDS; w++) {
+            long word = words[w];
+            while (word != 0) {
+                array[n++] = (short) ((w << 6) | Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+        return array;
+    }
+}
@@ -0,0 +1,390 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * This is a map from int to Object, which keeps its entries in insertion order, or optionally in
+ * access order like a LinkedHashMap. It is designed to replace a LinkedHashMap or HashMap keyed
+ * by Integer where there are millions of entries - no Integer or entry objects are created, so
+ * an entry costs about 24 bytes instead of about 60, and the garbage collector has one object per
+ * entry less to trace.
+ * <p>
+ * The entries are held in parallel arrays, chained from an array of hash buckets and linked in
+ * order by index. Removed entries are reused. This class is not thread-safe.
+ *
+ * @param <V> the type of the values
+ */
+public class IntToObjectMap<V>
+{
+    private static final int NONE = -1;
+
+    private boolean accessOrder;
+    private int[] buckets;
+    private int[] keys;
+    private Object[] values;
+    private int[] nextInBucket;
+    private int[] before;
+    private int[] after;
+    // The least recently used or inserted entry, and the most recent
+    private int head = NONE;
+    private int tail = NONE;
+    // Chain of unused entries, through nextInBucket
+    private int free = NONE;
+    private int used = 0;
+    private int size = 0;
+
+    /**
+     * Creates an empty map in insertion order.
+     */
+    public IntToObjectMap() {
+        this(16, false);
+    }
+
+    /**
+     * Creates an empty map.
+     *
+     * @param expectedSize the number of entries to allocate space for
+     * @param accessOrder true to order the entries by access, least recent first, or false to
+     * order them by insertion
+     */
+    public IntToObjectMap(int expectedSize, boolean accessOrder) {
+        this.accessOrder = accessOrder;
+        int capacity = Math.max(16, expectedSize);
+        keys = new int[capacity];
+        values = new Object[capacity];
+        nextInBucket = new int[capacity];
+        before = new int[capacity];
+        after = new int[capacity];
+        buckets = new int[Integer.highestOneBit(capacity * 4 / 3 + 1) * 2];
+        Arrays.fill(buckets, NONE);
+    }
+
+    private int bucketFor(int key) {
+        int h = key * 0x9E3779B1;
+        return (h ^ (h >>> 16)) & (buckets.length - 1);
+    }
+
+    private int find(int key) {
+        int entry = buckets[bucketFor(key)];
+        while ((entry != NONE) && (keys[entry] != key)) {
+            entry = nextInBucket[entry];
+        }
+        return entry;
+    }
+
+    /**
+     * Returns the value mapped to a key. In an access-ordered map, the entry becomes the most
+     * recently used.
+     *
+     * @param key any int
+     * @return the value, or null if there is no mapping
+     */
+    public V get(int key) {
+        int entry = find(key);
+        if (entry == NONE) {
+            return null;
+        }
+        if (accessOrder) {
+            moveToTail(entry);
+        }
+        return value(entry);
+    }
+
+    /**
+     * Returns the value mapped to a key, without altering the order of the entries.
+     *
+     * @param key any int
+     * @return the value, or null if there is no mapping
+     */
+    public V peek(int key) {
+        int entry = find(key);
+        return entry == NONE ? null : value(entry);
+    }
+
+    /**
+     * Returns whether there is a mapping for a key.
+     *
+     * @param key any int
+     * @return true if the key is present, even if it maps onto null
+     */
+    public boolean containsKey(int key) {
+        return find(key) != NONE;
+    }
+
+    /**
+     * Maps a key onto a value. The entry becomes the most recent, unless the map is in insertion
+     * order and the key was already present.
+     *
+     * @param key any int
+     * @param value any value, including null
+     * @return the previous value, or null if there was none
+     */
+    public V put(int key, V value) {
+        int entry = find(key);
+        if (entry != NONE) {
+            V old = value(entry);
+            values[entry] = value;
+            if (accessOrder) {
+                moveToTail(entry);
+            }
+            return old;
+        }
+        if (free != NONE) {
+            entry = free;
+            free = nextInBucket[entry];
+        } else {
+            if (used == keys.length) {
+                grow();
+            }
+            entry = used++;
+        }
+        keys[entry] = key;
+        values[entry] = value;
+        int bucket = bucketFor(key);
+        nextInBucket[entry] = buckets[bucket];
+        buckets[bucket] = entry;
+        linkAtTail(entry);
+        size++;
+        return null;
+    }
+
+    /**
+     * Removes the mapping for a key.
+     *
+     * @param key any int
+     * @return the value that was removed, or null if there was none
+     */
+    public V remove(int key) {
+        int bucket = bucketFor(key);
+        int previous = NONE;
+        int entry = buckets[bucket];
+        while ((entry != NONE) && (keys[entry] != key)) {
+            previous = entry;
+            entry = nextInBucket[entry];
+        }
+        if (entry == NONE) {
+            return null;
+        }
+        if (previous == NONE) {
+            buckets[bucket] = nextInBucket[entry];
+        } else {
+            nextInBucket[previous] = nextInBucket[entry];
+        }
+        return release(entry);
+    }
+
+    private V release(int entry) {
+        V old = value(entry);
+        unlink(entry);
+        values[entry] = null;
+        nextInBucket[entry] = free;
+        free = entry;
+        size--;
+        return old;
+    }
+
+    /**
+     * Returns the key of the least recently used or inserted entry.
+     *
+     * @return an int
+     * @throws NoSuchElementException if the map is empty
+     */
+    public int eldestKey() {
+        if (head == NONE) {
+            throw new NoSuchElementException();
+        }
+        return keys[head];
+    }
+
+    /**
+     * Returns the number of mappings.
+     *
+     * @return the size
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns whether the map is empty.
+     *
+     * @return true if there are no mappings
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes all mappings, keeping the space allocated.
+     */
+    public void clear() {
+        Arrays.fill(buckets, NONE);
+        Arrays.fill(values, 0, used, null);
+        head = NONE;
+        tail = NONE;
+        free = NONE;
+        used = 0;
+        size = 0;
+    }
+
+    /**
+     * Returns a cursor over the entries, from the least recent to the most recent. Reading
+     * entries through the cursor does not alter their order. The map must not be altered while
+     * the cursor is in use, except through the cursor's remove method.
+     *
+     * @return a new Cursor
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        StringBuffer retval = new StringBuffer("{");
+        boolean needComma = false;
+        for (int entry = head; entry != NONE; entry = after[entry]) {
+            if (needComma) {
+                retval.append(", ");
+            }
+            needComma = true;
+            retval.append(keys[entry] + " -> " + values[entry]);
+        }
+        retval.append("}");
+        return retval.toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    private V value(int entry) {
+        return (V) values[entry];
+    }
+
+    private void grow() {
+        int capacity = keys.length * 2;
+        keys = Arrays.copyOf(keys, capacity);
+        values = Arrays.copyOf(values, capacity);
+        nextInBucket = Arrays.copyOf(nextInBucket, capacity);
+        before = Arrays.copyOf(before, capacity);
+        after = Arrays.copyOf(after, capacity);
+        // Entries keep their indexes, so only the buckets need to be rebuilt
+        buckets = new int[buckets.length * 2];
+        Arrays.fill(buckets, NONE);
+        for (int entry = head; entry != NONE; entry = after[entry]) {
+            int bucket = bucketFor(keys[entry]);
+            nextInBucket[entry] = buckets[bucket];
+            buckets[bucket] = entry;
+        }
+    }
+
+    private void linkAtTail(int entry) {
+        before[entry] = tail;
+        after[entry] = NONE;
+        if (tail == NONE) {
+            head = entry;
+        } else {
+            after[tail] = entry;
+        }
+        tail = entry;
+    }
+
+    private void unlink(int entry) {
+        if (before[entry] == NONE) {
+            head = after[entry];
+        } else {
+            after[before[entry]] = after[entry];
+        }
+        if (after[entry] == NONE) {
+            tail = before[entry];
+        } else {
+            before[after[entry]] = before[entry];
+        }
+    }
+
+    private void moveToTail(int entry) {
+        if (entry != tail) {
+            unlink(entry);
+            linkAtTail(entry);
+        }
+    }
+
+    /**
+     * A position in the order of the entries of the map.
+     */
+    public class Cursor
+    {
+        private int current = NONE;
+        private int next = head;
+
+        /**
+         * Returns whether there is another entry.
+         *
+         * @return true if next() will succeed
+         */
+        public boolean hasNext() {
+            return next != NONE;
+        }
+
+        /**
+         * Moves to the next entry.
+         *
+         * @return the key of the entry
+         * @throws NoSuchElementException if there are no more entries
+         */
+        public int next() {
+            if (next == NONE) {
+                throw new NoSuchElementException();
+            }
+            current = next;
+            next = after[current];
+            return keys[current];
+        }
+
+        /**
+         * Returns the key of the current entry.
+         *
+         * @return an int
+         */
+        public int key() {
+            checkCurrent();
+            return keys[current];
+        }
+
+        /**
+         * Returns the value of the current entry.
+         *
+         * @return the value
+         */
+        public V value() {
+            checkCurrent();
+            return IntToObjectMap.this.value(current);
+        }
+
+        /**
+         * Removes the current entry from the map.
+         */
+        public void remove() {
+            checkCurrent();
+            IntToObjectMap.this.remove(keys[current]);
+            current = NONE;
+        }
+
+        private void checkCurrent() {
+            if (current == NONE) {
+                throw new IllegalStateException("No current entry");
+            }
+        }
+    }
+}
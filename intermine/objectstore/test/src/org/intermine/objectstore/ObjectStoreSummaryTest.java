@@ -140,6 +140,19 @@ public class ObjectStoreSummaryTest extends StoreDataTestCase
         assertEquals(10, ossFromProps.getMaxValues());
     }
 
+    public void testScanning() throws Exception {
+        ObjectStore os = ObjectStoreFactory.getObjectStore("os.unittest");
+        for (String maxValues : new String[] {"3", "10", "200"}) {
+            Properties config = new Properties();
+            config.put("max.field.values", maxValues);
+            config.put("ignore.counts", "org.intermine.model.testmodel.Employee.age");
+            Properties byQueries = new ObjectStoreSummary(os, config).toProperties();
+            config.put("summary.threads", "3");
+            Properties byScanning = new ObjectStoreSummary(os, config).toProperties();
+            assertEquals(byQueries, byScanning);
+        }
+    }
+
     public void testPropertiesRoundTrip() throws Exception {
         Properties config = new Properties();
         config.put("max.field.values", "10");
@@ -0,0 +1,156 @@
+package org.intermine.objectstore.cache;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.intermine.model.testmodel.Employee;
+
+public class StripedObjectCacheTest extends TestCase
+{
+    public StripedObjectCacheTest(String arg) {
+        super(arg);
+    }
+
+    private static Employee employee(int id, String name) {
+        Employee e = new Employee();
+        e.setId(new Integer(id));
+        e.setName(name);
+        return e;
+    }
+
+    public void testGetPut() throws Exception {
+        StripedObjectCache cache = new StripedObjectCache("test");
+        Employee e1 = employee(1, "Employee 1");
+        assertNull(cache.get(new Integer(1)));
+        assertFalse(cache.containsKey(new Integer(1)));
+        cache.put(new Integer(1), e1);
+        assertSame(e1, cache.get(new Integer(1)));
+        assertTrue(cache.containsKey(new Integer(1)));
+
+        // Null entries record objects that are not in the database
+        cache.put(new Integer(2), null);
+        assertNull(cache.get(new Integer(2)));
+        assertTrue(cache.containsKey(new Integer(2)));
+        assertEquals(2, cache.size());
+
+        cache.remove(new Integer(1));
+        assertFalse(cache.containsKey(new Integer(1)));
+        assertEquals(1, cache.size());
+
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    public void testCacheIfAbsent() throws Exception {
+        StripedObjectCache cache = new StripedObjectCache("test");
+        Employee e1 = employee(1, "Employee 1");
+        Employee e1b = employee(1, "Employee 1");
+        long generation = cache.getGeneration();
+        assertSame(e1, cache.cacheIfAbsent(new Integer(1), e1, generation));
+        assertSame(e1, cache.cacheIfAbsent(new Integer(1), e1b, generation));
+        assertSame(e1, cache.get(new Integer(1)));
+
+        // An object fetched before a flush must not be cached after it
+        Employee e2 = employee(2, "Employee 2");
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertTrue(cache.getGeneration() != generation);
+        assertSame(e2, cache.cacheIfAbsent(new Integer(2), e2, generation));
+        assertFalse(cache.containsKey(new Integer(2)));
+        assertSame(e2, cache.cacheIfAbsent(new Integer(2), e2, cache.getGeneration()));
+        assertTrue(cache.containsKey(new Integer(2)));
+    }
+
+    public void testEntryLimit() throws Exception {
+        StripedObjectCache cache = new StripedObjectCache("test", 100, Long.MAX_VALUE, 4);
+        for (int i = 0; i < 1000; i++) {
+            cache.put(new Integer(i), employee(i, "Employee " + i));
+        }
+        assertTrue("Size is " + cache.size(), cache.size() <= 100);
+        assertEquals(1000 - cache.size(), cache.getEvictions());
+
+        // Recently looked-up entries survive a round of eviction
+        Integer kept = null;
+        for (int i = 999; i >= 0; i--) {
+            if (cache.containsKey(new Integer(i))) {
+                kept = new Integer(i);
+                break;
+            }
+        }
+        assertNotNull(kept);
+        for (int i = 1000; i < 1050; i++) {
+            cache.get(kept);
+            cache.put(new Integer(i), employee(i, "Employee " + i));
+        }
+        assertTrue(cache.containsKey(kept));
+    }
+
+    public void testByteLimit() throws Exception {
+        StringBuffer longName = new StringBuffer();
+        for (int i = 0; i < 1000; i++) {
+            longName.append("x");
+        }
+        StripedObjectCache cache = new StripedObjectCache("test", 1000, 100000, 1);
+        for (int i = 0; i < 1000; i++) {
+            cache.put(new Integer(i), employee(i, longName.toString()));
+        }
+        assertTrue(cache.getEstimatedBytes() <= 100000);
+        assertTrue("Size is " + cache.size(), cache.size() < 100);
+        assertTrue(cache.size() > 0);
+    }
+
+    public void testConcurrentAccess() throws Exception {
+        final StripedObjectCache cache = new StripedObjectCache("test", 5000, Long.MAX_VALUE, 16);
+        final Throwable[] failure = new Throwable[1];
+        Thread[] threads = new Thread[32];
+        for (int t = 0; t < threads.length; t++) {
+            final int seed = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        Random rand = new Random(seed);
+                        for (int i = 0; i < 20000; i++) {
+                            Integer id = new Integer(rand.nextInt(10000));
+                            Employee e = (Employee) cache.get(id);
+                            if (e == null) {
+                                cache.cacheIfAbsent(id, employee(id.intValue(), "E" + id),
+                                        cache.getGeneration());
+                            } else if (!id.equals(e.getId())) {
+                                throw new IllegalStateException("Got " + e.getId() + " for "
+                                        + id);
+                            }
+                            if (i % 5000 == 0) {
+                                cache.remove(id);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        synchronized (failure) {
+                            failure[0] = e;
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure[0] != null) {
+            throw new Exception(failure[0]);
+        }
+        assertTrue("Size is " + cache.size(), cache.size() <= 5000);
+        assertEquals(32 * 20000, cache.getHits() + cache.getMisses());
+    }
+}
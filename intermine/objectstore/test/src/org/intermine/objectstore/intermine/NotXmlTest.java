@@ -10,17 +10,36 @@ package org.intermine.objectstore.intermine;
  *
  */
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 
 import junit.framework.TestCase;
 
+import org.intermine.model.testmodel.Broke;
 import org.intermine.model.testmodel.Company;
 import org.intermine.model.testmodel.Department;
 import org.intermine.model.testmodel.Employee;
+import org.intermine.model.testmodel.Types;
+import org.intermine.metadata.Model;
+import org.intermine.model.InterMineObject;
 import org.intermine.objectstore.ObjectStore;
 import org.intermine.objectstore.ObjectStoreFactory;
+import org.intermine.objectstore.dummy.ObjectStoreDummyImpl;
 import org.intermine.objectstore.proxy.ProxyReference;
+import org.intermine.modelproduction.xml.InterMineModelParser;
 import org.intermine.util.DynamicBean;
+import org.intermine.util.DynamicUtil;
+import org.intermine.util.XmlBinding;
 
 public class NotXmlTest extends TestCase
 {
@@ -99,6 +118,230 @@ public class NotXmlTest extends TestCase
         assertEquals(e.getId(), reparsed.getId());
     }
 
+    public void testRoundTrip() throws Exception {
+        Types t = new Types();
+        t.setId(new Integer(99));
+        t.setName("Types$_^");
+        t.setBooleanType(true);
+        t.setBooleanObjType(Boolean.FALSE);
+        t.setDoubleType(1.5);
+        t.setFloatObjType(new Float(2.5F));
+        t.setLongType(1234567890123L);
+        t.setShortObjType(new Short((short) 7));
+        t.setIntType(-45);
+        t.setIntObjType(new Integer(Integer.MIN_VALUE));
+        t.setBigDecimalObjType(new BigDecimal("123.456"));
+        t.setDateObjType(new Date(100000));
+        t.setStringObjType("");
+        Company c = (Company) DynamicUtil.createObject(Collections.<Class<?>>singleton(
+                    Company.class));
+        c.setId(new Integer(74350));
+        c.setName("$_^dCompany $_^ C");
+        c.setVatNumber(100);
+        for (Object o : new Object[] {t, c}) {
+            String notXml = NotXmlRenderer.render(o).toString();
+            InterMineObject reparsed = NotXmlParser.parse(notXml, os);
+            assertEquals(notXml, NotXmlRenderer.render(reparsed).toString());
+        }
+    }
+
+    public void testCompactRoundTrip() throws Exception {
+        Types t = new Types();
+        t.setId(new Integer(99));
+        t.setName("Types$_^");
+        t.setBooleanType(true);
+        t.setBooleanObjType(Boolean.FALSE);
+        t.setDoubleType(1.5);
+        t.setDoubleObjType(new Double(-0.1));
+        t.setFloatType(Float.NaN);
+        t.setFloatObjType(new Float(2.5F));
+        t.setLongType(Long.MIN_VALUE);
+        t.setLongObjType(new Long(1234567890123L));
+        t.setShortObjType(new Short((short) -7));
+        t.setIntType(-45);
+        t.setIntObjType(new Integer(Integer.MIN_VALUE));
+        t.setBigDecimalObjType(new BigDecimal("123.456"));
+        t.setDateObjType(new Date(-100000));
+        t.setStringObjType("");
+        Employee e = new Employee();
+        e.setId(new Integer(Integer.MAX_VALUE));
+        e.setName("Employee \u00e9\u4e2d#");
+        Department d = new Department();
+        d.setId(new Integer(5678));
+        e.setDepartment(d);
+        Company c = (Company) DynamicUtil.createObject(Collections.<Class<?>>singleton(
+                    Company.class));
+        c.setId(new Integer(74350));
+        c.setName("$_^dCompany $_^ C");
+        c.setVatNumber(100);
+        Employee eb = (Employee) DynamicUtil.createObject(new HashSet<Class<?>>(Arrays.asList(
+                        Employee.class, Broke.class)));
+        eb.setId(new Integer(3));
+        eb.setAge(23);
+        ((Broke) eb).setDebt(12);
+        for (Object o : new Object[] {t, e, c, eb}) {
+            String compact = CompactObjectFormat.render(o, os.getModel()).toString();
+            assertTrue(compact, CompactObjectFormat.isCompact(compact));
+            InterMineObject reparsed = NotXmlParser.parse(compact, os);
+            assertEquals(o.getClass(), reparsed.getClass());
+            assertEquals(NotXmlRenderer.render(o).toString(),
+                    NotXmlRenderer.render(reparsed).toString());
+            assertEquals(compact, CompactObjectFormat.render(reparsed, os.getModel())
+                    .toString());
+        }
+        assertTrue(Double.isNaN(((Types) NotXmlParser.parse(CompactObjectFormat.render(t,
+                                os.getModel()).toString(), os)).getFloatType()));
+
+        // The generated setoBJECT method reads both formats
+        Employee e2 = new Employee();
+        e2.setoBJECT(CompactObjectFormat.render(e, os.getModel()).toString(), os);
+        assertEquals(e.getName(), e2.getName());
+        assertEquals(new Integer(5678), ((ProxyReference) e2.proxGetDepartment()).getId());
+    }
+
+    public void testCompactModelMismatch() throws Exception {
+        Department d = new Department();
+        d.setId(new Integer(5678));
+        d.setName("Department1");
+        String compact = CompactObjectFormat.render(d, os.getModel()).toString();
+
+        // The same model name, but the classes have changed
+        Model changed = new InterMineModelParser().process(new StringReader("<model name=\""
+                    + os.getModel().getName() + "\" package=\"org.intermine.model.testmodel\">"
+                    + "<class name=\"Department\" is-interface=\"false\">"
+                    + "<attribute name=\"name\" type=\"java.lang.String\"/></class></model>"));
+        assertTrue(CompactObjectFormat.getFingerprint(os.getModel())
+                != CompactObjectFormat.getFingerprint(changed));
+        ObjectStoreDummyImpl changedOs = new ObjectStoreDummyImpl();
+        changedOs.setModel(changed);
+        try {
+            CompactObjectFormat.parse(compact, changedOs);
+            fail("Expected: IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith(
+                        "Compact object was written with a different model"));
+        }
+        assertEquals("Department1", ((Department) NotXmlParser.parse(compact, os)).getName());
+    }
+
+    public void testCompactSizeAndPerformance() throws Exception {
+        XmlBinding binding = new XmlBinding(os.getModel());
+        Collection<?> data = (Collection<?>) binding.unmarshal(getClass().getClassLoader()
+                .getResourceAsStream("testmodel_data.xml"));
+        int nextId = 1;
+        List<InterMineObject> objects = new ArrayList<InterMineObject>();
+        for (Object o : data) {
+            if (o instanceof InterMineObject) {
+                objects.add((InterMineObject) o);
+            }
+        }
+        for (InterMineObject o : objects) {
+            if (o.getId() == null) {
+                o.setId(new Integer(nextId++));
+            }
+        }
+        String[] notXml = new String[objects.size()];
+        String[] compact = new String[objects.size()];
+        long notXmlSize = 0;
+        long compactSize = 0;
+        for (int i = 0; i < notXml.length; i++) {
+            notXml[i] = NotXmlRenderer.render(objects.get(i)).toString();
+            compact[i] = CompactObjectFormat.render(objects.get(i), os.getModel()).toString();
+            notXmlSize += notXml[i].length();
+            compactSize += compact[i].length();
+            assertEquals(notXml[i], NotXmlRenderer.render(NotXmlParser.parse(compact[i], os))
+                    .toString());
+        }
+        System.out.println("testmodel data: " + objects.size() + " objects, NotXml "
+                + notXmlSize + " characters, compact " + compactSize + " characters ("
+                + (compactSize * 100 / notXmlSize) + "%)");
+        assertTrue(compactSize < notXmlSize);
+
+        int count = 500000;
+        for (int round = 0; round < 3; round++) {
+            long time = System.currentTimeMillis();
+            for (int i = 0; i < count; i++) {
+                NotXmlParser.parse(notXml[i % notXml.length], os);
+            }
+            long notXmlTime = System.currentTimeMillis() - time;
+            time = System.currentTimeMillis();
+            for (int i = 0; i < count; i++) {
+                NotXmlParser.parse(compact[i % compact.length], os);
+            }
+            long compactTime = System.currentTimeMillis() - time;
+            time = System.currentTimeMillis();
+            for (int i = 0; i < count; i++) {
+                objects.get(i % notXml.length).getoBJECT();
+            }
+            long renderNotXmlTime = System.currentTimeMillis() - time;
+            time = System.currentTimeMillis();
+            for (int i = 0; i < count; i++) {
+                CompactObjectFormat.render(objects.get(i % notXml.length), os.getModel());
+            }
+            long renderCompactTime = System.currentTimeMillis() - time;
+            System.out.println("Parsing " + count + " objects: NotXml took " + notXmlTime
+                    + " ms, compact took " + compactTime + " ms. Rendering: NotXml took "
+                    + renderNotXmlTime + " ms, compact took " + renderCompactTime + " ms");
+        }
+    }
+
+    public void testParsePerformance() throws Exception {
+        Employee e = new Employee();
+        e.setId(new Integer(1234));
+        e.setName("Employee with quite a long name to parse");
+        e.setAge(45);
+        e.setFullTime(true);
+        Department d = new Department();
+        d.setId(new Integer(5678));
+        e.setDepartment(d);
+        Types t = new Types();
+        t.setId(new Integer(99));
+        t.setName("Types");
+        t.setDoubleObjType(new Double(1.5));
+        t.setLongType(1234567890123L);
+        t.setDateObjType(new Date(100000));
+        t.setStringObjType("A string");
+        String[] notXml = new String[] {NotXmlRenderer.render(e).toString(),
+            NotXmlRenderer.render(t).toString()};
+        int count = 300000;
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        for (int round = 0; round < 3; round++) {
+            long allocated = allocatedBytes(threads, threadId);
+            long time = System.currentTimeMillis();
+            for (int i = 0; i < count; i++) {
+                // This is how NotXml used to be parsed: split into an array, then handed to the
+                // generated setoBJECT method
+                String[] a = NotXmlParser.SPLITTER.split(notXml[i % 2]);
+                if (i % 2 == 0) {
+                    new Employee().setoBJECT(a, os);
+                } else {
+                    new Types().setoBJECT(a, os);
+                }
+            }
+            long splitTime = System.currentTimeMillis() - time;
+            long splitAllocated = allocatedBytes(threads, threadId) - allocated;
+            allocated = allocatedBytes(threads, threadId);
+            time = System.currentTimeMillis();
+            for (int i = 0; i < count; i++) {
+                NotXmlParser.parse(notXml[i % 2], os);
+            }
+            long parseTime = System.currentTimeMillis() - time;
+            long parseAllocated = allocatedBytes(threads, threadId) - allocated;
+            System.out.println("Parsing " + count + " objects: split and setoBJECT took "
+                    + splitTime + " ms (" + (splitAllocated / count) + " bytes per object), "
+                    + "NotXmlParser took " + parseTime + " ms (" + (parseAllocated / count)
+                    + " bytes per object)");
+        }
+    }
+
+    private static long allocatedBytes(ThreadMXBean threads, long threadId) {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(threadId);
+        }
+        return 0;
+    }
+
     public void testSplitPerformance() throws Exception {
         StringBuilder sb = new StringBuilder(49999997);
         for (int i = 0; i < 1000000; i++) {
@@ -23,7 +23,9 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 
 import junit.framework.Test;
@@ -41,17 +43,22 @@ import org.intermine.objectstore.ObjectStoreAbstractImplTestCase;
 import org.intermine.objectstore.ObjectStoreException;
 import org.intermine.objectstore.ObjectStoreFactory;
 import org.intermine.objectstore.ObjectStoreQueriesTestCase;
+import org.intermine.objectstore.cache.ObjectCache;
+import org.intermine.objectstore.cache.SoftObjectCache;
+import org.intermine.objectstore.cache.StripedObjectCache;
 import org.intermine.objectstore.query.BagConstraint;
 import org.intermine.objectstore.query.ClassConstraint;
 import org.intermine.objectstore.query.ConstraintOp;
 import org.intermine.objectstore.query.ConstraintSet;
 import org.intermine.objectstore.query.ContainsConstraint;
 import org.intermine.objectstore.query.ObjectStoreBag;
+import org.intermine.objectstore.query.OrderDescending;
 import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.QueryClass;
 import org.intermine.objectstore.query.QueryCloner;
 import org.intermine.objectstore.query.QueryCollectionReference;
 import org.intermine.objectstore.query.QueryField;
+import org.intermine.objectstore.query.QueryFunction;
 import org.intermine.objectstore.query.QueryValue;
 import org.intermine.objectstore.query.Results;
 import org.intermine.objectstore.query.ResultsRow;
@@ -267,6 +274,255 @@ public class ObjectStoreInterMineImplTest extends ObjectStoreAbstractImplTestCas
         }
     }*/
 
+    public void testKeysetPagination() throws Exception {
+        Employee nullEmployee = new Employee();
+        nullEmployee.setAge(26);
+        nullEmployee.setName(null);
+        ObjectStoreInterMineImpl osii = (ObjectStoreInterMineImpl) os;
+        try {
+            storeDataWriter.store(nullEmployee);
+            Query q = new Query();
+            QueryClass qc = new QueryClass(Employee.class);
+            q.addFrom(qc);
+            q.addToSelect(qc);
+            q.addToOrderBy(new QueryField(qc, "name"));
+            Query qDesc = new Query();
+            QueryClass qcDesc = new QueryClass(Employee.class);
+            qDesc.addFrom(qcDesc);
+            qDesc.addToSelect(qcDesc);
+            qDesc.addToOrderBy(new OrderDescending(new QueryField(qcDesc, "name")));
+            for (Query query : Arrays.asList(q, qDesc)) {
+                osii.setKeysetPagination(false);
+                SingletonResults expected = new SingletonResults(QueryCloner.cloneQuery(query),
+                        os, ObjectStore.SEQUENCE_IGNORE);
+                expected.setBatchSize(2);
+                List<Object> expectedList = new ArrayList<Object>(expected);
+                osii.setKeysetPagination(true);
+                Query keysetQuery = QueryCloner.cloneQuery(query);
+                assertTrue(osii.getKeysetPaginationState().isSuitable(keysetQuery));
+                SingletonResults got = new SingletonResults(keysetQuery, os,
+                        ObjectStore.SEQUENCE_IGNORE);
+                got.setBatchSize(2);
+                assertEquals(expectedList, new ArrayList<Object>(got));
+                assertTrue(osii.getKeysetPaginationState().getKeysetQueries() > 0);
+            }
+        } finally {
+            osii.setKeysetPagination(false);
+            storeDataWriter.delete(nullEmployee);
+        }
+    }
+
+    public void testKeysetPaginationUnsuitable() throws Exception {
+        ObjectStoreInterMineImpl osii = (ObjectStoreInterMineImpl) os;
+        try {
+            osii.setKeysetPagination(true);
+            KeysetPagination keyset = osii.getKeysetPaginationState();
+            // Non-distinct query on a field only - rows may be duplicated
+            Query q = new Query();
+            QueryClass qc = new QueryClass(Employee.class);
+            q.addFrom(qc);
+            q.addToSelect(new QueryField(qc, "age"));
+            q.setDistinct(false);
+            assertFalse(keyset.isSuitable(q));
+            q.setDistinct(true);
+            assertTrue(keyset.isSuitable(q));
+            // Aggregate queries
+            q = new Query();
+            qc = new QueryClass(Employee.class);
+            q.addFrom(qc);
+            q.addToSelect(new QueryFunction());
+            assertFalse(keyset.isSuitable(q));
+        } finally {
+            osii.setKeysetPagination(false);
+        }
+    }
+
+    /**
+     * Compares the time taken to fetch a batch of Employees at increasing depth using OFFSET and
+     * using keyset pagination.
+     */
+    public void testKeysetPaginationDepth() throws Exception {
+        ObjectStoreInterMineImpl osii = (ObjectStoreInterMineImpl) os;
+        Set<Employee> toDelete = new HashSet<Employee>();
+        int batchSize = 100;
+        int rows = 20000;
+        try {
+            storeDataWriter.beginTransaction();
+            for (int i = 0; i < rows; i++) {
+                Employee e = new Employee();
+                e.setName("Keyset_" + (i % 1000));
+                e.setAge(i);
+                storeDataWriter.store(e);
+                toDelete.add(e);
+            }
+            storeDataWriter.commitTransaction();
+            Connection c = null;
+            try {
+                c = ((ObjectStoreWriterInterMineImpl) storeDataWriter).getConnection();
+                c.createStatement().execute("ANALYSE");
+            } finally {
+                if (c != null) {
+                    ((ObjectStoreWriterInterMineImpl) storeDataWriter).releaseConnection(c);
+                }
+            }
+            Query q = new Query();
+            QueryClass qc = new QueryClass(Employee.class);
+            q.addFrom(qc);
+            q.addToSelect(qc);
+            q.addToOrderBy(new QueryField(qc, "name"));
+            q.setConstraint(new SimpleConstraint(new QueryField(qc, "name"),
+                        ConstraintOp.MATCHES, new QueryValue("Keyset_%")));
+            for (boolean useKeyset : new boolean[] {false, true}) {
+                osii.setKeysetPagination(useKeyset);
+                Query query = QueryCloner.cloneQuery(q);
+                int previousEnd = 0;
+                for (int depth = batchSize; depth < rows; depth *= 2) {
+                    // Walk to the requested depth as an export would, timing only the last batch
+                    for (int start = previousEnd; start < depth; start += batchSize) {
+                        osii.execute(query, start, batchSize, false, false,
+                                ObjectStore.SEQUENCE_IGNORE);
+                    }
+                    long startTime = System.currentTimeMillis();
+                    List<ResultsRow<Object>> batch = osii.execute(query, depth, batchSize, false,
+                            false, ObjectStore.SEQUENCE_IGNORE);
+                    long time = System.currentTimeMillis() - startTime;
+                    previousEnd = depth + batchSize;
+                    System.out.println((useKeyset ? "KEYSET" : "OFFSET") + " batch at row "
+                            + depth + " took " + time + " ms");
+                    assertEquals(batchSize, batch.size());
+                }
+            }
+        } finally {
+            osii.setKeysetPagination(false);
+            if (storeDataWriter.isInTransaction()) {
+                storeDataWriter.abortTransaction();
+            }
+            storeDataWriter.beginTransaction();
+            for (Employee e : toDelete) {
+                storeDataWriter.delete(e);
+            }
+            storeDataWriter.commitTransaction();
+        }
+    }
+
+    public void testExecuteStreaming() throws Exception {
+        ObjectStoreInterMineImpl osii = (ObjectStoreInterMineImpl) os;
+        Query q = new Query();
+        QueryClass qc = new QueryClass(Employee.class);
+        q.addFrom(qc);
+        q.addToSelect(qc);
+        q.addToSelect(new QueryField(qc, "name"));
+        List<Object> expected = new ArrayList<Object>(os.execute(q, 2, true, true, true));
+        StreamingResults streamed = osii.executeStreaming(q, 2, true);
+        List<Object> got = new ArrayList<Object>();
+        while (streamed.hasNext()) {
+            got.add(streamed.next());
+        }
+        assertEquals(expected, got);
+        assertEquals(expected.size(), streamed.getRowCount());
+        assertTrue(streamed.isClosed());
+
+        // Stopping early must release the connection
+        streamed = osii.executeStreaming(q, 2, true);
+        assertTrue(streamed.hasNext());
+        streamed.next();
+        assertFalse(streamed.isClosed());
+        streamed.close();
+        assertTrue(streamed.isClosed());
+        assertFalse(streamed.hasNext());
+    }
+
+    public void testConcurrentGetObjectById() throws Exception {
+        ObjectStoreInterMineImpl osii = (ObjectStoreInterMineImpl) os;
+        final List<Integer> ids = new ArrayList<Integer>();
+        for (Object o : data.values()) {
+            if (o instanceof InterMineObject) {
+                ids.add(((InterMineObject) o).getId());
+            }
+        }
+        final int threadCount = 32;
+        final int lookups = 20000;
+        ObjectCache original = osii.getObjectCache();
+        try {
+            for (ObjectCache cache : new ObjectCache[] {new SoftObjectCache("benchmark"),
+                    new StripedObjectCache("benchmark")}) {
+                osii.setObjectCache(cache);
+                final ObjectStore fos = osii;
+                final Throwable[] failure = new Throwable[1];
+                Thread[] threads = new Thread[threadCount];
+                long startTime = System.currentTimeMillis();
+                for (int t = 0; t < threadCount; t++) {
+                    final int seed = t;
+                    threads[t] = new Thread() {
+                        @Override
+                        public void run() {
+                            try {
+                                Random rand = new Random(seed);
+                                for (int i = 0; i < lookups; i++) {
+                                    Integer id = ids.get(rand.nextInt(ids.size()));
+                                    InterMineObject o = fos.getObjectById(id);
+                                    if ((o == null) || (!id.equals(o.getId()))) {
+                                        throw new IllegalStateException("Got " + o + " for id "
+                                                + id);
+                                    }
+                                }
+                            } catch (Throwable e) {
+                                synchronized (failure) {
+                                    failure[0] = e;
+                                }
+                            }
+                        }
+                    };
+                    threads[t].start();
+                }
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+                long time = System.currentTimeMillis() - startTime;
+                if (failure[0] != null) {
+                    throw new Exception(failure[0]);
+                }
+                System.out.println(cache.getClass().getSimpleName() + ": " + threadCount
+                        + " threads made " + (threadCount * lookups) + " getObjectById calls in "
+                        + time + " ms, " + osii.getObjectByIdLoader());
+            }
+            StripedObjectCache striped = (StripedObjectCache) osii.getObjectCache();
+            assertEquals(ids.size(), striped.size());
+            assertEquals(threadCount * lookups, striped.getHits() + striped.getMisses());
+            assertTrue(striped.getMisses() >= ids.size());
+        } finally {
+            osii.setObjectCache(original);
+        }
+    }
+
+    public void testObjectByIdBatching() throws Exception {
+        ObjectStoreInterMineImpl osii = (ObjectStoreInterMineImpl) os;
+        ObjectByIdLoader loader = osii.getObjectByIdLoader();
+        assertNotNull(loader);
+        List<Integer> ids = new ArrayList<Integer>();
+        for (Object o : data.values()) {
+            if ((o instanceof InterMineObject) && (ids.size() < 10)) {
+                ids.add(((InterMineObject) o).getId());
+            }
+        }
+        osii.flushObjectById();
+        long batches = loader.getBatchCount();
+        for (Integer id : ids) {
+            osii.prefetchObjectById(id);
+        }
+        assertEquals(batches, loader.getBatchCount());
+        assertNull(osii.pilferObjectById(ids.get(0)));
+
+        // Looking up one prefetched object fetches all of them in the same query
+        InterMineObject o = osii.getObjectById(ids.get(0));
+        assertEquals(ids.get(0), o.getId());
+        assertEquals(batches + 1, loader.getBatchCount());
+        for (Integer id : ids) {
+            assertNotNull(osii.pilferObjectById(id));
+        }
+        assertTrue(loader.getAverageBatchSize() > 1.0);
+    }
+
     public void testPrecompute() throws Exception {
         Query q = new Query();
         QueryClass qc1 = new QueryClass(Department.class);
@@ -0,0 +1,127 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.intermine.sql.precompute.PrecomputedTable;
+import org.intermine.sql.query.Query;
+
+/**
+ * Tests for PrecomputeAdvisor that do not need a database.
+ */
+public class PrecomputeAdvisorTest extends TestCase
+{
+    private PrecomputeAdvisor advisor;
+
+    public PrecomputeAdvisorTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        List<PrecomputedTable> tables = new ArrayList<PrecomputedTable>();
+        tables.add(table("precomp_1", "template"));
+        tables.add(table("precomp_2", PrecomputeAdvisor.CATEGORY));
+        tables.add(table("precomp_3", PrecomputeAdvisor.CATEGORY));
+        advisor = new PrecomputeAdvisor(null, tables);
+    }
+
+    private static PrecomputedTable table(String name, String category) {
+        String sql = "SELECT a.id AS a FROM " + name + "_source AS a";
+        return new PrecomputedTable(new Query(sql), sql, name, category, null);
+    }
+
+    public void testParse() throws Exception {
+        QueryLogEntry entry = QueryLogEntry.parse("EXECUTE\toptimise: 12\testimated: 300"
+                + "\texecute: 450\tpermitted: 200\tconvert: 3\tSELECT a1_ FROM Employee AS a1_"
+                + "\tSELECT a1_.OBJECT AS a1_ FROM Employee AS a1_");
+        assertEquals(12, entry.getOptimise());
+        assertEquals(450, entry.getExecute());
+        assertEquals("SELECT a1_ FROM Employee AS a1_", entry.getIql());
+        assertEquals("SELECT a1_.OBJECT AS a1_ FROM Employee AS a1_", entry.getSql());
+        assertNull(QueryLogEntry.parse("Something else"));
+        assertNull(QueryLogEntry.parse("EXECUTE\toptimise: x\ta\tb\tc\td\te\tf"));
+    }
+
+    public void testReadFileKeepsLatest() throws Exception {
+        File log = File.createTempFile("executelog", ".txt");
+        try {
+            FileWriter writer = new FileWriter(log);
+            for (int i = 0; i < 5; i++) {
+                writer.write("EXECUTE\toptimise: " + i + "\testimated: 1\texecute: 1"
+                        + "\tpermitted: 1\tconvert: 1\tq" + i + "\tsql" + i + "\n");
+            }
+            writer.close();
+            List<QueryLogEntry> entries = QueryLogEntry.readFile(log.getPath(), 2);
+            assertEquals(2, entries.size());
+            assertEquals("q3", entries.get(0).getIql());
+            assertEquals("q4", entries.get(1).getIql());
+        } finally {
+            log.delete();
+        }
+    }
+
+    public void testUsage() throws Exception {
+        advisor.add(new QueryLogEntry("q1", "SELECT P1.a FROM precomp_1 AS P1", 1, 100));
+        advisor.add(new QueryLogEntry("q1", "SELECT P1.a FROM precomp_1 AS P1", 1, 50));
+        advisor.add(new QueryLogEntry("q2", "SELECT P2.a FROM PRECOMP_2 AS P2, precomp_10 AS x",
+                    1, 30));
+        advisor.add(new QueryLogEntry("q3", "SELECT a.id FROM employee AS a", 1, 1000));
+        List<PrecomputeAdvisor.TableUsage> usage = advisor.getUsage();
+        assertEquals(3, usage.size());
+        assertEquals("precomp_3", usage.get(0).getName());
+        assertEquals(0, usage.get(0).getUses());
+        assertEquals("precomp_2", usage.get(1).getName());
+        assertEquals(1, usage.get(1).getUses());
+        assertEquals("precomp_1", usage.get(2).getName());
+        assertEquals(2, usage.get(2).getUses());
+        assertEquals(150, usage.get(2).getExecuteTime());
+        String report = advisor.report(null);
+        assertTrue(report, report.indexOf("precomp_1 (template): 2 uses, 150 ms executing")
+                != -1);
+    }
+
+    public void testPlan() throws Exception {
+        advisor.add(new QueryLogEntry("q1", "SELECT P1.a FROM precomp_1 AS P1", 1, 100));
+        long mb = 1048576L;
+        List<PrecomputeAdvisor.Candidate> candidates = new ArrayList<PrecomputeAdvisor.Candidate>();
+        // 10000 ms per MB
+        candidates.add(new PrecomputeAdvisor.Candidate(null, "big", 10, 100000, 10 * mb));
+        // 20000 ms per MB
+        candidates.add(new PrecomputeAdvisor.Candidate(null, "small", 20, 20000, mb));
+        // 500 ms per MB
+        candidates.add(new PrecomputeAdvisor.Candidate(null, "poor", 5, 1000, 2 * mb));
+        Collections.sort(candidates);
+        assertEquals("small", candidates.get(0).getIql());
+        assertEquals("big", candidates.get(1).getIql());
+
+        PrecomputeAdvisor.Plan plan = advisor.plan(candidates, 4 * mb, 10,
+                new HashSet<String>(Arrays.asList(PrecomputeAdvisor.CATEGORY)));
+        assertEquals(2, plan.getDrop().size());
+        assertEquals(2, plan.getCreate().size());
+        assertEquals("small", plan.getCreate().get(0).getIql());
+        assertEquals("poor", plan.getCreate().get(1).getIql());
+        assertEquals(3 * mb, plan.getSize());
+
+        plan = advisor.plan(candidates, 100 * mb, 1, new HashSet<String>());
+        assertEquals(0, plan.getDrop().size());
+        assertEquals(1, plan.getCreate().size());
+        assertEquals("small", plan.getCreate().get(0).getIql());
+    }
+}
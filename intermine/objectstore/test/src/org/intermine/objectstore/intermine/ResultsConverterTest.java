@@ -0,0 +1,202 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.intermine.metadata.ClassDescriptor;
+import org.intermine.metadata.Model;
+import org.intermine.model.testmodel.Department;
+import org.intermine.model.testmodel.Employee;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.QueryField;
+import org.intermine.objectstore.query.ResultsRow;
+
+/**
+ * Tests for ResultsConverter that do not need a database, using a fake ResultSet.
+ */
+public class ResultsConverterTest extends TestCase
+{
+    private ObjectStoreInterMineImpl os;
+    private Query q;
+
+    public ResultsConverterTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        Model model = Model.getInstanceByName("testmodel");
+        DatabaseSchema schema = new DatabaseSchema(model, new ArrayList<ClassDescriptor>(), false,
+                new HashSet<String>(), 1, false);
+        os = new ObjectStoreInterMineImpl(null, schema) {
+            @Override
+            public synchronized void shutdown() {
+                // There is no database to shut down
+            }
+        };
+        q = new Query();
+        QueryClass qc = new QueryClass(Employee.class);
+        q.addFrom(qc);
+        q.addToSelect(qc);
+        q.addToSelect(new QueryField(qc, "name"));
+    }
+
+    public void tearDown() throws Exception {
+        os.setConversionThreads(0);
+    }
+
+    /**
+     * Returns the NotXml of some employees with fairly long names.
+     */
+    private static String[] employees(int count, int nameLength) {
+        StringBuilder padding = new StringBuilder();
+        for (int i = 0; i < nameLength; i++) {
+            padding.append((char) ('a' + (i % 26)));
+        }
+        Department d = new Department();
+        d.setId(new Integer(1));
+        String[] retval = new String[count];
+        for (int i = 0; i < count; i++) {
+            Employee e = new Employee();
+            e.setId(new Integer(i + 1000));
+            e.setName("Employee " + i + " " + padding);
+            e.setAge(i % 70);
+            e.setFullTime((i % 2) == 0);
+            e.setDepartment(d);
+            retval[i] = NotXmlRenderer.render(e).toString();
+        }
+        return retval;
+    }
+
+    /**
+     * Returns a ResultSet that produces rows for the query in setUp() from some NotXml.
+     */
+    private static ResultSet resultSet(final String[] objects) {
+        int[] ids = new int[objects.length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = i + 1000;
+        }
+        return resultSet(objects, ids);
+    }
+
+    /**
+     * Returns a ResultSet that produces rows for the query in setUp() from some NotXml and the
+     * ids of the objects in it.
+     */
+    private static ResultSet resultSet(final String[] objects, final int[] ids) {
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(),
+                new Class<?>[] {ResultSet.class}, new InvocationHandler() {
+                    private int row = -1;
+
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        String name = method.getName();
+                        if ("next".equals(name)) {
+                            row++;
+                            return Boolean.valueOf(row < objects.length);
+                        } else if ("getInt".equals(name) && "a1_id".equals(args[0])) {
+                            return new Integer(ids[row]);
+                        } else if ("getString".equals(name) && "a1_".equals(args[0])) {
+                            return objects[row];
+                        } else if ("getObject".equals(name) && "a2_".equals(args[0])) {
+                            return "Name " + row;
+                        }
+                        throw new UnsupportedOperationException(name + " " + args[0]);
+                    }
+                });
+    }
+
+    private List<ResultsRow<Object>> convert(String[] objects) throws ObjectStoreException {
+        os.flushObjectById();
+        return ResultsConverter.convert(resultSet(objects), q, os, null, null, false,
+                new ExtraQueryTime(), null, null);
+    }
+
+    public void testParallelConvert() throws Exception {
+        String[] objects = employees(2000, 100);
+        List<ResultsRow<Object>> serial = convert(objects);
+        os.setConversionThreads(4);
+        List<ResultsRow<Object>> parallel = convert(objects);
+        assertEquals(objects.length, parallel.size());
+        for (int i = 0; i < objects.length; i++) {
+            Employee e = (Employee) parallel.get(i).get(0);
+            assertEquals(new Integer(i + 1000), e.getId());
+            assertEquals(((Employee) serial.get(i).get(0)).getName(), e.getName());
+            assertEquals("Name " + i, parallel.get(i).get(1));
+            assertSame(e, os.pilferObjectById(e.getId()));
+        }
+    }
+
+    public void testParallelConvertRepeatedObjects() throws Exception {
+        String[] objects = employees(1000, 10);
+        int[] ids = new int[objects.length];
+        for (int i = 0; i < ids.length; i++) {
+            // every object appears twice, the second time in a later chunk
+            ids[i] = (i % 500) + 1000;
+            objects[i] = objects[i % 500];
+        }
+        os.setConversionThreads(4);
+        os.flushObjectById();
+        List<ResultsRow<Object>> rows = ResultsConverter.convert(resultSet(objects, ids), q, os,
+                null, null, false, new ExtraQueryTime(), null, null);
+        for (int i = 0; i < 500; i++) {
+            Employee e = (Employee) rows.get(i).get(0);
+            assertEquals(new Integer(i + 1000), e.getId());
+            assertSame(e, rows.get(i + 500).get(0));
+        }
+    }
+
+    public void testParallelConvertFailure() throws Exception {
+        String[] objects = employees(1000, 10);
+        objects[600] = NotXmlParser.DELIM + "org.intermine.model.testmodel.NoSuchClass";
+        os.setConversionThreads(2);
+        try {
+            convert(objects);
+            fail("Expected an exception");
+        } catch (ObjectStoreException e) {
+            assertTrue(e.getMessage(), e.getMessage().indexOf("NoSuchClass") != -1);
+        }
+    }
+
+    public void testConversionPerformance() throws Exception {
+        int[] batchSizes = new int[] {100, 1000, 10000};
+        int[] threadCounts = new int[] {0, 1, 2, 4, 8};
+        for (int batchSize : batchSizes) {
+            String[] objects = employees(batchSize, 1000);
+            int repeats = 200000 / batchSize;
+            StringBuilder line = new StringBuilder("Batch size " + batchSize + ":");
+            for (int threads : threadCounts) {
+                os.setConversionThreads(threads);
+                // Warm up
+                for (int i = 0; i < repeats / 4 + 1; i++) {
+                    convert(objects);
+                }
+                long time = System.nanoTime();
+                for (int i = 0; i < repeats; i++) {
+                    convert(objects);
+                }
+                time = System.nanoTime() - time;
+                line.append(" ").append(threads).append(" threads ")
+                    .append((time / repeats) / 1000).append(" us/batch,");
+            }
+            System.out.println(line);
+        }
+    }
+}
@@ -10,8 +10,14 @@ package org.intermine.sql.precompute;
  *
  */
 
+import java.util.ArrayList;
+import java.util.List;
+
 import junit.framework.TestCase;
 
+import org.intermine.sql.Database;
+import org.intermine.sql.DatabaseFactory;
+
 public class OptimiserCacheTest extends TestCase
 {
     public OptimiserCacheTest(String arg1) {
@@ -28,4 +34,95 @@ public class OptimiserCacheTest extends TestCase
         assertNull(cache.lookup("original1", 10));
         assertNull(cache.lookup("somethingelse", 1000));
     }
+
+    public void testCostAwareEviction() throws Exception {
+        OptimiserCache cache = new OptimiserCache(4, 1);
+        cache.addCacheLine("expensive", "optimisedExpensive", 1000, 5000);
+        for (int i = 0; i < 20; i++) {
+            cache.addCacheLine("cheap" + i, "optimisedCheap" + i, 1000, 10);
+        }
+        assertEquals(4, cache.getSize());
+        assertEquals(17, cache.getEvictions());
+        assertEquals("optimisedExpensive", cache.lookup("expensive", 1000));
+        assertEquals("optimisedCheap19", cache.lookup("cheap19", 1000));
+        assertNull(cache.lookup("cheap0", 1000));
+    }
+
+    public void testSameLimitReplaced() throws Exception {
+        OptimiserCache cache = new OptimiserCache();
+        cache.addCacheLine("original1", "optimised1_1", 1000);
+        cache.addCacheLine("EXPLAIN original1", "EXPLAIN optimised1_2", 1000);
+        assertEquals("optimised1_2", cache.lookup("original1", 1000));
+        assertEquals("EXPLAIN optimised1_2", cache.lookup("EXPLAIN original1", 1000));
+        assertEquals(1, cache.getSize());
+    }
+
+    public void testStatistics() throws Exception {
+        OptimiserCache cache = new OptimiserCache();
+        cache.addCacheLine("original1", "optimised1", 1000, 30);
+        cache.addCacheLine("original2", "optimised2", 1000, 50);
+        cache.lookup("original1", 1000);
+        cache.lookup("original2", 1000);
+        cache.lookup("original2", 10);
+        cache.lookup("original3", 1000);
+        assertEquals(4, cache.getLookups());
+        assertEquals(2, cache.getHits());
+        assertEquals(0.5, cache.getHitRatio(), 0.0001);
+        assertEquals(80, cache.getTimeSaved());
+        cache.flush();
+        assertEquals(0, cache.getSize());
+        assertNull(cache.lookup("original1", 1000));
+    }
+
+    public void testConcurrentAccess() throws Exception {
+        final OptimiserCache cache = new OptimiserCache(500, 16);
+        final List<Throwable> failures = new ArrayList<Throwable>();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            final int threadNo = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 20000; i++) {
+                            int q = (i * 31 + threadNo) % 1000;
+                            String optimised = cache.lookup("original" + q, 1000);
+                            if (optimised == null) {
+                                cache.addCacheLine("original" + q, "optimised" + q, 1000, q);
+                            } else if (!optimised.equals("optimised" + q)) {
+                                throw new AssertionError("Wrong line for " + q + ": " + optimised);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        synchronized (failures) {
+                            failures.add(e);
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(failures.toString(), 0, failures.size());
+        assertTrue(cache.getSize() <= 500);
+        assertEquals(8 * 20000, cache.getLookups());
+        assertTrue(cache.getHits() > 0);
+    }
+
+    public void testDumpAndLoad() throws Exception {
+        Database db = DatabaseFactory.getDatabase("db.unittest");
+        OptimiserCache cache = new OptimiserCache();
+        cache.addCacheLine("original1", "optimised1_1", 1000, 20);
+        cache.addCacheLine("original1", "optimised1_2", 16000, 40);
+        cache.addCacheLine("original2", "optimised2", 1000, 60);
+        cache.dump(db);
+        OptimiserCache loaded = new OptimiserCache(2, 1);
+        assertEquals(2, loaded.load(db));
+        assertEquals("optimised2", loaded.lookup("original2", 1000));
+        assertEquals("optimised1_2", loaded.lookup("original1", 16000));
+        assertNull(loaded.lookup("original1", 1000));
+        assertEquals(100, loaded.getTimeSaved());
+    }
 }
@@ -0,0 +1,205 @@
+package org.intermine.sql.precompute;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import junit.framework.TestCase;
+
+import org.intermine.sql.Database;
+import org.intermine.sql.query.Constant;
+import org.intermine.sql.query.Constraint;
+import org.intermine.sql.query.ExplainResult;
+import org.intermine.sql.query.Field;
+import org.intermine.sql.query.Query;
+import org.intermine.sql.query.SelectValue;
+import org.intermine.sql.query.Table;
+
+public class ParallelBestQueryExplainerTest extends TestCase
+{
+    private Query q1, q2;
+    private ExecutorService pool;
+
+    public ParallelBestQueryExplainerTest(String arg1) {
+        super(arg1);
+    }
+
+    public void setUp() {
+        q1 = new Query();
+        Table t = new Table("mytable");
+        Constant c = new Constant("1");
+        Field f = new Field("a", t);
+        q1.addFrom(t);
+        q1.addSelect(new SelectValue(f, null));
+        q1.addWhere(new Constraint(f, Constraint.EQ, c));
+
+        q2 = new Query();
+        Table t1 = new Table("mytable");
+        Table t2 = new Table("mytable");
+        Field f1 = new Field("a", t1);
+        Field f2 = new Field("b", t2);
+        q2.addFrom(t1);
+        q2.addFrom(t2);
+        q2.addSelect(new SelectValue(f1, null));
+        q2.addWhere(new Constraint(f1, Constraint.EQ, c));
+        q2.addWhere(new Constraint(f2, Constraint.EQ, c));
+
+        pool = Executors.newFixedThreadPool(4);
+    }
+
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Returns an explainer whose explains take the given time, and fail for the given query.
+     */
+    private ParallelBestQueryExplainer explainer(final long explainTime, final Query failFor,
+            int parallelism, long timeLimit) {
+        return new ParallelBestQueryExplainer(null, pool, parallelism, timeLimit) {
+            @Override
+            protected ExplainResult getExplainResult(Query q) throws SQLException {
+                try {
+                    Thread.sleep(explainTime);
+                } catch (InterruptedException e) {
+                    throw new SQLException("Interrupted");
+                }
+                if (q == failFor) {
+                    throw new SQLException("Explain failed");
+                }
+                return super.getExplainResult(q);
+            }
+        };
+    }
+
+    public void testNullBestQueryForNoneAdded() throws Exception {
+        ParallelBestQueryExplainer bq = explainer(0, null, 2, -1);
+        assertNull(bq.getBestQuery());
+        assertNull(bq.getBestQueryString());
+        assertNull(bq.getBestExplainResult());
+    }
+
+    public void testReturnBest() throws Exception {
+        ParallelBestQueryExplainer bq = explainer(0, null, 2, -1);
+        bq.add(q2);
+        bq.add(q1);
+        assertEquals(q1, bq.getBestQuery());
+        assertEquals(600, bq.getBestExplainResult().getTime());
+        assertEquals(2, bq.getExplainedCount());
+    }
+
+    public void testExplainsRunTogether() throws Exception {
+        ParallelBestQueryExplainer bq = explainer(200, null, 4, -1);
+        long start = System.currentTimeMillis();
+        bq.add(q2);
+        bq.add(q2);
+        bq.add(q2);
+        bq.add(q1);
+        assertEquals(q1, bq.getBestQuery());
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue("Took " + elapsed + " ms", elapsed < 600);
+        assertEquals(4, bq.getExplainedCount());
+    }
+
+    public void testDeadline() throws Exception {
+        ParallelBestQueryExplainer bq = explainer(1000, null, 1, 100);
+        long start = System.currentTimeMillis();
+        bq.add(q2);
+        try {
+            bq.add(q1);
+            bq.add(q1);
+            fail("Expected: BestQueryException");
+        } catch (BestQueryException e) {
+            // Expected
+        }
+        // Nothing has been explained yet, so the first query is returned unexplained
+        assertEquals(q2, bq.getBestQuery());
+        assertNull(bq.getBestExplainResult());
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue("Took " + elapsed + " ms", elapsed < 900);
+    }
+
+    public void testExplainFailure() throws Exception {
+        ParallelBestQueryExplainer bq = explainer(10, q1, 2, -1);
+        bq.add(q2);
+        bq.add(q1);
+        try {
+            bq.getBestQuery();
+            fail("Expected: SQLException");
+        } catch (SQLException e) {
+            assertEquals("Explain failed", e.getMessage());
+        }
+    }
+
+    public void testExplainConnectionsAreBoundedAndKept() throws Exception {
+        final List<Connection> opened = new ArrayList<Connection>();
+        final List<Connection> closed = new ArrayList<Connection>();
+        Database db = new Database() {
+            @Override
+            public Connection getConnection() {
+                Connection c = (Connection) Proxy.newProxyInstance(
+                        getClass().getClassLoader(), new Class<?>[] {Connection.class},
+                        new InvocationHandler() {
+                            public Object invoke(Object proxy, Method method, Object[] args) {
+                                if ("close".equals(method.getName())) {
+                                    closed.add((Connection) proxy);
+                                }
+                                return null;
+                            }
+                        });
+                opened.add(c);
+                return c;
+            }
+        };
+        final ParallelBestQueryExplainer.ExplainConnections connections
+            = new ParallelBestQueryExplainer.ExplainConnections(db);
+        connections.grow(2);
+        Connection c1 = connections.acquire();
+        Connection c2 = connections.acquire();
+        assertEquals(2, opened.size());
+
+        // A third explain waits for one of the connections to be released
+        Future<Connection> third = pool.submit(new Callable<Connection>() {
+            public Connection call() throws SQLException {
+                return connections.acquire();
+            }
+        });
+        try {
+            third.get(200, TimeUnit.MILLISECONDS);
+            fail("Expected: TimeoutException");
+        } catch (TimeoutException e) {
+            // Expected
+        }
+        connections.release(c1, true);
+        assertSame(c1, third.get(1000, TimeUnit.MILLISECONDS));
+        assertEquals(2, opened.size());
+
+        // A connection whose explain failed is closed, and replaced when next needed
+        connections.release(c2, false);
+        assertEquals(1, closed.size());
+        assertSame(c2, closed.get(0));
+        Connection c3 = connections.acquire();
+        assertEquals(3, opened.size());
+        assertSame(opened.get(2), c3);
+    }
+}
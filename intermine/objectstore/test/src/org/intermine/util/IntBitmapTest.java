@@ -0,0 +1,130 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+public class IntBitmapTest extends TestCase
+{
+    public IntBitmapTest(String arg1) {
+        super(arg1);
+    }
+
+    public void test() throws Exception {
+        IntBitmap bitmap = new IntBitmap();
+        assertTrue(bitmap.isEmpty());
+        assertTrue(bitmap.add(70000));
+        assertTrue(bitmap.add(4));
+        assertTrue(bitmap.add(-5));
+        assertFalse(bitmap.add(4));
+
+        assertTrue(bitmap.contains(4));
+        assertTrue(bitmap.contains(-5));
+        assertTrue(bitmap.contains(70000));
+        assertFalse(bitmap.contains(5));
+        assertFalse(bitmap.contains(4 + 65536));
+        assertEquals(3, bitmap.getCardinality());
+        assertEquals(Arrays.asList(-5, 4, 70000), bitmap.toList());
+    }
+
+    public void testOperations() throws Exception {
+        IntBitmap a = IntBitmap.of(Arrays.asList(1, 2, 3, 100000));
+        IntBitmap b = IntBitmap.of(Arrays.asList(3, 4, 100000, 200000));
+        assertEquals(Arrays.asList(1, 2, 3, 4, 100000, 200000), a.or(b).toList());
+        assertEquals(Arrays.asList(3, 100000), a.and(b).toList());
+        assertEquals(Arrays.asList(1, 2), a.andNot(b).toList());
+        assertEquals(Arrays.asList(1, 2, 4, 200000), a.xor(b).toList());
+        // the arguments are left alone
+        assertEquals(Arrays.asList(1, 2, 3, 100000), a.toList());
+        assertEquals(Arrays.asList(3, 4, 100000, 200000), b.toList());
+
+        IntBitmap c = IntBitmap.of(Arrays.asList(3, 5));
+        assertEquals(Arrays.asList(3), IntBitmap.and(Arrays.asList(a, b, c)).toList());
+        assertEquals(Arrays.asList(1, 2, 3, 4, 5, 100000, 200000),
+                IntBitmap.or(Arrays.asList(a, b, c)).toList());
+        assertTrue(IntBitmap.and(Arrays.<IntBitmap>asList()).isEmpty());
+    }
+
+    public void testDenseChunks() throws Exception {
+        // one chunk full enough to be a bitmap, and one sparse one
+        IntBitmap a = new IntBitmap();
+        for (int i = 0; i < 10000; i++) {
+            a.add(i * 3);
+        }
+        a.add(1 << 20);
+        IntBitmap b = new IntBitmap();
+        for (int i = 0; i < 10000; i++) {
+            b.add(i * 2);
+        }
+        assertEquals(10001, a.getCardinality());
+        assertTrue(a.contains(29997));
+        assertFalse(a.contains(29998));
+        // multiples of 6 below 20000
+        assertEquals(3334, a.and(b).getCardinality());
+        assertEquals(10001 + 10000 - 3334, a.or(b).getCardinality());
+        assertEquals(10001 - 3334, a.andNot(b).getCardinality());
+        assertEquals(10001 + 10000 - 2 * 3334, a.xor(b).getCardinality());
+        // a dense chunk shrinks back to an array
+        assertEquals(IntBitmap.of(Arrays.asList(0, 6, 12)),
+                a.and(IntBitmap.of(Arrays.asList(0, 6, 12, 13))));
+        assertTrue(a.getSizeInBytes() < 10001 * 4);
+    }
+
+    public void testRandom() throws Exception {
+        Random random = new Random(42);
+        for (int round = 0; round < 50; round++) {
+            Set<Integer> setA = new TreeSet<Integer>();
+            Set<Integer> setB = new TreeSet<Integer>();
+            IntBitmap a = new IntBitmap();
+            IntBitmap b = new IntBitmap();
+            // ids clustered around a few bases, dense enough in places to make bitmap chunks
+            int spread = 1 << (8 + random.nextInt(12));
+            for (int i = 0; i < 20000; i++) {
+                int value = (random.nextInt(4) - 1) * 1000000 + random.nextInt(spread);
+                setA.add(value);
+                a.add(value);
+                value = (random.nextInt(4) - 1) * 1000000 + random.nextInt(spread);
+                setB.add(value);
+                b.add(value);
+            }
+            assertEquals(setA.size(), a.getCardinality());
+            assertEquals(expected(setA), a.toList());
+
+            Set<Integer> or = new TreeSet<Integer>(setA);
+            or.addAll(setB);
+            Set<Integer> and = new TreeSet<Integer>(setA);
+            and.retainAll(setB);
+            Set<Integer> andNot = new TreeSet<Integer>(setA);
+            andNot.removeAll(setB);
+            Set<Integer> xor = new TreeSet<Integer>(or);
+            xor.removeAll(and);
+
+            assertEquals(expected(or), a.or(b).toList());
+            assertEquals(expected(and), a.and(b).toList());
+            assertEquals(expected(andNot), a.andNot(b).toList());
+            assertEquals(expected(xor), a.xor(b).toList());
+            for (int i = 0; i < 1000; i++) {
+                int value = (random.nextInt(4) - 1) * 1000000 + random.nextInt(spread);
+                assertEquals(setA.contains(value), a.contains(value));
+            }
+        }
+    }
+
+    private static List<Integer> expected(Set<Integer> set) {
+        return Arrays.asList(set.toArray(new Integer[0]));
+    }
+}
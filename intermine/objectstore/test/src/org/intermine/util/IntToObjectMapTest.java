@@ -0,0 +1,100 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2014 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class IntToObjectMapTest extends TestCase
+{
+    public IntToObjectMapTest(String arg1) {
+        super(arg1);
+    }
+
+    public void test() throws Exception {
+        IntToObjectMap<String> map = new IntToObjectMap<String>();
+        map.put(4, "six");
+        map.put(30000, "seven");
+        map.put(-5, null);
+
+        assertEquals("six", map.get(4));
+        assertEquals("seven", map.get(30000));
+        assertNull(map.get(0));
+        assertNull(map.get(-5));
+        assertTrue(map.containsKey(-5));
+        assertFalse(map.containsKey(0));
+        assertEquals(3, map.size());
+        assertEquals("{4 -> six, 30000 -> seven, -5 -> null}", map.toString());
+
+        assertEquals("six", map.remove(4));
+        assertNull(map.remove(4));
+        assertEquals("seven", map.put(30000, "eight"));
+        assertEquals(2, map.size());
+        assertEquals("{30000 -> eight, -5 -> null}", map.toString());
+
+        map.clear();
+        assertEquals(0, map.size());
+        assertTrue(map.isEmpty());
+        assertEquals("{}", map.toString());
+    }
+
+    public void testAccessOrder() throws Exception {
+        IntToObjectMap<String> map = new IntToObjectMap<String>(4, true);
+        map.put(1, "a");
+        map.put(2, "b");
+        map.put(3, "c");
+        assertEquals(1, map.eldestKey());
+        map.get(1);
+        assertEquals(2, map.eldestKey());
+        map.peek(2);
+        assertEquals(2, map.eldestKey());
+        map.put(2, "B");
+        assertEquals(3, map.eldestKey());
+        assertEquals("{3 -> c, 1 -> a, 2 -> B}", map.toString());
+
+        IntToObjectMap<String>.Cursor cursor = map.cursor();
+        assertEquals(3, cursor.next());
+        cursor.remove();
+        assertEquals(1, cursor.next());
+        assertEquals("a", cursor.value());
+        assertEquals(2, cursor.next());
+        assertEquals(2, cursor.key());
+        assertFalse(cursor.hasNext());
+        assertEquals("{1 -> a, 2 -> B}", map.toString());
+    }
+
+    public void testAgainstHashMap() throws Exception {
+        IntToObjectMap<Integer> map = new IntToObjectMap<Integer>(16, true);
+        Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+        Random random = new Random(42);
+        for (int i = 0; i < 200000; i++) {
+            int key = random.nextInt(5000) * 7919;
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(new Integer(key)), map.remove(key));
+            } else {
+                Integer value = new Integer(i);
+                assertEquals(expected.put(new Integer(key), value), map.put(key, value));
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        int count = 0;
+        IntToObjectMap<Integer>.Cursor cursor = map.cursor();
+        while (cursor.hasNext()) {
+            int key = cursor.next();
+            assertEquals(expected.get(new Integer(key)), cursor.value());
+            count++;
+        }
+        assertEquals(expected.size(), count);
+    }
+}
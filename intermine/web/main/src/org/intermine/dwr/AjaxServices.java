@@ -445,8 +445,8 @@ public class AjaxServices
             WebTable webTable = (SessionMethods.getResultsTable(session, tableName))
                                    .getWebTable();
             PathQuery pathQuery = webTable.getPathQuery();
-            List<ResultsRow> results = (List) webResultsExecutor.summariseQuery(pathQuery,
-                    summaryPath);
+            List<ResultsRow> results = (List) webResultsExecutor.summariseColumn(pathQuery,
+                    summaryPath, null, false);
 
             // Start the count of results
             Query countQuery = webResultsExecutor.makeSummaryQuery(pathQuery, summaryPath);
@@ -734,6 +734,26 @@ public class ReportObject
                 + "ms");
     }
 
+    /**
+     * Tell the ObjectStore about all the referenced objects, so they can be fetched in one go
+     * when the first of them is displayed, part of initialise()
+     */
+    private void prefetchReferences() {
+        for (FieldDescriptor fd : getClassDescriptor().getAllFieldDescriptors()) {
+            if (fd.isReference() && !nullRefsCols.contains(fd.getName())) {
+                try {
+                    Object proxyObject = object.getFieldProxy(fd.getName());
+                    if (proxyObject instanceof ProxyReference) {
+                        im.getObjectStore().prefetchObjectById(
+                                ((ProxyReference) proxyObject).getId());
+                    }
+                } catch (IllegalAccessException e) {
+                    // initialiseReference will report this
+                }
+            }
+        }
+    }
+
     /**
      * Resolve a Collection, part of initialise()
      * @param fd FieldDescriptor
@@ -809,6 +829,7 @@ public class ReportObject
                 .getNullReferencesAndCollections(getClassDescriptor().getName());
 
         Set<String> replacedFields = getReplacedFieldExprs();
+        prefetchReferences();
         for (FieldDescriptor fd : getClassDescriptor().getAllFieldDescriptors()) {
             // only continue if we have not included this object in an inline list
             if (!bagOfInlineListNames.containsKey(fd.getName())
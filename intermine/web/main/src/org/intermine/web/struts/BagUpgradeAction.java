@@ -64,7 +64,7 @@ public class BagUpgradeAction extends InterMineAction
         
         BagQueryRunner bagRunner = im.getBagQueryRunner();
         BagQueryUpgrade bagQueryUpgrade = new BagQueryUpgrade(bagRunner, savedBag);
-        Job job = IDResolver.getInstance().submit(bagQueryUpgrade);
+        Job job = IDResolver.getInstance().submit(profile.getUsername(), bagQueryUpgrade);
         session.setAttribute(WS_JOB_ID_KEY, job.getUid());
         
         request.setAttribute("newBagName", bagName);
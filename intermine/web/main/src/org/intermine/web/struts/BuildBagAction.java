@@ -16,6 +16,7 @@ import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
@@ -176,7 +177,16 @@ public class BuildBagAction extends InterMineAction
             }
         }
         WebJobInput input = new WebJobInput(type, list, buildBagForm);
-        Job job = IDResolver.getInstance().submit(bagRunner, input);
+        // anonymous uploads are shared out by session
+        String user = (profile == null || profile.getUsername() == null)
+            ? session.getId() : profile.getUsername();
+        Job job;
+        try {
+            job = IDResolver.getInstance().submit(user, bagRunner, input);
+        } catch (RejectedExecutionException e) {
+            recordError(new ActionMessage("bag.resolverBusy"), request);
+            return mapping.findForward("bags");
+        }
 
         session.setAttribute("idresolutionjobid", job.getUid());
         request.setAttribute("bagType", type);
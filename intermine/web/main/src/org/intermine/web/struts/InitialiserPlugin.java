@@ -49,14 +49,20 @@ import org.apache.struts.config.ModuleConfig;
 import org.apache.tools.ant.BuildException;
 import org.intermine.api.InterMineAPI;
 import org.intermine.api.LinkRedirectManager;
+import org.intermine.api.bag.BagBitmapCache;
 import org.intermine.api.bag.BagQueryConfig;
 import org.intermine.api.bag.BagQueryHelper;
+import org.intermine.api.bag.BagQueryIndex;
+import org.intermine.api.bag.BagQueryRunner;
 import org.intermine.api.config.ClassKeyHelper;
+import org.intermine.api.idresolution.IDResolver;
+import org.intermine.api.idresolution.JobScheduler;
 import org.intermine.api.profile.BagState;
 import org.intermine.api.profile.Profile;
 import org.intermine.api.profile.ProfileManager;
 import org.intermine.api.profile.TagManager;
 import org.intermine.api.profile.UserNotFoundException;
+import org.intermine.api.query.ColumnSummaryCache;
 import org.intermine.api.query.MainHelper;
 import org.intermine.api.search.GlobalRepository;
 import org.intermine.api.search.SearchRepository;
@@ -266,9 +272,76 @@ public class InitialiserPlugin implements PlugIn
         SessionMethods.setInterMineAPI(servletContext, im);
 
         InterMineContext.initilise(im, webProperties, webConfig);
+        loadBagQueryIndex(im, webProperties);
+        configureIdResolver(webProperties);
+        String bitmapCacheSize = webProperties.getProperty("bagBitmapCache.maxMegabytes");
+        if (bitmapCacheSize != null) {
+            BagBitmapCache.getInstance(os).setMaxBytes(
+                    Long.parseLong(bitmapCacheSize.trim()) * 1024 * 1024);
+        }
+        String summaryCacheEntries = webProperties.getProperty("columnSummaryCache.maxEntries");
+        if (summaryCacheEntries != null) {
+            ColumnSummaryCache.getInstance(os).setMaxEntries(
+                    Integer.parseInt(summaryCacheEntries.trim()));
+        }
+        String summaryCacheRows = webProperties.getProperty("columnSummaryCache.maxRows");
+        if (summaryCacheRows != null) {
+            ColumnSummaryCache.getInstance(os).setMaxRows(
+                    Integer.parseInt(summaryCacheRows.trim()));
+        }
         return im;
     }
 
+    /**
+     * Size the identifier resolution job pool from the idresolution.* web properties, if any of
+     * them are set.
+     */
+    private void configureIdResolver(Properties webProperties) {
+        String threads = webProperties.getProperty("idresolution.threads");
+        String maxQueued = webProperties.getProperty("idresolution.maxQueuedJobs");
+        String smallJobSize = webProperties.getProperty("idresolution.smallJobSize");
+        String ttlMinutes = webProperties.getProperty("idresolution.resultTimeToLiveMinutes");
+        if (threads == null && maxQueued == null && smallJobSize == null && ttlMinutes == null) {
+            return;
+        }
+        IDResolver.getInstance().configure(
+                threads == null ? JobScheduler.DEFAULT_THREADS : Integer.parseInt(threads.trim()),
+                maxQueued == null ? JobScheduler.DEFAULT_MAX_QUEUED
+                        : Integer.parseInt(maxQueued.trim()),
+                smallJobSize == null ? JobScheduler.DEFAULT_SMALL_JOB_SIZE
+                        : Integer.parseInt(smallJobSize.trim()),
+                ttlMinutes == null ? JobScheduler.DEFAULT_TIME_TO_LIVE
+                        : Long.parseLong(ttlMinutes.trim()) * 60 * 1000);
+    }
+
+    /**
+     * If bagQueryIndex.types is set, give the BagQueryRunner an index of the identifiers of
+     * those types and read it in the background.
+     */
+    private void loadBagQueryIndex(InterMineAPI im, Properties webProperties) {
+        String types = webProperties.getProperty("bagQueryIndex.types");
+        if (types == null || types.trim().length() == 0) {
+            return;
+        }
+        String maxEntries = webProperties.getProperty("bagQueryIndex.maxEntries");
+        final BagQueryRunner runner = im.getBagQueryRunner();
+        runner.setIndex(new BagQueryIndex(os, Arrays.asList(types.trim().split("\\s+")),
+                maxEntries == null ? BagQueryIndex.DEFAULT_MAX_ENTRIES
+                        : Integer.parseInt(maxEntries.trim())));
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    runner.buildIndex();
+                } catch (Exception e) {
+                    LOG.error("Could not build the bag query index", e);
+                }
+            }
+        }, "BagQueryIndex");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
     protected void verifyUserProfile(final ObjectStoreWriter userprofileOSW) throws ServletException {
         if (userprofileOSW != null) {
             //verify all table mapping classes exist in the userprofile db
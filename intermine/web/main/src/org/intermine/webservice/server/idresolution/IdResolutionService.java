@@ -15,6 +15,7 @@ import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.apache.commons.lang.builder.EqualsBuilder;
 import org.apache.commons.lang.builder.HashCodeBuilder;
@@ -26,6 +27,7 @@ import org.intermine.api.idresolution.JobInput;
 import org.intermine.webservice.server.core.JSONService;
 import org.intermine.webservice.server.exceptions.BadRequestException;
 import org.intermine.webservice.server.exceptions.InternalErrorException;
+import org.intermine.webservice.server.exceptions.ServiceException;
 import org.intermine.webservice.server.output.JSONFormatter;
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -55,7 +57,18 @@ public class IdResolutionService extends JSONService
 
         final BagQueryRunner runner = im.getBagQueryRunner();
 
-        Job job = IDResolver.getInstance().submit(runner, in);
+        // anonymous requests are shared out by address
+        String user = isAuthenticated()
+            ? getPermission().getProfile().getUsername() : request.getRemoteAddr();
+        Job job;
+        try {
+            job = IDResolver.getInstance().submit(user, runner, in);
+        } catch (RejectedExecutionException e) {
+            ServiceException se = new ServiceException("Too busy to resolve identifiers - "
+                    + "please try again later", e);
+            se.setHttpErrorCode(503); // Service Unavailable.
+            throw se;
+        }
 
         addResultValue(job.getUid(), false);
     }
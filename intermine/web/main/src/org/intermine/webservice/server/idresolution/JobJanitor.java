@@ -1,20 +1,17 @@
 package org.intermine.webservice.server.idresolution;
 
-import java.util.Date;
-import java.util.Iterator;
-import java.util.UUID;
-
-import org.apache.commons.lang.time.DateUtils;
+import org.apache.log4j.Logger;
 import org.intermine.api.idresolution.IDResolver;
-import org.intermine.api.idresolution.Job;
 
 /**
- * Wake up once a minute and evict old completed jobs.
+ * Wake up once a minute, evict completed jobs that have outlived their time to live and log the
+ * state of the job queue.
  * @author Alex Kalderimis
  *
  */
 public class JobJanitor implements Runnable {
 
+    private static final Logger LOG = Logger.getLogger(JobJanitor.class);
     private static final long PERIOD = 60 * 1000;
     private volatile boolean canContinue = true;
 
@@ -22,24 +19,9 @@ public class JobJanitor implements Runnable {
     public void run() {
         IDResolver idresolver = IDResolver.getInstance();
         while (canContinue) {
-            Iterator<Job> jobs = idresolver.JOBS.values().iterator();
-            Date cutOff = DateUtils.addHours(new Date(), -3);
-            while (jobs.hasNext()) {
-                if (Thread.interrupted()) {
-                    return;
-                }
-                Job job = jobs.next();
-                switch (job.getStatus()) {
-                    case ERROR:
-                    case SUCCESS:
-                        Date startedAt = job.getStatedAt();
-                        if (startedAt != null && startedAt.before(cutOff)) {
-                            jobs.remove();
-                        }
-                    case PENDING:
-                    case RUNNING:
-                        continue;
-                }
+            int evicted = idresolver.evictExpiredJobs();
+            if (evicted > 0 || LOG.isDebugEnabled()) {
+                LOG.info("Evicted " + evicted + " finished jobs. " + idresolver.getMetrics());
             }
 
             try {
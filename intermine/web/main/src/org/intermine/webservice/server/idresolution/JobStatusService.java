@@ -14,6 +14,7 @@ import org.intermine.api.InterMineAPI;
 import org.intermine.api.idresolution.IDResolver;
 import org.intermine.api.idresolution.Job;
 import org.intermine.api.idresolution.Job.JobStatus;
+import org.intermine.api.idresolution.JobProgress;
 import org.intermine.webservice.server.core.JSONService;
 import org.intermine.webservice.server.exceptions.ResourceNotFoundException;
 
@@ -34,6 +35,12 @@ public class JobStatusService extends JSONService
             if (job.getStatus() == JobStatus.ERROR) {
                 this.addOutputInfo("message", job.getError().getMessage());
             }
+            JobProgress progress = job.getProgress();
+            addOutputInfo("stagesDone", String.valueOf(progress.getStagesDone()));
+            addOutputInfo("stages", String.valueOf(progress.getStages()));
+            addOutputInfo("matches", String.valueOf(progress.getMatchedIds().size()));
+            addOutputInfo("issues", String.valueOf(progress.getIssueCount()));
+            addOutputInfo("unresolved", String.valueOf(progress.getUnresolvedCount()));
             addResultValue(job.getStatus().name(), false);
         } else {
             throw new ResourceNotFoundException("No such job: " + jobId);
@@ -9,7 +9,6 @@ import org.apache.log4j.Logger;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.ObjectUtils;
 import org.intermine.api.results.ResultElement;
-import org.intermine.objectstore.query.Results;
 
 public class FilteringResultIterator implements Iterator<List<ResultElement>> {
     
@@ -21,13 +20,13 @@ public class FilteringResultIterator implements Iterator<List<ResultElement>> {
     private String filterTerm = null;
     private List<ResultElement> nextRow = null;
     
-    private final Iterator<Object> subIter;
+    private final Iterator<?> subIter;
     
-    public FilteringResultIterator(Results res) {
+    public FilteringResultIterator(List<?> res) {
         this.subIter = res.iterator();
     }
     
-    public FilteringResultIterator(Results res, int start, int size, String filterTerm) {
+    public FilteringResultIterator(List<?> res, int start, int size, String filterTerm) {
         this(res);
         this.start = start;
         this.end = start + size;
@@ -87,6 +87,8 @@ public class QueryResultService extends AbstractQueryService
     private static final Logger LOG = Logger.getLogger(QueryResultService.class);
     /** Batch size to use **/
     public static final int BATCH_SIZE = 5000;
+    /** Web property that switches on cursor-based streaming of large exports. **/
+    public static final String STREAMING_PROPERTY = "webservice.query.streaming";
     protected Map<String, Object> attributes = new HashMap<String, Object>();
 
     /**
@@ -306,6 +308,7 @@ public class QueryResultService extends AbstractQueryService
 
     private void runResults(PathQuery pq,  int firstResult, int maxResults) {
         boolean canGoFaster = false;
+        boolean streaming = false;
         Iterator<List<ResultElement>> it;
         String summaryPath = getOptionalParameter("summaryPath");
         if (isNotBlank(summaryPath)) {
@@ -313,11 +316,15 @@ public class QueryResultService extends AbstractQueryService
             boolean occurancesOnly = (uniqs == null) || (uniqs < 2);
             try {
                 String filterTerm = getOptionalParameter("filterTerm");
-                Results r = executor.summariseQuery(pq, summaryPath, filterTerm, occurancesOnly);
-                try {
-                    r.range(0,  0); // causes query to be strictly evaluated, and errors to surface here.
-                } catch (IndexOutOfBoundsException e) {
-                    // Ignore, it just means it's empty.
+                List<?> r = executor.summariseColumn(pq, summaryPath, filterTerm,
+                        occurancesOnly);
+                if (r instanceof Results) {
+                    try {
+                        // causes query to be strictly evaluated, and errors to surface here.
+                        ((Results) r).range(0,  0);
+                    } catch (IndexOutOfBoundsException e) {
+                        // Ignore, it just means it's empty.
+                    }
                 }
                 if (filterTerm != null) {
                     attributes.put("filteredCount", r.size());
@@ -331,9 +338,20 @@ public class QueryResultService extends AbstractQueryService
         } else {
             // Going faster means writing to the DB. Don't do this if it is pointless.
             canGoFaster = firstResult > BATCH_SIZE || maxResults > BATCH_SIZE;
+            // Large exports written straight out to the client can be read through one
+            // database cursor instead of one query per batch.
+            streaming = canGoFaster && (output instanceof StreamedOutput)
+                && "true".equals(webProperties.getProperty(STREAMING_PROPERTY));
+            if (streaming) {
+                canGoFaster = false;
+            }
             executor.setBatchSize(BATCH_SIZE);
             try {
-                it = executor.execute(pq, firstResult, maxResults);
+                if (streaming) {
+                    it = executor.executeStreaming(pq, firstResult, maxResults);
+                } else {
+                    it = executor.execute(pq, firstResult, maxResults);
+                }
             } catch (ObjectStoreQueryDurationException e) {
                 throw new ServiceException("Query would take too long to run");
             } catch (ObjectStoreException e) {
@@ -342,17 +360,23 @@ public class QueryResultService extends AbstractQueryService
         }
 
         ResultProcessor processor = makeResultProcessor();
-        if (it.hasNext()) { // Prime the batch fetching pumps
-            try {
-                if (canGoFaster) {
-                    ((ExportResultsIterator) it).goFaster();
-                }
-                processor.write(it, output);
-            } finally {
-                if (canGoFaster) {
-                    ((ExportResultsIterator) it).releaseGoFaster();
+        try {
+            if (it.hasNext()) { // Prime the batch fetching pumps
+                try {
+                    if (canGoFaster) {
+                        ((ExportResultsIterator) it).goFaster();
+                    }
+                    processor.write(it, output);
+                } finally {
+                    if (canGoFaster) {
+                        ((ExportResultsIterator) it).releaseGoFaster();
+                    }
                 }
             }
+        } finally {
+            if (streaming) {
+                ((ExportResultsIterator) it).close();
+            }
         }
     }
 